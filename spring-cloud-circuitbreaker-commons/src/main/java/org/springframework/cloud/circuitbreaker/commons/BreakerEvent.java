@@ -0,0 +1,147 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.commons;
+
+/**
+ * Something that happened to a circuit breaker: a state transition, a call that was not
+ * permitted or a slow call.
+ *
+ * @author Ryan Baxter
+ */
+public class BreakerEvent {
+
+	private final String id;
+
+	private final Type type;
+
+	private final String fromState;
+
+	private final String toState;
+
+	private final long durationMillis;
+
+	private final long timestamp;
+
+	public BreakerEvent(String id, Type type, String fromState, String toState, long durationMillis) {
+		this.id = id;
+		this.type = type;
+		this.fromState = fromState;
+		this.toState = toState;
+		this.durationMillis = durationMillis;
+		this.timestamp = System.currentTimeMillis();
+	}
+
+	/**
+	 * Creates an event for a state transition.
+	 * @param id The id of the circuit breaker.
+	 * @param fromState The name of the state the circuit breaker left.
+	 * @param toState The name of the state the circuit breaker entered.
+	 * @return The event.
+	 */
+	public static BreakerEvent stateTransition(String id, String fromState, String toState) {
+		return new BreakerEvent(id, Type.STATE_TRANSITION, fromState, toState, 0);
+	}
+
+	/**
+	 * Creates an event for a call that was not made because the circuit is open.
+	 * @param id The id of the circuit breaker.
+	 * @return The event.
+	 */
+	public static BreakerEvent callNotPermitted(String id) {
+		return new BreakerEvent(id, Type.CALL_NOT_PERMITTED, null, null, 0);
+	}
+
+	/**
+	 * Creates an event for a slow call.
+	 * @param id The id of the circuit breaker.
+	 * @param durationMillis How long the call took, in milliseconds.
+	 * @return The event.
+	 */
+	public static BreakerEvent slowCall(String id, long durationMillis) {
+		return new BreakerEvent(id, Type.SLOW_CALL, null, null, durationMillis);
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * Returns the state the circuit breaker left.
+	 * @return The name of the state, or {@code null} if this is not a state transition.
+	 */
+	public String getFromState() {
+		return fromState;
+	}
+
+	/**
+	 * Returns the state the circuit breaker entered.
+	 * @return The name of the state, or {@code null} if this is not a state transition.
+	 */
+	public String getToState() {
+		return toState;
+	}
+
+	/**
+	 * Returns how long a slow call took.
+	 * @return The duration in milliseconds, or {@code 0} if this is not a slow call.
+	 */
+	public long getDurationMillis() {
+		return durationMillis;
+	}
+
+	/**
+	 * Returns when the event happened.
+	 * @return The time in milliseconds since the epoch.
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	@Override
+	public String toString() {
+		return "BreakerEvent{id='" + id + "', type=" + type + ", fromState=" + fromState + ", toState=" + toState
+				+ ", durationMillis=" + durationMillis + ", timestamp=" + timestamp + "}";
+	}
+
+	/**
+	 * The types of events.
+	 */
+	public enum Type {
+
+		/**
+		 * The circuit breaker changed its state.
+		 */
+		STATE_TRANSITION,
+
+		/**
+		 * A call was not made because the circuit is open.
+		 */
+		CALL_NOT_PERMITTED,
+
+		/**
+		 * A call took longer than the slow call duration threshold of the circuit
+		 * breaker.
+		 */
+		SLOW_CALL
+
+	}
+
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.commons;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.springframework.util.Assert;
+
+/**
+ * A bounded ring buffer of {@link BreakerEvent}s. Publishing an event claims the next
+ * slot with a single atomic increment and overwrites the oldest event once the buffer is
+ * full, so it never blocks or waits for readers. Each reader follows the events with a
+ * {@link Cursor} of its own, and a reader that falls more than a buffer behind loses the
+ * oldest events it has not read yet.
+ *
+ * @author Ryan Baxter
+ * @see BreakerEventFlux
+ */
+public class BreakerEventBuffer {
+
+	private final AtomicReferenceArray<Slot> slots;
+
+	private final int mask;
+
+	private final AtomicLong nextSequence = new AtomicLong();
+
+	/**
+	 * Constructor.
+	 * @param capacity The number of events kept, rounded up to a power of two.
+	 */
+	public BreakerEventBuffer(int capacity) {
+		Assert.isTrue(capacity > 0 && capacity <= 1 << 30, "capacity must be between 1 and 2^30");
+		int size = Integer.highestOneBit(capacity) == capacity ? capacity : Integer.highestOneBit(capacity) << 1;
+		this.slots = new AtomicReferenceArray<>(size);
+		this.mask = size - 1;
+	}
+
+	public int getCapacity() {
+		return slots.length();
+	}
+
+	/**
+	 * Adds an event, overwriting the oldest event if the buffer is full.
+	 * @param event The event.
+	 */
+	public void publish(BreakerEvent event) {
+		long sequence = nextSequence.getAndIncrement();
+		slots.lazySet((int) (sequence & mask), new Slot(sequence, event));
+	}
+
+	/**
+	 * Returns a cursor that reads the events published from now on.
+	 * @return The cursor.
+	 */
+	public Cursor cursor() {
+		return new Cursor(nextSequence.get());
+	}
+
+	/**
+	 * The position of a reader in the buffer. A cursor is not thread-safe and must be
+	 * read by one thread at a time.
+	 */
+	public final class Cursor {
+
+		private long next;
+
+		private long droppedEvents;
+
+		private Cursor(long next) {
+			this.next = next;
+		}
+
+		/**
+		 * Reads the events published since the last poll, skipping the events that were
+		 * overwritten before they could be read.
+		 * @param max The maximum number of events to read.
+		 * @return The events, oldest first.
+		 */
+		public List<BreakerEvent> poll(int max) {
+			List<BreakerEvent> events = new ArrayList<>();
+			long published = nextSequence.get();
+			if (published - next > slots.length()) {
+				droppedEvents += published - slots.length() - next;
+				next = published - slots.length();
+			}
+			while (events.size() < max && next < published) {
+				Slot slot = slots.get((int) (next & mask));
+				if (slot == null || slot.sequence < next) {
+					// Claimed but not written yet, read it at the next poll
+					break;
+				}
+				if (slot.sequence == next) {
+					events.add(slot.event);
+				}
+				else {
+					droppedEvents++;
+				}
+				next++;
+			}
+			return events;
+		}
+
+		/**
+		 * Returns the number of events this cursor lost because they were overwritten
+		 * before they were read.
+		 * @return The number of events lost.
+		 */
+		public long getDroppedEvents() {
+			return droppedEvents;
+		}
+
+	}
+
+	private static final class Slot {
+
+		private final long sequence;
+
+		private final BreakerEvent event;
+
+		private Slot(long sequence, BreakerEvent event) {
+			this.sequence = sequence;
+			this.event = event;
+		}
+
+	}
+
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.commons;
+
+import java.time.Duration;
+
+import reactor.core.publisher.Flux;
+
+/**
+ * Streams the events of a {@link BreakerEventBuffer}. Each subscriber polls the buffer
+ * with a cursor of its own every 100 milliseconds, so publishing an event never waits
+ * for a subscriber, and a subscriber that does not keep up loses the oldest events
+ * instead of buffering them.
+ *
+ * @author Ryan Baxter
+ */
+public final class BreakerEventFlux {
+
+	private static final Duration POLL_INTERVAL = Duration.ofMillis(100);
+
+	private BreakerEventFlux() {
+	}
+
+	/**
+	 * Returns a {@link Flux} of the events published to {@code buffer} after it is
+	 * subscribed to.
+	 * @param buffer The buffer.
+	 * @return The events.
+	 */
+	public static Flux<BreakerEvent> from(BreakerEventBuffer buffer) {
+		return Flux.defer(() -> {
+			BreakerEventBuffer.Cursor cursor = buffer.cursor();
+			return Flux.interval(POLL_INTERVAL).onBackpressureDrop()
+					.concatMapIterable(tick -> cursor.poll(buffer.getCapacity()), 1);
+		});
+	}
+
+}
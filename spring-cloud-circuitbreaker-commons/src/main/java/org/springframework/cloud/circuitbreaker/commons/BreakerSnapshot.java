@@ -0,0 +1,102 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.commons;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * The state of a circuit breaker as saved by a {@link BreakerSnapshotStore}: the state
+ * of the circuit, when the circuit entered it and the number of calls in its sliding
+ * window.
+ *
+ * @author Ryan Baxter
+ */
+public class BreakerSnapshot {
+
+	private final String id;
+
+	private final String state;
+
+	private final int failedCalls;
+
+	private final int successfulCalls;
+
+	private final long stateChangedAt;
+
+	/**
+	 * Constructor.
+	 * @param id The id of the circuit breaker.
+	 * @param state The name of the state of the circuit.
+	 * @param failedCalls The number of failed calls in the sliding window.
+	 * @param successfulCalls The number of successful calls in the sliding window.
+	 * @param stateChangedAt When the circuit entered its state, in milliseconds since the
+	 * epoch, or {@code 0} if it has been in it since the circuit breaker was created.
+	 */
+	public BreakerSnapshot(String id, String state, int failedCalls, int successfulCalls, long stateChangedAt) {
+		this.id = id;
+		this.state = state;
+		this.failedCalls = failedCalls;
+		this.successfulCalls = successfulCalls;
+		this.stateChangedAt = stateChangedAt;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * Returns the name of the state of the circuit breaker as the implementation
+	 * reports it, for example {@code OPEN} or {@code CLOSED}.
+	 * @return The name of the state.
+	 */
+	public String getState() {
+		return state;
+	}
+
+	public int getFailedCalls() {
+		return failedCalls;
+	}
+
+	public int getSuccessfulCalls() {
+		return successfulCalls;
+	}
+
+	public long getStateChangedAt() {
+		return stateChangedAt;
+	}
+
+	void writeTo(DataOutputStream out) throws IOException {
+		out.writeUTF(id);
+		out.writeUTF(state);
+		out.writeInt(failedCalls);
+		out.writeInt(successfulCalls);
+		out.writeLong(stateChangedAt);
+	}
+
+	static BreakerSnapshot readFrom(DataInputStream in) throws IOException {
+		return new BreakerSnapshot(in.readUTF(), in.readUTF(), in.readInt(), in.readInt(), in.readLong());
+	}
+
+	@Override
+	public String toString() {
+		return "BreakerSnapshot{id='" + id + "', state=" + state + ", failedCalls=" + failedCalls
+				+ ", successfulCalls=" + successfulCalls + ", stateChangedAt=" + stateChangedAt + "}";
+	}
+
+}
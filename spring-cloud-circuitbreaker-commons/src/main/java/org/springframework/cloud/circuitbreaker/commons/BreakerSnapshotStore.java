@@ -0,0 +1,209 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.commons;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.springframework.util.Assert;
+
+/**
+ * Saves the state of circuit breakers to a file, so that they start in the state they
+ * were left in when the application restarts. The file is written every
+ * {@code interval} on a thread of its own, and once more when the store is closed, so
+ * calls never wait for it. Each write replaces the file atomically with a compact binary
+ * encoding of the snapshots. The file is read once, when the first factory is
+ * connected, and ignored if it is older than {@code maxAge}.
+ *
+ * @author Ryan Baxter
+ */
+public class BreakerSnapshotStore implements AutoCloseable {
+
+	private static final int MAGIC = 0x43425353;
+
+	private static final byte VERSION = 1;
+
+	private final Path file;
+
+	private final Duration interval;
+
+	private final Duration maxAge;
+
+	private final List<Supplier<Collection<BreakerSnapshot>>> sources = new CopyOnWriteArrayList<>();
+
+	private volatile Map<String, BreakerSnapshot> pending;
+
+	private ScheduledExecutorService scheduler;
+
+	/**
+	 * Constructor.
+	 * @param file The file the snapshots are written to.
+	 * @param interval How often the snapshots are written.
+	 * @param maxAge How old the file may be to still be restored from.
+	 */
+	public BreakerSnapshotStore(Path file, Duration interval, Duration maxAge) {
+		Assert.notNull(file, "file must not be null");
+		Assert.isTrue(!interval.isNegative() && !interval.isZero(), "interval must be positive");
+		Assert.isTrue(!maxAge.isNegative(), "maxAge must not be negative");
+		this.file = file.toAbsolutePath();
+		this.interval = interval;
+		this.maxAge = maxAge;
+	}
+
+	/**
+	 * Adds a source of snapshots to write, and starts writing them if this is the first
+	 * source.
+	 * @param source Supplies the snapshots of the circuit breakers of a factory.
+	 */
+	public synchronized void addSource(Supplier<Collection<BreakerSnapshot>> source) {
+		if (pending == null) {
+			pending = new ConcurrentHashMap<>(read());
+		}
+		sources.add(source);
+		if (scheduler == null) {
+			scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "circuitbreaker-snapshot-writer");
+				thread.setDaemon(true);
+				return thread;
+			});
+			long period = interval.toMillis();
+			scheduler.scheduleWithFixedDelay(this::writeQuietly, period, period, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Removes a source added with {@link #addSource(Supplier)}, so its snapshots are no
+	 * longer written.
+	 * @param source The source.
+	 */
+	public void removeSource(Supplier<Collection<BreakerSnapshot>> source) {
+		sources.remove(source);
+	}
+
+	/**
+	 * Returns the snapshot of a circuit breaker read from the file, if there is one that
+	 * has not been taken yet.
+	 * @param id The id of the circuit breaker.
+	 * @return The snapshot.
+	 */
+	public Optional<BreakerSnapshot> take(String id) {
+		Map<String, BreakerSnapshot> snapshots = pending;
+		return snapshots == null ? Optional.empty() : Optional.ofNullable(snapshots.remove(id));
+	}
+
+	/**
+	 * Writes the snapshots of all sources to the file. Snapshots read from the file that
+	 * were not taken yet, because their circuit breakers have not been created since the
+	 * restart, are written again.
+	 * @throws IOException If the file cannot be written.
+	 */
+	public void write() throws IOException {
+		Map<String, BreakerSnapshot> snapshots = new HashMap<>();
+		Map<String, BreakerSnapshot> notTaken = pending;
+		if (notTaken != null) {
+			snapshots.putAll(notTaken);
+		}
+		for (Supplier<Collection<BreakerSnapshot>> source : sources) {
+			source.get().forEach(snapshot -> snapshots.put(snapshot.getId(), snapshot));
+		}
+		Path directory = file.getParent();
+		Files.createDirectories(directory);
+		Path temp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+				out.writeInt(MAGIC);
+				out.writeByte(VERSION);
+				out.writeLong(System.currentTimeMillis());
+				out.writeInt(snapshots.size());
+				for (BreakerSnapshot snapshot : snapshots.values()) {
+					snapshot.writeTo(out);
+				}
+			}
+			try {
+				Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			}
+			catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * Stops writing periodically and writes the snapshots one last time.
+	 */
+	@Override
+	public synchronized void close() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+			writeQuietly();
+		}
+	}
+
+	private void writeQuietly() {
+		try {
+			write();
+		}
+		catch (IOException | RuntimeException e) {
+			// Try again at the next interval
+		}
+	}
+
+	private Map<String, BreakerSnapshot> read() {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if (in.readInt() != MAGIC || in.readByte() != VERSION
+					|| System.currentTimeMillis() - in.readLong() > maxAge.toMillis()) {
+				return Collections.emptyMap();
+			}
+			int count = in.readInt();
+			Map<String, BreakerSnapshot> snapshots = new HashMap<>();
+			for (int i = 0; i < count; i++) {
+				BreakerSnapshot snapshot = BreakerSnapshot.readFrom(in);
+				snapshots.put(snapshot.getId(), snapshot);
+			}
+			return snapshots;
+		}
+		catch (IOException e) {
+			// A missing, corrupt or truncated file is not restored from
+			return Collections.emptyMap();
+		}
+	}
+
+}
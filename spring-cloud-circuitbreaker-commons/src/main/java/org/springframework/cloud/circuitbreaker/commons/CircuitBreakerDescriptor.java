@@ -0,0 +1,49 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.commons;
+
+/**
+ * The state of a circuit breaker, as listed by the {@link CircuitBreakersEndpoint}.
+ * Implementations that keep more counts than the failed calls describe them in a
+ * subclass.
+ *
+ * @author Ryan Baxter
+ */
+public class CircuitBreakerDescriptor {
+
+	private final String state;
+
+	private final int failedCalls;
+
+	public CircuitBreakerDescriptor(String state, int failedCalls) {
+		this.state = state;
+		this.failedCalls = failedCalls;
+	}
+
+	public String getState() {
+		return state;
+	}
+
+	/**
+	 * Returns the number of failed calls recorded by the circuit breaker.
+	 * @return The number of failed calls.
+	 */
+	public int getFailedCalls() {
+		return failedCalls;
+	}
+
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.commons;
+
+import java.util.Collection;
+import java.util.Set;
+
+import org.springframework.lang.Nullable;
+
+/**
+ * Lists the circuit breakers of a factory and changes their state, for the
+ * {@link CircuitBreakersEndpoint}. Each circuit breaker implementation contributes a bean
+ * per factory, so the circuit breakers of every implementation on the classpath are
+ * listed by the same endpoint.
+ *
+ * @author Ryan Baxter
+ */
+public interface CircuitBreakersContributor {
+
+	/**
+	 * Returns the name the circuit breakers of the factory are listed under.
+	 * @return The name of the factory.
+	 */
+	String getName();
+
+	/**
+	 * Returns the ids of the circuit breakers of the factory.
+	 * @return The ids.
+	 */
+	Collection<String> getIds();
+
+	/**
+	 * Describes the state of a circuit breaker.
+	 * @param id The id of the circuit breaker.
+	 * @return The description, or {@code null} if the factory has no circuit breaker of
+	 * that id.
+	 */
+	@Nullable
+	CircuitBreakerDescriptor describe(String id);
+
+	/**
+	 * Returns the names of the changes that can be made to the state of the circuit
+	 * breakers of the factory.
+	 * @return The names of the transitions.
+	 */
+	Set<String> getTransitions();
+
+	/**
+	 * Changes the state of a circuit breaker.
+	 * @param id The id of the circuit breaker.
+	 * @param transition The name of the change, one of {@link #getTransitions()}.
+	 * @return Whether the state was changed.
+	 */
+	boolean transition(String id, String transition);
+
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.commons;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+
+/**
+ * An endpoint that lists the circuit breakers of every factory that has a
+ * {@link CircuitBreakersContributor}, keyed by the name of the factory, and changes the
+ * state of every circuit breaker whose id matches a pattern.
+ *
+ * @author Ryan Baxter
+ */
+@Endpoint(id = "cloudcircuitbreakers")
+public class CircuitBreakersEndpoint {
+
+	private final List<CircuitBreakersContributor> contributors;
+
+	/**
+	 * Constructor.
+	 * @param contributors The contributors of the factories, in the order they are
+	 * listed in.
+	 */
+	public CircuitBreakersEndpoint(List<CircuitBreakersContributor> contributors) {
+		this.contributors = new ArrayList<>(contributors);
+	}
+
+	@ReadOperation
+	public CircuitBreakersDescriptor circuitBreakers() {
+		Map<String, Map<String, CircuitBreakerDescriptor>> factories = new LinkedHashMap<>();
+		for (CircuitBreakersContributor contributor : contributors) {
+			Map<String, CircuitBreakerDescriptor> circuitBreakers = new TreeMap<>();
+			for (String id : contributor.getIds()) {
+				CircuitBreakerDescriptor descriptor = contributor.describe(id);
+				// The circuit breaker may have been evicted since its id was listed
+				if (descriptor != null) {
+					circuitBreakers.put(id, descriptor);
+				}
+			}
+			factories.put(contributor.getName(), circuitBreakers);
+		}
+		return new CircuitBreakersDescriptor(factories);
+	}
+
+	@ReadOperation
+	public Map<String, CircuitBreakerDescriptor> circuitBreaker(@Selector String id) {
+		Map<String, CircuitBreakerDescriptor> descriptors = new LinkedHashMap<>();
+		for (CircuitBreakersContributor contributor : contributors) {
+			CircuitBreakerDescriptor descriptor = contributor.describe(id);
+			if (descriptor != null) {
+				descriptors.put(contributor.getName(), descriptor);
+			}
+		}
+		return descriptors.isEmpty() ? null : descriptors;
+	}
+
+	/**
+	 * Changes the state of every circuit breaker whose id matches {@code pattern}. A
+	 * factory that does not support the transition is left out.
+	 * @param pattern The pattern of the ids, see {@link IdPatternMatcher}.
+	 * @param transition The name of the change to make, see
+	 * {@link CircuitBreakersContributor#getTransitions()}.
+	 * @param factory The name of the factory to limit the change to, or {@code null} for
+	 * all factories.
+	 * @return The ids of the circuit breakers that were changed, keyed by the name of
+	 * their factory.
+	 */
+	@WriteOperation
+	public Map<String, List<String>> transition(String pattern, String transition, @Nullable String factory) {
+		IdPatternMatcher<Boolean> matcher = new IdPatternMatcher<>();
+		matcher.add(pattern, true);
+		Map<String, List<String>> transitioned = new LinkedHashMap<>();
+		for (CircuitBreakersContributor contributor : contributors) {
+			if ((factory != null && !factory.equals(contributor.getName()))
+					|| !contributor.getTransitions().contains(transition)) {
+				continue;
+			}
+			List<String> ids = new ArrayList<>();
+			for (String id : contributor.getIds()) {
+				if (matcher.match(id) != null && contributor.transition(id, transition)) {
+					ids.add(id);
+				}
+			}
+			transitioned.put(contributor.getName(), ids);
+		}
+		return transitioned;
+	}
+
+	/**
+	 * The circuit breakers of all factories.
+	 */
+	public static final class CircuitBreakersDescriptor {
+
+		private final Map<String, Map<String, CircuitBreakerDescriptor>> factories;
+
+		private CircuitBreakersDescriptor(Map<String, Map<String, CircuitBreakerDescriptor>> factories) {
+			this.factories = factories;
+		}
+
+		public Map<String, Map<String, CircuitBreakerDescriptor>> getFactories() {
+			return factories;
+		}
+
+	}
+
+}
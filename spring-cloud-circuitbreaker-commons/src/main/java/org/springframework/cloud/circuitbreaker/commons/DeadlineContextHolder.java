@@ -0,0 +1,142 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.commons;
+
+import java.time.Duration;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Holds the deadline of the current request, as a {@link System#nanoTime()} value, so
+ * that circuit breakers wait no longer than the time the caller has left and make no
+ * calls or re-attempts once it has run out. Blocking calls read the deadline of the
+ * current thread, reactive calls read the deadline stored in the Reactor
+ * {@code Context} under {@link #CONTEXT_KEY}.
+ *
+ * @author Ryan Baxter
+ */
+public final class DeadlineContextHolder {
+
+	/**
+	 * The Reactor {@code Context} key of the deadline, a {@link Long}
+	 * {@link System#nanoTime()} value, see {@link #deadlineIn(Duration)}.
+	 */
+	public static final String CONTEXT_KEY = DeadlineContextHolder.class.getName() + ".deadline";
+
+	private static final ThreadLocal<Long> DEADLINE = new ThreadLocal<>();
+
+	private DeadlineContextHolder() {
+	}
+
+	/**
+	 * Calls {@code supplier} with a deadline {@code remaining} from now on the current
+	 * thread.
+	 * @param remaining The time left until the deadline.
+	 * @param supplier The code to call.
+	 * @param <T> The type of the result.
+	 * @return The result of {@code supplier}.
+	 */
+	public static <T> T call(Duration remaining, Supplier<T> supplier) {
+		Long previous = DEADLINE.get();
+		DEADLINE.set(deadlineIn(remaining));
+		try {
+			return supplier.get();
+		}
+		finally {
+			if (previous != null) {
+				DEADLINE.set(previous);
+			}
+			else {
+				DEADLINE.remove();
+			}
+		}
+	}
+
+	public static void setDeadline(long deadlineNanos) {
+		DEADLINE.set(deadlineNanos);
+	}
+
+	public static Long getDeadline() {
+		return DEADLINE.get();
+	}
+
+	public static void clear() {
+		DEADLINE.remove();
+	}
+
+	/**
+	 * Returns the deadline {@code remaining} from now.
+	 * @param remaining The time left until the deadline.
+	 * @return The deadline as a {@link System#nanoTime()} value.
+	 */
+	public static long deadlineIn(Duration remaining) {
+		return System.nanoTime() + remaining.toNanos();
+	}
+
+	/**
+	 * Returns the time left until {@code deadline}.
+	 * @param deadline The deadline as a {@link System#nanoTime()} value.
+	 * @return The time left, negative if the deadline has passed.
+	 */
+	public static Duration remaining(long deadline) {
+		return Duration.ofNanos(deadline - System.nanoTime());
+	}
+
+	/**
+	 * Returns the shorter of {@code timeout} and the time left until {@code deadline}.
+	 * @param timeout The configured timeout.
+	 * @param deadline The deadline, or {@code null} if there is none.
+	 * @return The timeout to use, zero or negative if the deadline has passed.
+	 */
+	public static Duration timeout(Duration timeout, Long deadline) {
+		if (deadline == null) {
+			return timeout;
+		}
+		Duration remaining = remaining(deadline);
+		return remaining.compareTo(timeout) < 0 ? remaining : timeout;
+	}
+
+	/**
+	 * Returns whether {@code deadline} has passed.
+	 * @param deadline The deadline, or {@code null} if there is none.
+	 * @return {@code true} if there is a deadline and it has passed.
+	 */
+	public static boolean isExpired(Long deadline) {
+		return deadline != null && deadline - System.nanoTime() <= 0;
+	}
+
+	/**
+	 * Returns whether a timeout computed by {@link #timeout(Duration, Long)} leaves no
+	 * time for the call.
+	 * @param timeout The timeout.
+	 * @return {@code true} if the timeout is zero or negative.
+	 */
+	public static boolean isExpired(Duration timeout) {
+		return timeout.isNegative() || timeout.isZero();
+	}
+
+	/**
+	 * Returns the exception to hand to the fallback of a call that was not made because
+	 * the deadline had passed.
+	 * @param id The id of the circuit breaker.
+	 * @return The exception.
+	 */
+	public static TimeoutException deadlineExceeded(String id) {
+		return new TimeoutException("Deadline exceeded before calling circuit breaker " + id);
+	}
+
+}
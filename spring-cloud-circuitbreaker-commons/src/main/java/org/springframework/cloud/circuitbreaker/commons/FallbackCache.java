@@ -0,0 +1,174 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.commons;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.springframework.util.Assert;
+
+/**
+ * Bounded cache of the last successful result per request key. Entries expire after
+ * {@code timeToLive}. Reads and writes do not lock: a read only stamps the entry with
+ * the time it was used. Once a write takes the cache over {@code maxSize}, the writer
+ * that gets to evict looks at a few entries, continuing where the previous eviction
+ * stopped, and removes the expired ones or else the least recently used one. Each write
+ * does a small, bounded amount of work, so the evicted entry is only approximately the
+ * least recently used one of the whole cache. While another writer evicts, the cache
+ * may briefly hold more than {@code maxSize} entries.
+ *
+ * @author Ryan Baxter
+ */
+public class FallbackCache {
+
+	private static final int SAMPLE_SIZE = 8;
+
+	private static final int MAX_EVICTIONS_PER_WRITE = 2;
+
+	private final int maxSize;
+
+	private final Duration timeToLive;
+
+	private final long timeToLiveNanos;
+
+	private final Map<Object, Entry> entries = new ConcurrentHashMap<>();
+
+	private final AtomicBoolean evicting = new AtomicBoolean();
+
+	/**
+	 * Where the next eviction continues looking at entries. Only used by the writer that
+	 * holds {@link #evicting}, which also makes its changes visible to the next one.
+	 */
+	private Iterator<Map.Entry<Object, Entry>> cursor;
+
+	public FallbackCache(int maxSize, Duration timeToLive) {
+		Assert.isTrue(maxSize > 0, "maxSize must be greater than 0");
+		Assert.notNull(timeToLive, "timeToLive must not be null");
+		this.maxSize = maxSize;
+		this.timeToLive = timeToLive;
+		this.timeToLiveNanos = timeToLive.toNanos();
+	}
+
+	public void put(Object key, Object value) {
+		if (value == null) {
+			return;
+		}
+		long now = System.nanoTime();
+		entries.put(key, new Entry(value, now + timeToLiveNanos, now));
+		if (entries.size() > maxSize) {
+			evict(now);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	public <T> Optional<T> get(Object key) {
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			return Optional.empty();
+		}
+		long now = System.nanoTime();
+		if (now - entry.expiresAt > 0) {
+			entries.remove(key, entry);
+			return Optional.empty();
+		}
+		entry.usedAt = now;
+		return Optional.of((T) entry.value);
+	}
+
+	public void invalidate(Object key) {
+		entries.remove(key);
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public Duration getTimeToLive() {
+		return timeToLive;
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	private void evict(long now) {
+		if (!evicting.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			for (int i = 0; i < MAX_EVICTIONS_PER_WRITE && entries.size() > maxSize; i++) {
+				evictSample(now);
+			}
+		}
+		finally {
+			evicting.set(false);
+		}
+	}
+
+	/**
+	 * Looks at the next {@link #SAMPLE_SIZE} entries after the ones looked at last time
+	 * and removes those that expired or, if none did, the least recently used of them.
+	 */
+	private void evictSample(long now) {
+		Object oldestKey = null;
+		Entry oldest = null;
+		boolean expired = false;
+		for (int i = 0; i < SAMPLE_SIZE; i++) {
+			if (cursor == null || !cursor.hasNext()) {
+				cursor = entries.entrySet().iterator();
+				if (!cursor.hasNext()) {
+					return;
+				}
+			}
+			Map.Entry<Object, Entry> candidate = cursor.next();
+			Entry entry = candidate.getValue();
+			if (now - entry.expiresAt > 0) {
+				entries.remove(candidate.getKey(), entry);
+				expired = true;
+			}
+			else if (oldest == null || entry.usedAt - oldest.usedAt < 0) {
+				oldestKey = candidate.getKey();
+				oldest = entry;
+			}
+		}
+		if (!expired && oldest != null) {
+			// Keeps the entry if it was replaced since it was looked at
+			entries.remove(oldestKey, oldest);
+		}
+	}
+
+	private static final class Entry {
+
+		private final Object value;
+
+		private final long expiresAt;
+
+		private volatile long usedAt;
+
+		private Entry(Object value, long expiresAt, long usedAt) {
+			this.value = value;
+			this.expiresAt = expiresAt;
+			this.usedAt = usedAt;
+		}
+
+	}
+
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.commons;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.util.Assert;
+
+/**
+ * Matches circuit breaker ids against patterns, which are either an exact id such as
+ * {@code payments/charge} or a prefix followed by {@code *} such as {@code payments/*}.
+ * The pattern {@code *} matches every id. An exact pattern takes precedence over prefix
+ * patterns, and the longest matching prefix wins. Patterns are kept in a trie, so
+ * matching an id takes time proportional to its length however many patterns there
+ * are.
+ *
+ * @param <T> The type of the values patterns are mapped to.
+ * @author Ryan Baxter
+ */
+public class IdPatternMatcher<T> {
+
+	private final Node<T> root = new Node<>();
+
+	/**
+	 * Maps a pattern to a value, replacing the value the pattern was mapped to before.
+	 * @param pattern The pattern.
+	 * @param value The value.
+	 */
+	public void add(String pattern, T value) {
+		Assert.notNull(pattern, "pattern must not be null");
+		Assert.notNull(value, "value must not be null");
+		int wildcard = pattern.indexOf('*');
+		Assert.isTrue(wildcard < 0 || wildcard == pattern.length() - 1,
+				"Only a trailing * is supported in pattern " + pattern);
+		boolean prefix = wildcard >= 0;
+		String literal = prefix ? pattern.substring(0, wildcard) : pattern;
+		Node<T> node = root;
+		for (int i = 0; i < literal.length(); i++) {
+			node = node.children.computeIfAbsent(literal.charAt(i), c -> new Node<>());
+		}
+		if (prefix) {
+			node.prefixValue = value;
+		}
+		else {
+			node.exactValue = value;
+		}
+	}
+
+	/**
+	 * Returns the value of the pattern that matches {@code id} best.
+	 * @param id The id to match.
+	 * @return The value, or {@code null} if no pattern matches.
+	 */
+	public T match(String id) {
+		Node<T> node = root;
+		T match = node.prefixValue;
+		for (int i = 0; i < id.length(); i++) {
+			node = node.children.get(id.charAt(i));
+			if (node == null) {
+				return match;
+			}
+			if (node.prefixValue != null) {
+				match = node.prefixValue;
+			}
+		}
+		return node.exactValue != null ? node.exactValue : match;
+	}
+
+	public boolean isEmpty() {
+		return root.children.isEmpty() && root.prefixValue == null && root.exactValue == null;
+	}
+
+	private static final class Node<T> {
+
+		private final Map<Character, Node<T>> children = new ConcurrentHashMap<>();
+
+		private volatile T exactValue;
+
+		private volatile T prefixValue;
+
+	}
+
+}
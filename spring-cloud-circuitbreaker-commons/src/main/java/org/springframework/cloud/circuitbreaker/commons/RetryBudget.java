@@ -0,0 +1,167 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.commons;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.util.Assert;
+
+/**
+ * Limits retries to a ratio of the requests made over a rolling window, for example no
+ * more than 10% of the requests in the last 10 seconds. Requests and retries are
+ * counted in buckets that are updated without locking, so under heavy contention the
+ * budget may be exceeded by a few retries. A bucket is rotated by swapping in a new one
+ * for the next pass over the window rather than by clearing it, so no count is lost.
+ *
+ * @author Ryan Baxter
+ */
+public class RetryBudget {
+
+	private static final int BUCKETS = 10;
+
+	private final double ratio;
+
+	private final Duration window;
+
+	private final int minRetriesPerSecond;
+
+	private final long minRetries;
+
+	private final long bucketNanos;
+
+	private final AtomicReferenceArray<Bucket> buckets = new AtomicReferenceArray<>(BUCKETS);
+
+	private final LongAdder totalRequests = new LongAdder();
+
+	private final LongAdder totalRetries = new LongAdder();
+
+	private final LongAdder rejectedRetries = new LongAdder();
+
+	/**
+	 * Constructor.
+	 * @param ratio The maximum ratio of retries to requests, for example {@code 0.1}.
+	 * @param window The rolling window requests and retries are counted over.
+	 * @param minRetriesPerSecond The number of retries allowed per second regardless of
+	 * the number of requests, so that retries are possible when traffic is low.
+	 */
+	public RetryBudget(double ratio, Duration window, int minRetriesPerSecond) {
+		Assert.isTrue(ratio >= 0, "ratio must not be negative");
+		Assert.isTrue(!window.isNegative() && !window.isZero(), "window must be positive");
+		Assert.isTrue(minRetriesPerSecond >= 0, "minRetriesPerSecond must not be negative");
+		this.ratio = ratio;
+		this.window = window;
+		this.minRetriesPerSecond = minRetriesPerSecond;
+		this.bucketNanos = Math.max(1, window.toNanos() / BUCKETS);
+		this.minRetries = (long) Math.ceil(minRetriesPerSecond * (window.toMillis() / 1000d));
+	}
+
+	/**
+	 * Records a request, which deposits {@code ratio} retries into the budget.
+	 */
+	public void recordRequest() {
+		bucket(currentEpoch()).requests.increment();
+		totalRequests.increment();
+	}
+
+	/**
+	 * Withdraws a retry from the budget.
+	 * @return True if the retry may be made, false if the budget is exhausted.
+	 */
+	public boolean tryAcquireRetry() {
+		long epoch = currentEpoch();
+		long windowRequests = 0;
+		long windowRetries = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			Bucket bucket = buckets.get(i);
+			if (bucket != null && epoch - bucket.epoch < BUCKETS) {
+				windowRequests += bucket.requests.sum();
+				windowRetries += bucket.retries.sum();
+			}
+		}
+		if (windowRetries >= minRetries + (long) (windowRequests * ratio)) {
+			rejectedRetries.increment();
+			return false;
+		}
+		bucket(epoch).retries.increment();
+		totalRetries.increment();
+		return true;
+	}
+
+	public double getRatio() {
+		return ratio;
+	}
+
+	public Duration getWindow() {
+		return window;
+	}
+
+	public int getMinRetriesPerSecond() {
+		return minRetriesPerSecond;
+	}
+
+	public long getTotalRequests() {
+		return totalRequests.sum();
+	}
+
+	public long getTotalRetries() {
+		return totalRetries.sum();
+	}
+
+	public long getRejectedRetries() {
+		return rejectedRetries.sum();
+	}
+
+	private long currentEpoch() {
+		return System.nanoTime() / bucketNanos;
+	}
+
+	/**
+	 * Returns the bucket for {@code epoch}, replacing the bucket of an earlier pass over
+	 * the window. A caller that computed its epoch before another caller moved the bucket
+	 * on to a later one counts into the later bucket.
+	 */
+	private Bucket bucket(long epoch) {
+		int index = (int) Math.floorMod(epoch, (long) BUCKETS);
+		while (true) {
+			Bucket current = buckets.get(index);
+			if (current != null && current.epoch >= epoch) {
+				return current;
+			}
+			Bucket next = new Bucket(epoch);
+			if (buckets.compareAndSet(index, current, next)) {
+				return next;
+			}
+		}
+	}
+
+	private static final class Bucket {
+
+		private final long epoch;
+
+		private final LongAdder requests = new LongAdder();
+
+		private final LongAdder retries = new LongAdder();
+
+		private Bucket(long epoch) {
+			this.epoch = epoch;
+		}
+
+	}
+
+}
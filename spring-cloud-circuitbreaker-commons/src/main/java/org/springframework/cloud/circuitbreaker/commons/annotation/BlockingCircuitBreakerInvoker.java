@@ -0,0 +1,49 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.commons.annotation;
+
+import java.lang.reflect.Method;
+
+import org.aopalliance.intercept.MethodInvocation;
+
+/**
+ * Calls a method through a circuit breaker of a
+ * {@link org.springframework.cloud.client.circuitbreaker.CircuitBreakerFactory}.
+ *
+ * @author Ryan Baxter
+ */
+final class BlockingCircuitBreakerInvoker extends CircuitBreakerInvoker {
+
+	private final org.springframework.cloud.client.circuitbreaker.CircuitBreaker circuitBreaker;
+
+	BlockingCircuitBreakerInvoker(Method method, Method fallbackMethod,
+			org.springframework.cloud.client.circuitbreaker.CircuitBreaker circuitBreaker) {
+		super(method, fallbackMethod);
+		this.circuitBreaker = circuitBreaker;
+	}
+
+	@Override
+	Object invoke(MethodInvocation invocation) throws Throwable {
+		try {
+			return circuitBreaker.run(() -> proceed(invocation), throwable -> fallback(invocation, throwable));
+		}
+		catch (InvocationFailure e) {
+			throw e.getCause();
+		}
+	}
+
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.commons.annotation;
+
+import org.springframework.aop.framework.autoproxy.AbstractBeanFactoryAwareAdvisingPostProcessor;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.aop.support.DefaultPointcutAdvisor;
+import org.springframework.aop.support.annotation.AnnotationMatchingPointcut;
+import org.springframework.beans.factory.BeanFactory;
+
+/**
+ * Proxies the beans that have methods annotated with {@link CloudCircuitBreaker}. The
+ * circuit breakers and fallback methods of a bean are resolved when it is proxied, so a
+ * bean whose fallback method cannot be found fails to start.
+ *
+ * @author Ryan Baxter
+ */
+public class CircuitBreakerAnnotationBeanPostProcessor extends AbstractBeanFactoryAwareAdvisingPostProcessor {
+
+	private CircuitBreakerMethodInterceptor interceptor;
+
+	public CircuitBreakerAnnotationBeanPostProcessor() {
+		// Class proxies pass the methods of the target class to the interceptor, which
+		// are the methods the invokers are resolved for
+		setProxyTargetClass(true);
+	}
+
+	@Override
+	public void setBeanFactory(BeanFactory beanFactory) {
+		super.setBeanFactory(beanFactory);
+		this.interceptor = new CircuitBreakerMethodInterceptor(beanFactory);
+		this.advisor = new DefaultPointcutAdvisor(
+				new AnnotationMatchingPointcut(null, CloudCircuitBreaker.class, true), interceptor);
+	}
+
+	@Override
+	public Object postProcessAfterInitialization(Object bean, String beanName) {
+		if (isEligible(bean, beanName)) {
+			interceptor.resolveAll(AopUtils.getTargetClass(bean));
+		}
+		return super.postProcessAfterInitialization(bean, beanName);
+	}
+
+}
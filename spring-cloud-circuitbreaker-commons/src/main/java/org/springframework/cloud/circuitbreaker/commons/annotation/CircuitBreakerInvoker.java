@@ -0,0 +1,124 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.commons.annotation;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.concurrent.CompletionException;
+
+import org.aopalliance.intercept.MethodInvocation;
+
+import org.springframework.aop.ProxyMethodInvocation;
+
+/**
+ * Calls an annotated method through its circuit breaker. The circuit breaker and the
+ * fallback method are resolved when the invoker is created, so a call does not need any
+ * reflection unless it falls back.
+ *
+ * @author Ryan Baxter
+ */
+abstract class CircuitBreakerInvoker {
+
+	private final Method fallbackMethod;
+
+	private final Class<?> throwableType;
+
+	CircuitBreakerInvoker(Method method, Method fallbackMethod) {
+		this.fallbackMethod = fallbackMethod;
+		this.throwableType = fallbackMethod != null && fallbackMethod.getParameterCount() > method.getParameterCount()
+				? fallbackMethod.getParameterTypes()[method.getParameterCount()] : null;
+	}
+
+	abstract Object invoke(MethodInvocation invocation) throws Throwable;
+
+	/**
+	 * Calls the annotated method. It may be called more than once by circuit breakers
+	 * that retry, so each call proceeds with a copy of the invocation.
+	 */
+	static Object proceed(MethodInvocation invocation) {
+		try {
+			if (invocation instanceof ProxyMethodInvocation) {
+				return ((ProxyMethodInvocation) invocation).invocableClone().proceed();
+			}
+			return invocation.proceed();
+		}
+		catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	/**
+	 * Calls the fallback method with the failure of the call, or throws the failure if
+	 * there is no fallback method that accepts it.
+	 */
+	Object fallback(MethodInvocation invocation, Throwable throwable) {
+		Throwable cause = unwrap(throwable);
+		if (fallbackMethod == null || (throwableType != null && !throwableType.isInstance(cause))) {
+			throw rethrow(cause);
+		}
+		Object[] arguments = invocation.getArguments();
+		if (throwableType != null) {
+			arguments = Arrays.copyOf(arguments, arguments.length + 1);
+			arguments[arguments.length - 1] = cause;
+		}
+		try {
+			return fallbackMethod.invoke(invocation.getThis(), arguments);
+		}
+		catch (InvocationTargetException e) {
+			throw rethrow(e.getTargetException());
+		}
+		catch (IllegalAccessException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Returns the exception to throw from a lambda for {@code throwable}, wrapping it if
+	 * it is checked.
+	 */
+	static RuntimeException rethrow(Throwable throwable) {
+		if (throwable instanceof RuntimeException) {
+			return (RuntimeException) throwable;
+		}
+		if (throwable instanceof Error) {
+			throw (Error) throwable;
+		}
+		return new InvocationFailure(throwable);
+	}
+
+	static Throwable unwrap(Throwable throwable) {
+		Throwable cause = throwable;
+		while (cause instanceof InvocationFailure
+				|| (cause instanceof CompletionException && cause.getCause() instanceof InvocationFailure)) {
+			cause = cause.getCause();
+		}
+		return cause;
+	}
+
+	/**
+	 * Carries a checked exception of the annotated method through the circuit breaker.
+	 */
+	static final class InvocationFailure extends RuntimeException {
+
+		InvocationFailure(Throwable cause) {
+			super(cause.getMessage(), cause, false, false);
+		}
+
+	}
+
+}
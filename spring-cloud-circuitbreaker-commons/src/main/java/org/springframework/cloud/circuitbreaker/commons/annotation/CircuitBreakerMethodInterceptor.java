@@ -0,0 +1,142 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.commons.annotation;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+
+import org.springframework.aop.support.AopUtils;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.cloud.client.circuitbreaker.CircuitBreakerFactory;
+import org.springframework.core.MethodIntrospector;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ReflectionUtils;
+
+/**
+ * Runs the methods annotated with {@link CloudCircuitBreaker} through their circuit
+ * breakers. The invoker of each method is resolved when its bean is proxied, so a call
+ * only looks it up by its method.
+ *
+ * @author Ryan Baxter
+ */
+class CircuitBreakerMethodInterceptor implements MethodInterceptor {
+
+	private static final boolean reactorPresent = ClassUtils.isPresent("reactor.core.publisher.Flux",
+			CircuitBreakerMethodInterceptor.class.getClassLoader());
+
+	private final BeanFactory beanFactory;
+
+	private final Map<Method, CircuitBreakerInvoker> invokers = new ConcurrentHashMap<>();
+
+	CircuitBreakerMethodInterceptor(BeanFactory beanFactory) {
+		this.beanFactory = beanFactory;
+	}
+
+	@Override
+	public Object invoke(MethodInvocation invocation) throws Throwable {
+		CircuitBreakerInvoker invoker = invokers.get(invocation.getMethod());
+		if (invoker == null) {
+			// Methods of interfaces are resolved on the first call, from the method of
+			// the target class that implements them
+			Class<?> targetClass = invocation.getThis() != null ? AopUtils.getTargetClass(invocation.getThis())
+					: invocation.getMethod().getDeclaringClass();
+			invoker = resolve(invocation.getMethod(),
+					AopUtils.getMostSpecificMethod(invocation.getMethod(), targetClass));
+		}
+		return invoker.invoke(invocation);
+	}
+
+	/**
+	 * Resolves the invokers of the annotated methods of {@code targetClass}.
+	 */
+	void resolveAll(Class<?> targetClass) {
+		MethodIntrospector
+				.selectMethods(targetClass,
+						(MethodIntrospector.MetadataLookup<CloudCircuitBreaker>) method -> AnnotatedElementUtils
+								.findMergedAnnotation(method, CloudCircuitBreaker.class))
+				.keySet().forEach(method -> {
+					if (!invokers.containsKey(method)) {
+						resolve(method, method);
+					}
+				});
+	}
+
+	/**
+	 * Resolves the invoker of {@code method}. This does not use {@code computeIfAbsent},
+	 * as creating the circuit breaker may create and proxy other beans.
+	 */
+	private CircuitBreakerInvoker resolve(Method method, Method annotatedMethod) {
+		CircuitBreakerInvoker invoker = resolve(annotatedMethod);
+		CircuitBreakerInvoker previous = invokers.putIfAbsent(method, invoker);
+		return previous != null ? previous : invoker;
+	}
+
+	private CircuitBreakerInvoker resolve(Method method) {
+		CloudCircuitBreaker annotation = AnnotatedElementUtils.findMergedAnnotation(method,
+				CloudCircuitBreaker.class);
+		if (annotation == null) {
+			throw new IllegalStateException("No @CloudCircuitBreaker annotation found on " + method);
+		}
+		Method fallbackMethod = annotation.fallbackMethod().isEmpty() ? null
+				: fallbackMethod(method, annotation.fallbackMethod());
+		if (reactorPresent && ReactiveCircuitBreakerInvoker.supports(method)) {
+			return ReactiveCircuitBreakerInvoker.of(method, fallbackMethod, annotation.id(), annotation.factory(),
+					beanFactory);
+		}
+		CircuitBreakerFactory<?, ?> factory = annotation.factory().isEmpty()
+				? beanFactory.getBean(CircuitBreakerFactory.class)
+				: beanFactory.getBean(annotation.factory(), CircuitBreakerFactory.class);
+		return new BlockingCircuitBreakerInvoker(method, fallbackMethod, factory.create(annotation.id()));
+	}
+
+	/**
+	 * Finds the fallback method named {@code name} of the class of {@code method}. A
+	 * fallback method that also takes the failure is preferred over one that does not.
+	 */
+	private static Method fallbackMethod(Method method, String name) {
+		Class<?>[] parameterTypes = method.getParameterTypes();
+		Method found = null;
+		for (Method candidate : ReflectionUtils.getUniqueDeclaredMethods(method.getDeclaringClass())) {
+			if (!candidate.getName().equals(name)
+					|| !ClassUtils.isAssignable(method.getReturnType(), candidate.getReturnType())) {
+				continue;
+			}
+			Class<?>[] candidateTypes = candidate.getParameterTypes();
+			if (candidateTypes.length == parameterTypes.length + 1
+					&& Arrays.equals(Arrays.copyOf(candidateTypes, parameterTypes.length), parameterTypes)
+					&& Throwable.class.isAssignableFrom(candidateTypes[parameterTypes.length])) {
+				found = candidate;
+				break;
+			}
+			if (Arrays.equals(candidateTypes, parameterTypes)) {
+				found = candidate;
+			}
+		}
+		if (found == null) {
+			throw new IllegalStateException("No fallback method " + name + " found for " + method);
+		}
+		ReflectionUtils.makeAccessible(found);
+		return found;
+	}
+
+}
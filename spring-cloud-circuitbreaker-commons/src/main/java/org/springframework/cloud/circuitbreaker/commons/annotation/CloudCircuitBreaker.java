@@ -0,0 +1,63 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.commons.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Runs the annotated method through a circuit breaker created by the
+ * {@code CircuitBreakerFactory} of the application, or by its
+ * {@code ReactiveCircuitBreakerFactory} when the method returns a {@code Mono} or a
+ * {@code Flux}. The circuit breaker and the fallback method are resolved once, when the
+ * bean is proxied. It is named apart from the {@code @CircuitBreaker} annotation of
+ * Resilience4J, which creates its circuit breakers from the Resilience4J registry
+ * instead, so that both can be used in the same class.
+ *
+ * @author Ryan Baxter
+ * @see CircuitBreakerAnnotationBeanPostProcessor
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface CloudCircuitBreaker {
+
+	/**
+	 * The id of the circuit breaker.
+	 * @return The id.
+	 */
+	String id();
+
+	/**
+	 * The name of a method of the same class that is called instead when the call
+	 * fails or is not permitted. It takes the parameters of the annotated method,
+	 * optionally followed by the {@link Throwable} the call failed with, and returns the
+	 * same type.
+	 * @return The name of the fallback method, or an empty string for none.
+	 */
+	String fallbackMethod() default "";
+
+	/**
+	 * The name of the circuit breaker factory bean to use when there are several.
+	 * @return The name of the factory bean, or an empty string for the only one.
+	 */
+	String factory() default "";
+
+}
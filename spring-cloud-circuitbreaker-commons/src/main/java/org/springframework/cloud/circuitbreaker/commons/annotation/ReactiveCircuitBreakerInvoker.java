@@ -0,0 +1,85 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.commons.annotation;
+
+import java.lang.reflect.Method;
+
+import org.aopalliance.intercept.MethodInvocation;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.cloud.client.circuitbreaker.ReactiveCircuitBreaker;
+import org.springframework.cloud.client.circuitbreaker.ReactiveCircuitBreakerFactory;
+
+/**
+ * Calls a method that returns a {@link Mono} or a {@link Flux} through a circuit breaker
+ * of a {@link ReactiveCircuitBreakerFactory}. It is only loaded when Project Reactor is
+ * on the classpath.
+ *
+ * @author Ryan Baxter
+ */
+final class ReactiveCircuitBreakerInvoker extends CircuitBreakerInvoker {
+
+	private final ReactiveCircuitBreaker circuitBreaker;
+
+	private final boolean flux;
+
+	private ReactiveCircuitBreakerInvoker(Method method, Method fallbackMethod,
+			ReactiveCircuitBreaker circuitBreaker) {
+		super(method, fallbackMethod);
+		this.circuitBreaker = circuitBreaker;
+		this.flux = Flux.class.isAssignableFrom(method.getReturnType());
+	}
+
+	static boolean supports(Method method) {
+		Class<?> returnType = method.getReturnType();
+		return Mono.class.isAssignableFrom(returnType) || Flux.class.isAssignableFrom(returnType);
+	}
+
+	static ReactiveCircuitBreakerInvoker of(Method method, Method fallbackMethod, String id, String factoryName,
+			BeanFactory beanFactory) {
+		ReactiveCircuitBreakerFactory<?, ?> factory = factoryName.isEmpty()
+				? beanFactory.getBean(ReactiveCircuitBreakerFactory.class)
+				: beanFactory.getBean(factoryName, ReactiveCircuitBreakerFactory.class);
+		return new ReactiveCircuitBreakerInvoker(method, fallbackMethod, factory.create(id));
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	Object invoke(MethodInvocation invocation) {
+		if (flux) {
+			return circuitBreaker.run(Flux.defer(() -> (Flux<Object>) proceed(invocation)), throwable -> {
+				try {
+					return (Flux<Object>) fallback(invocation, throwable);
+				}
+				catch (RuntimeException e) {
+					return Flux.error(unwrap(e));
+				}
+			});
+		}
+		return circuitBreaker.run(Mono.defer(() -> (Mono<Object>) proceed(invocation)), throwable -> {
+			try {
+				return (Mono<Object>) fallback(invocation, throwable);
+			}
+			catch (RuntimeException e) {
+				return Mono.error(unwrap(e));
+			}
+		});
+	}
+
+}
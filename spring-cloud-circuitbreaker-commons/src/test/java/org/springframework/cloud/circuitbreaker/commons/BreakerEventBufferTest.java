@@ -0,0 +1,199 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.commons;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+import reactor.test.StepVerifier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Ryan Baxter
+ */
+public class BreakerEventBufferTest {
+
+	@Test
+	public void capacityIsRoundedUpToPowerOfTwo() {
+		assertThat(new BreakerEventBuffer(1).getCapacity()).isEqualTo(1);
+		assertThat(new BreakerEventBuffer(5).getCapacity()).isEqualTo(8);
+		assertThat(new BreakerEventBuffer(16).getCapacity()).isEqualTo(16);
+	}
+
+	@Test
+	public void eventBufferDropsOldestEvents() {
+		BreakerEventBuffer buffer = new BreakerEventBuffer(4);
+		BreakerEventBuffer.Cursor cursor = buffer.cursor();
+		for (int i = 0; i < 6; i++) {
+			buffer.publish(BreakerEvent.slowCall("foo", i));
+		}
+		assertThat(cursor.poll(10)).extracting(BreakerEvent::getDurationMillis).containsExactly(2L, 3L, 4L, 5L);
+		assertThat(cursor.getDroppedEvents()).isEqualTo(2);
+		assertThat(cursor.poll(10)).isEmpty();
+	}
+
+	@Test
+	public void pollReadsAtMostMaxEvents() {
+		BreakerEventBuffer buffer = new BreakerEventBuffer(8);
+		BreakerEventBuffer.Cursor cursor = buffer.cursor();
+		for (int i = 0; i < 5; i++) {
+			buffer.publish(BreakerEvent.slowCall("foo", i));
+		}
+		assertThat(cursor.poll(2)).extracting(BreakerEvent::getDurationMillis).containsExactly(0L, 1L);
+		assertThat(cursor.poll(2)).extracting(BreakerEvent::getDurationMillis).containsExactly(2L, 3L);
+		assertThat(cursor.poll(2)).extracting(BreakerEvent::getDurationMillis).containsExactly(4L);
+		assertThat(cursor.getDroppedEvents()).isZero();
+	}
+
+	@Test
+	public void cursorsReadIndependently() {
+		BreakerEventBuffer buffer = new BreakerEventBuffer(8);
+		BreakerEventBuffer.Cursor first = buffer.cursor();
+		buffer.publish(BreakerEvent.callNotPermitted("foo"));
+		BreakerEventBuffer.Cursor second = buffer.cursor();
+		buffer.publish(BreakerEvent.stateTransition("foo", "OPEN", "HALF_OPEN"));
+		assertThat(first.poll(10)).extracting(BreakerEvent::getType).containsExactly(
+				BreakerEvent.Type.CALL_NOT_PERMITTED, BreakerEvent.Type.STATE_TRANSITION);
+		assertThat(second.poll(10)).extracting(BreakerEvent::getType)
+				.containsExactly(BreakerEvent.Type.STATE_TRANSITION);
+	}
+
+	@Test
+	public void concurrentPublishersLoseNoEventsWhenReaderKeepsUp() throws Exception {
+		int publishers = 4;
+		int eventsPerPublisher = 1000;
+		BreakerEventBuffer buffer = new BreakerEventBuffer(publishers * eventsPerPublisher);
+		BreakerEventBuffer.Cursor cursor = buffer.cursor();
+		AtomicBoolean done = new AtomicBoolean();
+		List<BreakerEvent> events = new ArrayList<>();
+		Thread reader = new Thread(() -> {
+			while (!done.get()) {
+				events.addAll(cursor.poll(64));
+			}
+		});
+		reader.start();
+		publish(buffer, publishers, eventsPerPublisher);
+		done.set(true);
+		reader.join(10000);
+		events.addAll(cursor.poll(Integer.MAX_VALUE));
+		assertThat(events).hasSize(publishers * eventsPerPublisher);
+		assertThat(cursor.getDroppedEvents()).isZero();
+		assertInPublishOrder(events);
+	}
+
+	@Test
+	public void concurrentPublishersOverwriteEventsReaderDoesNotKeepUpWith() throws Exception {
+		int publishers = 4;
+		int eventsPerPublisher = 5000;
+		BreakerEventBuffer buffer = new BreakerEventBuffer(16);
+		BreakerEventBuffer.Cursor cursor = buffer.cursor();
+		AtomicBoolean done = new AtomicBoolean();
+		List<BreakerEvent> events = new ArrayList<>();
+		Thread reader = new Thread(() -> {
+			while (!done.get()) {
+				events.addAll(cursor.poll(4));
+			}
+		});
+		reader.start();
+		publish(buffer, publishers, eventsPerPublisher);
+		done.set(true);
+		reader.join(10000);
+		List<BreakerEvent> remaining;
+		while (!(remaining = cursor.poll(Integer.MAX_VALUE)).isEmpty()) {
+			events.addAll(remaining);
+		}
+		assertThat(events.size() + cursor.getDroppedEvents()).isEqualTo(publishers * eventsPerPublisher);
+		assertInPublishOrder(events);
+	}
+
+	@Test
+	public void fluxStreamsEventsPublishedAfterSubscribing() {
+		BreakerEventBuffer buffer = new BreakerEventBuffer(8);
+		buffer.publish(BreakerEvent.slowCall("foo", 1));
+		StepVerifier.withVirtualTime(() -> BreakerEventFlux.from(buffer))
+				.then(() -> buffer.publish(BreakerEvent.slowCall("foo", 2)))
+				.thenAwait(Duration.ofMillis(100))
+				.assertNext(event -> assertThat(event.getDurationMillis()).isEqualTo(2))
+				.then(() -> buffer.publish(BreakerEvent.slowCall("foo", 3)))
+				.thenAwait(Duration.ofMillis(100))
+				.assertNext(event -> assertThat(event.getDurationMillis()).isEqualTo(3))
+				.thenCancel().verify(Duration.ofSeconds(5));
+	}
+
+	@Test
+	public void fluxStopsReadingWhenCancelled() {
+		BreakerEventBuffer buffer = new BreakerEventBuffer(8);
+		StepVerifier.withVirtualTime(() -> BreakerEventFlux.from(buffer))
+				.then(() -> buffer.publish(BreakerEvent.slowCall("foo", 1))).thenAwait(Duration.ofMillis(100))
+				.expectNextCount(1).thenCancel().verify(Duration.ofSeconds(5));
+		// Publishing after the subscriber went away neither blocks nor fails
+		for (int i = 0; i < 100; i++) {
+			buffer.publish(BreakerEvent.slowCall("foo", i));
+		}
+		StepVerifier.withVirtualTime(() -> BreakerEventFlux.from(buffer))
+				.then(() -> buffer.publish(BreakerEvent.slowCall("bar", 0))).thenAwait(Duration.ofMillis(100))
+				.assertNext(event -> assertThat(event.getId()).isEqualTo("bar")).thenCancel()
+				.verify(Duration.ofSeconds(5));
+	}
+
+	private static void publish(BreakerEventBuffer buffer, int publishers, int eventsPerPublisher) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(publishers);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<?>> futures = new ArrayList<>();
+		try {
+			for (int p = 0; p < publishers; p++) {
+				String id = "publisher" + p;
+				futures.add(executor.submit(() -> {
+					start.await();
+					for (int i = 0; i < eventsPerPublisher; i++) {
+						buffer.publish(BreakerEvent.slowCall(id, i));
+					}
+					return null;
+				}));
+			}
+			start.countDown();
+			for (Future<?> future : futures) {
+				future.get(10, TimeUnit.SECONDS);
+			}
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static void assertInPublishOrder(List<BreakerEvent> events) {
+		Map<String, Long> last = new HashMap<>();
+		for (BreakerEvent event : events) {
+			Long previous = last.put(event.getId(), event.getDurationMillis());
+			if (previous != null) {
+				assertThat(event.getDurationMillis()).isGreaterThan(previous);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.commons;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Ryan Baxter
+ */
+public class CircuitBreakersEndpointTest {
+
+	@Test
+	public void listsEveryContributor() {
+		CircuitBreakersEndpoint endpoint = new CircuitBreakersEndpoint(
+				Arrays.asList(new StubContributor("first", "OPEN", "payments/charge", "orders"),
+						new StubContributor("second", "FORCE_OPEN", "payments/refund")));
+		assertThat(endpoint.circuitBreakers().getFactories()).containsOnlyKeys("first", "second");
+		assertThat(endpoint.circuitBreakers().getFactories().get("first")).containsOnlyKeys("orders",
+				"payments/charge");
+		assertThat(endpoint.circuitBreaker("payments/refund")).containsOnlyKeys("second");
+		assertThat(endpoint.circuitBreaker("missing")).isNull();
+	}
+
+	@Test
+	public void transitionsOnlyFactoriesThatSupportIt() {
+		StubContributor first = new StubContributor("first", "OPEN", "payments/charge", "orders");
+		StubContributor second = new StubContributor("second", "FORCE_OPEN", "payments/refund");
+		CircuitBreakersEndpoint endpoint = new CircuitBreakersEndpoint(Arrays.asList(first, second));
+		assertThat(endpoint.transition("payments/*", "OPEN", null))
+				.isEqualTo(Collections.singletonMap("first", Collections.singletonList("payments/charge")));
+		assertThat(endpoint.circuitBreaker("payments/charge").get("first").getState()).isEqualTo("OPEN");
+		assertThat(endpoint.circuitBreaker("orders").get("first").getState()).isEqualTo("CLOSED");
+		assertThat(endpoint.transition("*", "FORCE_OPEN", "first")).isEmpty();
+		assertThat(second.states.get("payments/refund")).isEqualTo("CLOSED");
+	}
+
+	private static final class StubContributor implements CircuitBreakersContributor {
+
+		private final String name;
+
+		private final String transition;
+
+		private final Map<String, String> states = new TreeMap<>();
+
+		StubContributor(String name, String transition, String... ids) {
+			this.name = name;
+			this.transition = transition;
+			for (String id : ids) {
+				states.put(id, "CLOSED");
+			}
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public Collection<String> getIds() {
+			return states.keySet();
+		}
+
+		@Override
+		public CircuitBreakerDescriptor describe(String id) {
+			String state = states.get(id);
+			return state != null ? new CircuitBreakerDescriptor(state, 0) : null;
+		}
+
+		@Override
+		public Set<String> getTransitions() {
+			return Collections.singleton(transition);
+		}
+
+		@Override
+		public boolean transition(String id, String transition) {
+			states.put(id, "OPEN");
+			return true;
+		}
+
+	}
+
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.commons;
+
+import java.time.Duration;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Ryan Baxter
+ */
+public class FallbackCacheTest {
+
+	@Test
+	public void evictsLeastRecentlyUsedBeyondMaxSize() {
+		FallbackCache cache = new FallbackCache(10, Duration.ofMinutes(1));
+		for (int i = 0; i < 10; i++) {
+			cache.put(i, "value" + i);
+		}
+		assertThat(cache.<String>get(0)).contains("value0");
+		cache.put(10, "value10");
+		assertThat(cache.size()).isLessThanOrEqualTo(10);
+		assertThat(cache.<String>get(0)).contains("value0");
+		assertThat(cache.<String>get(10)).contains("value10");
+		assertThat(cache.get(1)).isEmpty();
+	}
+
+	@Test
+	public void staysBoundedAndKeepsRecentlyUsedEntries() {
+		FallbackCache cache = new FallbackCache(100, Duration.ofMinutes(1));
+		cache.put("hot", "value");
+		for (int i = 0; i < 10000; i++) {
+			assertThat(cache.<String>get("hot")).contains("value");
+			cache.put(i, "value" + i);
+			assertThat(cache.size()).isLessThanOrEqualTo(100);
+		}
+		assertThat(cache.<String>get(9999)).contains("value9999");
+	}
+
+	@Test
+	public void expiresEntries() throws Exception {
+		FallbackCache cache = new FallbackCache(10, Duration.ofMillis(10));
+		cache.put("foo", "bar");
+		Thread.sleep(20);
+		assertThat(cache.get("foo")).isEmpty();
+		assertThat(cache.size()).isEqualTo(0);
+	}
+
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.commons;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+/**
+ * @author Ryan Baxter
+ */
+public class IdPatternMatcherTest {
+
+	@Test
+	public void exactPatternWinsOverPrefix() {
+		IdPatternMatcher<String> matcher = new IdPatternMatcher<>();
+		matcher.add("payments/*", "prefix");
+		matcher.add("payments/charge", "exact");
+		assertThat(matcher.match("payments/charge")).isEqualTo("exact");
+		assertThat(matcher.match("payments/refund")).isEqualTo("prefix");
+		assertThat(matcher.match("payments/charge/card")).isEqualTo("prefix");
+	}
+
+	@Test
+	public void longestPrefixWins() {
+		IdPatternMatcher<String> matcher = new IdPatternMatcher<>();
+		matcher.add("*", "all");
+		matcher.add("payments/*", "payments");
+		matcher.add("payments/card*", "card");
+		assertThat(matcher.match("payments/cardholder")).isEqualTo("card");
+		assertThat(matcher.match("payments/cash")).isEqualTo("payments");
+		assertThat(matcher.match("orders")).isEqualTo("all");
+		assertThat(matcher.match("")).isEqualTo("all");
+	}
+
+	@Test
+	public void noMatch() {
+		IdPatternMatcher<String> matcher = new IdPatternMatcher<>();
+		assertThat(matcher.isEmpty()).isTrue();
+		assertThat(matcher.match("foo")).isNull();
+		matcher.add("foo", "foo");
+		assertThat(matcher.isEmpty()).isFalse();
+		assertThat(matcher.match("fo")).isNull();
+		assertThat(matcher.match("foobar")).isNull();
+	}
+
+	@Test
+	public void addReplacesValue() {
+		IdPatternMatcher<String> matcher = new IdPatternMatcher<>();
+		matcher.add("foo*", "first");
+		matcher.add("foo*", "second");
+		assertThat(matcher.match("foobar")).isEqualTo("second");
+	}
+
+	@Test
+	public void onlyTrailingWildcardIsSupported() {
+		IdPatternMatcher<String> matcher = new IdPatternMatcher<>();
+		assertThatIllegalArgumentException().isThrownBy(() -> matcher.add("*/charge", "value"));
+		assertThatIllegalArgumentException().isThrownBy(() -> matcher.add("pay*ments", "value"));
+		assertThat(matcher.isEmpty()).isTrue();
+	}
+
+	@Test
+	public void concurrentAddAndMatch() throws Exception {
+		IdPatternMatcher<Integer> matcher = new IdPatternMatcher<>();
+		matcher.add("service/*", -1);
+		int threads = 8;
+		int patterns = 500;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<?>> futures = new ArrayList<>();
+		try {
+			for (int t = 0; t < threads; t++) {
+				int offset = t;
+				futures.add(executor.submit(() -> {
+					start.await();
+					for (int i = offset; i < patterns; i += threads) {
+						matcher.add("service/" + i + "/*", i);
+						assertThat(matcher.match("service/" + i + "/call")).isEqualTo(i);
+						assertThat(matcher.match("service/other")).isEqualTo(-1);
+					}
+					return null;
+				}));
+			}
+			start.countDown();
+			for (Future<?> future : futures) {
+				future.get(10, TimeUnit.SECONDS);
+			}
+		}
+		finally {
+			executor.shutdownNow();
+		}
+		for (int i = 0; i < patterns; i++) {
+			assertThat(matcher.match("service/" + i + "/call")).isEqualTo(i);
+		}
+	}
+
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.commons;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Ryan Baxter
+ */
+public class RetryBudgetTest {
+
+	@Test
+	public void countsConcurrentRequests() throws InterruptedException {
+		RetryBudget budget = new RetryBudget(0.1, Duration.ofHours(1), 0);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < 8; i++) {
+			Thread thread = new Thread(() -> {
+				try {
+					start.await();
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+				for (int j = 0; j < 10000; j++) {
+					budget.recordRequest();
+				}
+			});
+			thread.start();
+			threads.add(thread);
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		int acquired = 0;
+		while (budget.tryAcquireRetry()) {
+			acquired++;
+		}
+		assertThat(budget.getTotalRequests()).isEqualTo(80000);
+		assertThat(acquired).isEqualTo(8000);
+		assertThat(budget.getRejectedRetries()).isEqualTo(1);
+	}
+
+	@Test
+	public void forgetsRequestsOutsideTheWindow() throws InterruptedException {
+		RetryBudget budget = new RetryBudget(0.5, Duration.ofMillis(100), 0);
+		budget.recordRequest();
+		budget.recordRequest();
+		Thread.sleep(150);
+		assertThat(budget.tryAcquireRetry()).isFalse();
+		budget.recordRequest();
+		budget.recordRequest();
+		assertThat(budget.tryAcquireRetry()).isTrue();
+		assertThat(budget.tryAcquireRetry()).isFalse();
+	}
+
+}
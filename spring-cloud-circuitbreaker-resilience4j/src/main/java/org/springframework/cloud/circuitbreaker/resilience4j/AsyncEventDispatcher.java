@@ -0,0 +1,373 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.resilience4j;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.event.CircuitBreakerEvent;
+import io.github.resilience4j.circuitbreaker.event.CircuitBreakerOnCallNotPermittedEvent;
+import io.github.resilience4j.circuitbreaker.event.CircuitBreakerOnErrorEvent;
+import io.github.resilience4j.circuitbreaker.event.CircuitBreakerOnFailureRateExceededEvent;
+import io.github.resilience4j.circuitbreaker.event.CircuitBreakerOnIgnoredErrorEvent;
+import io.github.resilience4j.circuitbreaker.event.CircuitBreakerOnResetEvent;
+import io.github.resilience4j.circuitbreaker.event.CircuitBreakerOnSlowCallRateExceededEvent;
+import io.github.resilience4j.circuitbreaker.event.CircuitBreakerOnStateTransitionEvent;
+import io.github.resilience4j.circuitbreaker.event.CircuitBreakerOnSuccessEvent;
+import io.github.resilience4j.core.EventConsumer;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.util.Assert;
+
+/**
+ * Runs event consumers on a thread of its own instead of the thread of the call that
+ * published the event. Events are added to a bounded ring buffer that many threads
+ * publish to and one thread drains, so publishing an event costs a single atomic
+ * increment and never blocks. When the buffer is full the event is dropped and counted
+ * rather than making the call wait for slow consumers.
+ *
+ * @author Ryan Baxter
+ * @see Resilience4JCircuitBreakerFactory#configureAsyncEventDispatch(AsyncEventDispatcher)
+ */
+public class AsyncEventDispatcher implements AutoCloseable {
+
+	private static final Log log = LogFactory.getLog(AsyncEventDispatcher.class);
+
+	private static final long MIN_IDLE_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+	private static final long MAX_IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+	private final AtomicReferenceArray<Dispatch<?>> slots;
+
+	/**
+	 * The sequence each slot is ready for. A slot can be written by the publisher of
+	 * sequence {@code n} when it holds {@code n}, and read by the dispatcher once it
+	 * holds {@code n + 1}.
+	 */
+	private final AtomicLongArray sequences;
+
+	private final int mask;
+
+	private final AtomicLong tail = new AtomicLong();
+
+	private long head;
+
+	private final LongAdder droppedEvents = new LongAdder();
+
+	private final AtomicLong dispatchedEvents = new AtomicLong();
+
+	private final AtomicLong failedEvents = new AtomicLong();
+
+	private final Map<String, Decorated> decorated = new ConcurrentHashMap<>();
+
+	private final Thread thread;
+
+	private volatile boolean closed;
+
+	/**
+	 * Constructor.
+	 * @param capacity The number of events that can wait to be dispatched, rounded up to
+	 * a power of two of at least two.
+	 */
+	public AsyncEventDispatcher(int capacity) {
+		Assert.isTrue(capacity > 0 && capacity <= 1 << 30, "capacity must be between 1 and 2^30");
+		// A single slot cannot tell a written slot from a free one, both hold the next sequence
+		int size = capacity == 1 ? 2
+				: Integer.highestOneBit(capacity) == capacity ? capacity : Integer.highestOneBit(capacity) << 1;
+		this.slots = new AtomicReferenceArray<>(size);
+		this.sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			sequences.set(i, i);
+		}
+		this.mask = size - 1;
+		this.thread = new Thread(this::drain, "circuitbreaker-event-dispatcher");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	public int getCapacity() {
+		return slots.length();
+	}
+
+	/**
+	 * Returns a consumer that passes the events it receives to {@code consumer} on the
+	 * dispatcher thread.
+	 * @param consumer The consumer.
+	 * @param <T> The type of the events.
+	 * @return The asynchronous consumer.
+	 */
+	public <T> EventConsumer<T> async(EventConsumer<T> consumer) {
+		Assert.notNull(consumer, "consumer must not be null");
+		return event -> publish(new Dispatch<>(consumer, event));
+	}
+
+	/**
+	 * Returns the number of events dropped because the buffer was full.
+	 * @return The number of events dropped.
+	 */
+	public long getDroppedEvents() {
+		return droppedEvents.sum();
+	}
+
+	/**
+	 * Returns the number of events passed to their consumers.
+	 * @return The number of events dispatched.
+	 */
+	public long getDispatchedEvents() {
+		return dispatchedEvents.get();
+	}
+
+	/**
+	 * Returns the number of events whose consumer threw an exception.
+	 * @return The number of events that failed.
+	 */
+	public long getFailedEvents() {
+		return failedEvents.get();
+	}
+
+	/**
+	 * Returns the number of events waiting to be dispatched.
+	 * @return The number of events waiting.
+	 */
+	public int getPendingEvents() {
+		return (int) Math.max(0, tail.get() - dispatchedEvents.get() - failedEvents.get());
+	}
+
+	/**
+	 * Dispatches the events that were already published and stops the dispatcher thread.
+	 * Events published afterwards are dropped.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		LockSupport.unpark(thread);
+		try {
+			thread.join(TimeUnit.SECONDS.toMillis(10));
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Returns a view of {@code circuitBreaker} whose event publisher registers consumers
+	 * with this dispatcher. Views are kept per id, so customizers that run on every call
+	 * do not create a new one each time.
+	 */
+	CircuitBreaker decorate(CircuitBreaker circuitBreaker) {
+		Decorated view = decorated.get(circuitBreaker.getName());
+		if (view == null || view.delegate != circuitBreaker) {
+			view = new Decorated(circuitBreaker, proxy(circuitBreaker, new AsyncEventPublisher(
+					circuitBreaker.getEventPublisher())));
+			decorated.put(circuitBreaker.getName(), view);
+		}
+		return view.proxy;
+	}
+
+	/**
+	 * Drops the view of the circuit breaker {@code id}, for example after it was evicted.
+	 */
+	void forget(String id) {
+		decorated.remove(id);
+	}
+
+	private CircuitBreaker proxy(CircuitBreaker circuitBreaker, CircuitBreaker.EventPublisher eventPublisher) {
+		return (CircuitBreaker) Proxy.newProxyInstance(CircuitBreaker.class.getClassLoader(),
+				new Class<?>[] { CircuitBreaker.class }, (proxy, method, args) -> {
+					if (method.getName().equals("getEventPublisher") && method.getParameterCount() == 0) {
+						return eventPublisher;
+					}
+					try {
+						return method.invoke(circuitBreaker, args);
+					}
+					catch (InvocationTargetException e) {
+						throw e.getTargetException();
+					}
+				});
+	}
+
+	private void publish(Dispatch<?> dispatch) {
+		if (closed) {
+			droppedEvents.increment();
+			return;
+		}
+		long sequence = tail.get();
+		while (true) {
+			int index = (int) (sequence & mask);
+			long available = sequences.get(index);
+			if (available == sequence) {
+				if (tail.compareAndSet(sequence, sequence + 1)) {
+					slots.lazySet(index, dispatch);
+					sequences.lazySet(index, sequence + 1);
+					return;
+				}
+				sequence = tail.get();
+			}
+			else if (available < sequence) {
+				// The dispatcher has not read this slot yet, the buffer is full
+				droppedEvents.increment();
+				return;
+			}
+			else {
+				sequence = tail.get();
+			}
+		}
+	}
+
+	private void drain() {
+		long idleNanos = MIN_IDLE_NANOS;
+		while (true) {
+			int index = (int) (head & mask);
+			if (sequences.get(index) == head + 1) {
+				Dispatch<?> dispatch = slots.get(index);
+				slots.lazySet(index, null);
+				sequences.lazySet(index, head + slots.length());
+				head++;
+				try {
+					dispatch.run();
+					dispatchedEvents.lazySet(dispatchedEvents.get() + 1);
+				}
+				catch (Throwable throwable) {
+					// A failing consumer must not stop the events of the others, nor kill
+					// the only thread that dispatches them
+					failedEvents.lazySet(failedEvents.get() + 1);
+					if (log.isDebugEnabled()) {
+						log.debug("Event consumer failed to handle " + dispatch.event, throwable);
+					}
+				}
+				idleNanos = MIN_IDLE_NANOS;
+			}
+			else if (closed && tail.get() == head) {
+				return;
+			}
+			else {
+				// Publishers never signal the dispatcher, it backs off while there is
+				// nothing to dispatch
+				LockSupport.parkNanos(this, idleNanos);
+				idleNanos = Math.min(idleNanos * 2, MAX_IDLE_NANOS);
+			}
+		}
+	}
+
+	private static final class Dispatch<T> {
+
+		private final EventConsumer<T> consumer;
+
+		private final T event;
+
+		private Dispatch(EventConsumer<T> consumer, T event) {
+			this.consumer = consumer;
+			this.event = event;
+		}
+
+		private void run() {
+			consumer.consumeEvent(event);
+		}
+
+	}
+
+	private static final class Decorated {
+
+		private final CircuitBreaker delegate;
+
+		private final CircuitBreaker proxy;
+
+		private Decorated(CircuitBreaker delegate, CircuitBreaker proxy) {
+			this.delegate = delegate;
+			this.proxy = proxy;
+		}
+
+	}
+
+	private final class AsyncEventPublisher implements CircuitBreaker.EventPublisher {
+
+		private final CircuitBreaker.EventPublisher delegate;
+
+		private AsyncEventPublisher(CircuitBreaker.EventPublisher delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public void onEvent(EventConsumer<CircuitBreakerEvent> consumer) {
+			delegate.onEvent(async(consumer));
+		}
+
+		@Override
+		public CircuitBreaker.EventPublisher onSuccess(EventConsumer<CircuitBreakerOnSuccessEvent> consumer) {
+			delegate.onSuccess(async(consumer));
+			return this;
+		}
+
+		@Override
+		public CircuitBreaker.EventPublisher onError(EventConsumer<CircuitBreakerOnErrorEvent> consumer) {
+			delegate.onError(async(consumer));
+			return this;
+		}
+
+		@Override
+		public CircuitBreaker.EventPublisher onStateTransition(
+				EventConsumer<CircuitBreakerOnStateTransitionEvent> consumer) {
+			delegate.onStateTransition(async(consumer));
+			return this;
+		}
+
+		@Override
+		public CircuitBreaker.EventPublisher onReset(EventConsumer<CircuitBreakerOnResetEvent> consumer) {
+			delegate.onReset(async(consumer));
+			return this;
+		}
+
+		@Override
+		public CircuitBreaker.EventPublisher onIgnoredError(EventConsumer<CircuitBreakerOnIgnoredErrorEvent> consumer) {
+			delegate.onIgnoredError(async(consumer));
+			return this;
+		}
+
+		@Override
+		public CircuitBreaker.EventPublisher onCallNotPermitted(
+				EventConsumer<CircuitBreakerOnCallNotPermittedEvent> consumer) {
+			delegate.onCallNotPermitted(async(consumer));
+			return this;
+		}
+
+		@Override
+		public CircuitBreaker.EventPublisher onFailureRateExceeded(
+				EventConsumer<CircuitBreakerOnFailureRateExceededEvent> consumer) {
+			delegate.onFailureRateExceeded(async(consumer));
+			return this;
+		}
+
+		@Override
+		public CircuitBreaker.EventPublisher onSlowCallRateExceeded(
+				EventConsumer<CircuitBreakerOnSlowCallRateExceededEvent> consumer) {
+			delegate.onSlowCallRateExceeded(async(consumer));
+			return this;
+		}
+
+	}
+
+}
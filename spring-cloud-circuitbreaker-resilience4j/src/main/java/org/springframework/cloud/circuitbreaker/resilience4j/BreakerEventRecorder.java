@@ -0,0 +1,84 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.resilience4j;
+
+import java.time.Duration;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+
+import org.springframework.cloud.circuitbreaker.commons.BreakerEvent;
+import org.springframework.cloud.circuitbreaker.commons.BreakerEventBuffer;
+
+/**
+ * Publishes the state transitions, rejected calls and slow calls of the circuit breakers
+ * of a registry to a {@link BreakerEventBuffer}. Resilience4J cannot remove event
+ * consumers, so once closed the consumers registered on the circuit breakers and the
+ * registry ignore the events.
+ *
+ * @author Ryan Baxter
+ */
+class BreakerEventRecorder {
+
+	private final BreakerEventBuffer buffer;
+
+	private volatile boolean closed;
+
+	BreakerEventRecorder(CircuitBreakerRegistry registry, BreakerEventBuffer buffer) {
+		this.buffer = buffer;
+		registry.getAllCircuitBreakers().forEach(this::attach);
+		registry.getEventPublisher().onEntryAdded(event -> attach(event.getAddedEntry()));
+		registry.getEventPublisher().onEntryReplaced(event -> attach(event.getNewEntry()));
+	}
+
+	BreakerEventBuffer getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * Stops publishing the events of the circuit breakers.
+	 */
+	void close() {
+		closed = true;
+	}
+
+	private void attach(CircuitBreaker circuitBreaker) {
+		if (closed) {
+			return;
+		}
+		String id = circuitBreaker.getName();
+		CircuitBreaker.EventPublisher publisher = circuitBreaker.getEventPublisher();
+		publisher.onStateTransition(event -> publish(BreakerEvent.stateTransition(id,
+				event.getStateTransition().getFromState().name(), event.getStateTransition().getToState().name())));
+		publisher.onCallNotPermitted(event -> publish(BreakerEvent.callNotPermitted(id)));
+		publisher.onSuccess(event -> recordIfSlow(circuitBreaker, event.getElapsedDuration()));
+		publisher.onError(event -> recordIfSlow(circuitBreaker, event.getElapsedDuration()));
+	}
+
+	private void publish(BreakerEvent event) {
+		if (!closed) {
+			buffer.publish(event);
+		}
+	}
+
+	private void recordIfSlow(CircuitBreaker circuitBreaker, Duration elapsed) {
+		if (!closed && elapsed.compareTo(circuitBreaker.getCircuitBreakerConfig().getSlowCallDurationThreshold()) > 0) {
+			publish(BreakerEvent.slowCall(circuitBreaker.getName(), elapsed.toMillis()));
+		}
+	}
+
+}
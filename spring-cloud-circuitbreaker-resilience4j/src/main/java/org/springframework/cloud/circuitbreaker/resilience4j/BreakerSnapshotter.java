@@ -0,0 +1,202 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.resilience4j;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.circuitbreaker.IllegalStateTransitionException;
+
+import org.springframework.cloud.circuitbreaker.commons.BreakerSnapshot;
+import org.springframework.cloud.circuitbreaker.commons.BreakerSnapshotStore;
+
+/**
+ * Connects the circuit breakers of a registry to a {@link BreakerSnapshotStore}. When a
+ * circuit breaker with a snapshot is created its state is restored, but not its sliding
+ * window, since recording the calls again would publish them as events to every
+ * consumer. A circuit that was open is opened again for what remains of its wait
+ * duration, or is half open if its wait duration has passed since it opened. The
+ * transitions made while restoring are not shared with other instances. Resilience4J
+ * cannot remove event consumers, so once closed the consumers registered on the circuit
+ * breakers and the registry ignore the events.
+ *
+ * @author Ryan Baxter
+ */
+class BreakerSnapshotter {
+
+	private static final ThreadLocal<Boolean> RESTORING = ThreadLocal.withInitial(() -> false);
+
+	private final CircuitBreakerRegistry registry;
+
+	private final BreakerSnapshotStore store;
+
+	private final BiConsumer<Runnable, Long> scheduler;
+
+	private final Map<String, Long> stateChangedAt = new ConcurrentHashMap<>();
+
+	private final Supplier<Collection<BreakerSnapshot>> source = this::snapshots;
+
+	private volatile boolean closed;
+
+	/**
+	 * Constructor.
+	 * @param registry The registry of the circuit breakers.
+	 * @param store The store of the snapshots.
+	 * @param scheduler Runs a task after a delay in milliseconds, used to make a restored
+	 * circuit half open once its wait duration has passed.
+	 */
+	BreakerSnapshotter(CircuitBreakerRegistry registry, BreakerSnapshotStore store,
+			BiConsumer<Runnable, Long> scheduler) {
+		this.registry = registry;
+		this.store = store;
+		this.scheduler = scheduler;
+		store.addSource(source);
+		registry.getAllCircuitBreakers().forEach(this::attach);
+		registry.getEventPublisher().onEntryAdded(event -> attach(event.getAddedEntry()));
+		registry.getEventPublisher().onEntryReplaced(event -> track(event.getNewEntry()));
+		registry.getEventPublisher().onEntryRemoved(event -> stateChangedAt.remove(event.getRemovedEntry().getName()));
+	}
+
+	/**
+	 * Returns whether the calling thread is restoring the state of a circuit breaker.
+	 */
+	static boolean isRestoring() {
+		return RESTORING.get();
+	}
+
+	BreakerSnapshotStore getStore() {
+		return store;
+	}
+
+	/**
+	 * Stops saving and restoring the state of the circuit breakers.
+	 */
+	void close() {
+		closed = true;
+		store.removeSource(source);
+	}
+
+	private void attach(CircuitBreaker circuitBreaker) {
+		if (closed) {
+			return;
+		}
+		track(circuitBreaker);
+		store.take(circuitBreaker.getName()).ifPresent(snapshot -> restore(circuitBreaker, snapshot));
+	}
+
+	private void track(CircuitBreaker circuitBreaker) {
+		if (closed) {
+			return;
+		}
+		circuitBreaker.getEventPublisher().onStateTransition(event -> {
+			if (!closed) {
+				stateChangedAt.put(circuitBreaker.getName(), System.currentTimeMillis());
+			}
+		});
+	}
+
+	private Collection<BreakerSnapshot> snapshots() {
+		List<BreakerSnapshot> snapshots = new ArrayList<>();
+		registry.getAllCircuitBreakers().forEach(circuitBreaker -> {
+			CircuitBreaker.Metrics metrics = circuitBreaker.getMetrics();
+			CircuitBreaker.State state = circuitBreaker.getState();
+			// Only the state is restored, and a closed circuit breaker starts out closed anyway
+			if (state == CircuitBreaker.State.CLOSED) {
+				return;
+			}
+			snapshots.add(new BreakerSnapshot(circuitBreaker.getName(), state.name(),
+					metrics.getNumberOfFailedCalls(), metrics.getNumberOfSuccessfulCalls(),
+					stateChangedAt.getOrDefault(circuitBreaker.getName(), 0L)));
+		});
+		return snapshots;
+	}
+
+	private void restore(CircuitBreaker circuitBreaker, BreakerSnapshot snapshot) {
+		CircuitBreaker.State state;
+		try {
+			state = CircuitBreaker.State.valueOf(snapshot.getState());
+		}
+		catch (IllegalArgumentException e) {
+			// Written by a version of Resilience4J with other states
+			return;
+		}
+		RESTORING.set(true);
+		try {
+			switch (state) {
+			case OPEN:
+			case HALF_OPEN:
+				circuitBreaker.transitionToOpenState();
+				long waitDuration = circuitBreaker.getCircuitBreakerConfig().getWaitIntervalFunctionInOpenState()
+						.apply(1);
+				long remaining = snapshot.getStateChangedAt() + waitDuration - System.currentTimeMillis();
+				if (state == CircuitBreaker.State.HALF_OPEN || remaining <= 0) {
+					circuitBreaker.transitionToHalfOpenState();
+				}
+				else {
+					// Keep the time the circuit opened so that it is not extended by every restart
+					stateChangedAt.put(circuitBreaker.getName(), snapshot.getStateChangedAt());
+					scheduler.accept(() -> halfOpen(circuitBreaker, snapshot.getStateChangedAt()), remaining);
+				}
+				break;
+			case FORCED_OPEN:
+				circuitBreaker.transitionToForcedOpenState();
+				break;
+			case DISABLED:
+				circuitBreaker.transitionToDisabledState();
+				break;
+			case METRICS_ONLY:
+				circuitBreaker.transitionToMetricsOnlyState();
+				break;
+			default:
+				break;
+			}
+		}
+		catch (IllegalStateTransitionException e) {
+			// Another thread changed the state first
+		}
+		finally {
+			RESTORING.set(false);
+		}
+	}
+
+	/**
+	 * Makes a restored circuit half open once the wait duration it had left has passed,
+	 * instead of the full wait duration Resilience4J waits after it was opened again.
+	 */
+	private void halfOpen(CircuitBreaker circuitBreaker, long openedAt) {
+		if (closed || circuitBreaker.getState() != CircuitBreaker.State.OPEN
+				|| registry.find(circuitBreaker.getName()).orElse(null) != circuitBreaker
+				|| stateChangedAt.getOrDefault(circuitBreaker.getName(), 0L) != openedAt) {
+			// Closed, evicted, replaced or opened again since it was restored
+			return;
+		}
+		try {
+			circuitBreaker.transitionToHalfOpenState();
+		}
+		catch (IllegalStateTransitionException e) {
+			// Another thread changed the state first
+		}
+	}
+
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.resilience4j;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * The state of a circuit breaker on one instance: the state of the circuit and the
+ * number of calls in its sliding window, of which how many failed.
+ *
+ * @author Ryan Baxter
+ */
+public class BreakerStateMessage {
+
+	private static final byte VERSION = 1;
+
+	private final String instanceId;
+
+	private final String id;
+
+	private final String state;
+
+	private final int failedCalls;
+
+	private final int bufferedCalls;
+
+	public BreakerStateMessage(String instanceId, String id, String state, int failedCalls, int bufferedCalls) {
+		this.instanceId = instanceId;
+		this.id = id;
+		this.state = state;
+		this.failedCalls = failedCalls;
+		this.bufferedCalls = bufferedCalls;
+	}
+
+	public String getInstanceId() {
+		return instanceId;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * Returns the name of the state of the circuit breaker, see
+	 * {@link io.github.resilience4j.circuitbreaker.CircuitBreaker.State}.
+	 * @return The name of the state.
+	 */
+	public String getState() {
+		return state;
+	}
+
+	public int getFailedCalls() {
+		return failedCalls;
+	}
+
+	public int getBufferedCalls() {
+		return bufferedCalls;
+	}
+
+	/**
+	 * Encodes the message, for example to send it over the network.
+	 * @return The encoded message.
+	 */
+	public byte[] toBytes() {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeByte(VERSION);
+			out.writeUTF(instanceId);
+			out.writeUTF(id);
+			out.writeUTF(state);
+			out.writeInt(failedCalls);
+			out.writeInt(bufferedCalls);
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Decodes a message encoded with {@link #toBytes()}.
+	 * @param bytes The buffer holding the encoded message.
+	 * @param offset The offset of the message in the buffer.
+	 * @param length The length of the message.
+	 * @return The message.
+	 * @throws IOException If the bytes are not a message or its counts are invalid.
+	 */
+	public static BreakerStateMessage fromBytes(byte[] bytes, int offset, int length) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, offset, length));
+		if (in.readByte() != VERSION) {
+			throw new IOException("Unsupported message version");
+		}
+		String instanceId = in.readUTF();
+		String id = in.readUTF();
+		String state = in.readUTF();
+		int failedCalls = in.readInt();
+		int bufferedCalls = in.readInt();
+		// Counts that no sliding window can hold would skew the failure rate of the fleet
+		if (failedCalls < 0 || bufferedCalls < failedCalls) {
+			throw new IOException("Invalid counts of calls");
+		}
+		return new BreakerStateMessage(instanceId, id, state, failedCalls, bufferedCalls);
+	}
+
+	@Override
+	public String toString() {
+		return "BreakerStateMessage{instanceId='" + instanceId + "', id='" + id + "', state=" + state
+				+ ", failedCalls=" + failedCalls + ", bufferedCalls=" + bufferedCalls + "}";
+	}
+
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.resilience4j;
+
+import java.util.function.Consumer;
+
+/**
+ * Shares the state of circuit breakers between the instances of an application, so
+ * that once some instances have seen a downstream service fail the others stop calling
+ * it as well. Implementations broadcast the messages published by one instance to
+ * every other instance, and may drop messages.
+ *
+ * @author Ryan Baxter
+ * @see LoopbackBreakerStateSync
+ * @see MulticastBreakerStateSync
+ */
+public interface BreakerStateSync extends AutoCloseable {
+
+	/**
+	 * Sends a message to the other instances.
+	 * @param message The message.
+	 */
+	void publish(BreakerStateMessage message);
+
+	/**
+	 * Registers a listener for the messages sent by any instance, including this one.
+	 * @param listener The listener.
+	 */
+	void addListener(Consumer<BreakerStateMessage> listener);
+
+	/**
+	 * Removes a listener registered with {@link #addListener(Consumer)}.
+	 * @param listener The listener.
+	 */
+	void removeListener(Consumer<BreakerStateMessage> listener);
+
+	@Override
+	default void close() {
+	}
+
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.resilience4j;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.circuitbreaker.IllegalStateTransitionException;
+
+/**
+ * Connects the circuit breakers of a registry to a {@link BreakerStateSync}. State
+ * transitions are published as they happen, and the sliding window counts of a circuit
+ * breaker are published when it records an error, at most every 100 milliseconds. A
+ * circuit breaker is opened when another instance reports that its circuit breaker of
+ * the same id opened, or when the counts of all instances together exceed its failure
+ * rate threshold. A circuit breaker whose own error takes the counts over the threshold
+ * is opened on the executor rather than from within its event consumer, which runs
+ * while the circuit breaker records the error. Closing is left to each instance, so
+ * every instance probes the downstream service itself. Resilience4J cannot remove event
+ * consumers, so once closed the consumers registered on the circuit breakers and the
+ * registry ignore the events.
+ *
+ * @author Ryan Baxter
+ */
+class BreakerStateSynchronizer {
+
+	private static final long PUBLISH_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	private static final long STALE_AFTER_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+	private final String instanceId = UUID.randomUUID().toString();
+
+	private final CircuitBreakerRegistry registry;
+
+	private final BreakerStateSync sync;
+
+	private final Executor executor;
+
+	private final Map<String, AtomicLong> lastPublished = new ConcurrentHashMap<>();
+
+	private final Map<String, Map<String, RemoteWindow>> remoteWindows = new ConcurrentHashMap<>();
+
+	private final ThreadLocal<Boolean> applyingRemoteState = ThreadLocal.withInitial(() -> false);
+
+	private final Consumer<BreakerStateMessage> listener = this::receive;
+
+	private volatile boolean closed;
+
+	BreakerStateSynchronizer(CircuitBreakerRegistry registry, BreakerStateSync sync, Executor executor) {
+		this.registry = registry;
+		this.sync = sync;
+		this.executor = executor;
+		registry.getAllCircuitBreakers().forEach(this::attach);
+		registry.getEventPublisher().onEntryAdded(event -> attach(event.getAddedEntry()));
+		registry.getEventPublisher().onEntryReplaced(event -> attach(event.getNewEntry()));
+		registry.getEventPublisher().onEntryRemoved(event -> forget(event.getRemovedEntry().getName()));
+		sync.addListener(listener);
+	}
+
+	String getInstanceId() {
+		return instanceId;
+	}
+
+	BreakerStateSync getSync() {
+		return sync;
+	}
+
+	/**
+	 * Stops sharing the state of the circuit breakers.
+	 */
+	void close() {
+		closed = true;
+		sync.removeListener(listener);
+	}
+
+	private void attach(CircuitBreaker circuitBreaker) {
+		if (closed) {
+			return;
+		}
+		circuitBreaker.getEventPublisher().onStateTransition(event -> {
+			// A state restored from a snapshot is not news to the other instances
+			if (!closed && !applyingRemoteState.get() && !BreakerSnapshotter.isRestoring()) {
+				publish(circuitBreaker, 0);
+			}
+		});
+		circuitBreaker.getEventPublisher().onError(event -> {
+			if (closed) {
+				return;
+			}
+			// The error is published before it is recorded in the sliding window
+			if (fleetFailureRateExceeded(circuitBreaker, 1)) {
+				// Opening publishes the state, and is not done while the error is recorded
+				executor.execute(() -> {
+					if (!closed) {
+						open(circuitBreaker);
+					}
+				});
+			}
+			else {
+				publishWindow(circuitBreaker);
+			}
+		});
+	}
+
+	private void forget(String id) {
+		lastPublished.remove(id);
+		remoteWindows.remove(id);
+	}
+
+	private void publishWindow(CircuitBreaker circuitBreaker) {
+		AtomicLong last = lastPublished.computeIfAbsent(circuitBreaker.getName(),
+				id -> new AtomicLong(System.nanoTime() - PUBLISH_INTERVAL_NANOS));
+		long now = System.nanoTime();
+		long previous = last.get();
+		if (now - previous >= PUBLISH_INTERVAL_NANOS && last.compareAndSet(previous, now)) {
+			publish(circuitBreaker, 1);
+		}
+	}
+
+	private void publish(CircuitBreaker circuitBreaker, int unrecordedErrors) {
+		CircuitBreaker.Metrics metrics = circuitBreaker.getMetrics();
+		CircuitBreakerConfig config = circuitBreaker.getCircuitBreakerConfig();
+		int bufferedCalls = metrics.getNumberOfBufferedCalls() + unrecordedErrors;
+		if (config.getSlidingWindowType() == CircuitBreakerConfig.SlidingWindowType.COUNT_BASED) {
+			// A full window drops its oldest call to record the error
+			bufferedCalls = Math.min(bufferedCalls, config.getSlidingWindowSize());
+		}
+		int failedCalls = Math.min(metrics.getNumberOfFailedCalls() + unrecordedErrors, bufferedCalls);
+		sync.publish(new BreakerStateMessage(instanceId, circuitBreaker.getName(), circuitBreaker.getState().name(),
+				failedCalls, bufferedCalls));
+	}
+
+	private void receive(BreakerStateMessage message) {
+		if (instanceId.equals(message.getInstanceId())) {
+			return;
+		}
+		Optional<CircuitBreaker> circuitBreaker = registry.find(message.getId());
+		if (!circuitBreaker.isPresent() || !isValid(message, circuitBreaker.get().getCircuitBreakerConfig())) {
+			return;
+		}
+		remoteWindows.computeIfAbsent(message.getId(), id -> new ConcurrentHashMap<>()).put(message.getInstanceId(),
+				new RemoteWindow(message.getFailedCalls(), message.getBufferedCalls(), System.nanoTime()));
+		if (CircuitBreaker.State.OPEN.name().equals(message.getState())) {
+			applyingRemoteState.set(true);
+			try {
+				open(circuitBreaker.get());
+			}
+			finally {
+				applyingRemoteState.set(false);
+			}
+		}
+		else if (fleetFailureRateExceeded(circuitBreaker.get(), 0)) {
+			open(circuitBreaker.get());
+		}
+	}
+
+	/**
+	 * Checks that the counts of a message fit in a sliding window configured like the
+	 * local one, so a single message cannot outweigh the counts of every other instance.
+	 */
+	private static boolean isValid(BreakerStateMessage message, CircuitBreakerConfig config) {
+		if (message.getFailedCalls() < 0 || message.getBufferedCalls() < message.getFailedCalls()) {
+			return false;
+		}
+		return config.getSlidingWindowType() != CircuitBreakerConfig.SlidingWindowType.COUNT_BASED
+				|| message.getBufferedCalls() <= config.getSlidingWindowSize();
+	}
+
+	/**
+	 * Adds up the sliding window counts of this instance and the recent counts of the
+	 * other instances, and returns whether the circuit breaker is closed and the failure
+	 * rate exceeds its threshold.
+	 */
+	private boolean fleetFailureRateExceeded(CircuitBreaker circuitBreaker, int unrecordedErrors) {
+		Map<String, RemoteWindow> windows = remoteWindows.get(circuitBreaker.getName());
+		if (windows == null || windows.isEmpty() || circuitBreaker.getState() != CircuitBreaker.State.CLOSED) {
+			return false;
+		}
+		long failed = circuitBreaker.getMetrics().getNumberOfFailedCalls() + unrecordedErrors;
+		long buffered = circuitBreaker.getMetrics().getNumberOfBufferedCalls() + unrecordedErrors;
+		long now = System.nanoTime();
+		for (Map.Entry<String, RemoteWindow> entry : windows.entrySet()) {
+			RemoteWindow window = entry.getValue();
+			if (now - window.receivedAt > STALE_AFTER_NANOS) {
+				windows.remove(entry.getKey(), window);
+				continue;
+			}
+			failed += window.failedCalls;
+			buffered += window.bufferedCalls;
+		}
+		CircuitBreakerConfig config = circuitBreaker.getCircuitBreakerConfig();
+		return buffered >= config.getMinimumNumberOfCalls()
+				&& failed * 100f / buffered >= config.getFailureRateThreshold();
+	}
+
+	private void open(CircuitBreaker circuitBreaker) {
+		if (circuitBreaker.getState() != CircuitBreaker.State.CLOSED) {
+			return;
+		}
+		try {
+			circuitBreaker.transitionToOpenState();
+		}
+		catch (IllegalStateTransitionException e) {
+			// Another thread changed the state first
+		}
+	}
+
+	private static final class RemoteWindow {
+
+		private final int failedCalls;
+
+		private final int bufferedCalls;
+
+		private final long receivedAt;
+
+		private RemoteWindow(int failedCalls, int bufferedCalls, long receivedAt) {
+			this.failedCalls = failedCalls;
+			this.bufferedCalls = bufferedCalls;
+			this.receivedAt = receivedAt;
+		}
+
+	}
+
+}
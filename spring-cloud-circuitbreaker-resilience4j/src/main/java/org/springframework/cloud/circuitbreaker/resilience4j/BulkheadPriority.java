@@ -0,0 +1,66 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.resilience4j;
+
+import java.util.function.Supplier;
+
+/**
+ * Holds the priority class of the calls made by the current thread, used by
+ * {@link PriorityBulkhead}.
+ *
+ * @author Ryan Baxter
+ */
+public final class BulkheadPriority {
+
+	private static final ThreadLocal<String> PRIORITY = new ThreadLocal<>();
+
+	private BulkheadPriority() {
+	}
+
+	/**
+	 * Calls {@code supplier} with {@code priority} as the priority class of the current
+	 * thread.
+	 * @param priority The priority class.
+	 * @param supplier The code to call.
+	 * @param <T> The type of the result.
+	 * @return The result of {@code supplier}.
+	 */
+	public static <T> T call(String priority, Supplier<T> supplier) {
+		String previous = PRIORITY.get();
+		PRIORITY.set(priority);
+		try {
+			return supplier.get();
+		}
+		finally {
+			if (previous != null) {
+				PRIORITY.set(previous);
+			}
+			else {
+				PRIORITY.remove();
+			}
+		}
+	}
+
+	/**
+	 * Returns the priority class of the current thread.
+	 * @return The priority class, or {@code null} if none is set.
+	 */
+	public static String get() {
+		return PRIORITY.get();
+	}
+
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.resilience4j;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+
+/**
+ * Records a call with a circuit breaker and its parents, for hierarchical ids such as
+ * {@code payments/charge} whose parent is {@code payments}. Permission is acquired from
+ * the root down to the leaf, so an open parent rejects the call before the leaf is
+ * asked, and the outcome and duration of the call are measured once and recorded with
+ * every circuit breaker.
+ *
+ * @author Ryan Baxter
+ */
+final class CircuitBreakerHierarchy {
+
+	private CircuitBreakerHierarchy() {
+	}
+
+	static <T> Callable<T> decorateCallable(CircuitBreaker circuitBreaker, List<CircuitBreaker> parents,
+			Callable<T> callable) {
+		if (parents.isEmpty()) {
+			return circuitBreaker.decorateCallable(callable);
+		}
+		return () -> {
+			CircuitBreaker notPermitted = tryAcquirePermission(circuitBreaker, parents);
+			if (notPermitted != null) {
+				throw CallNotPermittedException.createCallNotPermittedException(notPermitted);
+			}
+			long start = System.nanoTime();
+			T result;
+			try {
+				result = callable.call();
+			}
+			catch (Throwable throwable) {
+				// Errors too, or the permissions of half open circuit breakers would leak
+				onError(circuitBreaker, parents, System.nanoTime() - start, throwable);
+				throw throwable;
+			}
+			onSuccess(circuitBreaker, parents, System.nanoTime() - start);
+			return result;
+		};
+	}
+
+	/**
+	 * Acquires a permission from every circuit breaker, starting at the root.
+	 * @return {@code null} if every circuit breaker permitted the call, otherwise the
+	 * circuit breaker that did not, in which case no permission is held.
+	 */
+	static CircuitBreaker tryAcquirePermission(CircuitBreaker circuitBreaker, List<CircuitBreaker> parents) {
+		for (int i = parents.size(); i >= 0; i--) {
+			CircuitBreaker current = i == 0 ? circuitBreaker : parents.get(i - 1);
+			if (!current.tryAcquirePermission()) {
+				for (int j = parents.size(); j > i; j--) {
+					parents.get(j - 1).releasePermission();
+				}
+				return current;
+			}
+		}
+		return null;
+	}
+
+	static void releasePermission(CircuitBreaker circuitBreaker, List<CircuitBreaker> parents) {
+		forEachLevel(circuitBreaker, parents, CircuitBreaker::releasePermission);
+	}
+
+	static void onSuccess(CircuitBreaker circuitBreaker, List<CircuitBreaker> parents, long durationNanos) {
+		forEachLevel(circuitBreaker, parents, current -> current.onSuccess(durationNanos, TimeUnit.NANOSECONDS));
+	}
+
+	static void onError(CircuitBreaker circuitBreaker, List<CircuitBreaker> parents, long durationNanos,
+			Throwable throwable) {
+		forEachLevel(circuitBreaker, parents,
+				current -> current.onError(durationNanos, TimeUnit.NANOSECONDS, throwable));
+	}
+
+	/**
+	 * Applies {@code action} to the circuit breaker and every parent, even if it fails for
+	 * one of them, so that no level keeps a permission, and then rethrows the first
+	 * failure.
+	 */
+	private static void forEachLevel(CircuitBreaker circuitBreaker, List<CircuitBreaker> parents,
+			Consumer<CircuitBreaker> action) {
+		RuntimeException failure = null;
+		for (int i = 0; i <= parents.size(); i++) {
+			try {
+				action.accept(i == 0 ? circuitBreaker : parents.get(i - 1));
+			}
+			catch (RuntimeException e) {
+				if (failure == null) {
+					failure = e;
+				}
+				else {
+					failure.addSuppressed(e);
+				}
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.resilience4j;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import org.springframework.cloud.circuitbreaker.commons.IdPatternMatcher;
+
+/**
+ * The ids a factory was configured for explicitly and the patterns of ids it was
+ * configured for. A refresh of a factory fills in new ones off to the side, along with
+ * the configurations of the explicit ids, and publishes them in a single write, so calls
+ * never see the settings of a refresh that is still running.
+ *
+ * @author Ryan Baxter
+ */
+final class ConfiguredIds {
+
+	private final Set<String> ids = ConcurrentHashMap.newKeySet();
+
+	private final IdPatternMatcher<Consumer<Resilience4JConfigBuilder>> patterns = new IdPatternMatcher<>();
+
+	private final Map<String, Resilience4JConfigBuilder.Resilience4JCircuitBreakerConfiguration> configurations = new ConcurrentHashMap<>();
+
+	boolean contains(String id) {
+		return ids.contains(id);
+	}
+
+	void add(String id) {
+		ids.add(id);
+	}
+
+	/**
+	 * Records the configuration of an explicit id, to be applied once these settings
+	 * are published.
+	 */
+	void add(String id, Resilience4JConfigBuilder.Resilience4JCircuitBreakerConfiguration configuration) {
+		ids.add(id);
+		configurations.put(id, configuration);
+	}
+
+	Map<String, Resilience4JConfigBuilder.Resilience4JCircuitBreakerConfiguration> getConfigurations() {
+		return configurations;
+	}
+
+	IdPatternMatcher<Consumer<Resilience4JConfigBuilder>> getPatterns() {
+		return patterns;
+	}
+
+}
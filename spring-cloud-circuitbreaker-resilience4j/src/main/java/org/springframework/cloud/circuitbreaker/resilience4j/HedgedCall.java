@@ -0,0 +1,101 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.resilience4j;
+
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs an attempt and, if no attempt has succeeded after the hedging delay, a second
+ * attempt. The second attempt starts right away if the first one fails before the
+ * delay. The first successful attempt completes the call and the other attempt is
+ * cancelled. The call only fails once both attempts have failed.
+ *
+ * @author Ryan Baxter
+ */
+final class HedgedCall {
+
+	private HedgedCall() {
+	}
+
+	static <T> CompletableFuture<T> of(Supplier<CompletableFuture<T>> attempt, Duration delay,
+			ScheduledExecutorService scheduler) {
+		CompletableFuture<T> result = new CompletableFuture<>();
+		Queue<CompletableFuture<T>> attempts = new ConcurrentLinkedQueue<>();
+		AtomicInteger outstanding = new AtomicInteger(2);
+		AtomicBoolean hedged = new AtomicBoolean();
+		result.whenComplete((value, throwable) -> attempts.forEach(future -> future.cancel(true)));
+		Runnable hedge = () -> {
+			if (!result.isDone() && hedged.compareAndSet(false, true)) {
+				launch(attempt, attempts, outstanding, result, null);
+			}
+		};
+		// The hedge starts right away if the first attempt fails before the delay
+		launch(attempt, attempts, outstanding, result, hedge);
+		if (!result.isDone() && !hedged.get()) {
+			ScheduledFuture<?> scheduled = scheduler.schedule(hedge, delay.toNanos(), TimeUnit.NANOSECONDS);
+			result.whenComplete((value, throwable) -> scheduled.cancel(false));
+		}
+		return result;
+	}
+
+	private static <T> void launch(Supplier<CompletableFuture<T>> attempt, Queue<CompletableFuture<T>> attempts,
+			AtomicInteger outstanding, CompletableFuture<T> result, Runnable onFailure) {
+		CompletableFuture<T> future;
+		try {
+			future = attempt.get();
+		}
+		catch (Throwable t) {
+			future = new CompletableFuture<>();
+			future.completeExceptionally(t);
+		}
+		attempts.add(future);
+		future.whenComplete((value, throwable) -> {
+			if (throwable == null) {
+				result.complete(value);
+			}
+			else if (outstanding.decrementAndGet() == 0) {
+				result.completeExceptionally(unwrap(throwable));
+			}
+			else if (onFailure != null) {
+				onFailure.run();
+			}
+		});
+		if (result.isDone()) {
+			future.cancel(true);
+		}
+	}
+
+	static Throwable unwrap(Throwable throwable) {
+		if ((throwable instanceof CompletionException || throwable instanceof ExecutionException)
+				&& throwable.getCause() != null) {
+			return throwable.getCause();
+		}
+		return throwable;
+	}
+
+}
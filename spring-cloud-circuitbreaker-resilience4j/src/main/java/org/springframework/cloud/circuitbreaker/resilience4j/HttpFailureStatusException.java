@@ -0,0 +1,54 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.resilience4j;
+
+/**
+ * Passed to the circuit breaker when an HTTP call completes with a status that counts as
+ * a failure, a server error or {@code 429 Too Many Requests}. The response is kept
+ * without reading its body and is returned to the caller once the failure has been
+ * recorded.
+ *
+ * @author Ryan Baxter
+ * @see Resilience4JClientHttpRequestInterceptor
+ * @see ReactiveResilience4JExchangeFilterFunction
+ */
+public class HttpFailureStatusException extends RuntimeException {
+
+	private final int statusCode;
+
+	private final transient Object response;
+
+	HttpFailureStatusException(int statusCode, Object response) {
+		// A stack trace is of no use, this only carries the response to the fallback
+		super("HTTP status " + statusCode, null, false, false);
+		this.statusCode = statusCode;
+		this.response = response;
+	}
+
+	public int getStatusCode() {
+		return statusCode;
+	}
+
+	Object getResponse() {
+		return response;
+	}
+
+	static boolean isFailure(int statusCode) {
+		return statusCode >= 500 || statusCode == 429;
+	}
+
+}
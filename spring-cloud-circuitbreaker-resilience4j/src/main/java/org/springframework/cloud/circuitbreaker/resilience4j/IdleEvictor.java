@@ -0,0 +1,143 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.resilience4j;
+
+import java.time.Duration;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+import org.springframework.util.Assert;
+
+/**
+ * Tracks when circuit breaker ids were last used and picks the ids to evict, those idle
+ * for longer than the maximum idle time and, beyond the maximum size, the least recently
+ * used ones. Recording a use does not lock. Sweeps are meant to run in the background,
+ * every half the maximum idle time or every second if there is none, so picking the ids
+ * to evict never adds to the latency of a call.
+ *
+ * @author Ryan Baxter
+ */
+class IdleEvictor {
+
+	private static final long SIZE_SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	private final int maxSize;
+
+	private final long maxIdleNanos;
+
+	private final long sweepIntervalNanos;
+
+	private final Map<String, AtomicLong> lastUsed = new ConcurrentHashMap<>();
+
+	private final AtomicBoolean sweeping = new AtomicBoolean();
+
+	/**
+	 * Constructor.
+	 * @param maxSize The maximum number of ids kept.
+	 * @param maxIdleTime The time after which an unused id is evicted, or {@code null} to
+	 * only evict beyond the maximum size.
+	 */
+	IdleEvictor(int maxSize, Duration maxIdleTime) {
+		Assert.isTrue(maxSize > 0, "maxSize must be positive");
+		Assert.isTrue(maxIdleTime == null || (!maxIdleTime.isNegative() && !maxIdleTime.isZero()),
+				"maxIdleTime must be positive");
+		this.maxSize = maxSize;
+		this.maxIdleNanos = maxIdleTime != null ? maxIdleTime.toNanos() : Long.MAX_VALUE;
+		this.sweepIntervalNanos = maxIdleTime != null ? Math.max(1, maxIdleNanos / 2) : SIZE_SWEEP_INTERVAL_NANOS;
+	}
+
+	void touch(String id) {
+		long now = System.nanoTime();
+		AtomicLong used = lastUsed.get(id);
+		if (used == null) {
+			used = lastUsed.putIfAbsent(id, new AtomicLong(now));
+			if (used == null) {
+				return;
+			}
+		}
+		used.lazySet(now);
+	}
+
+	/**
+	 * Picks the ids to evict and removes them from the ids tracked, along with the pinned
+	 * ids, which no longer count towards the maximum size.
+	 * @param pinned Ids that must never be evicted.
+	 * @return The ids to evict, empty if another thread is sweeping.
+	 */
+	List<String> sweep(Predicate<String> pinned) {
+		if (!sweeping.compareAndSet(false, true)) {
+			return Collections.emptyList();
+		}
+		try {
+			long now = System.nanoTime();
+			List<String> evicted = new ArrayList<>();
+			List<Map.Entry<String, Long>> remaining = new ArrayList<>();
+			lastUsed.forEach((id, used) -> {
+				if (pinned.test(id)) {
+					lastUsed.remove(id);
+					return;
+				}
+				long usedAt = used.get();
+				if (now - usedAt >= maxIdleNanos) {
+					evicted.add(id);
+				}
+				else {
+					remaining.add(new AbstractMap.SimpleImmutableEntry<>(id, usedAt));
+				}
+			});
+			if (remaining.size() > maxSize) {
+				remaining.sort(Map.Entry.comparingByValue());
+				remaining.subList(0, remaining.size() - maxSize).forEach(entry -> evicted.add(entry.getKey()));
+			}
+			evicted.forEach(lastUsed::remove);
+			return evicted;
+		}
+		finally {
+			sweeping.set(false);
+		}
+	}
+
+	/**
+	 * Returns the interval at which ids should be swept.
+	 * @return The interval.
+	 */
+	Duration getSweepInterval() {
+		return Duration.ofNanos(sweepIntervalNanos);
+	}
+
+	boolean hasSettings(int maxSize, Duration maxIdleTime) {
+		return this.maxSize == maxSize
+				&& this.maxIdleNanos == (maxIdleTime != null ? maxIdleTime.toNanos() : Long.MAX_VALUE);
+	}
+
+	void remove(String id) {
+		lastUsed.remove(id);
+	}
+
+	int size() {
+		return lastUsed.size();
+	}
+
+}
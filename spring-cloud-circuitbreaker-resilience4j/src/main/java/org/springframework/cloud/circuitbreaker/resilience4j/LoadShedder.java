@@ -0,0 +1,137 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.resilience4j;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.util.Assert;
+
+/**
+ * Rejects new subscriptions to a {@link ReactiveResilience4JCircuitBreaker} while too
+ * many subscriptions are in flight, or while the oldest subscription still waiting for
+ * its first element has waited longer than the maximum residence time, which is a sign
+ * that the service or its consumers have fallen behind.
+ *
+ * @author Ryan Baxter
+ */
+public class LoadShedder {
+
+	/**
+	 * Returned by {@link #tryAcquire()} when the subscription is shed.
+	 */
+	public static final long SHED = -1;
+
+	private final int maxInFlight;
+
+	private final Duration maxResidenceTime;
+
+	private final long maxResidenceNanos;
+
+	private final AtomicLong sequence = new AtomicLong();
+
+	private final AtomicInteger inFlightCount = new AtomicInteger();
+
+	private final ConcurrentSkipListMap<Long, Long> waiting = new ConcurrentSkipListMap<>();
+
+	private final LongAdder admitted = new LongAdder();
+
+	private final LongAdder shed = new LongAdder();
+
+	/**
+	 * Constructor.
+	 * @param maxInFlight The maximum number of subscriptions in flight, {@code 0} for no
+	 * limit.
+	 * @param maxResidenceTime The maximum time the oldest subscription may have waited for
+	 * its first element before new subscriptions are shed, {@code null} for no limit.
+	 */
+	public LoadShedder(int maxInFlight, Duration maxResidenceTime) {
+		Assert.isTrue(maxInFlight >= 0, "maxInFlight must not be negative");
+		this.maxInFlight = maxInFlight > 0 ? maxInFlight : Integer.MAX_VALUE;
+		this.maxResidenceTime = maxResidenceTime;
+		this.maxResidenceNanos = maxResidenceTime != null ? maxResidenceTime.toNanos() : Long.MAX_VALUE;
+	}
+
+	/**
+	 * Admits a new subscription unless it has to be shed.
+	 * @return The permit to pass to {@link #release(long)} once the subscription
+	 * terminates, or {@link #SHED} if it was shed.
+	 */
+	public long tryAcquire() {
+		long now = System.nanoTime();
+		Map.Entry<Long, Long> oldest = waiting.firstEntry();
+		if (oldest != null && now - oldest.getValue() > maxResidenceNanos) {
+			shed.increment();
+			return SHED;
+		}
+		if (inFlightCount.incrementAndGet() > maxInFlight) {
+			inFlightCount.decrementAndGet();
+			shed.increment();
+			return SHED;
+		}
+		long permit = sequence.getAndIncrement();
+		waiting.put(permit, now);
+		admitted.increment();
+		return permit;
+	}
+
+	/**
+	 * Records that the subscription holding {@code permit} has received an element, so it
+	 * no longer counts towards the residence time.
+	 * @param permit The permit returned by {@link #tryAcquire()}.
+	 */
+	public void onElement(long permit) {
+		waiting.remove(permit);
+	}
+
+	/**
+	 * Releases a permit returned by {@link #tryAcquire()} once its subscription has
+	 * terminated. Must be called once per permit.
+	 * @param permit The permit to release.
+	 */
+	public void release(long permit) {
+		if (permit != SHED) {
+			waiting.remove(permit);
+			inFlightCount.decrementAndGet();
+		}
+	}
+
+	public int getMaxInFlight() {
+		return maxInFlight;
+	}
+
+	public Duration getMaxResidenceTime() {
+		return maxResidenceTime;
+	}
+
+	public int getInFlight() {
+		return inFlightCount.get();
+	}
+
+	public long getAdmittedCount() {
+		return admitted.sum();
+	}
+
+	public long getShedCount() {
+		return shed.sum();
+	}
+
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.resilience4j;
+
+/**
+ * Passed to the fallback when a subscription is shed by a {@link LoadShedder}.
+ *
+ * @author Ryan Baxter
+ */
+public class LoadSheddingException extends RuntimeException {
+
+	public LoadSheddingException(String id) {
+		super("Load shed by circuit breaker " + id);
+	}
+
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.resilience4j;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * A {@link BreakerStateSync} that delivers messages to its listeners in memory, on the
+ * thread that publishes them. Sharing one instance between several factories lets them
+ * act as the instances of an application, for example in tests.
+ *
+ * @author Ryan Baxter
+ */
+public class LoopbackBreakerStateSync implements BreakerStateSync {
+
+	private final List<Consumer<BreakerStateMessage>> listeners = new CopyOnWriteArrayList<>();
+
+	@Override
+	public void publish(BreakerStateMessage message) {
+		listeners.forEach(listener -> listener.accept(message));
+	}
+
+	@Override
+	public void addListener(Consumer<BreakerStateMessage> listener) {
+		listeners.add(listener);
+	}
+
+	@Override
+	public void removeListener(Consumer<BreakerStateMessage> listener) {
+		listeners.remove(listener);
+	}
+
+}
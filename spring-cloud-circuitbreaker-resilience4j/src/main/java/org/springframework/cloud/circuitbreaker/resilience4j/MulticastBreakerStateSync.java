@@ -0,0 +1,261 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.resilience4j;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.springframework.util.Assert;
+
+/**
+ * A {@link BreakerStateSync} that sends messages to a UDP multicast group. Every message
+ * is a single datagram, so messages may be lost or arrive out of order. Messages are
+ * queued and sent by a thread of its own, so publishing never waits for the network,
+ * and are dropped while the queue is full. Loopback is enabled, so instances on the same
+ * host, for example in tests, receive each other's messages.
+ * <p>
+ * Any host that can send to the group can open the circuit breakers of every instance.
+ * Without a secret every member of the group must be trusted. With a secret every
+ * message is signed with an HMAC-SHA256 of the secret, and messages without a valid
+ * signature are dropped. Signed messages can still be replayed by hosts that can send to
+ * the group.
+ *
+ * @author Ryan Baxter
+ */
+public class MulticastBreakerStateSync implements BreakerStateSync {
+
+	private static final int MAX_MESSAGE_SIZE = 1024;
+
+	private static final int QUEUE_CAPACITY = 1024;
+
+	private static final String MAC_ALGORITHM = "HmacSHA256";
+
+	private static final int MAC_LENGTH = 32;
+
+	private final InetSocketAddress group;
+
+	private final NetworkInterface networkInterface;
+
+	private final MulticastSocket socket;
+
+	private final SecretKeySpec secret;
+
+	private final BlockingQueue<byte[]> outgoing = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+	private final List<Consumer<BreakerStateMessage>> listeners = new CopyOnWriteArrayList<>();
+
+	private final Thread sender;
+
+	private final Thread receiver;
+
+	private volatile boolean closed;
+
+	public MulticastBreakerStateSync(InetAddress group, int port) throws IOException {
+		this(group, port, null);
+	}
+
+	public MulticastBreakerStateSync(InetAddress group, int port, NetworkInterface networkInterface)
+			throws IOException {
+		this(group, port, networkInterface, null);
+	}
+
+	/**
+	 * Constructor.
+	 * @param group The multicast group, for example {@code 239.1.2.3}.
+	 * @param port The port of the group.
+	 * @param networkInterface The interface to send and receive on, or {@code null} for
+	 * the default interface.
+	 * @param secret The secret shared by the instances to sign their messages with, or
+	 * {@code null} to trust every member of the group.
+	 * @throws IOException If the group cannot be joined.
+	 */
+	public MulticastBreakerStateSync(InetAddress group, int port, NetworkInterface networkInterface, byte[] secret)
+			throws IOException {
+		Assert.isTrue(group.isMulticastAddress(), group + " is not a multicast address");
+		Assert.isTrue(secret == null || secret.length > 0, "secret must not be empty");
+		this.group = new InetSocketAddress(group, port);
+		this.networkInterface = networkInterface;
+		this.secret = secret != null ? new SecretKeySpec(secret, MAC_ALGORITHM) : null;
+		// Fail now rather than on the threads if the algorithm is not available
+		newMac();
+		this.socket = new MulticastSocket(port);
+		try {
+			if (networkInterface != null) {
+				socket.setNetworkInterface(networkInterface);
+			}
+			// false enables loopback
+			socket.setLoopbackMode(false);
+			socket.joinGroup(this.group, networkInterface);
+		}
+		catch (IOException e) {
+			socket.close();
+			throw e;
+		}
+		this.receiver = new Thread(this::receive, "breaker-state-sync-receiver");
+		receiver.setDaemon(true);
+		receiver.start();
+		this.sender = new Thread(this::send, "breaker-state-sync-sender");
+		sender.setDaemon(true);
+		sender.start();
+	}
+
+	@Override
+	public void publish(BreakerStateMessage message) {
+		if (closed) {
+			return;
+		}
+		byte[] bytes = message.toBytes();
+		if (bytes.length + (secret != null ? MAC_LENGTH : 0) > MAX_MESSAGE_SIZE) {
+			return;
+		}
+		// Dropped while the queue is full, like any other datagram that is not delivered
+		outgoing.offer(bytes);
+	}
+
+	@Override
+	public void addListener(Consumer<BreakerStateMessage> listener) {
+		listeners.add(listener);
+	}
+
+	@Override
+	public void removeListener(Consumer<BreakerStateMessage> listener) {
+		listeners.remove(listener);
+	}
+
+	private void send() {
+		Mac mac = newMac();
+		while (!closed) {
+			byte[] bytes;
+			try {
+				bytes = outgoing.take();
+			}
+			catch (InterruptedException e) {
+				// Closed
+				return;
+			}
+			if (mac != null) {
+				int length = bytes.length;
+				bytes = Arrays.copyOf(bytes, length + MAC_LENGTH);
+				mac.update(bytes, 0, length);
+				try {
+					mac.doFinal(bytes, length);
+				}
+				catch (GeneralSecurityException e) {
+					continue;
+				}
+			}
+			try {
+				socket.send(new DatagramPacket(bytes, bytes.length, group));
+			}
+			catch (IOException e) {
+				// The message is lost, like any other datagram that is not delivered
+			}
+		}
+	}
+
+	private void receive() {
+		Mac mac = newMac();
+		byte[] buffer = new byte[MAX_MESSAGE_SIZE];
+		while (!closed) {
+			DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+			BreakerStateMessage message;
+			try {
+				socket.receive(packet);
+				int length = packet.getLength();
+				if (mac != null) {
+					length -= MAC_LENGTH;
+					if (length <= 0 || !verify(mac, packet.getData(), packet.getOffset(), length)) {
+						continue;
+					}
+				}
+				message = BreakerStateMessage.fromBytes(packet.getData(), packet.getOffset(), length);
+			}
+			catch (IOException e) {
+				// The socket was closed or the datagram is not a message
+				continue;
+			}
+			for (Consumer<BreakerStateMessage> listener : listeners) {
+				try {
+					listener.accept(message);
+				}
+				catch (RuntimeException e) {
+					// Keep receiving messages for the other listeners
+				}
+			}
+		}
+	}
+
+	private static boolean verify(Mac mac, byte[] bytes, int offset, int length) {
+		mac.update(bytes, offset, length);
+		byte[] expected = mac.doFinal();
+		byte[] actual = Arrays.copyOfRange(bytes, offset + length, offset + length + MAC_LENGTH);
+		// Compares in constant time
+		return MessageDigest.isEqual(expected, actual);
+	}
+
+	private Mac newMac() {
+		if (secret == null) {
+			return null;
+		}
+		try {
+			Mac mac = Mac.getInstance(MAC_ALGORITHM);
+			mac.init(secret);
+			return mac;
+		}
+		catch (GeneralSecurityException e) {
+			throw new IllegalStateException("Cannot sign messages with " + MAC_ALGORITHM, e);
+		}
+	}
+
+	/**
+	 * Returns whether the threads sending and receiving messages are still running. They
+	 * stop shortly after {@link #close()}.
+	 * @return Whether either thread is running.
+	 */
+	boolean isRunning() {
+		return sender.isAlive() || receiver.isAlive();
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		sender.interrupt();
+		try {
+			socket.leaveGroup(group, networkInterface);
+		}
+		catch (IOException e) {
+			// The socket is closed below
+		}
+		socket.close();
+	}
+
+}
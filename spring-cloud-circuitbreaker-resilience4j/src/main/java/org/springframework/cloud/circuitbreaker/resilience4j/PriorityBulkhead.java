@@ -0,0 +1,157 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.resilience4j;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.util.Assert;
+
+/**
+ * Partitions the permits of a bulkhead between priority classes. A share of the permits
+ * is reserved for each class, and a class may only use permits that are not reserved for
+ * a class of higher priority, so lower priority calls are rejected first as the bulkhead
+ * fills up. Calls without a known priority class get the lowest priority.
+ *
+ * @author Ryan Baxter
+ */
+public class PriorityBulkhead {
+
+	/**
+	 * Tolerates the rounding errors of shares that add up to exactly 1.
+	 */
+	private static final double EPSILON = 1e-9;
+
+	private final List<String> priorityClasses;
+
+	private final Map<String, PriorityClass> classes = new LinkedHashMap<>();
+
+	private final AtomicInteger inUse = new AtomicInteger();
+
+	private final int maxConcurrentCalls;
+
+	/**
+	 * Constructor.
+	 * @param maxConcurrentCalls The number of permits of the bulkhead.
+	 * @param reservedShares The share of the permits reserved for each priority class,
+	 * from the highest priority to the lowest. The permits reserved for the classes above
+	 * a class are rounded down.
+	 */
+	public PriorityBulkhead(int maxConcurrentCalls, Map<String, Double> reservedShares) {
+		Assert.isTrue(maxConcurrentCalls > 0, "maxConcurrentCalls must be greater than 0");
+		Assert.notEmpty(reservedShares, "At least one priority class is required");
+		this.maxConcurrentCalls = maxConcurrentCalls;
+		double sharesAbove = 0;
+		for (Map.Entry<String, Double> share : reservedShares.entrySet()) {
+			Assert.isTrue(share.getValue() >= 0, "Reserved shares must not be negative");
+			// Rounding the sum rather than each share keeps the error below one permit
+			int reservedAbove = (int) Math.floor(maxConcurrentCalls * sharesAbove + EPSILON);
+			classes.put(share.getKey(), new PriorityClass(maxConcurrentCalls - reservedAbove));
+			sharesAbove += share.getValue();
+		}
+		Assert.isTrue(sharesAbove <= 1 + EPSILON, "Reserved shares must not add up to more than 1");
+		this.priorityClasses = Collections.unmodifiableList(new ArrayList<>(classes.keySet()));
+	}
+
+	/**
+	 * Acquires a permit for a call of {@code priority}.
+	 * @param priority The priority class of the call.
+	 * @return True if the call may be made, false if it has to be rejected.
+	 */
+	public boolean tryAcquire(String priority) {
+		PriorityClass priorityClass = priorityClass(priority);
+		while (true) {
+			int current = inUse.get();
+			if (current >= priorityClass.limit) {
+				priorityClass.rejected.increment();
+				return false;
+			}
+			if (inUse.compareAndSet(current, current + 1)) {
+				priorityClass.inUse.incrementAndGet();
+				priorityClass.admitted.increment();
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Releases a permit acquired with {@link #tryAcquire(String)}.
+	 * @param priority The priority class the permit was acquired for.
+	 */
+	public void release(String priority) {
+		priorityClass(priority).inUse.decrementAndGet();
+		inUse.decrementAndGet();
+	}
+
+	/**
+	 * Returns the priority classes, from the highest priority to the lowest.
+	 * @return The priority classes.
+	 */
+	public List<String> getPriorityClasses() {
+		return priorityClasses;
+	}
+
+	public int getMaxConcurrentCalls() {
+		return maxConcurrentCalls;
+	}
+
+	public int getInUse() {
+		return inUse.get();
+	}
+
+	public int getInUse(String priority) {
+		return priorityClass(priority).inUse.get();
+	}
+
+	public long getAdmittedCount(String priority) {
+		return priorityClass(priority).admitted.sum();
+	}
+
+	public long getRejectedCount(String priority) {
+		return priorityClass(priority).rejected.sum();
+	}
+
+	private PriorityClass priorityClass(String priority) {
+		PriorityClass priorityClass = priority != null ? classes.get(priority) : null;
+		if (priorityClass == null) {
+			return classes.get(priorityClasses.get(priorityClasses.size() - 1));
+		}
+		return priorityClass;
+	}
+
+	private static final class PriorityClass {
+
+		private final int limit;
+
+		private final AtomicInteger inUse = new AtomicInteger();
+
+		private final LongAdder admitted = new LongAdder();
+
+		private final LongAdder rejected = new LongAdder();
+
+		private PriorityClass(int limit) {
+			this.limit = limit;
+		}
+
+	}
+
+}
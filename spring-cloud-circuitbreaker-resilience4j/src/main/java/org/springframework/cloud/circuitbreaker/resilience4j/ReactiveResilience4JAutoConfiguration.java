@@ -16,21 +16,31 @@
 
 package org.springframework.cloud.circuitbreaker.resilience4j;
 
-import java.util.ArrayList;
-import java.util.List;
-
-import javax.annotation.PostConstruct;
+import java.util.Arrays;
+import java.util.stream.Collectors;
 
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
 import io.github.resilience4j.micrometer.tagged.TaggedCircuitBreakerMetrics;
+import io.github.resilience4j.micrometer.tagged.TaggedRetryMetrics;
+import io.github.resilience4j.retry.RetryRegistry;
+import io.github.resilience4j.timelimiter.TimeLimiterRegistry;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
 
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.SmartInitializingSingleton;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.cloud.circuitbreaker.commons.BreakerEventBuffer;
+import org.springframework.cloud.circuitbreaker.commons.BreakerSnapshotStore;
+import org.springframework.cloud.circuitbreaker.commons.RetryBudget;
 import org.springframework.cloud.client.circuitbreaker.Customizer;
 import org.springframework.cloud.client.circuitbreaker.ReactiveCircuitBreakerFactory;
+import org.springframework.cloud.context.scope.refresh.RefreshScopeRefreshedEvent;
+import org.springframework.context.ApplicationListener;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
@@ -45,37 +55,128 @@ import org.springframework.context.annotation.Configuration;
 		"spring.cloud.circuitbreaker.resilience4j.reactive.enabled" }, matchIfMissing = true)
 public class ReactiveResilience4JAutoConfiguration {
 
-	@Autowired(required = false)
-	private List<Customizer<ReactiveResilience4JCircuitBreakerFactory>> customizers = new ArrayList<>();
-
 	@Bean
 	@ConditionalOnMissingBean(ReactiveCircuitBreakerFactory.class)
-	public ReactiveResilience4JCircuitBreakerFactory reactiveResilience4JCircuitBreakerFactory() {
+	public ReactiveResilience4JCircuitBreakerFactory reactiveResilience4JCircuitBreakerFactory(
+			ObjectProvider<Customizer<ReactiveResilience4JCircuitBreakerFactory>> customizers,
+			ObjectProvider<BreakerStateSync> stateSync, ObjectProvider<BreakerSnapshotStore> snapshotStore,
+			ObjectProvider<BreakerEventBuffer> eventBuffer, ObjectProvider<AsyncEventDispatcher> eventDispatcher) {
 		ReactiveResilience4JCircuitBreakerFactory factory = new ReactiveResilience4JCircuitBreakerFactory();
-		customizers.forEach(customizer -> customizer.customize(factory));
+		customizers.orderedStream().forEach(customizer -> customizer.customize(factory));
+		stateSync.ifAvailable(factory::configureStateSync);
+		snapshotStore.ifAvailable(factory::configureSnapshots);
+		eventBuffer.ifAvailable(factory::configureEvents);
+		eventDispatcher.ifAvailable(factory::configureAsyncEventDispatch);
 		return factory;
 	}
 
 	@Configuration(proxyBeanMethods = false)
 	@ConditionalOnClass(name = { "reactor.core.publisher.Mono", "reactor.core.publisher.Flux",
 			"io.github.resilience4j.micrometer.tagged.TaggedCircuitBreakerMetrics" })
-	@ConditionalOnBean({ MeterRegistry.class })
 	public static class MicrometerReactiveResilience4JCustomizerConfiguration {
 
-		@Autowired(required = false)
-		private ReactiveResilience4JCircuitBreakerFactory factory;
+		@Bean
+		public SmartInitializingSingleton reactiveResilience4JMeterBinder(
+				ObjectProvider<MeterRegistry> meterRegistries,
+				ObjectProvider<ReactiveResilience4JCircuitBreakerFactory> factory) {
+			return () -> meterRegistries.ifAvailable(meterRegistry -> factory.ifAvailable(it -> {
+				TaggedCircuitBreakerMetrics.ofCircuitBreakerRegistry(it.getCircuitBreakerRegistry())
+						.bindTo(meterRegistry);
+				TaggedRetryMetrics.ofRetryRegistry(it.getRetryRegistry()).bindTo(meterRegistry);
+				it.getLoadShedders().forEach((id, loadShedder) -> bindLoadShedder(meterRegistry, id, loadShedder));
+				it.addLoadShedderListener((id, loadShedder) -> {
+					removeLoadShedderMeters(meterRegistry, id);
+					if (loadShedder != null) {
+						bindLoadShedder(meterRegistry, id, loadShedder);
+					}
+				});
+				it.getRetryBudgets().forEach((id, retryBudget) -> bindRetryBudget(meterRegistry, id, retryBudget));
+				it.addRetryBudgetListener((id, retryBudget) -> {
+					removeRetryBudgetMeters(meterRegistry, id);
+					if (retryBudget != null) {
+						bindRetryBudget(meterRegistry, id, retryBudget);
+					}
+				});
+				it.addEvictionListener(id -> {
+					removeLoadShedderMeters(meterRegistry, id);
+					removeRetryBudgetMeters(meterRegistry, id);
+				});
+			}));
+		}
 
-		@Autowired
-		private MeterRegistry meterRegistry;
+		private static void bindLoadShedder(MeterRegistry meterRegistry, String id, LoadShedder loadShedder) {
+			FunctionCounter.builder("spring.cloud.circuitbreaker.load.shed", loadShedder, LoadShedder::getShedCount)
+					.description("The number of subscriptions shed").tag("name", id).register(meterRegistry);
+			FunctionCounter
+					.builder("spring.cloud.circuitbreaker.load.admitted", loadShedder, LoadShedder::getAdmittedCount)
+					.description("The number of subscriptions admitted").tag("name", id).register(meterRegistry);
+			Gauge.builder("spring.cloud.circuitbreaker.load.in.flight", loadShedder, LoadShedder::getInFlight)
+					.description("The number of subscriptions in flight").tag("name", id).register(meterRegistry);
+		}
 
-		@PostConstruct
-		public void init() {
-			if (factory != null) {
-				TaggedCircuitBreakerMetrics.ofCircuitBreakerRegistry(factory.getCircuitBreakerRegistry())
-						.bindTo(meterRegistry);
+		private static void removeLoadShedderMeters(MeterRegistry meterRegistry, String id) {
+			for (String name : Arrays.asList("spring.cloud.circuitbreaker.load.shed",
+					"spring.cloud.circuitbreaker.load.admitted", "spring.cloud.circuitbreaker.load.in.flight")) {
+				meterRegistry.find(name).tag("name", id).meters().forEach(meterRegistry::remove);
 			}
 		}
 
+		private static void bindRetryBudget(MeterRegistry meterRegistry, String id, RetryBudget retryBudget) {
+			FunctionCounter.builder("spring.cloud.circuitbreaker.retry.budget.requests", retryBudget,
+					RetryBudget::getTotalRequests).description("The number of requests made").tag("name", id)
+					.register(meterRegistry);
+			FunctionCounter.builder("spring.cloud.circuitbreaker.retry.budget.retries", retryBudget,
+					RetryBudget::getTotalRetries).description("The number of retries allowed by the budget")
+					.tag("name", id).register(meterRegistry);
+			FunctionCounter.builder("spring.cloud.circuitbreaker.retry.budget.rejected", retryBudget,
+					RetryBudget::getRejectedRetries).description("The number of retries rejected by the budget")
+					.tag("name", id).register(meterRegistry);
+		}
+
+		private static void removeRetryBudgetMeters(MeterRegistry meterRegistry, String id) {
+			for (String name : Arrays.asList("spring.cloud.circuitbreaker.retry.budget.requests",
+					"spring.cloud.circuitbreaker.retry.budget.retries",
+					"spring.cloud.circuitbreaker.retry.budget.rejected")) {
+				meterRegistry.find(name).tag("name", id).meters().forEach(meterRegistry::remove);
+			}
+		}
+
+	}
+
+	@Configuration(proxyBeanMethods = false)
+	@ConditionalOnClass(name = "org.springframework.cloud.context.scope.refresh.RefreshScopeRefreshedEvent")
+	public static class ReactiveResilience4JRefreshConfiguration {
+
+		@Bean
+		public ApplicationListener<RefreshScopeRefreshedEvent> reactiveResilience4JRefreshListener(
+				ObjectProvider<ReactiveResilience4JCircuitBreakerFactory> factory,
+				ObjectProvider<Customizer<ReactiveResilience4JCircuitBreakerFactory>> customizers) {
+			return event -> factory.ifAvailable(
+					it -> it.refresh(customizers.orderedStream().collect(Collectors.toList())));
+		}
+
+	}
+
+	@Configuration(proxyBeanMethods = false)
+	@EnableConfigurationProperties(Resilience4JConfigurationProperties.class)
+	public static class ReactiveResilience4JConfigPatternsConfiguration {
+
+		@Bean
+		public Customizer<ReactiveResilience4JCircuitBreakerFactory> reactiveResilience4JConfigPatternsCustomizer(
+				Resilience4JConfigurationProperties properties,
+				ObjectProvider<CircuitBreakerRegistry> circuitBreakerRegistry,
+				ObjectProvider<TimeLimiterRegistry> timeLimiterRegistry, ObjectProvider<RetryRegistry> retryRegistry) {
+			return factory -> properties.getConfigPatterns().forEach((pattern, name) -> factory
+					.configurePattern(builder -> {
+						circuitBreakerRegistry.ifAvailable(registry -> registry.getConfiguration(name)
+								.ifPresent(builder::circuitBreakerConfig));
+						timeLimiterRegistry.ifAvailable(
+								registry -> registry.getConfiguration(name).ifPresent(builder::timeLimiterConfig));
+						retryRegistry.ifAvailable(
+								registry -> registry.getConfiguration(name).ifPresent(builder::retryConfig));
+					}, pattern));
+		}
+
 	}
 
 }
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.resilience4j;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import org.springframework.cloud.client.circuitbreaker.ReactiveCircuitBreaker;
+import org.springframework.util.Assert;
+
+/**
+ * Merges the keys requested by concurrent callers into a single batch call that is run
+ * through a circuit breaker. A batch is sent once it holds {@code maxBatchSize} distinct
+ * keys or {@code maxDelay} after its first key was added, whichever happens first. The
+ * circuit breaker records one call per batch, and the values returned by the batch call
+ * are handed back to each caller by key.
+ *
+ * @param <K> The type of the keys.
+ * @param <V> The type of the values.
+ * @author Ryan Baxter
+ */
+public class ReactiveResilience4JBatchCollector<K, V> {
+
+	private final ReactiveCircuitBreaker circuitBreaker;
+
+	private final Function<Collection<K>, Mono<Map<K, V>>> batchCall;
+
+	private final int maxBatchSize;
+
+	private final Duration maxDelay;
+
+	private final Scheduler scheduler;
+
+	private Batch pending;
+
+	/**
+	 * Constructor.
+	 * @param circuitBreaker The circuit breaker batch calls are run through.
+	 * @param batchCall The call that looks up the values of a batch of keys. Keys missing
+	 * from the returned map complete their callers empty.
+	 * @param maxBatchSize The maximum number of distinct keys in a batch.
+	 * @param maxDelay The maximum time a key waits for its batch to be sent.
+	 */
+	public ReactiveResilience4JBatchCollector(ReactiveCircuitBreaker circuitBreaker,
+			Function<Collection<K>, Mono<Map<K, V>>> batchCall, int maxBatchSize, Duration maxDelay) {
+		this(circuitBreaker, batchCall, maxBatchSize, maxDelay, Schedulers.parallel());
+	}
+
+	public ReactiveResilience4JBatchCollector(ReactiveCircuitBreaker circuitBreaker,
+			Function<Collection<K>, Mono<Map<K, V>>> batchCall, int maxBatchSize, Duration maxDelay,
+			Scheduler scheduler) {
+		Assert.notNull(circuitBreaker, "circuitBreaker must not be null");
+		Assert.notNull(batchCall, "batchCall must not be null");
+		Assert.isTrue(maxBatchSize > 0, "maxBatchSize must be greater than 0");
+		Assert.notNull(maxDelay, "maxDelay must not be null");
+		this.circuitBreaker = circuitBreaker;
+		this.batchCall = batchCall;
+		this.maxBatchSize = maxBatchSize;
+		this.maxDelay = maxDelay;
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * Looks up the value of {@code key} as part of the next batch.
+	 * @param key The key to look up.
+	 * @return A {@link Mono} of the value of {@code key}, empty if the batch call did not
+	 * return a value for it.
+	 */
+	public Mono<V> run(K key) {
+		return Mono.create(sink -> add(key, sink));
+	}
+
+	/**
+	 * Looks up the value of {@code key} as part of the next batch.
+	 * @param key The key to look up.
+	 * @param fallback The fallback to use if the batch call fails.
+	 * @return A {@link Mono} of the value of {@code key} or the fallback.
+	 */
+	public Mono<V> run(K key, Function<Throwable, Mono<V>> fallback) {
+		return run(key).onErrorResume(fallback);
+	}
+
+	private void add(K key, MonoSink<V> sink) {
+		Batch full = null;
+		synchronized (this) {
+			if (pending == null) {
+				Batch batch = new Batch();
+				pending = batch;
+				batch.timer = scheduler.schedule(() -> send(batch), maxDelay.toNanos(), TimeUnit.NANOSECONDS);
+			}
+			pending.keys.add(key);
+			pending.callers.add(new Caller<>(key, sink));
+			if (pending.keys.size() >= maxBatchSize) {
+				full = pending;
+				pending = null;
+			}
+		}
+		if (full != null) {
+			full.timer.dispose();
+			full.send();
+		}
+	}
+
+	private void send(Batch batch) {
+		synchronized (this) {
+			if (pending != batch) {
+				// Already sent because it was full
+				return;
+			}
+			pending = null;
+		}
+		batch.send();
+	}
+
+	private final class Batch {
+
+		private final Set<K> keys = new LinkedHashSet<>();
+
+		private final List<Caller<K, V>> callers = new ArrayList<>();
+
+		private Disposable timer;
+
+		private void send() {
+			Mono<Map<K, V>> call = Mono.defer(() -> batchCall.apply(keys));
+			circuitBreaker.run(call, Mono::error).subscribe(values -> callers.forEach(caller -> {
+				V value = values.get(caller.key);
+				if (value != null) {
+					caller.sink.success(value);
+				}
+				else {
+					caller.sink.success();
+				}
+			}), t -> callers.forEach(caller -> caller.sink.error(t)),
+					() -> callers.forEach(caller -> caller.sink.success()));
+		}
+
+	}
+
+	private static final class Caller<K, V> {
+
+		private final K key;
+
+		private final MonoSink<V> sink;
+
+		private Caller(K key, MonoSink<V> sink) {
+			this.key = key;
+			this.sink = sink;
+		}
+
+	}
+
+}
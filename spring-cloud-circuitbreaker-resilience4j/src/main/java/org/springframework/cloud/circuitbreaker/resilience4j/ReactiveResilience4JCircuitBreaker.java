@@ -16,17 +16,33 @@
 
 package org.springframework.cloud.circuitbreaker.resilience4j;
 
+import java.time.Duration;
+import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Optional;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
 import io.github.resilience4j.circuitbreaker.CircuitBreaker;
 import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
 import io.github.resilience4j.reactor.circuitbreaker.operator.CircuitBreakerOperator;
+import io.github.resilience4j.reactor.retry.RetryOperator;
+import io.github.resilience4j.retry.RetryRegistry;
+import reactor.core.Exceptions;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+import reactor.core.publisher.Sinks;
+import reactor.util.context.ContextView;
 
+import org.springframework.cloud.circuitbreaker.commons.DeadlineContextHolder;
+import org.springframework.cloud.circuitbreaker.commons.FallbackCache;
+import org.springframework.cloud.circuitbreaker.commons.RetryBudget;
 import org.springframework.cloud.client.circuitbreaker.Customizer;
 import org.springframework.cloud.client.circuitbreaker.ReactiveCircuitBreaker;
 
@@ -37,57 +53,394 @@ public class ReactiveResilience4JCircuitBreaker implements ReactiveCircuitBreake
 
 	private String id;
 
-	private Resilience4JConfigBuilder.Resilience4JCircuitBreakerConfiguration config;
+	private Supplier<Resilience4JConfigBuilder.Resilience4JCircuitBreakerConfiguration> configuration;
 
 	private CircuitBreakerRegistry registry;
 
+	private RetryRegistry retryRegistry;
+
 	private Optional<Customizer<CircuitBreaker>> circuitBreakerCustomizer;
 
 	public ReactiveResilience4JCircuitBreaker(String id,
 			Resilience4JConfigBuilder.Resilience4JCircuitBreakerConfiguration config,
 			CircuitBreakerRegistry circuitBreakerRegistry,
 			Optional<Customizer<CircuitBreaker>> circuitBreakerCustomizer) {
+		this(id, config, circuitBreakerRegistry, RetryRegistry.ofDefaults(), circuitBreakerCustomizer);
+	}
+
+	public ReactiveResilience4JCircuitBreaker(String id,
+			Resilience4JConfigBuilder.Resilience4JCircuitBreakerConfiguration config,
+			CircuitBreakerRegistry circuitBreakerRegistry, RetryRegistry retryRegistry,
+			Optional<Customizer<CircuitBreaker>> circuitBreakerCustomizer) {
+		this(id, () -> config, circuitBreakerRegistry, retryRegistry, circuitBreakerCustomizer);
+	}
+
+	/**
+	 * Creates a circuit breaker that reads its configuration from {@code configuration}
+	 * every time a call is run, so the configuration can be replaced while the circuit
+	 * breaker is in use.
+	 * @param id The id of the circuit breaker.
+	 * @param configuration Supplies the current configuration.
+	 * @param circuitBreakerRegistry The registry of the Resilience4J circuit breakers.
+	 * @param retryRegistry The registry of the Resilience4J retries.
+	 * @param circuitBreakerCustomizer The customizer of the Resilience4J circuit breaker.
+	 */
+	public ReactiveResilience4JCircuitBreaker(String id,
+			Supplier<Resilience4JConfigBuilder.Resilience4JCircuitBreakerConfiguration> configuration,
+			CircuitBreakerRegistry circuitBreakerRegistry, RetryRegistry retryRegistry,
+			Optional<Customizer<CircuitBreaker>> circuitBreakerCustomizer) {
 		this.id = id;
-		this.config = config;
+		this.configuration = configuration;
 		this.registry = circuitBreakerRegistry;
+		this.retryRegistry = retryRegistry;
 		this.circuitBreakerCustomizer = circuitBreakerCustomizer;
 	}
 
 	@Override
 	public <T> Mono<T> run(Mono<T> toRun, Function<Throwable, Mono<T>> fallback) {
+		return run(id, toRun, fallback);
+	}
+
+	/**
+	 * Runs {@code toRun} through the circuit breaker. When a fallback cache is configured
+	 * the emitted value is cached under {@code cacheKey} and served again when the
+	 * circuit is open or the call times out. The call times out after the timeout of the
+	 * time limiter or, if it is shorter, the time left until the deadline stored in the
+	 * Reactor {@code Context} under {@link DeadlineContextHolder#CONTEXT_KEY}.
+	 * @param cacheKey The key the value is cached under.
+	 * @param toRun The {@link Mono} to run.
+	 * @param fallback The fallback to use when the call fails and nothing is cached.
+	 * @param <T> The type of the value.
+	 * @return The protected {@link Mono}.
+	 */
+	public <T> Mono<T> run(Object cacheKey, Mono<T> toRun, Function<Throwable, Mono<T>> fallback) {
+		Resilience4JConfigBuilder.Resilience4JCircuitBreakerConfiguration config = configuration.get();
 		io.github.resilience4j.circuitbreaker.CircuitBreaker defaultCircuitBreaker = registry.circuitBreaker(id,
 				config.getCircuitBreakerConfig());
 		circuitBreakerCustomizer.ifPresent(customizer -> customizer.customize(defaultCircuitBreaker));
-		Mono<T> toReturn = toRun.transform(CircuitBreakerOperator.of(defaultCircuitBreaker))
-				.timeout(config.getTimeLimiterConfig().getTimeoutDuration())
-				// Since we are using the Mono timeout we need to tell the circuit breaker
-				// about the error
-				.doOnError(TimeoutException.class,
-						t -> defaultCircuitBreaker.onError(
-								config.getTimeLimiterConfig().getTimeoutDuration().toMillis(), TimeUnit.MILLISECONDS,
-								t));
-		if (fallback != null) {
-			toReturn = toReturn.onErrorResume(fallback);
+		FallbackCache fallbackCache = config.getFallbackCache();
+		Mono<T> source = toRun;
+		Function<Throwable, Mono<T>> recovery = fallback;
+		if (fallbackCache != null) {
+			source = toRun.doOnNext(result -> fallbackCache.put(cacheKey, result));
+			recovery = t -> {
+				if (t instanceof CallNotPermittedException || t instanceof TimeoutException) {
+					Optional<T> cached = fallbackCache.get(cacheKey);
+					if (cached.isPresent()) {
+						return Mono.just(cached.get());
+					}
+				}
+				return fallback != null ? fallback.apply(t) : Mono.error(t);
+			};
+		}
+		if (config.getHedgingDelay() != null) {
+			source = hedge(source, config.getHedgingDelay());
+		}
+		Mono<T> protectedSource = source.transform(CircuitBreakerOperator.of(defaultCircuitBreaker));
+		Mono<T> toReturn = Mono.deferContextual(context -> {
+			Duration timeout = DeadlineContextHolder.timeout(config.getTimeLimiterConfig().getTimeoutDuration(),
+					deadline(context));
+			if (DeadlineContextHolder.isExpired(timeout)) {
+				// Fail fast without taking a permit
+				return Mono.<T>error(DeadlineContextHolder.deadlineExceeded(id));
+			}
+			return protectedSource.timeout(timeout)
+					// Since we are using the Mono timeout we need to tell the circuit
+					// breaker about the error
+					.doOnError(TimeoutException.class,
+							t -> defaultCircuitBreaker.onError(timeout.toMillis(), TimeUnit.MILLISECONDS, t));
+		});
+		if (config.getRetryConfig() != null) {
+			toReturn = retry(toReturn, config);
+		}
+		if (config.getLoadShedder() != null) {
+			toReturn = shed(Flux.from(toReturn), config.getLoadShedder()).next();
+		}
+		if (recovery != null) {
+			toReturn = toReturn.onErrorResume(recovery);
 		}
 		return toReturn;
 	}
 
 	public <T> Flux<T> run(Flux<T> toRun, Function<Throwable, Flux<T>> fallback) {
+		Resilience4JConfigBuilder.Resilience4JCircuitBreakerConfiguration config = configuration.get();
 		io.github.resilience4j.circuitbreaker.CircuitBreaker defaultCircuitBreaker = registry.circuitBreaker(id,
 				config.getCircuitBreakerConfig());
 		circuitBreakerCustomizer.ifPresent(customizer -> customizer.customize(defaultCircuitBreaker));
-		Flux<T> toReturn = toRun.transform(CircuitBreakerOperator.of(defaultCircuitBreaker))
-				.timeout(config.getTimeLimiterConfig().getTimeoutDuration())
-				// Since we are using the Flux timeout we need to tell the circuit breaker
-				// about the error
-				.doOnError(TimeoutException.class,
-						t -> defaultCircuitBreaker.onError(
-								config.getTimeLimiterConfig().getTimeoutDuration().toMillis(), TimeUnit.MILLISECONDS,
-								t));
+		Flux<T> toReturn = Flux.deferContextual(context -> {
+			Long deadline = deadline(context);
+			Duration timeout = DeadlineContextHolder.timeout(config.getTimeLimiterConfig().getTimeoutDuration(),
+					deadline);
+			if (DeadlineContextHolder.isExpired(timeout)) {
+				// Fail fast without taking a permit
+				return Flux.<T>error(DeadlineContextHolder.deadlineExceeded(id));
+			}
+			if (config.isStreaming()) {
+				return stream(config, toRun, defaultCircuitBreaker, deadline);
+			}
+			// The time limiter bounds the wait for each element, the deadline bounds the
+			// whole stream. Both fail the stream before it reaches the circuit breaker,
+			// so they are recorded as errors.
+			Flux<T> source = toRun.timeout(config.getTimeLimiterConfig().getTimeoutDuration());
+			if (deadline != null) {
+				Duration remaining = DeadlineContextHolder.remaining(deadline);
+				source = source.takeUntilOther(Mono.delay(remaining).then(Mono.error(
+						() -> new TimeoutException("Deadline exceeded while streaming from circuit breaker " + id))));
+			}
+			return source.transform(CircuitBreakerOperator.of(defaultCircuitBreaker));
+		});
+		if (config.getRetryConfig() != null) {
+			toReturn = retry(toReturn, config);
+		}
+		if (config.getLoadShedder() != null) {
+			toReturn = shed(toReturn, config.getLoadShedder());
+		}
 		if (fallback != null) {
 			toReturn = toReturn.onErrorResume(fallback);
 		}
 		return toReturn;
 	}
 
+	/**
+	 * Runs a batch of {@link Mono}s through the circuit breaker. Up to
+	 * {@code concurrency} of them are subscribed to at a time, each with the timeout of
+	 * the time limiter, or the time left until the deadline in the Reactor
+	 * {@code Context} if that is shorter. Each {@link Mono} acquires its own permission
+	 * from the circuit breaker when it is subscribed to, and the fallback is used without
+	 * subscribing to it when the call is not permitted. The outcome of each {@link Mono}
+	 * that was subscribed to is recorded by the circuit breaker.
+	 * @param toRun The {@link Mono}s to run.
+	 * @param concurrency The maximum number of {@link Mono}s subscribed to at a time.
+	 * @param fallback The fallback to use for each {@link Mono} that fails, or
+	 * {@code null} to fail the batch with the error.
+	 * @param <T> The type of the values.
+	 * @return The value or fallback of each {@link Mono}, in the order of {@code toRun}.
+	 */
+	public <T> Flux<T> runAll(Iterable<Mono<T>> toRun, int concurrency, Function<Throwable, Mono<T>> fallback) {
+		return Flux.deferContextual(context -> {
+			Resilience4JConfigBuilder.Resilience4JCircuitBreakerConfiguration config = configuration.get();
+			io.github.resilience4j.circuitbreaker.CircuitBreaker defaultCircuitBreaker = registry.circuitBreaker(id,
+					config.getCircuitBreakerConfig());
+			circuitBreakerCustomizer.ifPresent(customizer -> customizer.customize(defaultCircuitBreaker));
+			Long deadline = deadline(context);
+			Function<Throwable, Mono<T>> recovery = t -> fallback != null ? fallback.apply(t) : Mono.error(t);
+			return Flux.fromIterable(toRun).flatMapSequential(mono -> Mono.defer(() -> {
+				// Later Monos are subscribed to closer to the deadline
+				Duration timeout = DeadlineContextHolder.timeout(config.getTimeLimiterConfig().getTimeoutDuration(),
+						deadline);
+				if (DeadlineContextHolder.isExpired(timeout)) {
+					return recovery.apply(DeadlineContextHolder.deadlineExceeded(id));
+				}
+				if (!defaultCircuitBreaker.tryAcquirePermission()) {
+					return recovery
+							.apply(CallNotPermittedException.createCallNotPermittedException(defaultCircuitBreaker));
+				}
+				long start = System.nanoTime();
+				return mono.timeout(timeout)
+						.doOnSuccess(result -> defaultCircuitBreaker.onSuccess(System.nanoTime() - start,
+								TimeUnit.NANOSECONDS))
+						.doOnError(t -> defaultCircuitBreaker.onError(System.nanoTime() - start,
+								TimeUnit.NANOSECONDS, t))
+						// A cancelled call has no outcome, but must not keep its permission
+						.doOnCancel(defaultCircuitBreaker::releasePermission).onErrorResume(recovery);
+			}), concurrency);
+		});
+	}
+
+	/**
+	 * Retries {@code attempt} with the retry of this circuit breaker. With a
+	 * {@link RetryBudget} every subscription is recorded as a request, and every
+	 * re-attempt withdraws a retry from the budget. A re-attempt the budget rejects
+	 * completes empty without subscribing to {@code attempt}, which stops the retry, and
+	 * the call then fails with a {@link RetryBudgetExhaustedException}.
+	 */
+	private <T> Mono<T> retry(Mono<T> attempt,
+			Resilience4JConfigBuilder.Resilience4JCircuitBreakerConfiguration config) {
+		RetryOperator<T> retryOperator = RetryOperator.of(retryRegistry.retry(id, config.getRetryConfig()));
+		RetryBudget retryBudget = config.getRetryBudget();
+		if (retryBudget == null) {
+			return attempt.transform(retryOperator);
+		}
+		return Mono.defer(() -> {
+			BudgetedAttempts attempts = new BudgetedAttempts(retryBudget);
+			return Mono.defer(() -> attempts.tryAttempt() ? attempt.doOnError(attempts::onError) : Mono.<T>empty())
+					.transform(retryOperator).switchIfEmpty(Mono.defer(() -> attempts.<T>exhausted(id)));
+		});
+	}
+
+	private <T> Flux<T> retry(Flux<T> attempt,
+			Resilience4JConfigBuilder.Resilience4JCircuitBreakerConfiguration config) {
+		RetryOperator<T> retryOperator = RetryOperator.of(retryRegistry.retry(id, config.getRetryConfig()));
+		RetryBudget retryBudget = config.getRetryBudget();
+		if (retryBudget == null) {
+			return attempt.transform(retryOperator);
+		}
+		return Flux.defer(() -> {
+			BudgetedAttempts attempts = new BudgetedAttempts(retryBudget);
+			return Flux.defer(() -> attempts.tryAttempt() ? attempt.doOnError(attempts::onError) : Flux.<T>empty())
+					.transform(retryOperator).concatWith(Mono.defer(() -> attempts.<T>exhausted(id)));
+		});
+	}
+
+	/**
+	 * Fails subscriptions the {@link LoadShedder} rejects with a
+	 * {@link LoadSheddingException} without subscribing to {@code toRun}.
+	 */
+	private <T> Flux<T> shed(Flux<T> toRun, LoadShedder loadShedder) {
+		return Flux.defer(() -> {
+			long permit = loadShedder.tryAcquire();
+			if (permit == LoadShedder.SHED) {
+				return Flux.<T>error(new LoadSheddingException(id));
+			}
+			AtomicBoolean first = new AtomicBoolean(true);
+			return toRun.doOnNext(element -> {
+				if (first.compareAndSet(true, false)) {
+					loadShedder.onElement(permit);
+				}
+			}).doFinally(signal -> loadShedder.release(permit));
+		});
+	}
+
+	/**
+	 * Applies the streaming timeouts to {@code toRun}. The timeouts fail the stream
+	 * before it reaches the circuit breaker, so they are recorded as errors. Unless each
+	 * element is recorded, the whole stream is recorded as a single call. When each
+	 * element is recorded, every outcome after the first acquires its own permission, and
+	 * the stream fails with a {@link CallNotPermittedException} once the circuit breaker
+	 * does not permit one.
+	 */
+	private <T> Flux<T> stream(Resilience4JConfigBuilder.Resilience4JCircuitBreakerConfiguration config,
+			Flux<T> toRun, CircuitBreaker circuitBreaker, Long deadline) {
+		Duration firstElementTimeout = config.getFirstElementTimeout();
+		Duration idleTimeout = config.getIdleTimeout();
+		Duration totalTimeout = config.getTotalTimeout();
+		if (deadline != null) {
+			// The stream has to complete before the deadline of the caller
+			totalTimeout = DeadlineContextHolder.timeout(
+					totalTimeout != null ? totalTimeout : DeadlineContextHolder.remaining(deadline), deadline);
+		}
+		Flux<T> source = toRun;
+		if (firstElementTimeout != null || idleTimeout != null) {
+			Mono<Long> firstElement = Mono.delay(firstElementTimeout != null ? firstElementTimeout : idleTimeout);
+			source = source.timeout(firstElement,
+					element -> idleTimeout != null ? Mono.delay(idleTimeout) : Mono.<Long>never());
+		}
+		if (totalTimeout != null) {
+			Duration timeout = totalTimeout;
+			source = source.takeUntilOther(Mono.delay(timeout).then(Mono.error(
+					() -> new TimeoutException("Stream did not complete within " + timeout.toMillis() + "ms"))));
+		}
+		if (!config.isPerElementAccounting()) {
+			return source.transform(CircuitBreakerOperator.of(circuitBreaker));
+		}
+		Flux<T> timed = source;
+		return Flux.defer(() -> {
+			if (!circuitBreaker.tryAcquirePermission()) {
+				return Flux.<T>error(CallNotPermittedException.createCallNotPermittedException(circuitBreaker));
+			}
+			AtomicLong previous = new AtomicLong(System.nanoTime());
+			// The permission acquired on subscription has not been used yet
+			AtomicBoolean permitted = new AtomicBoolean(true);
+			return timed.doOnError(t -> {
+				if (permitted.compareAndSet(true, false) || circuitBreaker.tryAcquirePermission()) {
+					circuitBreaker.onError(System.nanoTime() - previous.get(), TimeUnit.NANOSECONDS, t);
+				}
+			}).doFinally(signal -> {
+				if (!permitted.compareAndSet(true, false)) {
+					return;
+				}
+				if (signal == SignalType.ON_COMPLETE) {
+					circuitBreaker.onSuccess(System.nanoTime() - previous.get(), TimeUnit.NANOSECONDS);
+				}
+				else {
+					circuitBreaker.releasePermission();
+				}
+			}).<T>handle((element, sink) -> {
+				if (permitted.compareAndSet(true, false) || circuitBreaker.tryAcquirePermission()) {
+					long now = System.nanoTime();
+					circuitBreaker.onSuccess(now - previous.getAndSet(now), TimeUnit.NANOSECONDS);
+					sink.next(element);
+				}
+				else {
+					sink.error(CallNotPermittedException.createCallNotPermittedException(circuitBreaker));
+				}
+			});
+		});
+	}
+
+	private static Long deadline(ContextView context) {
+		return context.getOrDefault(DeadlineContextHolder.CONTEXT_KEY, null);
+	}
+
+	/**
+	 * Subscribes to {@code toRun} and, if it has not produced a value within
+	 * {@code delay}, subscribes to it a second time. The second attempt starts right
+	 * away if the first one fails before the delay. The first attempt to complete
+	 * successfully wins and the other one is cancelled.
+	 */
+	private <T> Mono<T> hedge(Mono<T> toRun, Duration delay) {
+		return Mono.defer(() -> {
+			Sinks.Empty<Void> firstFailed = Sinks.empty();
+			Mono<Optional<T>> attempt = toRun.map(Optional::of).defaultIfEmpty(Optional.empty());
+			Mono<Optional<T>> first = attempt.doOnError(t -> firstFailed.tryEmitEmpty());
+			Mono<Optional<T>> second = Mono.delay(delay).then().or(firstFailed.asMono()).then(attempt);
+			return Mono.firstWithValue(first, second);
+		}).onErrorMap(ReactiveResilience4JCircuitBreaker::lastError).filter(Optional::isPresent).map(Optional::get);
+	}
+
+	private static Throwable lastError(Throwable t) {
+		if (!(t instanceof NoSuchElementException)) {
+			return t;
+		}
+		if (t.getSuppressed().length > 0) {
+			return t.getSuppressed()[t.getSuppressed().length - 1];
+		}
+		if (t.getCause() != null) {
+			List<Throwable> errors = Exceptions.unwrapMultiple(t.getCause());
+			return errors.get(errors.size() - 1);
+		}
+		return t;
+	}
+
+	/**
+	 * The attempts of a single subscription to a call with a {@link RetryBudget}. The
+	 * attempts are made one after the other, so they are not synchronized.
+	 */
+	private static final class BudgetedAttempts {
+
+		private final RetryBudget retryBudget;
+
+		private volatile boolean attempted;
+
+		private volatile boolean rejected;
+
+		private volatile Throwable lastError;
+
+		BudgetedAttempts(RetryBudget retryBudget) {
+			this.retryBudget = retryBudget;
+		}
+
+		boolean tryAttempt() {
+			if (!attempted) {
+				attempted = true;
+				retryBudget.recordRequest();
+				return true;
+			}
+			if (retryBudget.tryAcquireRetry()) {
+				return true;
+			}
+			rejected = true;
+			return false;
+		}
+
+		void onError(Throwable t) {
+			lastError = t;
+		}
+
+		<T> Mono<T> exhausted(String id) {
+			return rejected ? Mono.error(new RetryBudgetExhaustedException(id, lastError)) : Mono.empty();
+		}
+
+	}
+
 }
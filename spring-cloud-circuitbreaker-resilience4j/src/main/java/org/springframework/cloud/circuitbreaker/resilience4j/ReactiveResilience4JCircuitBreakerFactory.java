@@ -16,16 +16,36 @@
 
 package org.springframework.cloud.circuitbreaker.resilience4j;
 
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.function.Function;
 
 import io.github.resilience4j.circuitbreaker.CircuitBreaker;
 import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
 import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.retry.RetryRegistry;
 import io.github.resilience4j.timelimiter.TimeLimiterConfig;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
 
+import org.springframework.cloud.circuitbreaker.commons.BreakerEvent;
+import org.springframework.cloud.circuitbreaker.commons.BreakerEventBuffer;
+import org.springframework.cloud.circuitbreaker.commons.BreakerEventFlux;
+import org.springframework.cloud.circuitbreaker.commons.BreakerSnapshotStore;
+import org.springframework.cloud.circuitbreaker.commons.IdPatternMatcher;
+import org.springframework.cloud.circuitbreaker.commons.RetryBudget;
 import org.springframework.cloud.client.circuitbreaker.Customizer;
 import org.springframework.cloud.client.circuitbreaker.ReactiveCircuitBreaker;
 import org.springframework.cloud.client.circuitbreaker.ReactiveCircuitBreakerFactory;
@@ -43,15 +63,262 @@ public class ReactiveResilience4JCircuitBreakerFactory extends
 
 	private CircuitBreakerRegistry circuitBreakerRegistry = CircuitBreakerRegistry.ofDefaults();
 
+	private RetryRegistry retryRegistry = RetryRegistry.ofDefaults();
+
 	private Map<String, Customizer<CircuitBreaker>> circuitBreakerCustomizers = new HashMap<>();
 
+	private final Map<String, CircuitBreaker> customizedCircuitBreakers = new ConcurrentHashMap<>();
+
+	private final Map<String, LoadShedder> loadShedders = new ConcurrentHashMap<>();
+
+	private final List<BiConsumer<String, LoadShedder>> loadShedderListeners = new CopyOnWriteArrayList<>();
+
+	private final Map<String, RetryBudget> retryBudgets = new ConcurrentHashMap<>();
+
+	private final List<BiConsumer<String, RetryBudget>> retryBudgetListeners = new CopyOnWriteArrayList<>();
+
+	private volatile ConfiguredIds configuredIds = new ConfiguredIds();
+
+	private volatile ConfiguredIds refreshing;
+
+	private IdleEvictor idleEvictor;
+
+	private Disposable idleSweep;
+
+	private BreakerStateSynchronizer stateSynchronizer;
+
+	private BreakerSnapshotter snapshotter;
+
+	private BreakerEventRecorder eventRecorder;
+
+	private BreakerEventBuffer eventBuffer;
+
+	private AsyncEventDispatcher eventDispatcher;
+
+	private final List<Consumer<String>> evictionListeners = new CopyOnWriteArrayList<>();
+
 	@Override
 	public ReactiveCircuitBreaker create(String id) {
 		Assert.hasText(id, "A CircuitBreaker must have an id.");
-		Resilience4JConfigBuilder.Resilience4JCircuitBreakerConfiguration config = getConfigurations()
-				.computeIfAbsent(id, defaultConfiguration);
-		return new ReactiveResilience4JCircuitBreaker(id, config, circuitBreakerRegistry,
-				Optional.ofNullable(circuitBreakerCustomizers.get(id)));
+		Resilience4JConfigBuilder.Resilience4JCircuitBreakerConfiguration config = configuration(id);
+		LoadShedder loadShedder = config.getLoadShedder();
+		if (loadShedders.get(id) != loadShedder) {
+			registerLoadShedder(id, loadShedder);
+		}
+		RetryBudget retryBudget = config.getRetryBudget();
+		if (retryBudgets.get(id) != retryBudget) {
+			registerRetryBudget(id, retryBudget);
+		}
+		return new ReactiveResilience4JCircuitBreaker(id, () -> configuration(id), circuitBreakerRegistry,
+				retryRegistry, circuitBreakerCustomizer(id));
+	}
+
+	/**
+	 * Keeps track of the load shedder of a circuit breaker, which changes when the circuit
+	 * breaker is reconfigured.
+	 */
+	private void registerLoadShedder(String id, LoadShedder loadShedder) {
+		LoadShedder previous = loadShedder != null ? loadShedders.put(id, loadShedder) : loadShedders.remove(id);
+		if (previous != loadShedder) {
+			loadShedderListeners.forEach(listener -> listener.accept(id, loadShedder));
+		}
+	}
+
+	private void registerRetryBudget(String id, RetryBudget retryBudget) {
+		RetryBudget previous = retryBudget != null ? retryBudgets.put(id, retryBudget) : retryBudgets.remove(id);
+		if (previous != retryBudget) {
+			retryBudgetListeners.forEach(listener -> listener.accept(id, retryBudget));
+		}
+	}
+
+	@Override
+	public void configure(Consumer<Resilience4JConfigBuilder> consumer, String... ids) {
+		ConfiguredIds next = refreshing;
+		if (next != null) {
+			// Applied once the refresh has run all the customizers
+			for (String id : ids) {
+				Resilience4JConfigBuilder builder = configBuilder(id);
+				consumer.accept(builder);
+				next.add(id, builder.build());
+			}
+			return;
+		}
+		ConfiguredIds current = configuredIds;
+		Arrays.stream(ids).forEach(current::add);
+		super.configure(consumer, ids);
+		if (idleEvictor != null) {
+			Arrays.stream(ids).forEach(idleEvictor::remove);
+		}
+	}
+
+	/**
+	 * Bounds the number of circuit breakers kept. Circuit breakers that have not been
+	 * used for {@code maxIdleTime}, and beyond {@code maxSize} the least recently used
+	 * ones, are evicted along with their retries, retry budgets and load shedders. An
+	 * evicted circuit breaker is created again with the default configuration the next
+	 * time it is used.
+	 * Circuit breakers that were configured or customized explicitly are never evicted.
+	 * Idle circuit breakers are looked for on the parallel Reactor scheduler, so they are
+	 * evicted even if no circuit breaker is created.
+	 * @param maxSize The maximum number of circuit breakers kept.
+	 * @param maxIdleTime The time after which an unused circuit breaker is evicted, or
+	 * {@code null} to only evict beyond {@code maxSize}.
+	 */
+	public synchronized void configureEviction(int maxSize, Duration maxIdleTime) {
+		if (idleEvictor != null && idleEvictor.hasSettings(maxSize, maxIdleTime)) {
+			return;
+		}
+		this.idleEvictor = new IdleEvictor(maxSize, maxIdleTime);
+		if (idleSweep != null) {
+			idleSweep.dispose();
+			idleSweep = null;
+		}
+		Duration interval = idleEvictor.getSweepInterval();
+		idleSweep = Schedulers.parallel().schedulePeriodically(this::evictIdle, interval.toNanos(), interval.toNanos(),
+				TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Registers a listener that is called with the id of every circuit breaker evicted.
+	 * @param listener The listener.
+	 */
+	public void addEvictionListener(Consumer<String> listener) {
+		this.evictionListeners.add(listener);
+	}
+
+	/**
+	 * Configures the circuit breakers whose ids match any of {@code patterns}, unless
+	 * they are configured explicitly. A pattern is either an id or a prefix followed by
+	 * {@code *}, and when several patterns match an id the most specific one is used.
+	 * Circuit breakers that no pattern matches get the default configuration.
+	 * @param consumer Configures the circuit breakers, starting from the default
+	 * Resilience4J configuration.
+	 * @param patterns The patterns of the ids.
+	 * @see IdPatternMatcher
+	 */
+	public void configurePattern(Consumer<Resilience4JConfigBuilder> consumer, String... patterns) {
+		ConfiguredIds next = refreshing;
+		IdPatternMatcher<Consumer<Resilience4JConfigBuilder>> matcher = (next != null ? next : configuredIds)
+				.getPatterns();
+		for (String pattern : patterns) {
+			matcher.add(pattern, consumer);
+		}
+	}
+
+	/**
+	 * Configures the circuit breakers with the given ids and applies the new
+	 * configuration to the circuit breakers that were already created. The Resilience4J
+	 * circuit breakers and retries of those ids are replaced, keeping the state of the
+	 * circuit, and calls in flight complete with the configuration they started with.
+	 * @param consumer Configures the circuit breakers.
+	 * @param ids The ids of the circuit breakers.
+	 */
+	public void reconfigure(Consumer<Resilience4JConfigBuilder> consumer, String... ids) {
+		if (refreshing != null) {
+			// Applied once the refresh has run all the customizers
+			configure(consumer, ids);
+			return;
+		}
+		for (String id : ids) {
+			Resilience4JConfigBuilder.Resilience4JCircuitBreakerConfiguration previous = getConfigurations().get(id);
+			Resilience4JConfigBuilder builder = configBuilder(id);
+			consumer.accept(builder);
+			Resilience4JConfigBuilder.Resilience4JCircuitBreakerConfiguration config = builder.build();
+			Resilience4JReconfiguration.retainUnchanged(previous, config);
+			configuredIds.add(id);
+			getConfigurations().put(id, config);
+			IdleEvictor evictor = idleEvictor;
+			if (evictor != null) {
+				evictor.remove(id);
+			}
+			Resilience4JReconfiguration.apply(id, previous, config, circuitBreakerRegistry, null, retryRegistry);
+			customizeReplacement(id);
+		}
+	}
+
+	/**
+	 * Runs the customizers again and applies the resulting configuration to the circuit
+	 * breakers that were already created, for example after the environment has changed.
+	 * Circuit breakers that were not configured explicitly get the default configuration
+	 * again. Only the parts of a configuration whose settings have changed are replaced,
+	 * so refreshing without any change keeps the state of the circuit breakers. Settings
+	 * that are configured the same way again, such as eviction, are left as they are.
+	 * @param customizers The customizers of this factory.
+	 */
+	public synchronized void refresh(Collection<Customizer<ReactiveResilience4JCircuitBreakerFactory>> customizers) {
+		ConfiguredIds next = new ConfiguredIds();
+		refreshing = next;
+		try {
+			customizers.forEach(customizer -> customizer.customize(this));
+		}
+		finally {
+			refreshing = null;
+		}
+		configuredIds = next;
+		// Includes the circuit breakers created with the previous settings while the
+		// customizers ran
+		Map<String, Resilience4JConfigBuilder.Resilience4JCircuitBreakerConfiguration> previous = new HashMap<>(
+				getConfigurations());
+		Map<String, Resilience4JConfigBuilder.Resilience4JCircuitBreakerConfiguration> resolved = new HashMap<>(
+				next.getConfigurations());
+		previous.keySet().forEach(id -> resolved.computeIfAbsent(id, this::resolveDefault));
+		IdleEvictor evictor = idleEvictor;
+		resolved.forEach((id, config) -> {
+			Resilience4JConfigBuilder.Resilience4JCircuitBreakerConfiguration old = previous.get(id);
+			// Each configuration is final before it is published
+			Resilience4JReconfiguration.retainUnchanged(old, config);
+			getConfigurations().put(id, config);
+			if (evictor != null && next.contains(id)) {
+				evictor.remove(id);
+			}
+			Resilience4JReconfiguration.apply(id, old, config, circuitBreakerRegistry, null, retryRegistry);
+			customizeReplacement(id);
+		});
+	}
+
+	/**
+	 * Looks up the configuration of a circuit breaker. This is called at the start of
+	 * every call, so it avoids {@code computeIfAbsent} which may lock even if the
+	 * configuration is present.
+	 */
+	private Resilience4JConfigBuilder.Resilience4JCircuitBreakerConfiguration configuration(String id) {
+		IdleEvictor evictor = idleEvictor;
+		if (evictor != null && !configuredIds.contains(id) && !circuitBreakerCustomizers.containsKey(id)) {
+			evictor.touch(id);
+		}
+		Resilience4JConfigBuilder.Resilience4JCircuitBreakerConfiguration config = getConfigurations().get(id);
+		return config != null ? config : getConfigurations().computeIfAbsent(id, this::resolveDefault);
+	}
+
+	private Resilience4JConfigBuilder.Resilience4JCircuitBreakerConfiguration resolveDefault(String id) {
+		Consumer<Resilience4JConfigBuilder> consumer = configuredIds.getPatterns().match(id);
+		if (consumer == null) {
+			return defaultConfiguration.apply(id);
+		}
+		Resilience4JConfigBuilder builder = configBuilder(id);
+		consumer.accept(builder);
+		return builder.build();
+	}
+
+	void evictIdle() {
+		IdleEvictor evictor = idleEvictor;
+		if (evictor == null) {
+			return;
+		}
+		ConfiguredIds configured = configuredIds;
+		List<String> evicted = evictor.sweep(
+				candidate -> configured.contains(candidate) || circuitBreakerCustomizers.containsKey(candidate));
+		for (String id : evicted) {
+			getConfigurations().remove(id);
+			circuitBreakerRegistry.remove(id);
+			retryRegistry.remove(id);
+			loadShedders.remove(id);
+			retryBudgets.remove(id);
+			if (eventDispatcher != null) {
+				eventDispatcher.forget(id);
+			}
+			evictionListeners.forEach(listener -> listener.accept(id));
+		}
 	}
 
 	@Override
@@ -63,6 +330,10 @@ public class ReactiveResilience4JCircuitBreakerFactory extends
 		return circuitBreakerRegistry;
 	}
 
+	RetryRegistry getRetryRegistry() {
+		return retryRegistry;
+	}
+
 	@Override
 	public void configureDefault(
 			Function<String, Resilience4JConfigBuilder.Resilience4JCircuitBreakerConfiguration> defaultConfiguration) {
@@ -73,10 +344,172 @@ public class ReactiveResilience4JCircuitBreakerFactory extends
 		this.circuitBreakerRegistry = registry;
 	}
 
+	public void configureRetryRegistry(RetryRegistry registry) {
+		this.retryRegistry = registry;
+	}
+
+	/**
+	 * Shares the state of the circuit breakers of this factory with the other instances
+	 * of the application through {@code stateSync}. A circuit breaker opens when the
+	 * circuit breaker of the same id opens on another instance, or when the failure rate
+	 * of all instances together exceeds its threshold. Call this after configuring the
+	 * circuit breaker registry. Calling this again with another channel stops sharing
+	 * the state through the previous one.
+	 * @param stateSync The channel to the other instances.
+	 */
+	public synchronized void configureStateSync(BreakerStateSync stateSync) {
+		if (stateSynchronizer != null) {
+			if (stateSynchronizer.getSync() == stateSync) {
+				return;
+			}
+			stateSynchronizer.close();
+		}
+		stateSynchronizer = new BreakerStateSynchronizer(circuitBreakerRegistry, stateSync,
+				task -> Schedulers.parallel().schedule(task));
+	}
+
+	/**
+	 * Saves the state of the circuit breakers of this factory to {@code snapshotStore}
+	 * and restores it when they are created again after a restart. Call this after
+	 * configuring the circuit breaker registry. Calling this again with another store
+	 * stops saving the state to the previous one.
+	 * @param snapshotStore The store the state is saved to.
+	 */
+	public synchronized void configureSnapshots(BreakerSnapshotStore snapshotStore) {
+		if (snapshotter != null) {
+			if (snapshotter.getStore() == snapshotStore) {
+				return;
+			}
+			snapshotter.close();
+		}
+		snapshotter = new BreakerSnapshotter(circuitBreakerRegistry, snapshotStore,
+				(task, delay) -> Schedulers.parallel().schedule(task, delay, TimeUnit.MILLISECONDS));
+	}
+
+	/**
+	 * Publishes the state transitions, rejected calls and slow calls of the circuit
+	 * breakers of this factory to {@code eventBuffer}. Call this after configuring the
+	 * circuit breaker registry. Calling this again with another buffer stops publishing
+	 * the events to the previous one.
+	 * @param eventBuffer The buffer the events are published to.
+	 * @see BreakerEventFlux
+	 */
+	public synchronized void configureEvents(BreakerEventBuffer eventBuffer) {
+		if (eventRecorder != null) {
+			if (eventRecorder.getBuffer() == eventBuffer) {
+				return;
+			}
+			eventRecorder.close();
+		}
+		eventRecorder = new BreakerEventRecorder(circuitBreakerRegistry, eventBuffer);
+		this.eventBuffer = eventBuffer;
+	}
+
+	public BreakerEventBuffer getEventBuffer() {
+		return this.eventBuffer;
+	}
+
+	/**
+	 * Runs the event consumers that circuit breaker customizers register on the event
+	 * publishers of the Resilience4J circuit breakers on the thread of
+	 * {@code eventDispatcher}, so slow consumers do not add to the latency of the calls.
+	 * @param eventDispatcher The dispatcher the events are passed to.
+	 * @see #addCircuitBreakerCustomizer(Customizer, String...)
+	 */
+	public void configureAsyncEventDispatch(AsyncEventDispatcher eventDispatcher) {
+		this.eventDispatcher = eventDispatcher;
+	}
+
+	/**
+	 * Returns the events of the circuit breakers of this factory published after
+	 * subscribing, see {@link BreakerEventFlux}.
+	 * @return The events.
+	 */
+	public Flux<BreakerEvent> events() {
+		Assert.state(eventBuffer != null, "Events have not been configured");
+		return BreakerEventFlux.from(eventBuffer);
+	}
+
+	/**
+	 * Returns the customizer of a circuit breaker, which is called at the start of every
+	 * call. It applies the registered customizer once to every Resilience4J circuit
+	 * breaker of the id, including one that replaced it after it was reconfigured, so
+	 * event consumers are neither registered twice nor lost.
+	 */
+	private Optional<Customizer<CircuitBreaker>> circuitBreakerCustomizer(String id) {
+		Customizer<CircuitBreaker> customizer = circuitBreakerCustomizers.get(id);
+		if (customizer == null) {
+			return Optional.empty();
+		}
+		AsyncEventDispatcher dispatcher = this.eventDispatcher;
+		return Optional.of(circuitBreaker -> {
+			if (customizedCircuitBreakers.get(id) != circuitBreaker
+					&& customizedCircuitBreakers.put(id, circuitBreaker) != circuitBreaker) {
+				customizer.customize(dispatcher != null ? dispatcher.decorate(circuitBreaker) : circuitBreaker);
+			}
+		});
+	}
+
+	/**
+	 * Customizes the circuit breaker of an id right after it has been replaced, so no
+	 * event is missed before its next call.
+	 */
+	private void customizeReplacement(String id) {
+		circuitBreakerCustomizer(id)
+				.ifPresent(customizer -> circuitBreakerRegistry.find(id).ifPresent(customizer::customize));
+	}
+
+	/**
+	 * Registers a customizer of the Resilience4J circuit breakers with the given ids. It
+	 * is applied once to every Resilience4J circuit breaker, when it is first used, and
+	 * again to the circuit breaker that replaces it after it is reconfigured or
+	 * refreshed. Wrapping it in {@code Customizer.once} keyed by name is not needed, and
+	 * would keep it from being applied to the replacement.
+	 * @param customizer The customizer.
+	 * @param ids The ids of the circuit breakers.
+	 */
 	public void addCircuitBreakerCustomizer(Customizer<CircuitBreaker> customizer, String... ids) {
 		for (String id : ids) {
 			circuitBreakerCustomizers.put(id, customizer);
 		}
 	}
 
+	/**
+	 * Returns the load shedders of the circuit breakers created so far, keyed by id.
+	 * @return The load shedders.
+	 */
+	public Map<String, LoadShedder> getLoadShedders() {
+		return Collections.unmodifiableMap(loadShedders);
+	}
+
+	/**
+	 * Registers a listener that is called when a circuit breaker with a load shedder is
+	 * created for the first time, and when the load shedder of a circuit breaker changes
+	 * after it has been reconfigured.
+	 * @param listener The listener, called with the id and the load shedder, or
+	 * {@code null} if the circuit breaker no longer has one.
+	 */
+	public void addLoadShedderListener(BiConsumer<String, LoadShedder> listener) {
+		this.loadShedderListeners.add(listener);
+	}
+
+	/**
+	 * Returns the retry budgets of the circuit breakers created so far, keyed by id.
+	 * @return The retry budgets.
+	 */
+	public Map<String, RetryBudget> getRetryBudgets() {
+		return Collections.unmodifiableMap(retryBudgets);
+	}
+
+	/**
+	 * Registers a listener that is called when a circuit breaker with a retry budget is
+	 * created for the first time, and when the retry budget of a circuit breaker changes
+	 * after it has been reconfigured.
+	 * @param listener The listener, called with the id and the retry budget, or
+	 * {@code null} if the circuit breaker no longer has one.
+	 */
+	public void addRetryBudgetListener(BiConsumer<String, RetryBudget> listener) {
+		this.retryBudgetListeners.add(listener);
+	}
+
 }
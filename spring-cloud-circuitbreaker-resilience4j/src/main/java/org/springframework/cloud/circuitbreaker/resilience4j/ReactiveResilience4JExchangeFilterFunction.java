@@ -0,0 +1,163 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.resilience4j;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import reactor.core.publisher.Mono;
+
+import org.springframework.cloud.client.circuitbreaker.ReactiveCircuitBreaker;
+import org.springframework.http.HttpHeaders;
+import org.springframework.util.Assert;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+import org.springframework.web.reactive.function.client.WebClient;
+
+/**
+ * Runs the exchanges of a {@link WebClient} through a circuit breaker per host, or per
+ * any other id resolved from the request such as its URI template. The circuit breaker
+ * of each id is created once and reused until the factory evicts it. Responses with a
+ * server error status or {@code 429 Too Many Requests} are recorded as failures and
+ * returned to the caller as they are, without reading their body. When such a response
+ * has a {@code Retry-After} header the circuit breaker is held open until then.
+ *
+ * @author Ryan Baxter
+ */
+public class ReactiveResilience4JExchangeFilterFunction implements ExchangeFilterFunction {
+
+	private static final String URI_TEMPLATE_ATTRIBUTE = WebClient.class.getName() + ".uriTemplate";
+
+	private final ReactiveResilience4JCircuitBreakerFactory factory;
+
+	private final Function<ClientRequest, String> idResolver;
+
+	private final Map<String, ReactiveCircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+
+	private final RetryAfterHolds holds = new RetryAfterHolds();
+
+	/**
+	 * Creates a filter with a circuit breaker per host.
+	 * @param factory The factory the circuit breakers are created by.
+	 */
+	public ReactiveResilience4JExchangeFilterFunction(ReactiveResilience4JCircuitBreakerFactory factory) {
+		this(factory, request -> RetryAfterHolds.hostId(request.url()));
+	}
+
+	/**
+	 * Constructor.
+	 * @param factory The factory the circuit breakers are created by.
+	 * @param idResolver Resolves the id of the circuit breaker of a request.
+	 * @see #uriTemplate()
+	 */
+	public ReactiveResilience4JExchangeFilterFunction(ReactiveResilience4JCircuitBreakerFactory factory,
+			Function<ClientRequest, String> idResolver) {
+		Assert.notNull(factory, "factory must not be null");
+		Assert.notNull(idResolver, "idResolver must not be null");
+		this.factory = factory;
+		this.idResolver = idResolver;
+		factory.addEvictionListener(this::evict);
+	}
+
+	/**
+	 * Resolves the id of the circuit breaker of a request to the URI template it was made
+	 * with, or to its host if it was made with a URI.
+	 * @return The id resolver.
+	 */
+	public static Function<ClientRequest, String> uriTemplate() {
+		return request -> request.attribute(URI_TEMPLATE_ATTRIBUTE).map(Object::toString)
+				.orElseGet(() -> RetryAfterHolds.hostId(request.url()));
+	}
+
+	/**
+	 * Sets the longest time a {@code Retry-After} header holds a circuit breaker open.
+	 * Defaults to 5 minutes.
+	 * @param maxRetryAfter The longest time.
+	 */
+	public void setMaxRetryAfter(Duration maxRetryAfter) {
+		holds.setMaxRetryAfter(maxRetryAfter);
+	}
+
+	@Override
+	public Mono<ClientResponse> filter(ClientRequest request, ExchangeFunction next) {
+		String id = idResolver.apply(request);
+		return Mono.defer(() -> {
+			CallNotPermittedException notPermitted = holds.notPermitted(id, factory.getCircuitBreakerRegistry());
+			if (notPermitted != null) {
+				return Mono.error(notPermitted);
+			}
+			// A failed response is only returned if no retry succeeds, otherwise its body
+			// is released
+			AtomicReference<ClientResponse> failed = new AtomicReference<>();
+			Mono<ClientResponse> exchange = Mono.defer(() -> next.exchange(request)).flatMap(response -> {
+				ClientResponse previous = failed.getAndSet(
+						HttpFailureStatusException.isFailure(response.rawStatusCode()) ? response : null);
+				Mono<Void> release = release(previous);
+				if (failed.get() == response) {
+					return release.then(
+							Mono.error(new HttpFailureStatusException(response.rawStatusCode(), response)));
+				}
+				return release.thenReturn(response);
+			});
+			return circuitBreaker(id).run(exchange, throwable -> recover(id, throwable, failed))
+					.doOnCancel(() -> release(failed.getAndSet(null)).subscribe());
+		});
+	}
+
+	private ReactiveCircuitBreaker circuitBreaker(String id) {
+		ReactiveCircuitBreaker circuitBreaker = circuitBreakers.get(id);
+		return circuitBreaker != null ? circuitBreaker : circuitBreakers.computeIfAbsent(id, factory::create);
+	}
+
+	private void evict(String id) {
+		circuitBreakers.remove(id);
+		holds.forget(id);
+	}
+
+	Set<String> getIds() {
+		return Collections.unmodifiableSet(circuitBreakers.keySet());
+	}
+
+	/**
+	 * Returns the failed response if the exchange failed with it. Otherwise the failed
+	 * response of an earlier attempt, which a retry or a time out has dropped, is
+	 * released.
+	 */
+	private Mono<ClientResponse> recover(String id, Throwable throwable, AtomicReference<ClientResponse> failed) {
+		ClientResponse previous = failed.getAndSet(null);
+		if (throwable instanceof HttpFailureStatusException) {
+			ClientResponse response = (ClientResponse) ((HttpFailureStatusException) throwable).getResponse();
+			holds.hold(id, response.headers().asHttpHeaders().getFirst(HttpHeaders.RETRY_AFTER),
+					factory.getCircuitBreakerRegistry());
+			return previous != response ? release(previous).thenReturn(response) : Mono.just(response);
+		}
+		return release(previous).then(Mono.error(throwable));
+	}
+
+	private static Mono<Void> release(ClientResponse response) {
+		return response != null ? response.releaseBody() : Mono.empty();
+	}
+
+}
@@ -16,10 +16,8 @@
 
 package org.springframework.cloud.circuitbreaker.resilience4j;
 
-import java.util.ArrayList;
-import java.util.List;
-
-import javax.annotation.PostConstruct;
+import java.util.Arrays;
+import java.util.stream.Collectors;
 
 import io.github.resilience4j.bulkhead.Bulkhead;
 import io.github.resilience4j.bulkhead.BulkheadRegistry;
@@ -29,15 +27,22 @@ import io.github.resilience4j.micrometer.tagged.TaggedBulkheadMetrics;
 import io.github.resilience4j.micrometer.tagged.TaggedCircuitBreakerMetrics;
 import io.github.resilience4j.micrometer.tagged.TaggedThreadPoolBulkheadMetrics;
 import io.github.resilience4j.timelimiter.TimeLimiterRegistry;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
 
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.SmartInitializingSingleton;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.cloud.circuitbreaker.commons.BreakerEventBuffer;
+import org.springframework.cloud.circuitbreaker.commons.BreakerSnapshotStore;
 import org.springframework.cloud.client.circuitbreaker.CircuitBreakerFactory;
 import org.springframework.cloud.client.circuitbreaker.Customizer;
+import org.springframework.cloud.context.scope.refresh.RefreshScopeRefreshedEvent;
+import org.springframework.context.ApplicationListener;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
@@ -51,73 +56,201 @@ import org.springframework.context.annotation.Configuration;
 		"spring.cloud.circuitbreaker.resilience4j.blocking.enabled" }, matchIfMissing = true)
 public class Resilience4JAutoConfiguration {
 
-	@Autowired(required = false)
-	private List<Customizer<Resilience4JCircuitBreakerFactory>> customizers = new ArrayList<>();
-
 	@Bean
 	@ConditionalOnMissingBean(CircuitBreakerFactory.class)
 	public Resilience4JCircuitBreakerFactory resilience4jCircuitBreakerFactory(
 			CircuitBreakerRegistry circuitBreakerRegistry, TimeLimiterRegistry timeLimiterRegistry,
-			@Autowired(required = false) Resilience4jBulkheadProvider bulkheadProvider) {
+			ObjectProvider<Resilience4jBulkheadProvider> bulkheadProvider,
+			ObjectProvider<Customizer<Resilience4JCircuitBreakerFactory>> customizers,
+			ObjectProvider<BreakerStateSync> stateSync, ObjectProvider<BreakerSnapshotStore> snapshotStore,
+			ObjectProvider<BreakerEventBuffer> eventBuffer, ObjectProvider<AsyncEventDispatcher> eventDispatcher) {
 		Resilience4JCircuitBreakerFactory factory = new Resilience4JCircuitBreakerFactory(circuitBreakerRegistry,
-				timeLimiterRegistry, bulkheadProvider);
-		customizers.forEach(customizer -> customizer.customize(factory));
+				timeLimiterRegistry, bulkheadProvider.getIfAvailable());
+		customizers.orderedStream().forEach(customizer -> customizer.customize(factory));
+		stateSync.ifAvailable(factory::configureStateSync);
+		snapshotStore.ifAvailable(factory::configureSnapshots);
+		eventBuffer.ifAvailable(factory::configureEvents);
+		eventDispatcher.ifAvailable(factory::configureAsyncEventDispatch);
 		return factory;
 	}
 
+	@Configuration(proxyBeanMethods = false)
+	@EnableConfigurationProperties(Resilience4JConfigurationProperties.class)
+	public static class Resilience4JConfigPatternsConfiguration {
+
+		@Bean
+		public Customizer<Resilience4JCircuitBreakerFactory> resilience4JConfigPatternsCustomizer(
+				Resilience4JConfigurationProperties properties, CircuitBreakerRegistry circuitBreakerRegistry,
+				TimeLimiterRegistry timeLimiterRegistry) {
+			return factory -> properties.getConfigPatterns().forEach((pattern, name) -> factory.configurePattern(
+					builder -> builder
+							.circuitBreakerConfig(circuitBreakerRegistry.getConfiguration(name)
+									.orElseGet(circuitBreakerRegistry::getDefaultConfig))
+							.timeLimiterConfig(timeLimiterRegistry.getConfiguration(name)
+									.orElseGet(timeLimiterRegistry::getDefaultConfig)),
+					pattern));
+		}
+
+	}
+
 	@Configuration(proxyBeanMethods = false)
 	@ConditionalOnClass(Bulkhead.class)
 	@ConditionalOnProperty(value = "spring.cloud.circuitbreaker.bulkhead.resilience4j.enabled", matchIfMissing = true)
-	public static class Resilience4jBulkheadConfiguration {
+	@EnableConfigurationProperties(Resilience4JConfigurationProperties.class)
+	public static class Resilience4jBulkheadConfigPatternsConfiguration {
 
-		@Autowired(required = false)
-		private List<Customizer<Resilience4jBulkheadProvider>> bulkheadCustomizers = new ArrayList<>();
+		@Bean
+		public Customizer<Resilience4jBulkheadProvider> resilience4jBulkheadConfigPatternsCustomizer(
+				Resilience4JConfigurationProperties properties, BulkheadRegistry bulkheadRegistry,
+				ThreadPoolBulkheadRegistry threadPoolBulkheadRegistry) {
+			return provider -> properties.getConfigPatterns().forEach((pattern, name) -> provider.configurePattern(
+					builder -> builder
+							.bulkheadConfig(bulkheadRegistry.getConfiguration(name)
+									.orElseGet(bulkheadRegistry::getDefaultConfig))
+							.threadPoolBulkheadConfig(threadPoolBulkheadRegistry.getConfiguration(name)
+									.orElseGet(threadPoolBulkheadRegistry::getDefaultConfig)),
+					pattern));
+		}
+
+	}
+
+	@Configuration(proxyBeanMethods = false)
+	@ConditionalOnClass(Bulkhead.class)
+	@ConditionalOnProperty(value = "spring.cloud.circuitbreaker.bulkhead.resilience4j.enabled", matchIfMissing = true)
+	public static class Resilience4jBulkheadConfiguration {
 
 		@Bean
 		public Resilience4jBulkheadProvider bulkheadProvider(ThreadPoolBulkheadRegistry threadPoolBulkheadRegistry,
-				BulkheadRegistry bulkheadRegistry) {
+				BulkheadRegistry bulkheadRegistry, ObjectProvider<Customizer<Resilience4jBulkheadProvider>> customizers,
+				ObjectProvider<SharedBulkheadPool> sharedPool) {
 			Resilience4jBulkheadProvider resilience4jBulkheadProvider = new Resilience4jBulkheadProvider(
 					threadPoolBulkheadRegistry, bulkheadRegistry);
-			bulkheadCustomizers.forEach(customizer -> customizer.customize(resilience4jBulkheadProvider));
+			customizers.orderedStream().forEach(customizer -> customizer.customize(resilience4jBulkheadProvider));
+			sharedPool.ifAvailable(resilience4jBulkheadProvider::configureSharedThreadPool);
 			return resilience4jBulkheadProvider;
 		}
 
 	}
 
 	@Configuration(proxyBeanMethods = false)
-	@ConditionalOnBean({ MeterRegistry.class })
 	@ConditionalOnClass(name = { "io.github.resilience4j.micrometer.tagged.TaggedCircuitBreakerMetrics" })
 	public static class MicrometerResilience4JCustomizerConfiguration {
 
-		@Autowired(required = false)
-		private Resilience4JCircuitBreakerFactory factory;
+		@Bean
+		public SmartInitializingSingleton resilience4JMeterBinder(ObjectProvider<MeterRegistry> meterRegistries,
+				ObjectProvider<Resilience4JCircuitBreakerFactory> factory,
+				ObjectProvider<Resilience4jBulkheadProvider> bulkheadProvider,
+				ObjectProvider<AsyncEventDispatcher> eventDispatcher) {
+			return () -> meterRegistries.ifAvailable(meterRegistry -> {
+				factory.ifAvailable(it -> TaggedCircuitBreakerMetrics
+						.ofCircuitBreakerRegistry(it.getCircuitBreakerRegistry()).bindTo(meterRegistry));
+				bulkheadProvider.ifAvailable(it -> {
+					TaggedBulkheadMetrics.ofBulkheadRegistry(it.getBulkheadRegistry()).bindTo(meterRegistry);
+					TaggedThreadPoolBulkheadMetrics.ofThreadPoolBulkheadRegistry(it.getThreadPoolBulkheadRegistry())
+							.bindTo(meterRegistry);
+					it.getPriorityBulkheads().forEach(
+							(id, priorityBulkhead) -> bindPriorityBulkhead(meterRegistry, id, priorityBulkhead));
+					it.addPriorityBulkheadListener(
+							(id, priorityBulkhead) -> bindPriorityBulkhead(meterRegistry, id, priorityBulkhead));
+					if (it.getSharedThreadPool() != null) {
+						bindSharedPool(meterRegistry, it.getSharedThreadPool());
+						it.getSharedThreadPoolBulkheads().forEach(
+								(id, sharedBulkhead) -> bindSharedBulkhead(meterRegistry, id, sharedBulkhead));
+						it.addSharedThreadPoolBulkheadListener(
+								(id, sharedBulkhead) -> bindSharedBulkhead(meterRegistry, id, sharedBulkhead));
+					}
+				});
+				factory.ifAvailable(it -> it.addEvictionListener(id -> removeBulkheadMeters(meterRegistry, id)));
+				eventDispatcher.ifAvailable(it -> bindEventDispatcher(meterRegistry, it));
+			});
+		}
 
-		@Autowired(required = false)
-		private Resilience4jBulkheadProvider bulkheadProvider;
+		private static void bindPriorityBulkhead(MeterRegistry meterRegistry, String id,
+				PriorityBulkhead priorityBulkhead) {
+			for (String priority : priorityBulkhead.getPriorityClasses()) {
+				Gauge.builder("spring.cloud.circuitbreaker.bulkhead.priority.in.use", priorityBulkhead,
+						bulkhead -> bulkhead.getInUse(priority)).description("The number of permits in use")
+						.tag("name", id).tag("priority", priority).register(meterRegistry);
+				FunctionCounter
+						.builder("spring.cloud.circuitbreaker.bulkhead.priority.admitted", priorityBulkhead,
+								bulkhead -> bulkhead.getAdmittedCount(priority))
+						.description("The number of calls admitted").tag("name", id).tag("priority", priority)
+						.register(meterRegistry);
+				FunctionCounter
+						.builder("spring.cloud.circuitbreaker.bulkhead.priority.rejected", priorityBulkhead,
+								bulkhead -> bulkhead.getRejectedCount(priority))
+						.description("The number of calls rejected").tag("name", id).tag("priority", priority)
+						.register(meterRegistry);
+			}
+		}
 
-		@Autowired
-		private MeterRegistry meterRegistry;
+		private static void bindSharedPool(MeterRegistry meterRegistry, SharedBulkheadPool sharedPool) {
+			Gauge.builder("spring.cloud.circuitbreaker.bulkhead.shared.threads", sharedPool,
+					SharedBulkheadPool::getThreadCount).description("The number of threads of the shared pool")
+					.register(meterRegistry);
+			Gauge.builder("spring.cloud.circuitbreaker.bulkhead.shared.threads.active", sharedPool,
+					SharedBulkheadPool::getActiveThreadCount)
+					.description("The number of threads of the shared pool running calls").register(meterRegistry);
+		}
 
-		@PostConstruct
-		public void init() {
-			if (factory != null) {
-				TaggedCircuitBreakerMetrics.ofCircuitBreakerRegistry(factory.getCircuitBreakerRegistry())
-						.bindTo(meterRegistry);
-			}
-			if (bulkheadProvider != null) {
-				TaggedBulkheadMetrics.ofBulkheadRegistry(bulkheadProvider.getBulkheadRegistry()).bindTo(meterRegistry);
-				TaggedThreadPoolBulkheadMetrics
-						.ofThreadPoolBulkheadRegistry(bulkheadProvider.getThreadPoolBulkheadRegistry())
-						.bindTo(meterRegistry);
-			}
-			if (bulkheadProvider != null) {
-				TaggedBulkheadMetrics.ofBulkheadRegistry(bulkheadProvider.getBulkheadRegistry()).bindTo(meterRegistry);
-				TaggedThreadPoolBulkheadMetrics
-						.ofThreadPoolBulkheadRegistry(bulkheadProvider.getThreadPoolBulkheadRegistry())
-						.bindTo(meterRegistry);
+		private static void bindSharedBulkhead(MeterRegistry meterRegistry, String id,
+				SharedThreadPoolBulkhead sharedBulkhead) {
+			Gauge.builder("spring.cloud.circuitbreaker.bulkhead.shared.running", sharedBulkhead,
+					SharedThreadPoolBulkhead::getRunningCalls).description("The number of calls running")
+					.tag("name", id).register(meterRegistry);
+			Gauge.builder("spring.cloud.circuitbreaker.bulkhead.shared.queue.depth", sharedBulkhead,
+					SharedThreadPoolBulkhead::getQueueDepth).description("The number of calls waiting to run")
+					.tag("name", id).register(meterRegistry);
+			FunctionCounter
+					.builder("spring.cloud.circuitbreaker.bulkhead.shared.rejected", sharedBulkhead,
+							SharedThreadPoolBulkhead::getRejectedCount)
+					.description("The number of calls rejected").tag("name", id).register(meterRegistry);
+		}
+
+		private static void removeBulkheadMeters(MeterRegistry meterRegistry, String id) {
+			for (String name : Arrays.asList("spring.cloud.circuitbreaker.bulkhead.priority.in.use",
+					"spring.cloud.circuitbreaker.bulkhead.priority.admitted",
+					"spring.cloud.circuitbreaker.bulkhead.priority.rejected",
+					"spring.cloud.circuitbreaker.bulkhead.shared.running",
+					"spring.cloud.circuitbreaker.bulkhead.shared.queue.depth",
+					"spring.cloud.circuitbreaker.bulkhead.shared.rejected")) {
+				meterRegistry.find(name).tag("name", id).meters().forEach(meterRegistry::remove);
 			}
 		}
 
+		private static void bindEventDispatcher(MeterRegistry meterRegistry, AsyncEventDispatcher eventDispatcher) {
+			Gauge.builder("spring.cloud.circuitbreaker.events.pending", eventDispatcher,
+					AsyncEventDispatcher::getPendingEvents).description("The number of events waiting to be dispatched")
+					.register(meterRegistry);
+			FunctionCounter
+					.builder("spring.cloud.circuitbreaker.events.dispatched", eventDispatcher,
+							AsyncEventDispatcher::getDispatchedEvents)
+					.description("The number of events dispatched").register(meterRegistry);
+			FunctionCounter
+					.builder("spring.cloud.circuitbreaker.events.dropped", eventDispatcher,
+							AsyncEventDispatcher::getDroppedEvents)
+					.description("The number of events dropped because the dispatcher was full")
+					.register(meterRegistry);
+			FunctionCounter
+					.builder("spring.cloud.circuitbreaker.events.failed", eventDispatcher,
+							AsyncEventDispatcher::getFailedEvents)
+					.description("The number of events whose consumer failed").register(meterRegistry);
+		}
+
+	}
+
+	@Configuration(proxyBeanMethods = false)
+	@ConditionalOnClass(name = "org.springframework.cloud.context.scope.refresh.RefreshScopeRefreshedEvent")
+	public static class Resilience4JRefreshConfiguration {
+
+		@Bean
+		public ApplicationListener<RefreshScopeRefreshedEvent> resilience4JRefreshListener(
+				ObjectProvider<Resilience4JCircuitBreakerFactory> factory,
+				ObjectProvider<Customizer<Resilience4JCircuitBreakerFactory>> customizers) {
+			return event -> factory.ifAvailable(
+					it -> it.refresh(customizers.orderedStream().collect(Collectors.toList())));
+		}
+
 	}
 
 }
@@ -16,19 +16,35 @@
 
 package org.springframework.cloud.circuitbreaker.resilience4j;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
 import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
 import io.github.resilience4j.timelimiter.TimeLimiter;
 import io.github.resilience4j.timelimiter.TimeLimiterConfig;
 import io.github.resilience4j.timelimiter.TimeLimiterRegistry;
 import io.vavr.control.Try;
 
+import org.springframework.cloud.circuitbreaker.commons.DeadlineContextHolder;
+import org.springframework.cloud.circuitbreaker.commons.FallbackCache;
 import org.springframework.cloud.client.circuitbreaker.CircuitBreaker;
 import org.springframework.cloud.client.circuitbreaker.Customizer;
 
@@ -42,31 +58,30 @@ public class Resilience4JCircuitBreaker implements CircuitBreaker {
 
 	private Resilience4jBulkheadProvider bulkheadProvider;
 
-	private final io.github.resilience4j.circuitbreaker.CircuitBreakerConfig circuitBreakerConfig;
+	private final Supplier<Resilience4JConfigBuilder.Resilience4JCircuitBreakerConfiguration> configuration;
 
 	private final CircuitBreakerRegistry registry;
 
 	private final TimeLimiterRegistry timeLimiterRegistry;
 
-	private final TimeLimiterConfig timeLimiterConfig;
-
 	private final ExecutorService executorService;
 
+	private final ScheduledExecutorService scheduledExecutorService;
+
 	private final Optional<Customizer<io.github.resilience4j.circuitbreaker.CircuitBreaker>> circuitBreakerCustomizer;
 
+	private List<String> parentIds = Collections.emptyList();
+
+	private Function<String, Resilience4JConfigBuilder.Resilience4JCircuitBreakerConfiguration> parentConfiguration;
+
 	@Deprecated
 	public Resilience4JCircuitBreaker(String id,
 			io.github.resilience4j.circuitbreaker.CircuitBreakerConfig circuitBreakerConfig,
 			TimeLimiterConfig timeLimiterConfig, CircuitBreakerRegistry circuitBreakerRegistry,
 			ExecutorService executorService,
 			Optional<Customizer<io.github.resilience4j.circuitbreaker.CircuitBreaker>> circuitBreakerCustomizer) {
-		this.id = id;
-		this.circuitBreakerConfig = circuitBreakerConfig;
-		this.registry = circuitBreakerRegistry;
-		this.timeLimiterRegistry = TimeLimiterRegistry.ofDefaults();
-		this.timeLimiterConfig = timeLimiterConfig;
-		this.executorService = executorService;
-		this.circuitBreakerCustomizer = circuitBreakerCustomizer;
+		this(id, circuitBreakerConfig, timeLimiterConfig, circuitBreakerRegistry, TimeLimiterRegistry.ofDefaults(),
+				executorService, circuitBreakerCustomizer, null);
 	}
 
 	public Resilience4JCircuitBreaker(String id,
@@ -75,34 +90,374 @@ public class Resilience4JCircuitBreaker implements CircuitBreaker {
 			TimeLimiterRegistry timeLimiterRegistry, ExecutorService executorService,
 			Optional<Customizer<io.github.resilience4j.circuitbreaker.CircuitBreaker>> circuitBreakerCustomizer,
 			Resilience4jBulkheadProvider bulkheadProvider) {
+		this(id, new Resilience4JConfigBuilder(id).circuitBreakerConfig(circuitBreakerConfig)
+				.timeLimiterConfig(timeLimiterConfig).build(), circuitBreakerRegistry, timeLimiterRegistry,
+				executorService, null, circuitBreakerCustomizer, bulkheadProvider);
+	}
+
+	public Resilience4JCircuitBreaker(String id,
+			Resilience4JConfigBuilder.Resilience4JCircuitBreakerConfiguration config,
+			CircuitBreakerRegistry circuitBreakerRegistry, TimeLimiterRegistry timeLimiterRegistry,
+			ExecutorService executorService, ScheduledExecutorService scheduledExecutorService,
+			Optional<Customizer<io.github.resilience4j.circuitbreaker.CircuitBreaker>> circuitBreakerCustomizer,
+			Resilience4jBulkheadProvider bulkheadProvider) {
+		this(id, () -> config, circuitBreakerRegistry, timeLimiterRegistry, executorService,
+				scheduledExecutorService, circuitBreakerCustomizer, bulkheadProvider);
+	}
+
+	/**
+	 * Creates a circuit breaker that reads its configuration from {@code configuration}
+	 * at the start of every call, so the configuration can be replaced while the circuit
+	 * breaker is in use.
+	 * @param id The id of the circuit breaker.
+	 * @param configuration Supplies the current configuration.
+	 * @param circuitBreakerRegistry The registry of the Resilience4J circuit breakers.
+	 * @param timeLimiterRegistry The registry of the Resilience4J time limiters.
+	 * @param executorService The executor calls are run on.
+	 * @param scheduledExecutorService The scheduler used for hedged calls.
+	 * @param circuitBreakerCustomizer The customizer of the Resilience4J circuit breaker.
+	 * @param bulkheadProvider The bulkhead provider, may be {@code null}.
+	 */
+	public Resilience4JCircuitBreaker(String id,
+			Supplier<Resilience4JConfigBuilder.Resilience4JCircuitBreakerConfiguration> configuration,
+			CircuitBreakerRegistry circuitBreakerRegistry, TimeLimiterRegistry timeLimiterRegistry,
+			ExecutorService executorService, ScheduledExecutorService scheduledExecutorService,
+			Optional<Customizer<io.github.resilience4j.circuitbreaker.CircuitBreaker>> circuitBreakerCustomizer,
+			Resilience4jBulkheadProvider bulkheadProvider) {
 		this.id = id;
-		this.circuitBreakerConfig = circuitBreakerConfig;
+		this.configuration = configuration;
 		this.registry = circuitBreakerRegistry;
 		this.timeLimiterRegistry = timeLimiterRegistry;
-		this.timeLimiterConfig = timeLimiterConfig;
 		this.executorService = executorService;
+		this.scheduledExecutorService = scheduledExecutorService;
 		this.circuitBreakerCustomizer = circuitBreakerCustomizer;
 		this.bulkheadProvider = bulkheadProvider;
 	}
 
+	/**
+	 * Records the calls of this circuit breaker with the circuit breakers of
+	 * {@code parentIds} as well, so an open parent rejects the calls of this circuit
+	 * breaker.
+	 * @param parentIds The ids of the parents, nearest first.
+	 * @param parentConfiguration Looks up the configuration of a parent.
+	 */
+	void configureParents(List<String> parentIds,
+			Function<String, Resilience4JConfigBuilder.Resilience4JCircuitBreakerConfiguration> parentConfiguration) {
+		this.parentIds = parentIds;
+		this.parentConfiguration = parentConfiguration;
+	}
+
 	@Override
 	public <T> T run(Supplier<T> toRun, Function<Throwable, T> fallback) {
-		TimeLimiter timeLimiter = timeLimiterRegistry.timeLimiter(id, timeLimiterConfig);
-		Supplier<Future<T>> futureSupplier = () -> executorService.submit(toRun::get);
-		Callable restrictedCall = TimeLimiter.decorateFutureSupplier(timeLimiter, futureSupplier);
+		return run(id, toRun, fallback);
+	}
 
+	/**
+	 * Runs {@code toRun} through the circuit breaker. When a fallback cache is configured
+	 * the result is cached under {@code cacheKey} and served again when the circuit is
+	 * open or the call times out. The call times out after the timeout of the time
+	 * limiter or, if it is shorter, the time left until the deadline in the
+	 * {@link DeadlineContextHolder}.
+	 * @param cacheKey The key the result is cached under.
+	 * @param toRun The code to run.
+	 * @param fallback The fallback to use when the call fails and nothing is cached.
+	 * @param <T> The type of the result.
+	 * @return The result of {@code toRun} or the fallback.
+	 */
+	public <T> T run(Object cacheKey, Supplier<T> toRun, Function<Throwable, T> fallback) {
+		Resilience4JConfigBuilder.Resilience4JCircuitBreakerConfiguration config = configuration.get();
+		Supplier<T> supplier = toRun;
+		Function<Throwable, T> recovery = fallback;
+		FallbackCache fallbackCache = config.getFallbackCache();
+		if (fallbackCache != null) {
+			supplier = () -> {
+				T result = toRun.get();
+				fallbackCache.put(cacheKey, result);
+				return result;
+			};
+			recovery = t -> {
+				if (t instanceof CallNotPermittedException || t instanceof TimeoutException) {
+					Optional<T> cached = fallbackCache.get(cacheKey);
+					if (cached.isPresent()) {
+						return cached.get();
+					}
+				}
+				return fallback.apply(t);
+			};
+		}
+		return doRun(config, supplier, recovery);
+	}
+
+	/**
+	 * Runs a batch of suppliers through the circuit breaker. The suppliers run in
+	 * parallel, at most as many at a time as the bulkhead allows. Each supplier acquires
+	 * its own permission from the circuit breaker before it runs, and the fallback is used
+	 * without running it when the call is not permitted, so a half open circuit breaker
+	 * lets no more suppliers through than it permits calls. The outcome of each supplier
+	 * that ran is recorded by the circuit breaker. The timeout of the time limiter, or the
+	 * time left until the deadline of the caller if that is shorter, applies to the whole
+	 * batch.
+	 * @param toRun The suppliers to run.
+	 * @param fallback The fallback to use for each supplier that fails.
+	 * @param <T> The type of the results.
+	 * @return The result or fallback of each supplier, in the order of {@code toRun}.
+	 */
+	public <T> List<T> runAll(List<Supplier<T>> toRun, Function<Throwable, T> fallback) {
+		Resilience4JConfigBuilder.Resilience4JCircuitBreakerConfiguration config = configuration.get();
 		io.github.resilience4j.circuitbreaker.CircuitBreaker defaultCircuitBreaker = registry.circuitBreaker(id,
-				circuitBreakerConfig);
+				config.getCircuitBreakerConfig());
 		circuitBreakerCustomizer.ifPresent(customizer -> customizer.customize(defaultCircuitBreaker));
 
+		List<T> results = new ArrayList<>(toRun.size());
+		Duration timeout = DeadlineContextHolder.timeout(config.getTimeLimiterConfig().getTimeoutDuration(),
+				DeadlineContextHolder.getDeadline());
+		if (DeadlineContextHolder.isExpired(timeout)) {
+			TimeoutException deadlineExceeded = DeadlineContextHolder.deadlineExceeded(id);
+			toRun.forEach(supplier -> results.add(fallback.apply(deadlineExceeded)));
+			return results;
+		}
+		List<io.github.resilience4j.circuitbreaker.CircuitBreaker> parents = parentCircuitBreakers();
+		List<CompletableFuture<T>> futures = new ArrayList<>(toRun.size());
+		toRun.forEach(supplier -> futures.add(new CompletableFuture<>()));
+		AtomicInteger next = new AtomicInteger();
+		int parallelism = toRun.size();
 		if (bulkheadProvider != null) {
+			parallelism = Math.min(parallelism, Math.max(1, bulkheadProvider.getMaxConcurrentCalls(id)));
+		}
+		for (int i = 0; i < parallelism; i++) {
+			runNext(toRun, futures, next, defaultCircuitBreaker, parents);
+		}
+		try {
+			CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(timeout.toNanos(),
+					TimeUnit.NANOSECONDS);
+		}
+		catch (TimeoutException e) {
+			futures.forEach(future -> future.completeExceptionally(e));
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			futures.forEach(future -> future.completeExceptionally(e));
+		}
+		catch (ExecutionException e) {
+			// Every future is complete, failures are handled per supplier
+		}
+		for (CompletableFuture<T> future : futures) {
+			results.add(Try.of(future::get).recover(t -> fallback.apply(HedgedCall.unwrap(t))).get());
+		}
+		return results;
+	}
+
+	/**
+	 * Runs the next supplier of a batch that has not been started yet. Each supplier
+	 * starts the next one when it completes, which keeps the number of suppliers running
+	 * at the parallelism of the batch. Suppliers the circuit breaker does not permit are
+	 * skipped.
+	 */
+	private <T> void runNext(List<Supplier<T>> toRun, List<CompletableFuture<T>> futures, AtomicInteger next,
+			io.github.resilience4j.circuitbreaker.CircuitBreaker circuitBreaker,
+			List<io.github.resilience4j.circuitbreaker.CircuitBreaker> parents) {
+		while (true) {
+			int index = next.getAndIncrement();
+			if (index >= toRun.size() || futures.get(index).isDone()) {
+				return;
+			}
+			io.github.resilience4j.circuitbreaker.CircuitBreaker notPermittedBy = CircuitBreakerHierarchy
+					.tryAcquirePermission(circuitBreaker, parents);
+			if (notPermittedBy == null) {
+				start(toRun, futures, next, index, circuitBreaker, parents);
+				return;
+			}
+			futures.get(index)
+					.completeExceptionally(CallNotPermittedException.createCallNotPermittedException(notPermittedBy));
+		}
+	}
+
+	private <T> void start(List<Supplier<T>> toRun, List<CompletableFuture<T>> futures, AtomicInteger next,
+			int index, io.github.resilience4j.circuitbreaker.CircuitBreaker circuitBreaker,
+			List<io.github.resilience4j.circuitbreaker.CircuitBreaker> parents) {
+		CompletableFuture<T> future = futures.get(index);
+		long start = System.nanoTime();
+		AtomicBoolean recorded = new AtomicBoolean();
+		BiConsumer<T, Throwable> record = (result, throwable) -> {
+			if (!recorded.compareAndSet(false, true)) {
+				return;
+			}
+			long duration = System.nanoTime() - start;
+			if (throwable == null) {
+				CircuitBreakerHierarchy.onSuccess(circuitBreaker, parents, duration);
+			}
+			else {
+				CircuitBreakerHierarchy.onError(circuitBreaker, parents, duration, HedgedCall.unwrap(throwable));
+			}
+		};
+		CompletableFuture<T> call;
+		try {
+			call = attempt(toRun.get(index)).get();
+		}
+		catch (Throwable t) {
+			call = new CompletableFuture<>();
+			call.completeExceptionally(t);
+		}
+		CompletableFuture<T> started = call;
+		future.whenComplete((result, throwable) -> {
+			if (!started.isDone()) {
+				// The batch timed out, the supplier is cancelled
+				record.accept(result, throwable);
+				started.cancel(true);
+			}
+		});
+		started.whenComplete((result, throwable) -> {
+			// The outcome is recorded before the batch can see the result
+			record.accept(result, throwable);
+			if (throwable == null) {
+				future.complete(result);
+			}
+			else {
+				future.completeExceptionally(HedgedCall.unwrap(throwable));
+			}
+			runNext(toRun, futures, next, circuitBreaker, parents);
+		});
+	}
+
+	private <T> T doRun(Resilience4JConfigBuilder.Resilience4JCircuitBreakerConfiguration config, Supplier<T> toRun,
+			Function<Throwable, T> fallback) {
+		TimeLimiter timeLimiter = timeLimiterRegistry.timeLimiter(id, config.getTimeLimiterConfig());
+		Duration configuredTimeout = timeLimiter.getTimeLimiterConfig().getTimeoutDuration();
+		Duration timeout = DeadlineContextHolder.timeout(configuredTimeout, DeadlineContextHolder.getDeadline());
+		if (DeadlineContextHolder.isExpired(timeout)) {
+			// Fail fast without taking a permit or a thread
+			return fallback.apply(DeadlineContextHolder.deadlineExceeded(id));
+		}
+		// The registered time limiter keeps publishing its events when the deadline is
+		// shorter, the futures it waits for time out earlier instead
+		boolean shortened = timeout.compareTo(configuredTimeout) < 0;
+
+		io.github.resilience4j.circuitbreaker.CircuitBreaker defaultCircuitBreaker = registry.circuitBreaker(id,
+				config.getCircuitBreakerConfig());
+		circuitBreakerCustomizer.ifPresent(customizer -> customizer.customize(defaultCircuitBreaker));
+		List<io.github.resilience4j.circuitbreaker.CircuitBreaker> parents = parentCircuitBreakers();
+
+		if (config.getHedgingDelay() != null && scheduledExecutorService != null) {
+			Supplier<Future<T>> hedgedSupplier = () -> HedgedCall.of(attempt(toRun), config.getHedgingDelay(),
+					scheduledExecutorService);
+			Callable<T> callable = CircuitBreakerHierarchy.decorateCallable(defaultCircuitBreaker, parents,
+					TimeLimiter.decorateFutureSupplier(timeLimiter, limit(hedgedSupplier, shortened, timeout)));
+			return Try.of(callable::call).recover(fallback).get();
+		}
+		else if (bulkheadProvider != null && parents.isEmpty() && !shortened) {
 			return bulkheadProvider.run(id, toRun, fallback, defaultCircuitBreaker, timeLimiter);
 		}
+		else if (bulkheadProvider != null) {
+			Supplier<CompletionStage<T>> bulkheadCall = bulkheadProvider.decorateBulkhead(id, toRun);
+			Supplier<Future<T>> futureSupplier = () -> bulkheadCall.get().toCompletableFuture();
+			Callable<T> callable = CircuitBreakerHierarchy.decorateCallable(defaultCircuitBreaker, parents,
+					TimeLimiter.decorateFutureSupplier(timeLimiter, limit(futureSupplier, shortened, timeout)));
+			return Try.of(callable::call).recover(fallback).get();
+		}
 		else {
-			Callable<T> callable = io.github.resilience4j.circuitbreaker.CircuitBreaker
-					.decorateCallable(defaultCircuitBreaker, restrictedCall);
+			Supplier<Future<T>> futureSupplier = () -> executorService.submit(toRun::get);
+			Callable<T> restrictedCall = TimeLimiter.decorateFutureSupplier(timeLimiter,
+					limit(futureSupplier, shortened, timeout));
+			Callable<T> callable = CircuitBreakerHierarchy.decorateCallable(defaultCircuitBreaker, parents,
+					restrictedCall);
 			return Try.of(callable::call).recover(fallback).get();
 		}
 	}
 
+	/**
+	 * Makes the futures of {@code futureSupplier} time out after {@code timeout} when the
+	 * time limiter waits for them, if that is shorter than the timeout of the time
+	 * limiter.
+	 */
+	private static <T> Supplier<Future<T>> limit(Supplier<Future<T>> futureSupplier, boolean shortened,
+			Duration timeout) {
+		if (!shortened) {
+			return futureSupplier;
+		}
+		return () -> new DeadlineFuture<>(futureSupplier.get(), System.nanoTime() + timeout.toNanos());
+	}
+
+	private List<io.github.resilience4j.circuitbreaker.CircuitBreaker> parentCircuitBreakers() {
+		if (parentIds.isEmpty()) {
+			return Collections.emptyList();
+		}
+		List<io.github.resilience4j.circuitbreaker.CircuitBreaker> parents = new ArrayList<>(parentIds.size());
+		for (String parentId : parentIds) {
+			parents.add(registry.circuitBreaker(parentId,
+					parentConfiguration.apply(parentId).getCircuitBreakerConfig()));
+		}
+		return parents;
+	}
+
+	/**
+	 * A single attempt of a hedged call or a single supplier of a batch. Attempts go
+	 * through the bulkhead when there is one, so each attempt holds its own permit.
+	 */
+	private <T> Supplier<CompletableFuture<T>> attempt(Supplier<T> toRun) {
+		if (bulkheadProvider != null) {
+			Supplier<CompletionStage<T>> bulkheadCall = bulkheadProvider.decorateBulkhead(id, toRun);
+			return () -> bulkheadCall.get().toCompletableFuture();
+		}
+		return () -> {
+			CompletableFuture<T> future = new CompletableFuture<>();
+			Future<?> task = executorService.submit(() -> {
+				try {
+					future.complete(toRun.get());
+				}
+				catch (Throwable t) {
+					future.completeExceptionally(t);
+				}
+			});
+			future.whenComplete((result, throwable) -> {
+				if (future.isCancelled()) {
+					task.cancel(true);
+				}
+			});
+			return future;
+		};
+	}
+
+	/**
+	 * A {@link Future} whose timed {@code get} gives up at a deadline, even if it is
+	 * asked to wait longer.
+	 */
+	private static final class DeadlineFuture<T> implements Future<T> {
+
+		private final Future<T> delegate;
+
+		private final long deadline;
+
+		DeadlineFuture(Future<T> delegate, long deadline) {
+			this.delegate = delegate;
+			this.deadline = deadline;
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			return delegate.cancel(mayInterruptIfRunning);
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return delegate.isCancelled();
+		}
+
+		@Override
+		public boolean isDone() {
+			return delegate.isDone();
+		}
+
+		@Override
+		public T get() throws InterruptedException, ExecutionException {
+			return delegate.get();
+		}
+
+		@Override
+		public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+			long remaining = Math.max(0, deadline - System.nanoTime());
+			return delegate.get(Math.min(unit.toNanos(timeout), remaining), TimeUnit.NANOSECONDS);
+		}
+
+	}
+
 }
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.resilience4j;
+
+import reactor.core.publisher.Flux;
+
+import org.springframework.boot.actuate.endpoint.web.annotation.RestControllerEndpoint;
+import org.springframework.cloud.circuitbreaker.commons.BreakerEvent;
+import org.springframework.cloud.circuitbreaker.commons.BreakerEventBuffer;
+import org.springframework.cloud.circuitbreaker.commons.BreakerEventFlux;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+
+/**
+ * An endpoint that streams the events of the Resilience4J circuit breakers as server
+ * sent events, see {@link BreakerEventFlux}.
+ *
+ * @author Ryan Baxter
+ */
+@RestControllerEndpoint(id = "cloudcircuitbreakerevents")
+public class Resilience4JCircuitBreakerEventsEndpoint {
+
+	private final BreakerEventBuffer eventBuffer;
+
+	public Resilience4JCircuitBreakerEventsEndpoint(BreakerEventBuffer eventBuffer) {
+		this.eventBuffer = eventBuffer;
+	}
+
+	@GetMapping(produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+	public Flux<BreakerEvent> events() {
+		return BreakerEventFlux.from(eventBuffer);
+	}
+
+}
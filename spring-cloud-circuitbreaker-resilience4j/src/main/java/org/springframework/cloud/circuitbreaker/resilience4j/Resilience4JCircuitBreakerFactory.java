@@ -16,17 +16,32 @@
 
 package org.springframework.cloud.circuitbreaker.resilience4j;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.function.Function;
 
 import io.github.resilience4j.circuitbreaker.CircuitBreaker;
 import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
 import io.github.resilience4j.timelimiter.TimeLimiterRegistry;
 
+import org.springframework.cloud.circuitbreaker.commons.BreakerEventBuffer;
+import org.springframework.cloud.circuitbreaker.commons.BreakerEventFlux;
+import org.springframework.cloud.circuitbreaker.commons.BreakerSnapshotStore;
+import org.springframework.cloud.circuitbreaker.commons.IdPatternMatcher;
 import org.springframework.cloud.client.circuitbreaker.CircuitBreakerFactory;
 import org.springframework.cloud.client.circuitbreaker.Customizer;
 import org.springframework.util.Assert;
@@ -48,8 +63,38 @@ public class Resilience4JCircuitBreakerFactory extends
 
 	private ExecutorService executorService = Executors.newCachedThreadPool();
 
+	private ScheduledExecutorService scheduledExecutorService = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "resilience4j-circuitbreaker-scheduler");
+		thread.setDaemon(true);
+		return thread;
+	});
+
 	private Map<String, Customizer<CircuitBreaker>> circuitBreakerCustomizers = new HashMap<>();
 
+	private final Map<String, CircuitBreaker> customizedCircuitBreakers = new ConcurrentHashMap<>();
+
+	private volatile ConfiguredIds configuredIds = new ConfiguredIds();
+
+	private volatile ConfiguredIds refreshing;
+
+	private IdleEvictor idleEvictor;
+
+	private ScheduledFuture<?> idleSweep;
+
+	private String idSeparator;
+
+	private BreakerStateSynchronizer stateSynchronizer;
+
+	private BreakerSnapshotter snapshotter;
+
+	private BreakerEventRecorder eventRecorder;
+
+	private BreakerEventBuffer eventBuffer;
+
+	private AsyncEventDispatcher eventDispatcher;
+
+	private final List<Consumer<String>> evictionListeners = new CopyOnWriteArrayList<>();
+
 	@Deprecated
 	public Resilience4JCircuitBreakerFactory() {
 		this.defaultConfiguration = id -> new Resilience4JConfigBuilder(id)
@@ -94,20 +139,368 @@ public class Resilience4JCircuitBreakerFactory extends
 		return this.bulkheadProvider;
 	}
 
+	/**
+	 * Shares the state of the circuit breakers of this factory with the other instances
+	 * of the application through {@code stateSync}. A circuit breaker opens when the
+	 * circuit breaker of the same id opens on another instance, or when the failure rate
+	 * of all instances together exceeds its threshold. Call this after configuring the
+	 * circuit breaker registry. Calling this again with another channel stops sharing
+	 * the state through the previous one.
+	 * @param stateSync The channel to the other instances.
+	 */
+	public synchronized void configureStateSync(BreakerStateSync stateSync) {
+		if (stateSynchronizer != null) {
+			if (stateSynchronizer.getSync() == stateSync) {
+				return;
+			}
+			stateSynchronizer.close();
+		}
+		stateSynchronizer = new BreakerStateSynchronizer(circuitBreakerRegistry, stateSync,
+				task -> scheduledExecutorService.execute(task));
+	}
+
+	/**
+	 * Saves the state of the circuit breakers of this factory to {@code snapshotStore}
+	 * and restores it when they are created again after a restart. Call this after
+	 * configuring the circuit breaker registry. Calling this again with another store
+	 * stops saving the state to the previous one.
+	 * @param snapshotStore The store the state is saved to.
+	 */
+	public synchronized void configureSnapshots(BreakerSnapshotStore snapshotStore) {
+		if (snapshotter != null) {
+			if (snapshotter.getStore() == snapshotStore) {
+				return;
+			}
+			snapshotter.close();
+		}
+		snapshotter = new BreakerSnapshotter(circuitBreakerRegistry, snapshotStore,
+				(task, delay) -> scheduledExecutorService.schedule(task, delay, TimeUnit.MILLISECONDS));
+	}
+
+	/**
+	 * Publishes the state transitions, rejected calls and slow calls of the circuit
+	 * breakers of this factory to {@code eventBuffer}. Call this after configuring the
+	 * circuit breaker registry. Calling this again with another buffer stops publishing
+	 * the events to the previous one.
+	 * @param eventBuffer The buffer the events are published to.
+	 * @see BreakerEventFlux
+	 */
+	public synchronized void configureEvents(BreakerEventBuffer eventBuffer) {
+		if (eventRecorder != null) {
+			if (eventRecorder.getBuffer() == eventBuffer) {
+				return;
+			}
+			eventRecorder.close();
+		}
+		eventRecorder = new BreakerEventRecorder(circuitBreakerRegistry, eventBuffer);
+		this.eventBuffer = eventBuffer;
+	}
+
+	public BreakerEventBuffer getEventBuffer() {
+		return this.eventBuffer;
+	}
+
+	/**
+	 * Runs the event consumers that circuit breaker customizers register on the event
+	 * publishers of the Resilience4J circuit breakers on the thread of
+	 * {@code eventDispatcher}, so slow consumers do not add to the latency of the calls.
+	 * @param eventDispatcher The dispatcher the events are passed to.
+	 * @see #addCircuitBreakerCustomizer(Customizer, String...)
+	 */
+	public void configureAsyncEventDispatch(AsyncEventDispatcher eventDispatcher) {
+		this.eventDispatcher = eventDispatcher;
+	}
+
 	public void configureExecutorService(ExecutorService executorService) {
 		this.executorService = executorService;
 	}
 
+	public void configureScheduledExecutorService(ScheduledExecutorService scheduledExecutorService) {
+		if (this.scheduledExecutorService == scheduledExecutorService) {
+			return;
+		}
+		this.scheduledExecutorService = scheduledExecutorService;
+		scheduleIdleSweep();
+	}
+
 	@Override
 	public Resilience4JCircuitBreaker create(String id) {
 		Assert.hasText(id, "A CircuitBreaker must have an id.");
-		Resilience4JConfigBuilder.Resilience4JCircuitBreakerConfiguration config = getConfigurations()
-				.computeIfAbsent(id, defaultConfiguration);
-		return new Resilience4JCircuitBreaker(id, config.getCircuitBreakerConfig(), config.getTimeLimiterConfig(),
-				circuitBreakerRegistry, timeLimiterRegistry, executorService,
-				Optional.ofNullable(circuitBreakerCustomizers.get(id)), bulkheadProvider);
+		configuration(id);
+		Resilience4JCircuitBreaker circuitBreaker = new Resilience4JCircuitBreaker(id, () -> configuration(id),
+				circuitBreakerRegistry, timeLimiterRegistry, executorService, scheduledExecutorService,
+				circuitBreakerCustomizer(id), bulkheadProvider);
+		if (idSeparator != null) {
+			List<String> parentIds = parentIds(id);
+			if (!parentIds.isEmpty()) {
+				circuitBreaker.configureParents(parentIds, this::configuration);
+			}
+		}
+		return circuitBreaker;
+	}
+
+	/**
+	 * Treats ids as paths separated by {@code separator}, so that calls made through the
+	 * circuit breaker {@code payments/charge} are also recorded by the circuit breaker
+	 * {@code payments}. An open parent rejects the calls of all of its children. Parents
+	 * are configured like any other circuit breaker.
+	 * @param separator The separator of the segments of an id, for example {@code /}.
+	 */
+	public void configureIdHierarchy(String separator) {
+		Assert.hasLength(separator, "The separator must not be empty.");
+		this.idSeparator = separator;
+	}
+
+	/**
+	 * Returns the ids of the parents of {@code id}, nearest first.
+	 */
+	private List<String> parentIds(String id) {
+		List<String> parentIds = new ArrayList<>();
+		int end = id.lastIndexOf(idSeparator);
+		while (end > 0) {
+			parentIds.add(id.substring(0, end));
+			end = id.lastIndexOf(idSeparator, end - 1);
+		}
+		return parentIds;
+	}
+
+	@Override
+	public void configure(Consumer<Resilience4JConfigBuilder> consumer, String... ids) {
+		ConfiguredIds next = refreshing;
+		if (next != null) {
+			// Applied once the refresh has run all the customizers
+			for (String id : ids) {
+				Resilience4JConfigBuilder builder = configBuilder(id);
+				consumer.accept(builder);
+				next.add(id, builder.build());
+			}
+			return;
+		}
+		ConfiguredIds current = configuredIds;
+		Arrays.stream(ids).forEach(current::add);
+		super.configure(consumer, ids);
+		if (idleEvictor != null) {
+			Arrays.stream(ids).forEach(idleEvictor::remove);
+		}
+	}
+
+	/**
+	 * Bounds the number of circuit breakers kept. Circuit breakers that have not been
+	 * used for {@code maxIdleTime}, and beyond {@code maxSize} the least recently used
+	 * ones, are evicted along with their time limiters and bulkheads. An evicted circuit
+	 * breaker is created again with the default configuration the next time it is used.
+	 * Circuit breakers that were configured or customized explicitly are never evicted.
+	 * Idle circuit breakers are looked for on the scheduled executor service, so they
+	 * are evicted even if no circuit breaker is created.
+	 * @param maxSize The maximum number of circuit breakers kept.
+	 * @param maxIdleTime The time after which an unused circuit breaker is evicted, or
+	 * {@code null} to only evict beyond {@code maxSize}.
+	 */
+	public synchronized void configureEviction(int maxSize, Duration maxIdleTime) {
+		if (idleEvictor != null && idleEvictor.hasSettings(maxSize, maxIdleTime)) {
+			return;
+		}
+		this.idleEvictor = new IdleEvictor(maxSize, maxIdleTime);
+		scheduleIdleSweep();
+	}
+
+	private synchronized void scheduleIdleSweep() {
+		if (idleSweep != null) {
+			idleSweep.cancel(false);
+			idleSweep = null;
+		}
+		if (idleEvictor != null && scheduledExecutorService != null) {
+			Duration interval = idleEvictor.getSweepInterval();
+			idleSweep = scheduledExecutorService.scheduleWithFixedDelay(this::evictIdle, interval.toNanos(),
+					interval.toNanos(), TimeUnit.NANOSECONDS);
+		}
+	}
+
+	/**
+	 * Registers a listener that is called with the id of every circuit breaker evicted.
+	 * @param listener The listener.
+	 */
+	public void addEvictionListener(Consumer<String> listener) {
+		this.evictionListeners.add(listener);
+	}
+
+	/**
+	 * Configures the circuit breakers whose ids match any of {@code patterns}, unless
+	 * they are configured explicitly. A pattern is either an id or a prefix followed by
+	 * {@code *}, and when several patterns match an id the most specific one is used.
+	 * Circuit breakers that no pattern matches get the default configuration.
+	 * @param consumer Configures the circuit breakers, starting from the default
+	 * Resilience4J configuration.
+	 * @param patterns The patterns of the ids.
+	 * @see IdPatternMatcher
+	 */
+	public void configurePattern(Consumer<Resilience4JConfigBuilder> consumer, String... patterns) {
+		ConfiguredIds next = refreshing;
+		IdPatternMatcher<Consumer<Resilience4JConfigBuilder>> matcher = (next != null ? next : configuredIds)
+				.getPatterns();
+		for (String pattern : patterns) {
+			matcher.add(pattern, consumer);
+		}
+	}
+
+	/**
+	 * Configures the circuit breakers with the given ids and applies the new
+	 * configuration to the circuit breakers that were already created. The Resilience4J
+	 * circuit breakers and time limiters of those ids are replaced, keeping the state of
+	 * the circuit, and calls in flight complete with the configuration they started
+	 * with.
+	 * @param consumer Configures the circuit breakers.
+	 * @param ids The ids of the circuit breakers.
+	 */
+	public void reconfigure(Consumer<Resilience4JConfigBuilder> consumer, String... ids) {
+		if (refreshing != null) {
+			// Applied once the refresh has run all the customizers
+			configure(consumer, ids);
+			return;
+		}
+		for (String id : ids) {
+			Resilience4JConfigBuilder.Resilience4JCircuitBreakerConfiguration previous = getConfigurations().get(id);
+			Resilience4JConfigBuilder builder = configBuilder(id);
+			consumer.accept(builder);
+			Resilience4JConfigBuilder.Resilience4JCircuitBreakerConfiguration config = builder.build();
+			Resilience4JReconfiguration.retainUnchanged(previous, config);
+			configuredIds.add(id);
+			getConfigurations().put(id, config);
+			IdleEvictor evictor = idleEvictor;
+			if (evictor != null) {
+				evictor.remove(id);
+			}
+			Resilience4JReconfiguration.apply(id, previous, config, circuitBreakerRegistry, timeLimiterRegistry, null);
+			customizeReplacement(id);
+		}
+	}
+
+	/**
+	 * Runs the customizers again and applies the resulting configuration to the circuit
+	 * breakers that were already created, for example after the environment has changed.
+	 * Circuit breakers that were not configured explicitly get the default configuration
+	 * again. Only the parts of a configuration whose settings have changed are replaced,
+	 * so refreshing without any change keeps the state of the circuit breakers. Settings
+	 * that are configured the same way again, such as eviction, are left as they are.
+	 * @param customizers The customizers of this factory.
+	 */
+	public synchronized void refresh(Collection<Customizer<Resilience4JCircuitBreakerFactory>> customizers) {
+		ConfiguredIds next = new ConfiguredIds();
+		refreshing = next;
+		try {
+			customizers.forEach(customizer -> customizer.customize(this));
+		}
+		finally {
+			refreshing = null;
+		}
+		configuredIds = next;
+		// Includes the circuit breakers created with the previous settings while the
+		// customizers ran
+		Map<String, Resilience4JConfigBuilder.Resilience4JCircuitBreakerConfiguration> previous = new HashMap<>(
+				getConfigurations());
+		Map<String, Resilience4JConfigBuilder.Resilience4JCircuitBreakerConfiguration> resolved = new HashMap<>(
+				next.getConfigurations());
+		previous.keySet().forEach(id -> resolved.computeIfAbsent(id, this::resolveDefault));
+		IdleEvictor evictor = idleEvictor;
+		resolved.forEach((id, config) -> {
+			Resilience4JConfigBuilder.Resilience4JCircuitBreakerConfiguration old = previous.get(id);
+			// Each configuration is final before it is published
+			Resilience4JReconfiguration.retainUnchanged(old, config);
+			getConfigurations().put(id, config);
+			if (evictor != null && next.contains(id)) {
+				evictor.remove(id);
+			}
+			Resilience4JReconfiguration.apply(id, old, config, circuitBreakerRegistry, timeLimiterRegistry, null);
+			customizeReplacement(id);
+		});
+	}
+
+	/**
+	 * Looks up the configuration of a circuit breaker. This is called at the start of
+	 * every call, so it avoids {@code computeIfAbsent} which may lock even if the
+	 * configuration is present.
+	 */
+	private Resilience4JConfigBuilder.Resilience4JCircuitBreakerConfiguration configuration(String id) {
+		IdleEvictor evictor = idleEvictor;
+		if (evictor != null && !configuredIds.contains(id) && !circuitBreakerCustomizers.containsKey(id)) {
+			evictor.touch(id);
+		}
+		Resilience4JConfigBuilder.Resilience4JCircuitBreakerConfiguration config = getConfigurations().get(id);
+		return config != null ? config : getConfigurations().computeIfAbsent(id, this::resolveDefault);
+	}
+
+	private Resilience4JConfigBuilder.Resilience4JCircuitBreakerConfiguration resolveDefault(String id) {
+		Consumer<Resilience4JConfigBuilder> consumer = configuredIds.getPatterns().match(id);
+		if (consumer == null) {
+			return defaultConfiguration.apply(id);
+		}
+		Resilience4JConfigBuilder builder = configBuilder(id)
+				.circuitBreakerConfig(circuitBreakerRegistry.getDefaultConfig())
+				.timeLimiterConfig(timeLimiterRegistry.getDefaultConfig());
+		consumer.accept(builder);
+		return builder.build();
+	}
+
+	void evictIdle() {
+		IdleEvictor evictor = idleEvictor;
+		if (evictor == null) {
+			return;
+		}
+		ConfiguredIds configured = configuredIds;
+		List<String> evicted = evictor.sweep(
+				candidate -> configured.contains(candidate) || circuitBreakerCustomizers.containsKey(candidate));
+		for (String id : evicted) {
+			getConfigurations().remove(id);
+			circuitBreakerRegistry.remove(id);
+			timeLimiterRegistry.remove(id);
+			if (bulkheadProvider != null) {
+				bulkheadProvider.evict(id);
+			}
+			if (eventDispatcher != null) {
+				eventDispatcher.forget(id);
+			}
+			evictionListeners.forEach(listener -> listener.accept(id));
+		}
+	}
+
+	/**
+	 * Returns the customizer of a circuit breaker, which is called at the start of every
+	 * call. It applies the registered customizer once to every Resilience4J circuit
+	 * breaker of the id, including one that replaced it after it was reconfigured, so
+	 * event consumers are neither registered twice nor lost.
+	 */
+	private Optional<Customizer<CircuitBreaker>> circuitBreakerCustomizer(String id) {
+		Customizer<CircuitBreaker> customizer = circuitBreakerCustomizers.get(id);
+		if (customizer == null) {
+			return Optional.empty();
+		}
+		AsyncEventDispatcher dispatcher = this.eventDispatcher;
+		return Optional.of(circuitBreaker -> {
+			if (customizedCircuitBreakers.get(id) != circuitBreaker
+					&& customizedCircuitBreakers.put(id, circuitBreaker) != circuitBreaker) {
+				customizer.customize(dispatcher != null ? dispatcher.decorate(circuitBreaker) : circuitBreaker);
+			}
+		});
+	}
+
+	/**
+	 * Customizes the circuit breaker of an id right after it has been replaced, so no
+	 * event is missed before its next call.
+	 */
+	private void customizeReplacement(String id) {
+		circuitBreakerCustomizer(id)
+				.ifPresent(customizer -> circuitBreakerRegistry.find(id).ifPresent(customizer::customize));
 	}
 
+	/**
+	 * Registers a customizer of the Resilience4J circuit breakers with the given ids. It
+	 * is applied once to every Resilience4J circuit breaker, when it is first used, and
+	 * again to the circuit breaker that replaces it after it is reconfigured or
+	 * refreshed. Wrapping it in {@code Customizer.once} keyed by name is not needed, and
+	 * would keep it from being applied to the replacement.
+	 * @param customizer The customizer.
+	 * @param ids The ids of the circuit breakers.
+	 */
 	public void addCircuitBreakerCustomizer(Customizer<CircuitBreaker> customizer, String... ids) {
 		for (String id : ids) {
 			circuitBreakerCustomizers.put(id, customizer);
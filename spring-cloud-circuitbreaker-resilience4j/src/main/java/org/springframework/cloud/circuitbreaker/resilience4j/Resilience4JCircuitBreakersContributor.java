@@ -0,0 +1,206 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.resilience4j;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.circuitbreaker.IllegalStateTransitionException;
+
+import org.springframework.cloud.circuitbreaker.commons.CircuitBreakerDescriptor;
+import org.springframework.cloud.circuitbreaker.commons.CircuitBreakersContributor;
+import org.springframework.cloud.circuitbreaker.commons.CircuitBreakersEndpoint;
+
+/**
+ * Lists the circuit breakers of a Resilience4J factory in the
+ * {@link CircuitBreakersEndpoint} and changes their state. The state of a circuit breaker
+ * is read without locking, and each count of its sliding window only holds the lock of
+ * the window long enough to copy its totals, so listing many circuit breakers does not
+ * hold up the calls made through them. The counts of a circuit breaker are read one
+ * after the other and may be slightly out of step with each other.
+ *
+ * @author Ryan Baxter
+ */
+public class Resilience4JCircuitBreakersContributor implements CircuitBreakersContributor {
+
+	private static final Set<String> TRANSITIONS = EnumSet.allOf(Transition.class).stream().map(Enum::name)
+			.collect(Collectors.toSet());
+
+	private final String name;
+
+	private final CircuitBreakerRegistry registry;
+
+	/**
+	 * Constructor.
+	 * @param name The name the factory is listed under.
+	 * @param registry The circuit breaker registry of the factory.
+	 */
+	public Resilience4JCircuitBreakersContributor(String name, CircuitBreakerRegistry registry) {
+		this.name = name;
+		this.registry = registry;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public Collection<String> getIds() {
+		List<String> ids = new ArrayList<>();
+		registry.getAllCircuitBreakers().forEach(circuitBreaker -> ids.add(circuitBreaker.getName()));
+		return ids;
+	}
+
+	@Override
+	public CircuitBreakerDescriptor describe(String id) {
+		return registry.find(id).map(Resilience4JCircuitBreakersContributor::describe).orElse(null);
+	}
+
+	@Override
+	public Set<String> getTransitions() {
+		return TRANSITIONS;
+	}
+
+	@Override
+	public boolean transition(String id, String transition) {
+		return registry.find(id).map(circuitBreaker -> apply(transition, circuitBreaker)).orElse(false);
+	}
+
+	private static boolean apply(String transition, CircuitBreaker circuitBreaker) {
+		try {
+			switch (Transition.valueOf(transition)) {
+			case FORCE_OPEN:
+				circuitBreaker.transitionToForcedOpenState();
+				break;
+			case DISABLE:
+				circuitBreaker.transitionToDisabledState();
+				break;
+			case METRICS_ONLY:
+				circuitBreaker.transitionToMetricsOnlyState();
+				break;
+			case CLOSE:
+				circuitBreaker.transitionToClosedState();
+				break;
+			case RESET:
+				circuitBreaker.reset();
+				break;
+			default:
+				return false;
+			}
+			return true;
+		}
+		catch (IllegalStateTransitionException e) {
+			// Already in the state, or another thread changed the state first
+			return false;
+		}
+	}
+
+	private static Resilience4JCircuitBreakerDescriptor describe(CircuitBreaker circuitBreaker) {
+		CircuitBreaker.Metrics metrics = circuitBreaker.getMetrics();
+		int failedCalls = metrics.getNumberOfFailedCalls();
+		int bufferedCalls = metrics.getNumberOfBufferedCalls();
+		float failureRate = bufferedCalls < circuitBreaker.getCircuitBreakerConfig().getMinimumNumberOfCalls() ? -1
+				: failedCalls * 100f / bufferedCalls;
+		return new Resilience4JCircuitBreakerDescriptor(circuitBreaker.getState().name(), failureRate,
+				bufferedCalls, failedCalls, metrics.getNumberOfSlowCalls(), metrics.getNumberOfNotPermittedCalls());
+	}
+
+	/**
+	 * The changes that can be made to the state of circuit breakers.
+	 */
+	public enum Transition {
+
+		/**
+		 * Rejects all calls until the circuit breaker is closed or reset.
+		 */
+		FORCE_OPEN,
+
+		/**
+		 * Permits all calls and records nothing.
+		 */
+		DISABLE,
+
+		/**
+		 * Permits all calls and records them without ever opening.
+		 */
+		METRICS_ONLY,
+
+		/**
+		 * Closes the circuit, starting a new sliding window.
+		 */
+		CLOSE,
+
+		/**
+		 * Closes the circuit and clears its metrics.
+		 */
+		RESET
+
+	}
+
+	/**
+	 * The state and sliding window counts of a circuit breaker.
+	 */
+	public static final class Resilience4JCircuitBreakerDescriptor extends CircuitBreakerDescriptor {
+
+		private final float failureRate;
+
+		private final int bufferedCalls;
+
+		private final int slowCalls;
+
+		private final long notPermittedCalls;
+
+		private Resilience4JCircuitBreakerDescriptor(String state, float failureRate, int bufferedCalls,
+				int failedCalls, int slowCalls, long notPermittedCalls) {
+			super(state, failedCalls);
+			this.failureRate = failureRate;
+			this.bufferedCalls = bufferedCalls;
+			this.slowCalls = slowCalls;
+			this.notPermittedCalls = notPermittedCalls;
+		}
+
+		/**
+		 * Returns the percentage of calls in the sliding window that failed.
+		 * @return The failure rate, or {@code -1} if the window does not hold the minimum
+		 * number of calls yet.
+		 */
+		public float getFailureRate() {
+			return failureRate;
+		}
+
+		public int getBufferedCalls() {
+			return bufferedCalls;
+		}
+
+		public int getSlowCalls() {
+			return slowCalls;
+		}
+
+		public long getNotPermittedCalls() {
+			return notPermittedCalls;
+		}
+
+	}
+
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.resilience4j;
+
+import org.springframework.boot.actuate.autoconfigure.endpoint.condition.ConditionalOnAvailableEndpoint;
+import org.springframework.boot.autoconfigure.AutoConfigureAfter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.cloud.circuitbreaker.commons.BreakerEventBuffer;
+import org.springframework.cloud.circuitbreaker.commons.CircuitBreakersEndpoint;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Auto-configures a {@link Resilience4JCircuitBreakersContributor} for each Resilience4J
+ * factory, which lists its circuit breakers in the {@link CircuitBreakersEndpoint}, and
+ * the {@link Resilience4JCircuitBreakerEventsEndpoint}.
+ *
+ * @author Ryan Baxter
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnClass(name = "org.springframework.boot.actuate.endpoint.annotation.Endpoint")
+@AutoConfigureAfter({ Resilience4JAutoConfiguration.class, ReactiveResilience4JAutoConfiguration.class })
+public class Resilience4JCircuitBreakersEndpointAutoConfiguration {
+
+	@Bean
+	@ConditionalOnBean(Resilience4JCircuitBreakerFactory.class)
+	@ConditionalOnMissingBean(name = "resilience4JCircuitBreakersContributor")
+	public Resilience4JCircuitBreakersContributor resilience4JCircuitBreakersContributor(
+			Resilience4JCircuitBreakerFactory factory) {
+		return new Resilience4JCircuitBreakersContributor("resilience4j", factory.getCircuitBreakerRegistry());
+	}
+
+	@Configuration(proxyBeanMethods = false)
+	@ConditionalOnClass(name = "reactor.core.publisher.Flux")
+	@ConditionalOnBean(ReactiveResilience4JCircuitBreakerFactory.class)
+	public static class ReactiveResilience4JCircuitBreakersContributorConfiguration {
+
+		@Bean
+		@ConditionalOnMissingBean(name = "reactiveResilience4JCircuitBreakersContributor")
+		public Resilience4JCircuitBreakersContributor reactiveResilience4JCircuitBreakersContributor(
+				ReactiveResilience4JCircuitBreakerFactory factory) {
+			return new Resilience4JCircuitBreakersContributor("reactiveResilience4j",
+					factory.getCircuitBreakerRegistry());
+		}
+
+	}
+
+	@Configuration(proxyBeanMethods = false)
+	@ConditionalOnClass(name = "reactor.core.publisher.Flux")
+	@ConditionalOnBean(BreakerEventBuffer.class)
+	@ConditionalOnAvailableEndpoint(endpoint = Resilience4JCircuitBreakerEventsEndpoint.class)
+	public static class Resilience4JCircuitBreakerEventsEndpointConfiguration {
+
+		@Bean
+		@ConditionalOnMissingBean
+		public Resilience4JCircuitBreakerEventsEndpoint resilience4JCircuitBreakerEventsEndpoint(
+				BreakerEventBuffer eventBuffer) {
+			return new Resilience4JCircuitBreakerEventsEndpoint(eventBuffer);
+		}
+
+	}
+
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.resilience4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.util.Assert;
+import org.springframework.web.client.ResourceAccessException;
+
+/**
+ * Runs the requests of a {@code RestTemplate} through a circuit breaker per host, or per
+ * any other id resolved from the request. The circuit breaker of each id is created once
+ * and reused until the factory evicts it. Responses with a server error status or
+ * {@code 429 Too Many Requests} are recorded as failures and returned to the caller as
+ * they are, without reading their body. When such a response has a {@code Retry-After}
+ * header the circuit breaker is held open until then. Requests the circuit breaker does
+ * not permit fail with a {@link ResourceAccessException}.
+ *
+ * @author Ryan Baxter
+ */
+public class Resilience4JClientHttpRequestInterceptor implements ClientHttpRequestInterceptor {
+
+	private final Resilience4JCircuitBreakerFactory factory;
+
+	private final Function<HttpRequest, String> idResolver;
+
+	private final Map<String, Resilience4JCircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+
+	private final RetryAfterHolds holds = new RetryAfterHolds();
+
+	/**
+	 * Creates an interceptor with a circuit breaker per host.
+	 * @param factory The factory the circuit breakers are created by.
+	 */
+	public Resilience4JClientHttpRequestInterceptor(Resilience4JCircuitBreakerFactory factory) {
+		this(factory, request -> RetryAfterHolds.hostId(request.getURI()));
+	}
+
+	/**
+	 * Constructor.
+	 * @param factory The factory the circuit breakers are created by.
+	 * @param idResolver Resolves the id of the circuit breaker of a request.
+	 */
+	public Resilience4JClientHttpRequestInterceptor(Resilience4JCircuitBreakerFactory factory,
+			Function<HttpRequest, String> idResolver) {
+		Assert.notNull(factory, "factory must not be null");
+		Assert.notNull(idResolver, "idResolver must not be null");
+		this.factory = factory;
+		this.idResolver = idResolver;
+		factory.addEvictionListener(this::evict);
+	}
+
+	/**
+	 * Sets the longest time a {@code Retry-After} header holds a circuit breaker open.
+	 * Defaults to 5 minutes.
+	 * @param maxRetryAfter The longest time.
+	 */
+	public void setMaxRetryAfter(Duration maxRetryAfter) {
+		holds.setMaxRetryAfter(maxRetryAfter);
+	}
+
+	@Override
+	public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution)
+			throws IOException {
+		String id = idResolver.apply(request);
+		CallNotPermittedException notPermitted = holds.notPermitted(id, factory.getCircuitBreakerRegistry());
+		if (notPermitted != null) {
+			throw notPermittedException(request, notPermitted);
+		}
+		ResponseHandoff handoff = new ResponseHandoff();
+		try {
+			return circuitBreaker(id).run(() -> {
+				try {
+					ClientHttpResponse response = execution.execute(request, body);
+					int statusCode = response.getRawStatusCode();
+					if (HttpFailureStatusException.isFailure(statusCode)) {
+						handoff.offerFailure(response);
+						throw new HttpFailureStatusException(statusCode, response);
+					}
+					// A response the caller no longer waits for is closed, and returning
+					// it has no effect
+					handoff.offer(response);
+					return response;
+				}
+				catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}, throwable -> recover(request, id, throwable, handoff));
+		}
+		catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	private Resilience4JCircuitBreaker circuitBreaker(String id) {
+		Resilience4JCircuitBreaker circuitBreaker = circuitBreakers.get(id);
+		return circuitBreaker != null ? circuitBreaker : circuitBreakers.computeIfAbsent(id, factory::create);
+	}
+
+	private void evict(String id) {
+		circuitBreakers.remove(id);
+		holds.forget(id);
+	}
+
+	Set<String> getIds() {
+		return Collections.unmodifiableSet(circuitBreakers.keySet());
+	}
+
+	private ClientHttpResponse recover(HttpRequest request, String id, Throwable throwable,
+			ResponseHandoff handoff) {
+		Throwable cause = HedgedCall.unwrap(throwable);
+		if (cause instanceof HttpFailureStatusException) {
+			ClientHttpResponse response = (ClientHttpResponse) ((HttpFailureStatusException) cause).getResponse();
+			handoff.deliverFailure(response);
+			holds.hold(id, response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER),
+					factory.getCircuitBreakerRegistry());
+			return response;
+		}
+		// No response is returned, so the responses of attempts still running are closed
+		handoff.abandon();
+		if (cause instanceof CallNotPermittedException) {
+			throw notPermittedException(request, (CallNotPermittedException) cause);
+		}
+		if (cause instanceof RuntimeException) {
+			throw (RuntimeException) cause;
+		}
+		if (cause instanceof Error) {
+			throw (Error) cause;
+		}
+		// Time outs and other checked exceptions fail the request like an I/O error
+		throw new UncheckedIOException(
+				cause instanceof IOException ? (IOException) cause : new IOException(cause.getMessage(), cause));
+	}
+
+	/**
+	 * Fails a request that is not permitted the way {@code RestTemplate} fails a request
+	 * that could not be sent, with the {@link CallNotPermittedException} as the cause.
+	 */
+	private static ResourceAccessException notPermittedException(HttpRequest request, CallNotPermittedException e) {
+		return new ResourceAccessException("Circuit breaker does not permit " + request.getMethodValue()
+				+ " request for \"" + request.getURI() + "\"", new IOException(e.getMessage(), e));
+	}
+
+	/**
+	 * Hands at most one response of a request to the caller. A response that comes in
+	 * after the caller has stopped waiting, because the time limiter fired or another
+	 * hedged attempt won, is closed so that its connection is released.
+	 */
+	private static final class ResponseHandoff {
+
+		private final List<ClientHttpResponse> failures = new ArrayList<>();
+
+		private boolean settled;
+
+		/**
+		 * Offers a successful response, which is closed if a response was already handed
+		 * over or the request was abandoned.
+		 */
+		synchronized void offer(ClientHttpResponse response) {
+			if (settled) {
+				response.close();
+				return;
+			}
+			settled = true;
+			closeFailures(null);
+		}
+
+		/**
+		 * Offers a response with a failure status, which is handed over once the request
+		 * fails unless a successful response is handed over first.
+		 */
+		synchronized void offerFailure(ClientHttpResponse response) {
+			if (settled) {
+				response.close();
+			}
+			else {
+				failures.add(response);
+			}
+		}
+
+		synchronized void deliverFailure(ClientHttpResponse response) {
+			settled = true;
+			closeFailures(response);
+		}
+
+		synchronized void abandon() {
+			settled = true;
+			closeFailures(null);
+		}
+
+		private void closeFailures(ClientHttpResponse delivered) {
+			for (ClientHttpResponse failure : failures) {
+				if (failure != delivered) {
+					failure.close();
+				}
+			}
+			failures.clear();
+		}
+
+	}
+
+}
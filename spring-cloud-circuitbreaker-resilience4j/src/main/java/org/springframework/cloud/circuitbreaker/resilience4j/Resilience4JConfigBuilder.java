@@ -16,9 +16,14 @@
 
 package org.springframework.cloud.circuitbreaker.resilience4j;
 
+import java.time.Duration;
+
 import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.retry.RetryConfig;
 import io.github.resilience4j.timelimiter.TimeLimiterConfig;
 
+import org.springframework.cloud.circuitbreaker.commons.FallbackCache;
+import org.springframework.cloud.circuitbreaker.commons.RetryBudget;
 import org.springframework.cloud.client.circuitbreaker.ConfigBuilder;
 
 /**
@@ -33,6 +38,32 @@ public class Resilience4JConfigBuilder
 
 	private CircuitBreakerConfig circuitBreakerConfig = CircuitBreakerConfig.ofDefaults();
 
+	private int fallbackCacheSize;
+
+	private Duration fallbackCacheTimeToLive;
+
+	private Duration hedgingDelay;
+
+	private RetryConfig retryConfig;
+
+	private double retryBudgetRatio = -1;
+
+	private Duration retryBudgetWindow;
+
+	private int retryBudgetMinRetriesPerSecond;
+
+	private Duration firstElementTimeout;
+
+	private Duration idleTimeout;
+
+	private Duration totalTimeout;
+
+	private boolean perElementAccounting;
+
+	private int loadSheddingMaxInFlight;
+
+	private Duration loadSheddingMaxResidenceTime;
+
 	public Resilience4JConfigBuilder(String id) {
 		this.id = id;
 	}
@@ -47,12 +78,151 @@ public class Resilience4JConfigBuilder
 		return this;
 	}
 
+	/**
+	 * Caches the last successful result per request key so that fallbacks caused by an
+	 * open circuit or a timeout can be served from the cache.
+	 * @param maxSize The maximum number of cached results.
+	 * @param timeToLive How long a cached result may be served.
+	 * @return The builder.
+	 */
+	public Resilience4JConfigBuilder fallbackCache(int maxSize, Duration timeToLive) {
+		this.fallbackCacheSize = maxSize;
+		this.fallbackCacheTimeToLive = timeToLive;
+		return this;
+	}
+
+	/**
+	 * Starts a second attempt when no attempt has succeeded within {@code delay}. The
+	 * first successful attempt wins and the other one is cancelled. Only use this for
+	 * idempotent calls.
+	 * @param delay How long to wait before starting the second attempt.
+	 * @return The builder.
+	 */
+	public Resilience4JConfigBuilder hedgingDelay(Duration delay) {
+		this.hedgingDelay = delay;
+		return this;
+	}
+
+	/**
+	 * Retries failed calls made through {@link ReactiveResilience4JCircuitBreaker}. Each
+	 * attempt goes through the circuit breaker and the time limiter, and the fallback is
+	 * only called once the retries are exhausted.
+	 * @param retryConfig The {@link RetryConfig} to use.
+	 * @return The builder.
+	 */
+	public Resilience4JConfigBuilder retryConfig(RetryConfig retryConfig) {
+		this.retryConfig = retryConfig;
+		return this;
+	}
+
+	/**
+	 * Limits the retries of the {@link #retryConfig(RetryConfig) retry configuration} to
+	 * a ratio of the calls made over a rolling window. A retry over the budget is not
+	 * made, and the call fails with a {@link RetryBudgetExhaustedException} instead.
+	 * @param ratio The maximum ratio of retries to calls, for example {@code 0.1}.
+	 * @param window The rolling window calls and retries are counted over.
+	 * @param minRetriesPerSecond The number of retries allowed per second regardless of
+	 * the number of calls.
+	 * @return The builder.
+	 * @see RetryBudget
+	 */
+	public Resilience4JConfigBuilder retryBudget(double ratio, Duration window, int minRetriesPerSecond) {
+		this.retryBudgetRatio = ratio;
+		this.retryBudgetWindow = window;
+		this.retryBudgetMinRetriesPerSecond = minRetriesPerSecond;
+		return this;
+	}
+
+	/**
+	 * Fails a {@link reactor.core.publisher.Flux} run through
+	 * {@link ReactiveResilience4JCircuitBreaker} if it does not emit its first element
+	 * within {@code timeout}. Setting any of the streaming options replaces the time
+	 * limiter timeout, which would otherwise apply to each element, for
+	 * {@link reactor.core.publisher.Flux}es.
+	 * @param timeout The maximum time to wait for the first element.
+	 * @return The builder.
+	 */
+	public Resilience4JConfigBuilder firstElementTimeout(Duration timeout) {
+		this.firstElementTimeout = timeout;
+		return this;
+	}
+
+	/**
+	 * Fails a streaming {@link reactor.core.publisher.Flux} if no element is emitted for
+	 * {@code timeout} after the previous one.
+	 * @param timeout The maximum time between two elements.
+	 * @return The builder.
+	 * @see #firstElementTimeout(Duration)
+	 */
+	public Resilience4JConfigBuilder idleTimeout(Duration timeout) {
+		this.idleTimeout = timeout;
+		return this;
+	}
+
+	/**
+	 * Fails a streaming {@link reactor.core.publisher.Flux} if it has not completed
+	 * within {@code timeout}.
+	 * @param timeout The maximum duration of the stream.
+	 * @return The builder.
+	 * @see #firstElementTimeout(Duration)
+	 */
+	public Resilience4JConfigBuilder totalTimeout(Duration timeout) {
+		this.totalTimeout = timeout;
+		return this;
+	}
+
+	/**
+	 * Records each element of a streaming {@link reactor.core.publisher.Flux} as a
+	 * successful call, timed from the previous element, instead of recording the whole
+	 * stream as a single call once it terminates. Long-lived streams are then counted
+	 * while they are running.
+	 * @param perElementAccounting Whether to record each element.
+	 * @return The builder.
+	 * @see #firstElementTimeout(Duration)
+	 */
+	public Resilience4JConfigBuilder perElementAccounting(boolean perElementAccounting) {
+		this.perElementAccounting = perElementAccounting;
+		return this;
+	}
+
+	/**
+	 * Sheds new subscriptions to {@link ReactiveResilience4JCircuitBreaker} straight to
+	 * the fallback, with a {@link LoadSheddingException}, while {@code maxInFlight}
+	 * subscriptions are in flight or while the oldest subscription still waiting for its
+	 * first element has waited longer than {@code maxResidenceTime}.
+	 * @param maxInFlight The maximum number of subscriptions in flight, {@code 0} for no
+	 * limit.
+	 * @param maxResidenceTime The maximum residence time, {@code null} for no limit.
+	 * @return The builder.
+	 */
+	public Resilience4JConfigBuilder loadShedding(int maxInFlight, Duration maxResidenceTime) {
+		this.loadSheddingMaxInFlight = maxInFlight;
+		this.loadSheddingMaxResidenceTime = maxResidenceTime;
+		return this;
+	}
+
 	@Override
 	public Resilience4JCircuitBreakerConfiguration build() {
 		Resilience4JCircuitBreakerConfiguration config = new Resilience4JCircuitBreakerConfiguration();
 		config.setId(id);
 		config.setCircuitBreakerConfig(circuitBreakerConfig);
 		config.setTimeLimiterConfig(timeLimiterConfig);
+		config.setHedgingDelay(hedgingDelay);
+		config.setRetryConfig(retryConfig);
+		config.setFirstElementTimeout(firstElementTimeout);
+		config.setIdleTimeout(idleTimeout);
+		config.setTotalTimeout(totalTimeout);
+		config.setPerElementAccounting(perElementAccounting);
+		if (fallbackCacheSize > 0) {
+			config.setFallbackCache(new FallbackCache(fallbackCacheSize, fallbackCacheTimeToLive));
+		}
+		if (retryBudgetRatio >= 0) {
+			config.setRetryBudget(
+					new RetryBudget(retryBudgetRatio, retryBudgetWindow, retryBudgetMinRetriesPerSecond));
+		}
+		if (loadSheddingMaxInFlight > 0 || loadSheddingMaxResidenceTime != null) {
+			config.setLoadShedder(new LoadShedder(loadSheddingMaxInFlight, loadSheddingMaxResidenceTime));
+		}
 		return config;
 	}
 
@@ -64,6 +234,24 @@ public class Resilience4JConfigBuilder
 
 		private CircuitBreakerConfig circuitBreakerConfig;
 
+		private FallbackCache fallbackCache;
+
+		private Duration hedgingDelay;
+
+		private RetryConfig retryConfig;
+
+		private RetryBudget retryBudget;
+
+		private Duration firstElementTimeout;
+
+		private Duration idleTimeout;
+
+		private Duration totalTimeout;
+
+		private boolean perElementAccounting;
+
+		private LoadShedder loadShedder;
+
 		public String getId() {
 			return id;
 		}
@@ -88,6 +276,87 @@ public class Resilience4JConfigBuilder
 			this.circuitBreakerConfig = circuitBreakerConfig;
 		}
 
+		public FallbackCache getFallbackCache() {
+			return fallbackCache;
+		}
+
+		public void setFallbackCache(FallbackCache fallbackCache) {
+			this.fallbackCache = fallbackCache;
+		}
+
+		public Duration getHedgingDelay() {
+			return hedgingDelay;
+		}
+
+		public void setHedgingDelay(Duration hedgingDelay) {
+			this.hedgingDelay = hedgingDelay;
+		}
+
+		public RetryConfig getRetryConfig() {
+			return retryConfig;
+		}
+
+		public void setRetryConfig(RetryConfig retryConfig) {
+			this.retryConfig = retryConfig;
+		}
+
+		public RetryBudget getRetryBudget() {
+			return retryBudget;
+		}
+
+		public void setRetryBudget(RetryBudget retryBudget) {
+			this.retryBudget = retryBudget;
+		}
+
+		public Duration getFirstElementTimeout() {
+			return firstElementTimeout;
+		}
+
+		public void setFirstElementTimeout(Duration firstElementTimeout) {
+			this.firstElementTimeout = firstElementTimeout;
+		}
+
+		public Duration getIdleTimeout() {
+			return idleTimeout;
+		}
+
+		public void setIdleTimeout(Duration idleTimeout) {
+			this.idleTimeout = idleTimeout;
+		}
+
+		public Duration getTotalTimeout() {
+			return totalTimeout;
+		}
+
+		public void setTotalTimeout(Duration totalTimeout) {
+			this.totalTimeout = totalTimeout;
+		}
+
+		public boolean isPerElementAccounting() {
+			return perElementAccounting;
+		}
+
+		public void setPerElementAccounting(boolean perElementAccounting) {
+			this.perElementAccounting = perElementAccounting;
+		}
+
+		public LoadShedder getLoadShedder() {
+			return loadShedder;
+		}
+
+		public void setLoadShedder(LoadShedder loadShedder) {
+			this.loadShedder = loadShedder;
+		}
+
+		/**
+		 * Returns whether {@link reactor.core.publisher.Flux}es are run as streams.
+		 * @return True if any of the streaming options is set.
+		 */
+		public boolean isStreaming() {
+			return firstElementTimeout != null || idleTimeout != null || totalTimeout != null
+					|| perElementAccounting;
+		}
+
 	}
 
 }
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.resilience4j;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Properties of the Resilience4J circuit breaker factories.
+ *
+ * @author Ryan Baxter
+ */
+@ConfigurationProperties("spring.cloud.circuitbreaker.resilience4j")
+public class Resilience4JConfigurationProperties {
+
+	/**
+	 * Maps patterns of circuit breaker ids, such as {@code payments/*}, to the names of
+	 * shared Resilience4J configurations, for example the circuit breaker configuration
+	 * {@code resilience4j.circuitbreaker.configs.<name>}. Circuit breakers, time limiters,
+	 * retries and bulkheads use the shared configuration of that name if there is one.
+	 */
+	private Map<String, String> configPatterns = new LinkedHashMap<>();
+
+	public Map<String, String> getConfigPatterns() {
+		return configPatterns;
+	}
+
+	public void setConfigPatterns(Map<String, String> configPatterns) {
+		this.configPatterns = configPatterns;
+	}
+
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.resilience4j;
+
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Function;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.retry.Retry;
+import io.github.resilience4j.retry.RetryConfig;
+import io.github.resilience4j.retry.RetryRegistry;
+import io.github.resilience4j.timelimiter.TimeLimiter;
+import io.github.resilience4j.timelimiter.TimeLimiterConfig;
+import io.github.resilience4j.timelimiter.TimeLimiterRegistry;
+
+import org.springframework.cloud.circuitbreaker.commons.FallbackCache;
+import org.springframework.cloud.circuitbreaker.commons.RetryBudget;
+
+/**
+ * Replaces the registry entries of a circuit breaker id after its configuration has
+ * changed. Entries are only replaced if they were created from the previous
+ * configuration, so entries configured some other way, for example through the
+ * Resilience4J properties, are left alone. Calls in flight keep using the entries they
+ * started with. The parts of the new configuration whose settings have not changed are
+ * replaced with those of the previous configuration, so their state, such as the sliding
+ * window of the circuit breaker, is kept. A circuit breaker whose settings have changed
+ * keeps the state of its circuit, but its sliding window starts over.
+ *
+ * @author Ryan Baxter
+ */
+final class Resilience4JReconfiguration {
+
+	/**
+	 * The number of attempts whose wait intervals are compared.
+	 */
+	private static final int COMPARED_ATTEMPTS = 3;
+
+	private Resilience4JReconfiguration() {
+	}
+
+	/**
+	 * Replaces the registry entries of an id whose configuration was changed from
+	 * {@code previous} to {@code next}. {@link #retainUnchanged} must have been called
+	 * before {@code next} was published.
+	 */
+	static void apply(String id, Resilience4JConfigBuilder.Resilience4JCircuitBreakerConfiguration previous,
+			Resilience4JConfigBuilder.Resilience4JCircuitBreakerConfiguration next,
+			CircuitBreakerRegistry circuitBreakerRegistry, TimeLimiterRegistry timeLimiterRegistry,
+			RetryRegistry retryRegistry) {
+		if (previous == null || previous == next) {
+			return;
+		}
+		replaceCircuitBreaker(id, previous, next, circuitBreakerRegistry);
+		if (timeLimiterRegistry != null) {
+			replaceTimeLimiter(id, previous, next, timeLimiterRegistry);
+		}
+		if (retryRegistry != null) {
+			replaceRetry(id, previous, next, retryRegistry);
+		}
+	}
+
+	/**
+	 * Replaces the parts of {@code next} whose settings have not changed with those of
+	 * {@code previous}. Calls read a configuration as soon as it is published, so this
+	 * is called before {@code next} is published rather than after.
+	 */
+	static void retainUnchanged(Resilience4JConfigBuilder.Resilience4JCircuitBreakerConfiguration previous,
+			Resilience4JConfigBuilder.Resilience4JCircuitBreakerConfiguration next) {
+		if (previous == null || previous == next) {
+			return;
+		}
+		if (sameSettings(previous.getCircuitBreakerConfig(), next.getCircuitBreakerConfig())) {
+			next.setCircuitBreakerConfig(previous.getCircuitBreakerConfig());
+		}
+		if (sameSettings(previous.getTimeLimiterConfig(), next.getTimeLimiterConfig())) {
+			next.setTimeLimiterConfig(previous.getTimeLimiterConfig());
+		}
+		if (sameSettings(previous.getRetryConfig(), next.getRetryConfig())) {
+			next.setRetryConfig(previous.getRetryConfig());
+		}
+		FallbackCache fallbackCache = previous.getFallbackCache();
+		if (fallbackCache != null && next.getFallbackCache() != null
+				&& fallbackCache.getMaxSize() == next.getFallbackCache().getMaxSize()
+				&& fallbackCache.getTimeToLive().equals(next.getFallbackCache().getTimeToLive())) {
+			next.setFallbackCache(fallbackCache);
+		}
+		RetryBudget retryBudget = previous.getRetryBudget();
+		if (retryBudget != null && next.getRetryBudget() != null
+				&& retryBudget.getRatio() == next.getRetryBudget().getRatio()
+				&& retryBudget.getWindow().equals(next.getRetryBudget().getWindow())
+				&& retryBudget.getMinRetriesPerSecond() == next.getRetryBudget().getMinRetriesPerSecond()) {
+			next.setRetryBudget(retryBudget);
+		}
+		LoadShedder loadShedder = previous.getLoadShedder();
+		if (loadShedder != null && next.getLoadShedder() != null
+				&& loadShedder.getMaxInFlight() == next.getLoadShedder().getMaxInFlight()
+				&& Objects.equals(loadShedder.getMaxResidenceTime(), next.getLoadShedder().getMaxResidenceTime())) {
+			next.setLoadShedder(loadShedder);
+		}
+	}
+
+	/**
+	 * Returns whether two circuit breaker configurations have the same settings. The
+	 * Resilience4J configurations do not implement {@code equals}, so their settings are
+	 * compared one by one. Predicates cannot be compared, so they are only the same if
+	 * they are the same instance, which they are unless exceptions to record or ignore are
+	 * configured. Wait intervals are compared by the intervals of the first attempts.
+	 */
+	static boolean sameSettings(CircuitBreakerConfig first, CircuitBreakerConfig second) {
+		if (first == second) {
+			return true;
+		}
+		if (first == null || second == null) {
+			return false;
+		}
+		return first.getFailureRateThreshold() == second.getFailureRateThreshold()
+				&& first.getSlowCallRateThreshold() == second.getSlowCallRateThreshold()
+				&& first.getSlowCallDurationThreshold().equals(second.getSlowCallDurationThreshold())
+				&& first.getSlidingWindowType() == second.getSlidingWindowType()
+				&& first.getSlidingWindowSize() == second.getSlidingWindowSize()
+				&& first.getMinimumNumberOfCalls() == second.getMinimumNumberOfCalls()
+				&& first.getPermittedNumberOfCallsInHalfOpenState() == second
+						.getPermittedNumberOfCallsInHalfOpenState()
+				&& first.isAutomaticTransitionFromOpenToHalfOpenEnabled() == second
+						.isAutomaticTransitionFromOpenToHalfOpenEnabled()
+				&& first.isWritableStackTraceEnabled() == second.isWritableStackTraceEnabled()
+				&& first.getRecordExceptionPredicate() == second.getRecordExceptionPredicate()
+				&& first.getIgnoreExceptionPredicate() == second.getIgnoreExceptionPredicate()
+				&& sameIntervals(first.getWaitIntervalFunctionInOpenState(),
+						second.getWaitIntervalFunctionInOpenState());
+	}
+
+	static boolean sameSettings(TimeLimiterConfig first, TimeLimiterConfig second) {
+		if (first == second) {
+			return true;
+		}
+		if (first == null || second == null) {
+			return false;
+		}
+		return first.getTimeoutDuration().equals(second.getTimeoutDuration())
+				&& first.shouldCancelRunningFuture() == second.shouldCancelRunningFuture();
+	}
+
+	/**
+	 * Returns whether two retry configurations have the same settings, comparing
+	 * predicates by instance like {@link #sameSettings(CircuitBreakerConfig,
+	 * CircuitBreakerConfig)}.
+	 */
+	static boolean sameSettings(RetryConfig first, RetryConfig second) {
+		if (first == second) {
+			return true;
+		}
+		if (first == null || second == null) {
+			return false;
+		}
+		return first.getMaxAttempts() == second.getMaxAttempts()
+				&& first.getExceptionPredicate() == second.getExceptionPredicate()
+				&& first.getResultPredicate() == second.getResultPredicate()
+				&& sameIntervals(first.getIntervalFunction(), second.getIntervalFunction());
+	}
+
+	private static boolean sameIntervals(Function<Integer, Long> first, Function<Integer, Long> second) {
+		if (first == second) {
+			return true;
+		}
+		if (first == null || second == null) {
+			return false;
+		}
+		for (int attempt = 1; attempt <= COMPARED_ATTEMPTS; attempt++) {
+			if (!Objects.equals(first.apply(attempt), second.apply(attempt))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void replaceCircuitBreaker(String id,
+			Resilience4JConfigBuilder.Resilience4JCircuitBreakerConfiguration previous,
+			Resilience4JConfigBuilder.Resilience4JCircuitBreakerConfiguration next, CircuitBreakerRegistry registry) {
+		Optional<CircuitBreaker> existing = registry.find(id);
+		if (!existing.isPresent() || existing.get().getCircuitBreakerConfig() != previous.getCircuitBreakerConfig()
+				|| previous.getCircuitBreakerConfig() == next.getCircuitBreakerConfig()) {
+			return;
+		}
+		CircuitBreaker replacement = CircuitBreaker.of(id, next.getCircuitBreakerConfig(), existing.get().getTags());
+		// Keep the circuit open if it was open. Resilience4J does not allow setting the
+		// contents of a sliding window, so the metrics start over
+		switch (existing.get().getState()) {
+		case OPEN:
+			replacement.transitionToOpenState();
+			break;
+		case HALF_OPEN:
+			replacement.transitionToOpenState();
+			replacement.transitionToHalfOpenState();
+			break;
+		case FORCED_OPEN:
+			replacement.transitionToForcedOpenState();
+			break;
+		case DISABLED:
+			replacement.transitionToDisabledState();
+			break;
+		case METRICS_ONLY:
+			replacement.transitionToMetricsOnlyState();
+			break;
+		default:
+			break;
+		}
+		registry.replace(id, replacement);
+	}
+
+	private static void replaceTimeLimiter(String id,
+			Resilience4JConfigBuilder.Resilience4JCircuitBreakerConfiguration previous,
+			Resilience4JConfigBuilder.Resilience4JCircuitBreakerConfiguration next, TimeLimiterRegistry registry) {
+		Optional<TimeLimiter> existing = registry.find(id);
+		if (!existing.isPresent() || existing.get().getTimeLimiterConfig() != previous.getTimeLimiterConfig()
+				|| previous.getTimeLimiterConfig() == next.getTimeLimiterConfig()) {
+			return;
+		}
+		registry.replace(id, TimeLimiter.of(id, next.getTimeLimiterConfig(), existing.get().getTags()));
+	}
+
+	private static void replaceRetry(String id,
+			Resilience4JConfigBuilder.Resilience4JCircuitBreakerConfiguration previous,
+			Resilience4JConfigBuilder.Resilience4JCircuitBreakerConfiguration next, RetryRegistry registry) {
+		Optional<Retry> existing = registry.find(id);
+		if (!existing.isPresent() || next.getRetryConfig() == null
+				|| existing.get().getRetryConfig() != previous.getRetryConfig()
+				|| previous.getRetryConfig() == next.getRetryConfig()) {
+			return;
+		}
+		registry.replace(id, Retry.of(id, next.getRetryConfig(), existing.get().getTags()));
+	}
+
+}
@@ -16,6 +16,9 @@
 
 package org.springframework.cloud.circuitbreaker.resilience4j;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import io.github.resilience4j.bulkhead.BulkheadConfig;
 import io.github.resilience4j.bulkhead.ThreadPoolBulkheadConfig;
 
@@ -28,6 +31,8 @@ public class Resilience4jBulkheadConfigurationBuilder {
 
 	private ThreadPoolBulkheadConfig threadPoolBulkheadConfig = ThreadPoolBulkheadConfig.ofDefaults();
 
+	private Map<String, Double> priorityClasses = new LinkedHashMap<>();
+
 	public Resilience4jBulkheadConfigurationBuilder bulkheadConfig(BulkheadConfig bulkheadConfig) {
 		this.bulkheadConfig = bulkheadConfig;
 		return this;
@@ -39,10 +44,26 @@ public class Resilience4jBulkheadConfigurationBuilder {
 		return this;
 	}
 
+	/**
+	 * Adds a priority class and reserves a share of the permits of the bulkhead for it.
+	 * Priority classes are added from the highest priority to the lowest. A class may
+	 * only use permits that are not reserved for a class of higher priority, and calls
+	 * without a known priority class get the lowest priority.
+	 * @param name The name of the priority class, see {@link BulkheadPriority}.
+	 * @param reservedShare The share of the permits reserved for the class, for example
+	 * {@code 0.2}.
+	 * @return The builder.
+	 */
+	public Resilience4jBulkheadConfigurationBuilder priorityClass(String name, double reservedShare) {
+		this.priorityClasses.put(name, reservedShare);
+		return this;
+	}
+
 	public BulkheadConfiguration build() {
 		BulkheadConfiguration configuration = new BulkheadConfiguration();
 		configuration.setBulkheadConfig(this.bulkheadConfig);
 		configuration.setThreadPoolBulkheadConfig(this.threadPoolBulkheadConfig);
+		configuration.setPriorityClasses(new LinkedHashMap<>(this.priorityClasses));
 		return configuration;
 	}
 
@@ -52,6 +73,8 @@ public class Resilience4jBulkheadConfigurationBuilder {
 
 		private ThreadPoolBulkheadConfig threadPoolBulkheadConfig;
 
+		private Map<String, Double> priorityClasses = new LinkedHashMap<>();
+
 		public void setBulkheadConfig(BulkheadConfig bulkheadConfig) {
 			this.bulkheadConfig = bulkheadConfig;
 		}
@@ -68,6 +91,14 @@ public class Resilience4jBulkheadConfigurationBuilder {
 			return bulkheadConfig;
 		}
 
+		public Map<String, Double> getPriorityClasses() {
+			return priorityClasses;
+		}
+
+		public void setPriorityClasses(Map<String, Double> priorityClasses) {
+			this.priorityClasses = priorityClasses;
+		}
+
 	}
 
 }
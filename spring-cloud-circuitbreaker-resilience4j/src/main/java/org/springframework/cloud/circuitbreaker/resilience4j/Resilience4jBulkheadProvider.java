@@ -16,16 +16,23 @@
 
 package org.springframework.cloud.circuitbreaker.resilience4j;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
 import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
 import io.github.resilience4j.bulkhead.BulkheadRegistry;
 import io.github.resilience4j.bulkhead.ThreadPoolBulkhead;
 import io.github.resilience4j.bulkhead.ThreadPoolBulkheadRegistry;
@@ -33,6 +40,7 @@ import io.github.resilience4j.circuitbreaker.CircuitBreaker;
 import io.github.resilience4j.timelimiter.TimeLimiter;
 import io.vavr.control.Try;
 
+import org.springframework.cloud.circuitbreaker.commons.IdPatternMatcher;
 import org.springframework.cloud.client.circuitbreaker.Customizer;
 
 /**
@@ -46,8 +54,28 @@ public class Resilience4jBulkheadProvider {
 
 	private final ConcurrentHashMap<String, Resilience4jBulkheadConfigurationBuilder.BulkheadConfiguration> configurations = new ConcurrentHashMap<>();
 
+	private final Map<String, Consumer<Resilience4jBulkheadConfigurationBuilder>> configurers = new ConcurrentHashMap<>();
+
+	private final Map<String, Customizer<Bulkhead>> bulkheadCustomizers = new ConcurrentHashMap<>();
+
+	private final Map<String, Customizer<ThreadPoolBulkhead>> threadPoolBulkheadCustomizers = new ConcurrentHashMap<>();
+
 	private Function<String, Resilience4jBulkheadConfigurationBuilder.BulkheadConfiguration> defaultConfiguration;
 
+	private final Map<String, PriorityBulkhead> priorityBulkheads = new ConcurrentHashMap<>();
+
+	private final List<BiConsumer<String, PriorityBulkhead>> priorityBulkheadListeners = new CopyOnWriteArrayList<>();
+
+	private final Map<String, SharedThreadPoolBulkhead> sharedBulkheads = new ConcurrentHashMap<>();
+
+	private final List<BiConsumer<String, SharedThreadPoolBulkhead>> sharedListeners = new CopyOnWriteArrayList<>();
+
+	private SharedBulkheadPool sharedPool;
+
+	private final Set<String> configuredIds = ConcurrentHashMap.newKeySet();
+
+	private final IdPatternMatcher<Consumer<Resilience4jBulkheadConfigurationBuilder>> patterns = new IdPatternMatcher<>();
+
 	public Resilience4jBulkheadProvider(ThreadPoolBulkheadRegistry threadPoolBulkheadRegistry,
 			BulkheadRegistry bulkheadRegistry) {
 		this.bulkheadRegistry = bulkheadRegistry;
@@ -62,31 +90,73 @@ public class Resilience4jBulkheadProvider {
 		this.defaultConfiguration = defaultConfiguration;
 	}
 
+	/**
+	 * Runs the calls of thread pool bulkheads on {@code sharedPool} instead of a thread
+	 * pool per id. Each id keeps the limits of its {@code ThreadPoolBulkheadConfig}. Ids
+	 * with a thread pool bulkhead customizer keep a thread pool of their own, as the
+	 * customizer needs a {@link ThreadPoolBulkhead}.
+	 * @param sharedPool The pool shared by the bulkheads.
+	 */
+	public void configureSharedThreadPool(SharedBulkheadPool sharedPool) {
+		this.sharedPool = sharedPool;
+	}
+
+	/**
+	 * Configures the bulkheads with the given ids. The configuration is only built when
+	 * a bulkhead is first used, so ids can be declared up front without cost.
+	 * @param consumer Configures the bulkheads.
+	 * @param ids The ids of the bulkheads.
+	 */
 	public void configure(Consumer<Resilience4jBulkheadConfigurationBuilder> consumer, String... ids) {
 		for (String id : ids) {
-			Resilience4jBulkheadConfigurationBuilder builder = new Resilience4jBulkheadConfigurationBuilder();
-			consumer.accept(builder);
-			Resilience4jBulkheadConfigurationBuilder.BulkheadConfiguration configuration = builder.build();
-			configurations.put(id, configuration);
+			configurers.put(id, consumer);
+			configurations.remove(id);
+			configuredIds.add(id);
+		}
+	}
+
+	/**
+	 * Configures the bulkheads whose ids match any of {@code patterns}, unless they are
+	 * configured explicitly. When several patterns match an id the most specific one is
+	 * used.
+	 * @param consumer Configures the bulkheads, starting from the default configuration
+	 * of the registries.
+	 * @param patterns The patterns of the ids, see {@link IdPatternMatcher}.
+	 */
+	public void configurePattern(Consumer<Resilience4jBulkheadConfigurationBuilder> consumer, String... patterns) {
+		for (String pattern : patterns) {
+			this.patterns.add(pattern, consumer);
 		}
 	}
 
+	/**
+	 * Customizes the semaphore bulkheads with the given ids, which are used instead of
+	 * thread pool bulkheads for those ids. A bulkhead is created and customized when it
+	 * is first used, or right away if it already exists.
+	 * @param customizer Customizes the bulkheads.
+	 * @param ids The ids of the bulkheads.
+	 */
 	public void addBulkheadCustomizer(Customizer<Bulkhead> customizer, String... ids) {
 		for (String id : ids) {
-			Resilience4jBulkheadConfigurationBuilder.BulkheadConfiguration configuration = configurations
-					.computeIfAbsent(id, defaultConfiguration);
-			Bulkhead bulkhead = bulkheadRegistry.bulkhead(id, configuration.getBulkheadConfig());
-			customizer.customize(bulkhead);
+			bulkheadCustomizers.merge(id, customizer, Resilience4jBulkheadProvider::andThen);
+			configuredIds.add(id);
+			bulkheadRegistry.find(id).ifPresent(bulkhead -> customize(bulkheadCustomizers, id, bulkhead));
 		}
 	}
 
+	/**
+	 * Customizes the thread pool bulkheads with the given ids. A bulkhead, and its
+	 * thread pool, is created and customized when it is first used, or right away if it
+	 * already exists.
+	 * @param customizer Customizes the bulkheads.
+	 * @param ids The ids of the bulkheads.
+	 */
 	public void addThreadPoolBulkheadCustomizer(Customizer<ThreadPoolBulkhead> customizer, String... ids) {
 		for (String id : ids) {
-			Resilience4jBulkheadConfigurationBuilder.BulkheadConfiguration configuration = configurations
-					.computeIfAbsent(id, defaultConfiguration);
-			ThreadPoolBulkhead threadPoolBulkhead = threadPoolBulkheadRegistry.bulkhead(id,
-					configuration.getThreadPoolBulkheadConfig());
-			customizer.customize(threadPoolBulkhead);
+			threadPoolBulkheadCustomizers.merge(id, customizer, Resilience4jBulkheadProvider::andThen);
+			configuredIds.add(id);
+			threadPoolBulkheadRegistry.find(id)
+					.ifPresent(threadPoolBulkhead -> customize(threadPoolBulkheadCustomizers, id, threadPoolBulkhead));
 		}
 	}
 
@@ -106,20 +176,248 @@ public class Resilience4jBulkheadProvider {
 		return Try.of(circuitBreakerCall::call).recover(fallback).get();
 	}
 
-	private <T> Supplier<CompletionStage<T>> decorateBulkhead(final String id, final Supplier<T> supplier) {
+	<T> Supplier<CompletionStage<T>> decorateBulkhead(final String id, final Supplier<T> supplier) {
 		Resilience4jBulkheadConfigurationBuilder.BulkheadConfiguration configuration = configurations
-				.computeIfAbsent(id, defaultConfiguration);
+				.computeIfAbsent(id, this::resolveDefault);
 
-		if (bulkheadRegistry.find(id).isPresent() && !threadPoolBulkheadRegistry.find(id).isPresent()) {
-			Bulkhead bulkhead = bulkheadRegistry.bulkhead(id, configuration.getBulkheadConfig());
-			CompletableFuture<T> asyncCall = CompletableFuture.supplyAsync(supplier);
-			return Bulkhead.decorateCompletionStage(bulkhead, () -> asyncCall);
+		if (isSemaphoreBulkhead(id)) {
+			Bulkhead bulkhead = bulkhead(id, configuration);
+			// Only start the call once the bulkhead has permitted it
+			Supplier<CompletionStage<T>> bulkheadCall = Bulkhead.decorateCompletionStage(bulkhead,
+					() -> CompletableFuture.supplyAsync(supplier));
+			if (configuration.getPriorityClasses().isEmpty()) {
+				return bulkheadCall;
+			}
+			PriorityBulkhead priorityBulkhead = priorityBulkhead(id, configuration,
+					bulkhead.getBulkheadConfig().getMaxConcurrentCalls());
+			return decoratePriority(priorityBulkhead, bulkheadCall,
+					() -> BulkheadFullException.createBulkheadFullException(bulkhead));
+		}
+		else if (isSharedThreadPoolBulkhead(id)) {
+			SharedThreadPoolBulkhead sharedBulkhead = sharedBulkhead(id, configuration);
+			Supplier<CompletionStage<T>> bulkheadCall = sharedBulkhead.decorateSupplier(supplier);
+			if (configuration.getPriorityClasses().isEmpty()) {
+				return bulkheadCall;
+			}
+			PriorityBulkhead priorityBulkhead = priorityBulkhead(id, configuration,
+					sharedBulkhead.getMaxConcurrentCalls() + sharedBulkhead.getQueueCapacity());
+			return decoratePriority(priorityBulkhead, bulkheadCall, sharedBulkhead::bulkheadFullException);
 		}
 		else {
-			ThreadPoolBulkhead threadPoolBulkhead = threadPoolBulkheadRegistry.bulkhead(id,
-					configuration.getThreadPoolBulkheadConfig());
-			return threadPoolBulkhead.decorateSupplier(supplier);
+			ThreadPoolBulkhead threadPoolBulkhead = threadPoolBulkhead(id, configuration);
+			Supplier<CompletionStage<T>> bulkheadCall = threadPoolBulkhead.decorateSupplier(supplier);
+			if (configuration.getPriorityClasses().isEmpty()) {
+				return bulkheadCall;
+			}
+			PriorityBulkhead priorityBulkhead = priorityBulkhead(id, configuration,
+					threadPoolBulkhead.getBulkheadConfig().getMaxThreadPoolSize()
+							+ threadPoolBulkhead.getBulkheadConfig().getQueueCapacity());
+			return decoratePriority(priorityBulkhead, bulkheadCall,
+					() -> BulkheadFullException.createBulkheadFullException(threadPoolBulkhead));
+		}
+	}
+
+	/**
+	 * Acquires a permit of the priority class of the calling thread before making the
+	 * call, and releases it once the call completes.
+	 */
+	private <T> Supplier<CompletionStage<T>> decoratePriority(PriorityBulkhead priorityBulkhead,
+			Supplier<CompletionStage<T>> bulkheadCall, Supplier<BulkheadFullException> bulkheadFull) {
+		String priority = BulkheadPriority.get();
+		return () -> {
+			if (!priorityBulkhead.tryAcquire(priority)) {
+				CompletableFuture<T> rejected = new CompletableFuture<>();
+				rejected.completeExceptionally(bulkheadFull.get());
+				return rejected;
+			}
+			CompletionStage<T> call;
+			try {
+				call = bulkheadCall.get();
+			}
+			catch (Throwable t) {
+				priorityBulkhead.release(priority);
+				throw t;
+			}
+			call.whenComplete((result, throwable) -> priorityBulkhead.release(priority));
+			return call;
+		};
+	}
+
+	private PriorityBulkhead priorityBulkhead(String id,
+			Resilience4jBulkheadConfigurationBuilder.BulkheadConfiguration configuration, int maxConcurrentCalls) {
+		PriorityBulkhead priorityBulkhead = priorityBulkheads.get(id);
+		if (priorityBulkhead == null) {
+			PriorityBulkhead created = new PriorityBulkhead(maxConcurrentCalls, configuration.getPriorityClasses());
+			priorityBulkhead = priorityBulkheads.putIfAbsent(id, created);
+			if (priorityBulkhead == null) {
+				priorityBulkheadListeners.forEach(listener -> listener.accept(id, created));
+				priorityBulkhead = created;
+			}
+		}
+		return priorityBulkhead;
+	}
+
+	/**
+	 * Returns the priority bulkheads used so far, keyed by id.
+	 * @return The priority bulkheads.
+	 */
+	public Map<String, PriorityBulkhead> getPriorityBulkheads() {
+		return Collections.unmodifiableMap(priorityBulkheads);
+	}
+
+	/**
+	 * Registers a listener that is called when the priority bulkhead of an id is first
+	 * used.
+	 * @param listener The listener, called with the id and the priority bulkhead.
+	 */
+	public void addPriorityBulkheadListener(BiConsumer<String, PriorityBulkhead> listener) {
+		this.priorityBulkheadListeners.add(listener);
+	}
+
+	/**
+	 * Returns the bulkheads running on the shared pool so far, keyed by id.
+	 * @return The bulkheads.
+	 * @see #configureSharedThreadPool(SharedBulkheadPool)
+	 */
+	public Map<String, SharedThreadPoolBulkhead> getSharedThreadPoolBulkheads() {
+		return Collections.unmodifiableMap(sharedBulkheads);
+	}
+
+	/**
+	 * Registers a listener that is called when the bulkhead of an id is first used on
+	 * the shared pool.
+	 * @param listener The listener, called with the id and the bulkhead.
+	 */
+	public void addSharedThreadPoolBulkheadListener(BiConsumer<String, SharedThreadPoolBulkhead> listener) {
+		this.sharedListeners.add(listener);
+	}
+
+	public SharedBulkheadPool getSharedThreadPool() {
+		return sharedPool;
+	}
+
+	/**
+	 * Returns the number of calls the bulkhead for {@code id} runs concurrently.
+	 */
+	int getMaxConcurrentCalls(String id) {
+		Resilience4jBulkheadConfigurationBuilder.BulkheadConfiguration configuration = configurations
+				.computeIfAbsent(id, this::resolveDefault);
+		if (isSemaphoreBulkhead(id)) {
+			return bulkhead(id, configuration).getBulkheadConfig().getMaxConcurrentCalls();
+		}
+		if (isSharedThreadPoolBulkhead(id)) {
+			return sharedBulkhead(id, configuration).getMaxConcurrentCalls();
+		}
+		return threadPoolBulkhead(id, configuration).getBulkheadConfig().getMaxThreadPoolSize();
+	}
+
+	/**
+	 * A semaphore bulkhead is used for the ids that have one, or a customizer for one,
+	 * and no thread pool bulkhead.
+	 */
+	private boolean isSemaphoreBulkhead(String id) {
+		return (bulkheadCustomizers.containsKey(id) || bulkheadRegistry.find(id).isPresent())
+				&& !threadPoolBulkheadCustomizers.containsKey(id) && !threadPoolBulkheadRegistry.find(id).isPresent();
+	}
+
+	/**
+	 * The shared pool is used for the ids that would get a thread pool bulkhead, unless
+	 * they have one, or a customizer for one, already.
+	 */
+	private boolean isSharedThreadPoolBulkhead(String id) {
+		if (sharedPool == null) {
+			return false;
+		}
+		return sharedBulkheads.containsKey(id)
+				|| (!threadPoolBulkheadCustomizers.containsKey(id) && !threadPoolBulkheadRegistry.find(id).isPresent());
+	}
+
+	private SharedThreadPoolBulkhead sharedBulkhead(String id,
+			Resilience4jBulkheadConfigurationBuilder.BulkheadConfiguration configuration) {
+		SharedThreadPoolBulkhead sharedBulkhead = sharedBulkheads.get(id);
+		if (sharedBulkhead == null) {
+			SharedThreadPoolBulkhead created = new SharedThreadPoolBulkhead(id,
+					configuration.getThreadPoolBulkheadConfig(), sharedPool);
+			sharedBulkhead = sharedBulkheads.putIfAbsent(id, created);
+			if (sharedBulkhead == null) {
+				sharedListeners.forEach(listener -> listener.accept(id, created));
+				sharedBulkhead = created;
+			}
+		}
+		return sharedBulkhead;
+	}
+
+	private Bulkhead bulkhead(String id, Resilience4jBulkheadConfigurationBuilder.BulkheadConfiguration configuration) {
+		return customize(bulkheadCustomizers, id, bulkheadRegistry.bulkhead(id, configuration.getBulkheadConfig()));
+	}
+
+	private ThreadPoolBulkhead threadPoolBulkhead(String id,
+			Resilience4jBulkheadConfigurationBuilder.BulkheadConfiguration configuration) {
+		return customize(threadPoolBulkheadCustomizers, id,
+				threadPoolBulkheadRegistry.bulkhead(id, configuration.getThreadPoolBulkheadConfig()));
+	}
+
+	/**
+	 * Applies the customizer waiting for the bulkhead of {@code id}, if any. The
+	 * customizer is removed first, so it is applied only once even if several calls
+	 * race to create the bulkhead.
+	 */
+	private static <B> B customize(Map<String, Customizer<B>> customizers, String id, B bulkhead) {
+		if (customizers.get(id) != null) {
+			Customizer<B> customizer = customizers.remove(id);
+			if (customizer != null) {
+				customizer.customize(bulkhead);
+			}
+		}
+		return bulkhead;
+	}
+
+	private static <B> Customizer<B> andThen(Customizer<B> first, Customizer<B> second) {
+		return bulkhead -> {
+			first.customize(bulkhead);
+			second.customize(bulkhead);
+		};
+	}
+
+	private Resilience4jBulkheadConfigurationBuilder.BulkheadConfiguration resolveDefault(String id) {
+		Consumer<Resilience4jBulkheadConfigurationBuilder> configurer = configurers.get(id);
+		if (configurer != null) {
+			Resilience4jBulkheadConfigurationBuilder builder = new Resilience4jBulkheadConfigurationBuilder();
+			configurer.accept(builder);
+			return builder.build();
+		}
+		Consumer<Resilience4jBulkheadConfigurationBuilder> consumer = patterns.match(id);
+		if (consumer == null) {
+			return defaultConfiguration.apply(id);
+		}
+		Resilience4jBulkheadConfigurationBuilder builder = new Resilience4jBulkheadConfigurationBuilder()
+				.bulkheadConfig(bulkheadRegistry.getDefaultConfig())
+				.threadPoolBulkheadConfig(threadPoolBulkheadRegistry.getDefaultConfig());
+		consumer.accept(builder);
+		return builder.build();
+	}
+
+	/**
+	 * Removes the bulkheads of {@code id} unless they were configured or customized
+	 * explicitly. The thread pool of a thread pool bulkhead is shut down, letting the
+	 * calls already submitted complete.
+	 */
+	void evict(String id) {
+		if (configuredIds.contains(id)) {
+			return;
 		}
+		configurations.remove(id);
+		priorityBulkheads.remove(id);
+		sharedBulkheads.remove(id);
+		bulkheadRegistry.remove(id);
+		threadPoolBulkheadRegistry.remove(id).ifPresent(threadPoolBulkhead -> {
+			try {
+				threadPoolBulkhead.close();
+			}
+			catch (Exception e) {
+				// The bulkhead is no longer used
+			}
+		});
 	}
 
 	private <T> Callable<T> decorateTimeLimiter(final Supplier<CompletionStage<T>> supplier, TimeLimiter timeLimiter) {
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.resilience4j;
+
+import java.net.URI;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+
+import org.springframework.util.Assert;
+
+/**
+ * Keeps circuit breakers open for as long as the {@code Retry-After} header of a failed
+ * response asks, which may be longer than the wait duration of the circuit breaker. Until
+ * then calls are not permitted and are not even passed to the circuit breaker.
+ *
+ * @author Ryan Baxter
+ */
+final class RetryAfterHolds {
+
+	private final Map<String, Long> heldUntil = new ConcurrentHashMap<>();
+
+	private volatile Duration maxRetryAfter = Duration.ofMinutes(5);
+
+	void setMaxRetryAfter(Duration maxRetryAfter) {
+		Assert.isTrue(maxRetryAfter != null && !maxRetryAfter.isNegative(), "maxRetryAfter must not be negative");
+		this.maxRetryAfter = maxRetryAfter;
+	}
+
+	/**
+	 * Returns the exception to fail a call with if the circuit breaker {@code id} is held
+	 * open, or {@code null} if the call may go ahead.
+	 */
+	CallNotPermittedException notPermitted(String id, CircuitBreakerRegistry registry) {
+		Long until = heldUntil.get(id);
+		if (until == null) {
+			return null;
+		}
+		if (System.currentTimeMillis() >= until) {
+			heldUntil.remove(id, until);
+			return null;
+		}
+		return registry.find(id).map(CallNotPermittedException::createCallNotPermittedException).orElse(null);
+	}
+
+	/**
+	 * Forgets the circuit breaker {@code id}, for example once it has been evicted.
+	 */
+	void forget(String id) {
+		heldUntil.remove(id);
+	}
+
+	/**
+	 * Holds the circuit breaker {@code id} open if the failed response asked to retry
+	 * later.
+	 */
+	void hold(String id, String retryAfter, CircuitBreakerRegistry registry) {
+		if (retryAfter == null) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		Duration delay = parse(retryAfter.trim(), now);
+		if (delay == null || delay.isNegative() || delay.isZero()) {
+			return;
+		}
+		if (delay.compareTo(maxRetryAfter) > 0) {
+			delay = maxRetryAfter;
+		}
+		heldUntil.merge(id, now + delay.toMillis(), Math::max);
+		registry.find(id).filter(circuitBreaker -> circuitBreaker.getState() == CircuitBreaker.State.CLOSED
+				|| circuitBreaker.getState() == CircuitBreaker.State.HALF_OPEN)
+				.ifPresent(CircuitBreaker::transitionToOpenState);
+	}
+
+	/**
+	 * Parses a {@code Retry-After} header, which is either a number of seconds or an HTTP
+	 * date.
+	 */
+	static Duration parse(String retryAfter, long now) {
+		try {
+			if (!retryAfter.isEmpty() && retryAfter.chars().allMatch(Character::isDigit)) {
+				return Duration.ofSeconds(Long.parseLong(retryAfter));
+			}
+			return Duration.ofMillis(
+					ZonedDateTime.parse(retryAfter, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli()
+							- now);
+		}
+		catch (NumberFormatException | DateTimeParseException e) {
+			// A header that cannot be parsed does not hold the circuit breaker open
+			return null;
+		}
+	}
+
+	/**
+	 * The id of the circuit breaker of a host, with the port if there is one.
+	 */
+	static String hostId(URI uri) {
+		return uri.getPort() == -1 ? uri.getHost() : uri.getHost() + ":" + uri.getPort();
+	}
+
+}
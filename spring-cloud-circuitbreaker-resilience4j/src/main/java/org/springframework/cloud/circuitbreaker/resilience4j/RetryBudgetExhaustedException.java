@@ -0,0 +1,31 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.resilience4j;
+
+/**
+ * Passed to the fallback when a call is not retried because the retry budget of its
+ * circuit breaker is exhausted. The cause is the failure of the last attempt.
+ *
+ * @author Ryan Baxter
+ */
+public class RetryBudgetExhaustedException extends RuntimeException {
+
+	public RetryBudgetExhaustedException(String id, Throwable cause) {
+		super("Retry budget of circuit breaker " + id + " exhausted", cause);
+	}
+
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.circuitbreaker.resilience4j;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.util.Assert;
+
+/**
+ * A pool of worker threads shared by the thread pool bulkheads of all ids. Each id still
+ * runs at most the {@code maxThreadPoolSize} of its {@code ThreadPoolBulkheadConfig}
+ * calls at a time and queues at most its {@code queueCapacity} more, but the calls run
+ * on a work-stealing pool whose threads are started as the load rises and stopped when
+ * they are idle. The number of threads therefore follows the number of calls in flight
+ * rather than the number of ids.
+ * <p>
+ * A call is only handed to the pool once its id has a free slot, so an id that is slow
+ * never fills the pool with queued calls. The pool needs as many threads as calls may
+ * run at the same time across all ids, otherwise calls that were admitted wait for a
+ * thread.
+ *
+ * @author Ryan Baxter
+ * @see Resilience4jBulkheadProvider#configureSharedThreadPool(SharedBulkheadPool)
+ */
+public class SharedBulkheadPool implements AutoCloseable {
+
+	private final ForkJoinPool pool;
+
+	/**
+	 * Constructor.
+	 * @param maxThreads The maximum number of threads of the pool.
+	 */
+	public SharedBulkheadPool(int maxThreads) {
+		Assert.isTrue(maxThreads > 0, "maxThreads must be greater than 0");
+		this.pool = new ForkJoinPool(maxThreads, SharedBulkheadPool::newThread, null, true);
+	}
+
+	private static ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+		ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+		thread.setName("circuitbreaker-bulkhead-" + thread.getPoolIndex());
+		return thread;
+	}
+
+	void execute(Runnable task) {
+		pool.execute(task);
+	}
+
+	public int getMaxThreads() {
+		return pool.getParallelism();
+	}
+
+	/**
+	 * Returns the number of threads started and not yet stopped.
+	 * @return The number of threads.
+	 */
+	public int getThreadCount() {
+		return pool.getPoolSize();
+	}
+
+	/**
+	 * Returns an estimate of the number of threads running calls.
+	 * @return The number of threads running calls.
+	 */
+	public int getActiveThreadCount() {
+		return pool.getActiveThreadCount();
+	}
+
+	/**
+	 * Stops accepting calls and waits for the calls already running to complete.
+	 */
+	@Override
+	public void close() {
+		pool.shutdown();
+		try {
+			pool.awaitTermination(10, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.circuitbreaker.resilience4j;
+
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadConfig;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.bulkhead.ThreadPoolBulkheadConfig;
+
+/**
+ * The thread pool bulkhead of one id when the threads are shared through a
+ * {@link SharedBulkheadPool}. At most {@code maxThreadPoolSize} calls run at a time, and
+ * at most {@code queueCapacity} more wait in a queue of this bulkhead, in the order they
+ * were made. Further calls are rejected with a {@link BulkheadFullException}.
+ *
+ * @author Ryan Baxter
+ */
+public class SharedThreadPoolBulkhead {
+
+	private final String name;
+
+	private final SharedBulkheadPool pool;
+
+	private final int maxConcurrentCalls;
+
+	private final int queueCapacity;
+
+	private final Bulkhead quota;
+
+	private final Queue<Call<?>> waiting = new ConcurrentLinkedQueue<>();
+
+	private final AtomicInteger running = new AtomicInteger();
+
+	private final LongAdder rejected = new LongAdder();
+
+	SharedThreadPoolBulkhead(String name, ThreadPoolBulkheadConfig config, SharedBulkheadPool pool) {
+		this.name = name;
+		this.pool = pool;
+		this.maxConcurrentCalls = config.getMaxThreadPoolSize();
+		this.queueCapacity = config.getQueueCapacity();
+		// Only used to count the calls running or waiting, and to reject the others
+		this.quota = Bulkhead.of(name, BulkheadConfig.custom().maxConcurrentCalls(maxConcurrentCalls + queueCapacity)
+				.maxWaitDuration(Duration.ZERO).build());
+	}
+
+	/**
+	 * Decorates {@code supplier} so that it runs on the shared pool, once fewer than
+	 * {@code maxThreadPoolSize} calls of this bulkhead are running.
+	 * @param supplier The call.
+	 * @param <T> The type of the result of the call.
+	 * @return The decorated call, which completes with a {@link BulkheadFullException}
+	 * when the bulkhead is full.
+	 */
+	public <T> Supplier<CompletionStage<T>> decorateSupplier(Supplier<T> supplier) {
+		return () -> {
+			if (!quota.tryAcquirePermission()) {
+				rejected.increment();
+				CompletableFuture<T> rejectedCall = new CompletableFuture<>();
+				rejectedCall.completeExceptionally(bulkheadFullException());
+				return rejectedCall;
+			}
+			// The permission is held until the call leaves the queue without running, or
+			// its supplier returns, even if the caller stopped waiting for it earlier
+			Call<T> call = new Call<>(supplier);
+			waiting.offer(call);
+			drain();
+			return call.future;
+		};
+	}
+
+	/**
+	 * Hands waiting calls to the pool while there are free slots. Called after a call is
+	 * queued and after a call completes, so that neither misses a slot freed or a call
+	 * queued concurrently.
+	 */
+	private void drain() {
+		while (true) {
+			int current = running.get();
+			if (current >= maxConcurrentCalls || waiting.isEmpty()) {
+				return;
+			}
+			if (!running.compareAndSet(current, current + 1)) {
+				continue;
+			}
+			Call<?> call = waiting.poll();
+			if (call == null) {
+				// Another thread took the call, give the slot back and look again
+				running.decrementAndGet();
+				continue;
+			}
+			if (call.future.isDone()) {
+				// The call timed out or was cancelled while it was waiting
+				running.decrementAndGet();
+				quota.onComplete();
+				continue;
+			}
+			try {
+				pool.execute(() -> {
+					try {
+						call.run();
+					}
+					finally {
+						quota.onComplete();
+						running.decrementAndGet();
+						drain();
+					}
+				});
+			}
+			catch (RejectedExecutionException e) {
+				running.decrementAndGet();
+				quota.onComplete();
+				call.future.completeExceptionally(e);
+			}
+		}
+	}
+
+	BulkheadFullException bulkheadFullException() {
+		return BulkheadFullException.createBulkheadFullException(quota);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getMaxConcurrentCalls() {
+		return maxConcurrentCalls;
+	}
+
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+
+	/**
+	 * Returns the number of calls running on the shared pool.
+	 * @return The number of calls running.
+	 */
+	public int getRunningCalls() {
+		return running.get();
+	}
+
+	/**
+	 * Returns the number of calls waiting for a slot of this bulkhead.
+	 * @return The number of calls waiting.
+	 */
+	public int getQueueDepth() {
+		return waiting.size();
+	}
+
+	public long getRejectedCount() {
+		return rejected.sum();
+	}
+
+	private static final class Call<T> implements Runnable {
+
+		private final Supplier<T> supplier;
+
+		private final CompletableFuture<T> future = new CompletableFuture<>();
+
+		private Call(Supplier<T> supplier) {
+			this.supplier = supplier;
+		}
+
+		@Override
+		public void run() {
+			if (future.isDone()) {
+				return;
+			}
+			try {
+				future.complete(supplier.get());
+			}
+			catch (Throwable t) {
+				future.completeExceptionally(t);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.resilience4j;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.core.EventConsumer;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Ryan Baxter
+ */
+public class AsyncEventDispatcherTest {
+
+	@Test
+	public void capacityIsRoundedUpToPowerOfTwoOfAtLeastTwo() throws Exception {
+		try (AsyncEventDispatcher one = new AsyncEventDispatcher(1);
+				AsyncEventDispatcher five = new AsyncEventDispatcher(5)) {
+			assertThat(one.getCapacity()).isEqualTo(2);
+			assertThat(five.getCapacity()).isEqualTo(8);
+		}
+	}
+
+	@Test
+	public void dispatchesOnDispatcherThread() throws Exception {
+		try (AsyncEventDispatcher dispatcher = new AsyncEventDispatcher(16)) {
+			CompletableFuture<String> consumerThread = new CompletableFuture<>();
+			dispatcher.<String>async(event -> consumerThread.complete(Thread.currentThread().getName()))
+					.consumeEvent("foo");
+			assertThat(consumerThread.get(1, TimeUnit.SECONDS)).isEqualTo("circuitbreaker-event-dispatcher");
+		}
+	}
+
+	@Test
+	public void dropsEventsWhenFull() throws Exception {
+		AsyncEventDispatcher dispatcher = new AsyncEventDispatcher(2);
+		CountDownLatch dispatching = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		EventConsumer<String> consumer = dispatcher.async(event -> {
+			dispatching.countDown();
+			try {
+				release.await();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		consumer.consumeEvent("first");
+		assertThat(dispatching.await(1, TimeUnit.SECONDS)).isTrue();
+		consumer.consumeEvent("second");
+		consumer.consumeEvent("third");
+		consumer.consumeEvent("fourth");
+		assertThat(dispatcher.getDroppedEvents()).isEqualTo(1);
+		release.countDown();
+		dispatcher.close();
+		assertThat(dispatcher.getDispatchedEvents()).isEqualTo(3);
+		assertThat(dispatcher.getPendingEvents()).isEqualTo(0);
+	}
+
+	@Test
+	public void failingConsumerDoesNotStopDispatch() throws Exception {
+		AsyncEventDispatcher dispatcher = new AsyncEventDispatcher(16);
+		List<String> received = new ArrayList<>();
+		EventConsumer<String> failing = dispatcher.async(event -> {
+			throw new IllegalStateException(event);
+		});
+		EventConsumer<String> consumer = dispatcher.async(received::add);
+		failing.consumeEvent("first");
+		consumer.consumeEvent("second");
+		failing.consumeEvent("third");
+		consumer.consumeEvent("fourth");
+		dispatcher.close();
+		assertThat(received).containsExactly("second", "fourth");
+		assertThat(dispatcher.getFailedEvents()).isEqualTo(2);
+		assertThat(dispatcher.getDispatchedEvents()).isEqualTo(2);
+		assertThat(dispatcher.getPendingEvents()).isEqualTo(0);
+	}
+
+	@Test
+	public void consumerThrowingErrorDoesNotStopDispatch() throws Exception {
+		AsyncEventDispatcher dispatcher = new AsyncEventDispatcher(16);
+		List<String> received = new ArrayList<>();
+		EventConsumer<String> failing = dispatcher.async(event -> {
+			throw new NoClassDefFoundError(event);
+		});
+		EventConsumer<String> consumer = dispatcher.async(received::add);
+		failing.consumeEvent("first");
+		consumer.consumeEvent("second");
+		dispatcher.close();
+		assertThat(received).containsExactly("second");
+		assertThat(dispatcher.getFailedEvents()).isEqualTo(1);
+	}
+
+	@Test
+	public void concurrentPublishersDispatchEveryEventInOrder() throws Exception {
+		int publishers = 4;
+		int eventsPerPublisher = 1000;
+		AsyncEventDispatcher dispatcher = new AsyncEventDispatcher(publishers * eventsPerPublisher);
+		// Only the dispatcher thread adds to the list, close() waits for it to finish
+		List<int[]> received = new ArrayList<>();
+		EventConsumer<int[]> consumer = dispatcher.async(received::add);
+		publish(publishers, eventsPerPublisher, consumer);
+		dispatcher.close();
+		assertThat(received).hasSize(publishers * eventsPerPublisher);
+		assertThat(dispatcher.getDroppedEvents()).isZero();
+		Map<Integer, Integer> last = new HashMap<>();
+		for (int[] event : received) {
+			Integer previous = last.put(event[0], event[1]);
+			assertThat(event[1]).isEqualTo(previous == null ? 0 : previous + 1);
+		}
+	}
+
+	@Test
+	public void concurrentPublishersCountEveryEventTheyDrop() throws Exception {
+		int publishers = 4;
+		int eventsPerPublisher = 5000;
+		AsyncEventDispatcher dispatcher = new AsyncEventDispatcher(8);
+		AtomicInteger received = new AtomicInteger();
+		EventConsumer<int[]> consumer = dispatcher.async(event -> received.incrementAndGet());
+		publish(publishers, eventsPerPublisher, consumer);
+		dispatcher.close();
+		assertThat(received.get() + dispatcher.getDroppedEvents()).isEqualTo(publishers * eventsPerPublisher);
+		assertThat(dispatcher.getDispatchedEvents()).isEqualTo(received.get());
+		assertThat(dispatcher.getPendingEvents()).isEqualTo(0);
+	}
+
+	@Test
+	public void closeWhilePublishingStopsDispatch() throws Exception {
+		AsyncEventDispatcher dispatcher = new AsyncEventDispatcher(64);
+		AtomicInteger received = new AtomicInteger();
+		EventConsumer<String> consumer = dispatcher.async(event -> received.incrementAndGet());
+		AtomicBoolean publishing = new AtomicBoolean(true);
+		CountDownLatch started = new CountDownLatch(1);
+		Thread publisher = new Thread(() -> {
+			started.countDown();
+			while (publishing.get()) {
+				consumer.consumeEvent("foo");
+			}
+		});
+		publisher.start();
+		assertThat(started.await(1, TimeUnit.SECONDS)).isTrue();
+		Thread.sleep(50);
+		dispatcher.close();
+		int receivedWhenClosed = received.get();
+		long droppedWhenClosed = dispatcher.getDroppedEvents();
+		Thread.sleep(50);
+		publishing.set(false);
+		publisher.join(1000);
+		assertThat(received.get()).isEqualTo(receivedWhenClosed);
+		assertThat(dispatcher.getDroppedEvents()).isGreaterThan(droppedWhenClosed);
+		consumer.consumeEvent("bar");
+		assertThat(received.get()).isEqualTo(receivedWhenClosed);
+	}
+
+	@Test
+	public void decorateKeepsOneViewPerCircuitBreaker() throws Exception {
+		try (AsyncEventDispatcher dispatcher = new AsyncEventDispatcher(16)) {
+			CircuitBreakerRegistry registry = CircuitBreakerRegistry.ofDefaults();
+			CircuitBreaker circuitBreaker = registry.circuitBreaker("foo");
+			CircuitBreaker view = dispatcher.decorate(circuitBreaker);
+			assertThat(dispatcher.decorate(circuitBreaker)).isSameAs(view);
+			assertThat(view.getName()).isEqualTo("foo");
+			CompletableFuture<String> consumerThread = new CompletableFuture<>();
+			view.getEventPublisher()
+					.onStateTransition(event -> consumerThread.complete(Thread.currentThread().getName()));
+			circuitBreaker.transitionToOpenState();
+			assertThat(consumerThread.get(1, TimeUnit.SECONDS)).isEqualTo("circuitbreaker-event-dispatcher");
+			registry.remove("foo");
+			assertThat(dispatcher.decorate(registry.circuitBreaker("foo"))).isNotSameAs(view);
+		}
+	}
+
+	private static void publish(int publishers, int eventsPerPublisher, EventConsumer<int[]> consumer)
+			throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(publishers);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<?>> futures = new ArrayList<>();
+		try {
+			for (int p = 0; p < publishers; p++) {
+				int publisher = p;
+				futures.add(executor.submit(() -> {
+					start.await();
+					for (int i = 0; i < eventsPerPublisher; i++) {
+						consumer.consumeEvent(new int[] { publisher, i });
+					}
+					return null;
+				}));
+			}
+			start.countDown();
+			for (Future<?> future : futures) {
+				future.get(10, TimeUnit.SECONDS);
+			}
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+}
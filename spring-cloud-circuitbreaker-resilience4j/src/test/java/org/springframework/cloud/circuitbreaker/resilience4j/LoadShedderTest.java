@@ -0,0 +1,167 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.resilience4j;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+
+import org.springframework.cloud.client.circuitbreaker.ReactiveCircuitBreaker;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Ryan Baxter
+ */
+public class LoadShedderTest {
+
+	@Test
+	public void shedsWhileMaxInFlightReached() {
+		LoadShedder loadShedder = new LoadShedder(2, null);
+		long first = loadShedder.tryAcquire();
+		long second = loadShedder.tryAcquire();
+		assertThat(first).isNotEqualTo(LoadShedder.SHED);
+		assertThat(second).isNotEqualTo(LoadShedder.SHED);
+		assertThat(loadShedder.tryAcquire()).isEqualTo(LoadShedder.SHED);
+		loadShedder.release(first);
+		assertThat(loadShedder.tryAcquire()).isNotEqualTo(LoadShedder.SHED);
+		assertThat(loadShedder.getInFlight()).isEqualTo(2);
+		assertThat(loadShedder.getAdmittedCount()).isEqualTo(3);
+		assertThat(loadShedder.getShedCount()).isEqualTo(1);
+	}
+
+	@Test
+	public void releasingShedPermitDoesNothing() {
+		LoadShedder loadShedder = new LoadShedder(1, null);
+		loadShedder.tryAcquire();
+		loadShedder.release(loadShedder.tryAcquire());
+		assertThat(loadShedder.getInFlight()).isEqualTo(1);
+		assertThat(loadShedder.tryAcquire()).isEqualTo(LoadShedder.SHED);
+	}
+
+	@Test
+	public void noLimits() {
+		LoadShedder loadShedder = new LoadShedder(0, null);
+		assertThat(loadShedder.getMaxInFlight()).isEqualTo(Integer.MAX_VALUE);
+		assertThat(loadShedder.getMaxResidenceTime()).isNull();
+		for (int i = 0; i < 1000; i++) {
+			assertThat(loadShedder.tryAcquire()).isNotEqualTo(LoadShedder.SHED);
+		}
+		assertThat(loadShedder.getShedCount()).isZero();
+	}
+
+	@Test
+	public void shedsWhileOldestWaitedLongerThanMaxResidenceTime() throws Exception {
+		LoadShedder loadShedder = new LoadShedder(0, Duration.ofMillis(50));
+		long waiting = loadShedder.tryAcquire();
+		long answered = loadShedder.tryAcquire();
+		loadShedder.onElement(answered);
+		Thread.sleep(100);
+		assertThat(loadShedder.tryAcquire()).isEqualTo(LoadShedder.SHED);
+		// Once the oldest subscription receives an element new ones are admitted again
+		loadShedder.onElement(waiting);
+		assertThat(loadShedder.tryAcquire()).isNotEqualTo(LoadShedder.SHED);
+		loadShedder.release(waiting);
+		loadShedder.release(answered);
+		assertThat(loadShedder.getInFlight()).isEqualTo(1);
+	}
+
+	@Test
+	public void neverAdmitsMoreThanMaxInFlightUnderContention() throws Exception {
+		int maxInFlight = 3;
+		int threads = 8;
+		int attemptsPerThread = 2000;
+		LoadShedder loadShedder = new LoadShedder(maxInFlight, null);
+		AtomicInteger inFlight = new AtomicInteger();
+		AtomicInteger maxObserved = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<?>> futures = new ArrayList<>();
+		try {
+			for (int t = 0; t < threads; t++) {
+				futures.add(executor.submit(() -> {
+					start.await();
+					for (int i = 0; i < attemptsPerThread; i++) {
+						long permit = loadShedder.tryAcquire();
+						if (permit != LoadShedder.SHED) {
+							maxObserved.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+							inFlight.decrementAndGet();
+							loadShedder.release(permit);
+						}
+					}
+					return null;
+				}));
+			}
+			start.countDown();
+			for (Future<?> future : futures) {
+				future.get(10, TimeUnit.SECONDS);
+			}
+		}
+		finally {
+			executor.shutdownNow();
+		}
+		assertThat(maxObserved.get()).isLessThanOrEqualTo(maxInFlight);
+		assertThat(loadShedder.getInFlight()).isZero();
+		assertThat(loadShedder.getAdmittedCount() + loadShedder.getShedCount())
+				.isEqualTo((long) threads * attemptsPerThread);
+	}
+
+	@Test
+	public void cancelledSubscriptionsReleaseTheirPermits() throws Exception {
+		ReactiveResilience4JCircuitBreakerFactory factory = new ReactiveResilience4JCircuitBreakerFactory();
+		factory.configure(builder -> builder.loadShedding(100, null), "foo");
+		ReactiveCircuitBreaker cb = factory.create("foo");
+		LoadShedder loadShedder = factory.getLoadShedders().get("foo");
+		int threads = 4;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<?>> futures = new ArrayList<>();
+		try {
+			for (int t = 0; t < threads; t++) {
+				futures.add(executor.submit(() -> {
+					start.await();
+					for (int i = 0; i < 500; i++) {
+						Disposable subscription = cb.run(Mono.never()).subscribe();
+						subscription.dispose();
+					}
+					return null;
+				}));
+			}
+			start.countDown();
+			for (Future<?> future : futures) {
+				future.get(10, TimeUnit.SECONDS);
+			}
+		}
+		finally {
+			executor.shutdownNow();
+		}
+		assertThat(loadShedder.getInFlight()).isZero();
+		assertThat(loadShedder.getShedCount()).isZero();
+		assertThat(Mono.just("foobar").transform(it -> cb.run(it)).block()).isEqualTo("foobar");
+	}
+
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.resilience4j;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.timelimiter.TimeLimiterRegistry;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Ryan Baxter
+ */
+public class MulticastBreakerStateSyncTest {
+
+	private static final byte[] SECRET = "secret".getBytes(StandardCharsets.UTF_8);
+
+	private final List<MulticastBreakerStateSync> syncs = new ArrayList<>();
+
+	private InetAddress group;
+
+	private int port;
+
+	@Before
+	public void setup() throws IOException {
+		group = InetAddress.getByName("239.255.42.99");
+		try (DatagramSocket socket = new DatagramSocket(0)) {
+			port = socket.getLocalPort();
+		}
+	}
+
+	@After
+	public void close() {
+		syncs.forEach(MulticastBreakerStateSync::close);
+	}
+
+	@Test
+	public void openOnOneInstanceOpensTheOther() throws InterruptedException {
+		Resilience4JCircuitBreakerFactory first = new Resilience4JCircuitBreakerFactory(
+				CircuitBreakerRegistry.ofDefaults(), TimeLimiterRegistry.ofDefaults(), null);
+		first.configureStateSync(join(SECRET));
+		Resilience4JCircuitBreakerFactory second = new Resilience4JCircuitBreakerFactory(
+				CircuitBreakerRegistry.ofDefaults(), TimeLimiterRegistry.ofDefaults(), null);
+		second.configureStateSync(join(SECRET));
+		CircuitBreaker remote = second.getCircuitBreakerRegistry().circuitBreaker("foo");
+
+		first.getCircuitBreakerRegistry().circuitBreaker("foo").transitionToOpenState();
+
+		await(() -> remote.getState() == CircuitBreaker.State.OPEN);
+		assertThat(remote.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+	}
+
+	@Test
+	public void dropsMessagesWithoutValidSignature() throws InterruptedException {
+		MulticastBreakerStateSync receiver = join(SECRET);
+		BlockingQueue<String> received = new LinkedBlockingQueue<>();
+		receiver.addListener(message -> received.add(message.getId()));
+
+		join(null).publish(new BreakerStateMessage("other", "unsigned", "OPEN", 0, 0));
+		join("wrong".getBytes(StandardCharsets.UTF_8))
+				.publish(new BreakerStateMessage("other", "wrong", "OPEN", 0, 0));
+		join(SECRET).publish(new BreakerStateMessage("other", "signed", "OPEN", 0, 0));
+
+		assertThat(received.poll(5, TimeUnit.SECONDS)).isEqualTo("signed");
+		assertThat(received.poll(200, TimeUnit.MILLISECONDS)).isNull();
+	}
+
+	@Test
+	public void closeStopsThreads() throws InterruptedException {
+		MulticastBreakerStateSync sync = join(null);
+		assertThat(sync.isRunning()).isTrue();
+
+		sync.close();
+
+		await(() -> !sync.isRunning());
+		assertThat(sync.isRunning()).isFalse();
+	}
+
+	private MulticastBreakerStateSync join(byte[] secret) {
+		MulticastBreakerStateSync sync;
+		try {
+			sync = new MulticastBreakerStateSync(group, port, null, secret);
+		}
+		catch (IOException e) {
+			// Hosts without a multicast route cannot run these tests
+			Assume.assumeNoException(e);
+			throw new IllegalStateException(e);
+		}
+		syncs.add(sync);
+		return sync;
+	}
+
+	private static void await(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+	}
+
+}
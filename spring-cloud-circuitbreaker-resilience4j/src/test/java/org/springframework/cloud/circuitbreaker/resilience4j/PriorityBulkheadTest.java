@@ -0,0 +1,127 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.resilience4j;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * @author Ryan Baxter
+ */
+public class PriorityBulkheadTest {
+
+	@Test
+	public void reservesPermitsForHigherPriorities() {
+		PriorityBulkhead bulkhead = new PriorityBulkhead(4, shares("critical", 0.5, "batch", 0.0));
+		assertThat(bulkhead.tryAcquire("batch")).isTrue();
+		assertThat(bulkhead.tryAcquire("batch")).isTrue();
+		assertThat(bulkhead.tryAcquire("batch")).isFalse();
+		assertThat(bulkhead.tryAcquire("critical")).isTrue();
+		assertThat(bulkhead.tryAcquire("critical")).isTrue();
+		assertThat(bulkhead.tryAcquire("critical")).isFalse();
+		bulkhead.release("batch");
+		assertThat(bulkhead.tryAcquire("critical")).isTrue();
+		assertThat(bulkhead.getInUse()).isEqualTo(4);
+		assertThat(bulkhead.getInUse("critical")).isEqualTo(3);
+		assertThat(bulkhead.getRejectedCount("batch")).isEqualTo(1);
+		assertThat(bulkhead.getAdmittedCount("critical")).isEqualTo(3);
+	}
+
+	@Test
+	public void unknownPrioritiesGetTheLowestPriority() {
+		PriorityBulkhead bulkhead = new PriorityBulkhead(2, shares("critical", 0.5, "batch", 0.0));
+		assertThat(bulkhead.tryAcquire(null)).isTrue();
+		assertThat(bulkhead.tryAcquire("unknown")).isFalse();
+		assertThat(bulkhead.getRejectedCount("batch")).isEqualTo(1);
+	}
+
+	@Test
+	public void sharesAddingUpToOneAreRoundedDown() {
+		PriorityBulkhead bulkhead = new PriorityBulkhead(3, shares("critical", 0.5, "batch", 0.5));
+		assertThat(bulkhead.tryAcquire("batch")).isTrue();
+		assertThat(bulkhead.tryAcquire("batch")).isTrue();
+		assertThat(bulkhead.tryAcquire("batch")).isFalse();
+		assertThat(bulkhead.tryAcquire("critical")).isTrue();
+		PriorityBulkhead tenths = new PriorityBulkhead(10, shares("critical", 0.1, "interactive", 0.2, "batch", 0.7));
+		for (int i = 0; i < 7; i++) {
+			assertThat(tenths.tryAcquire("batch")).isTrue();
+		}
+		assertThat(tenths.tryAcquire("batch")).isFalse();
+	}
+
+	@Test
+	public void rejectsSharesAddingUpToMoreThanOne() {
+		assertThatThrownBy(() -> new PriorityBulkhead(10, shares("critical", 0.6, "batch", 0.5)))
+				.isInstanceOf(IllegalArgumentException.class);
+		assertThatThrownBy(() -> new PriorityBulkhead(10, shares("critical", -0.1)))
+				.isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test
+	public void neverAdmitsMorePermitsThanAvailableUnderContention() throws Exception {
+		PriorityBulkhead bulkhead = new PriorityBulkhead(8, shares("critical", 0.25, "batch", 0.0));
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		CountDownLatch start = new CountDownLatch(1);
+		AtomicInteger maxInUse = new AtomicInteger();
+		AtomicInteger maxBatch = new AtomicInteger();
+		List<Future<?>> futures = new ArrayList<>();
+		for (int i = 0; i < 8; i++) {
+			String priority = i % 2 == 0 ? "critical" : "batch";
+			futures.add(executor.submit(() -> {
+				start.await();
+				for (int j = 0; j < 10000; j++) {
+					if (bulkhead.tryAcquire(priority)) {
+						maxInUse.accumulateAndGet(bulkhead.getInUse(), Math::max);
+						maxBatch.accumulateAndGet(bulkhead.getInUse("batch"), Math::max);
+						bulkhead.release(priority);
+					}
+				}
+				return null;
+			}));
+		}
+		start.countDown();
+		for (Future<?> future : futures) {
+			future.get(10, TimeUnit.SECONDS);
+		}
+		executor.shutdown();
+		assertThat(maxInUse.get()).isLessThanOrEqualTo(8);
+		assertThat(maxBatch.get()).isLessThanOrEqualTo(6);
+		assertThat(bulkhead.getInUse()).isEqualTo(0);
+	}
+
+	private static Map<String, Double> shares(Object... classesAndShares) {
+		Map<String, Double> shares = new LinkedHashMap<>();
+		for (int i = 0; i < classesAndShares.length; i += 2) {
+			shares.put((String) classesAndShares[i], (Double) classesAndShares[i + 1]);
+		}
+		return shares;
+	}
+
+}
@@ -16,15 +16,42 @@
 
 package org.springframework.cloud.circuitbreaker.resilience4j;
 
+import java.time.Duration;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.retry.RetryConfig;
+import io.github.resilience4j.timelimiter.TimeLimiterConfig;
 import org.junit.Test;
+import reactor.core.Disposable;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.util.context.Context;
 
+import org.springframework.cloud.circuitbreaker.commons.BreakerEvent;
+import org.springframework.cloud.circuitbreaker.commons.BreakerEventBuffer;
+import org.springframework.cloud.circuitbreaker.commons.DeadlineContextHolder;
+import org.springframework.cloud.client.circuitbreaker.Customizer;
 import org.springframework.cloud.client.circuitbreaker.ReactiveCircuitBreaker;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 /**
  * @author Ryan Baxter
@@ -58,4 +85,402 @@ public class ReactiveResilience4JCircuitBreakerTest {
 				.collectList().block()).isEqualTo(Arrays.asList("fallback"));
 	}
 
+	@Test
+	public void runMonoWithFallbackCache() {
+		ReactiveResilience4JCircuitBreakerFactory factory = new ReactiveResilience4JCircuitBreakerFactory();
+		factory.configure(builder -> builder.fallbackCache(10, Duration.ofMinutes(1)), "foo");
+		ReactiveCircuitBreaker cb = factory.create("foo");
+		assertThat(Mono.just("foobar").transform(it -> cb.run(it)).block()).isEqualTo("foobar");
+		factory.getCircuitBreakerRegistry().circuitBreaker("foo").transitionToOpenState();
+		assertThat(Mono.just("unreachable").transform(it -> cb.run(it, t -> Mono.just("fallback"))).block())
+				.isEqualTo("foobar");
+	}
+
+	@Test
+	public void runMonoWithHedging() {
+		ReactiveResilience4JCircuitBreakerFactory factory = new ReactiveResilience4JCircuitBreakerFactory();
+		factory.configure(builder -> builder.hedgingDelay(Duration.ofMillis(50)), "foo");
+		ReactiveCircuitBreaker cb = factory.create("foo");
+		AtomicInteger attempts = new AtomicInteger();
+		Mono<String> call = Mono.defer(() -> attempts.incrementAndGet() == 1
+				? Mono.delay(Duration.ofMillis(500)).thenReturn("slow") : Mono.just("fast"));
+		assertThat(call.transform(it -> cb.run(it)).block()).isEqualTo("fast");
+		assertThat(attempts.get()).isEqualTo(2);
+	}
+
+	@Test
+	public void runMonoWithHedgingWhenFirstAttemptFailsBeforeDelay() {
+		ReactiveResilience4JCircuitBreakerFactory factory = new ReactiveResilience4JCircuitBreakerFactory();
+		factory.configure(builder -> builder.hedgingDelay(Duration.ofMillis(500)), "foo");
+		ReactiveCircuitBreaker cb = factory.create("foo");
+		AtomicInteger attempts = new AtomicInteger();
+		Mono<String> call = Mono.defer(() -> attempts.incrementAndGet() == 1
+				? Mono.<String>error(new RuntimeException("boom")) : Mono.just("foobar"));
+		long start = System.nanoTime();
+		assertThat(call.transform(it -> cb.run(it)).block()).isEqualTo("foobar");
+		// The hedge does not wait for the delay once the first attempt has failed
+		assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofMillis(500));
+		assertThat(attempts.get()).isEqualTo(2);
+	}
+
+	@Test
+	public void runMonoWithRetry() {
+		ReactiveResilience4JCircuitBreakerFactory factory = new ReactiveResilience4JCircuitBreakerFactory();
+		factory.configure(builder -> builder.retryConfig(
+				RetryConfig.custom().maxAttempts(3).waitDuration(Duration.ofMillis(10)).build()), "foo");
+		ReactiveCircuitBreaker cb = factory.create("foo");
+		AtomicInteger attempts = new AtomicInteger();
+		Mono<String> call = Mono.defer(() -> attempts.incrementAndGet() < 3
+				? Mono.<String>error(new RuntimeException("boom")) : Mono.just("foobar"));
+		assertThat(call.transform(it -> cb.run(it, t -> Mono.just("fallback"))).block()).isEqualTo("foobar");
+		assertThat(attempts.get()).isEqualTo(3);
+	}
+
+	@Test
+	public void runMonoWithExhaustedRetry() {
+		ReactiveResilience4JCircuitBreakerFactory factory = new ReactiveResilience4JCircuitBreakerFactory();
+		factory.configure(builder -> builder.retryConfig(
+				RetryConfig.custom().maxAttempts(2).waitDuration(Duration.ofMillis(10)).build()), "foo");
+		ReactiveCircuitBreaker cb = factory.create("foo");
+		AtomicInteger attempts = new AtomicInteger();
+		Mono<String> call = Mono.defer(() -> {
+			attempts.incrementAndGet();
+			return Mono.<String>error(new RuntimeException("boom"));
+		});
+		assertThat(call.transform(it -> cb.run(it, t -> Mono.just("fallback"))).block()).isEqualTo("fallback");
+		assertThat(attempts.get()).isEqualTo(2);
+		assertThat(factory.getCircuitBreakerRegistry().circuitBreaker("foo").getMetrics().getNumberOfFailedCalls())
+				.isEqualTo(2);
+	}
+
+	@Test
+	public void runMonoWithExhaustedRetryBudget() {
+		ReactiveResilience4JCircuitBreakerFactory factory = new ReactiveResilience4JCircuitBreakerFactory();
+		factory.configure(builder -> builder
+				.retryConfig(RetryConfig.custom().maxAttempts(3).waitDuration(Duration.ofMillis(10)).build())
+				.retryBudget(0, Duration.ofSeconds(10), 0), "foo");
+		ReactiveCircuitBreaker cb = factory.create("foo");
+		AtomicInteger attempts = new AtomicInteger();
+		Mono<String> call = Mono.defer(() -> {
+			attempts.incrementAndGet();
+			return Mono.<String>error(new RuntimeException("boom"));
+		});
+		List<Throwable> errors = new CopyOnWriteArrayList<>();
+		assertThat(call.transform(it -> cb.run(it, t -> {
+			errors.add(t);
+			return Mono.just("fallback");
+		})).block()).isEqualTo("fallback");
+		assertThat(attempts.get()).isEqualTo(1);
+		assertThat(errors).hasSize(1);
+		assertThat(errors.get(0)).isInstanceOf(RetryBudgetExhaustedException.class).hasRootCauseMessage("boom");
+		assertThat(factory.getRetryBudgets().get("foo").getRejectedRetries()).isEqualTo(1);
+		assertThat(factory.getCircuitBreakerRegistry().circuitBreaker("foo").getMetrics().getNumberOfFailedCalls())
+				.isEqualTo(1);
+	}
+
+	@Test
+	public void runAllMonos() {
+		ReactiveResilience4JCircuitBreakerFactory factory = new ReactiveResilience4JCircuitBreakerFactory();
+		ReactiveResilience4JCircuitBreaker cb = (ReactiveResilience4JCircuitBreaker) factory.create("foo");
+		Flux<String> results = cb.runAll(Arrays.asList(Mono.delay(Duration.ofMillis(50)).thenReturn("foo"),
+				Mono.<String>error(new RuntimeException("boom")), Mono.just("bar")), 2, t -> Mono.just("fallback"));
+		assertThat(results.collectList().block()).containsExactly("foo", "fallback", "bar");
+		assertThat(factory.getCircuitBreakerRegistry().circuitBreaker("foo").getMetrics()
+				.getNumberOfSuccessfulCalls()).isEqualTo(2);
+	}
+
+	@Test
+	public void runAllMonosWithHalfOpenCircuit() {
+		ReactiveResilience4JCircuitBreakerFactory factory = new ReactiveResilience4JCircuitBreakerFactory();
+		factory.configure(builder -> builder
+				.circuitBreakerConfig(CircuitBreakerConfig.custom().permittedNumberOfCallsInHalfOpenState(2).build()),
+				"foo");
+		ReactiveResilience4JCircuitBreaker cb = (ReactiveResilience4JCircuitBreaker) factory.create("foo");
+		cb.run(Mono.just("foo")).block();
+		factory.getCircuitBreakerRegistry().circuitBreaker("foo").transitionToOpenState();
+		factory.getCircuitBreakerRegistry().circuitBreaker("foo").transitionToHalfOpenState();
+		AtomicInteger calls = new AtomicInteger();
+		Mono<String> failing = Mono.fromCallable(() -> {
+			calls.incrementAndGet();
+			throw new RuntimeException("boom");
+		});
+		Flux<String> results = cb.runAll(Arrays.asList(failing, failing, failing, failing), 4,
+				t -> Mono.just("fallback"));
+		assertThat(results.collectList().block()).containsExactly("fallback", "fallback", "fallback", "fallback");
+		assertThat(calls.get()).isEqualTo(2);
+	}
+
+	@Test
+	public void runAllMonosReleasesPermissionWhenCancelled() {
+		ReactiveResilience4JCircuitBreakerFactory factory = new ReactiveResilience4JCircuitBreakerFactory();
+		factory.configure(builder -> builder
+				.circuitBreakerConfig(CircuitBreakerConfig.custom().permittedNumberOfCallsInHalfOpenState(1).build()),
+				"foo");
+		ReactiveResilience4JCircuitBreaker cb = (ReactiveResilience4JCircuitBreaker) factory.create("foo");
+		cb.run(Mono.just("foo")).block();
+		factory.getCircuitBreakerRegistry().circuitBreaker("foo").transitionToOpenState();
+		factory.getCircuitBreakerRegistry().circuitBreaker("foo").transitionToHalfOpenState();
+		Disposable cancelled = cb.runAll(Collections.singletonList(Mono.<String>never()), 1, null).subscribe();
+		cancelled.dispose();
+		assertThat(cb.runAll(Collections.singletonList(Mono.just("foo")), 1, t -> Mono.just("fallback"))
+				.collectList().block()).containsExactly("foo");
+	}
+
+	@Test
+	public void runWithBatchCollector() {
+		ReactiveResilience4JCircuitBreakerFactory factory = new ReactiveResilience4JCircuitBreakerFactory();
+		ReactiveCircuitBreaker cb = factory.create("foo");
+		AtomicInteger batches = new AtomicInteger();
+		ReactiveResilience4JBatchCollector<String, String> collector = new ReactiveResilience4JBatchCollector<>(cb,
+				(Collection<String> keys) -> {
+					batches.incrementAndGet();
+					return Mono.just(keys.stream().filter(key -> !key.equals("missing"))
+							.collect(Collectors.toMap(Function.identity(), String::toUpperCase)));
+				}, 3, Duration.ofSeconds(1));
+		Mono<List<String>> results = Mono
+				.zip(collector.run("foo"), collector.run("bar"), collector.run("missing").defaultIfEmpty("none"))
+				.map(tuple -> Arrays.asList(tuple.getT1(), tuple.getT2(), tuple.getT3()));
+		assertThat(results.block()).containsExactly("FOO", "BAR", "none");
+		assertThat(batches.get()).isEqualTo(1);
+		assertThat(factory.getCircuitBreakerRegistry().circuitBreaker("foo").getMetrics()
+				.getNumberOfSuccessfulCalls()).isEqualTo(1);
+	}
+
+	@Test
+	public void runWithBatchCollectorFallback() {
+		ReactiveCircuitBreaker cb = new ReactiveResilience4JCircuitBreakerFactory().create("foo");
+		ReactiveResilience4JBatchCollector<String, String> collector = new ReactiveResilience4JBatchCollector<>(cb,
+				keys -> Mono.error(new RuntimeException("boom")), 10, Duration.ofMillis(10));
+		assertThat(collector.run("foo", t -> Mono.just("fallback")).block()).isEqualTo("fallback");
+	}
+
+	@Test
+	public void runFluxWithStreamingTimeouts() {
+		ReactiveResilience4JCircuitBreakerFactory factory = new ReactiveResilience4JCircuitBreakerFactory();
+		factory.configure(builder -> builder
+				.timeLimiterConfig(TimeLimiterConfig.custom().timeoutDuration(Duration.ofMillis(100)).build())
+				.firstElementTimeout(Duration.ofSeconds(1)).idleTimeout(Duration.ofMillis(200)), "foo");
+		ReactiveCircuitBreaker cb = factory.create("foo");
+		// Takes longer than the time limiter timeout in total but never idles long enough
+		Flux<String> stream = Flux.just("a", "b", "c", "d").delayElements(Duration.ofMillis(50));
+		assertThat(stream.transform(it -> cb.run(it, t -> Flux.just("fallback"))).collectList().block())
+				.containsExactly("a", "b", "c", "d");
+		Flux<String> stalled = Flux.concat(Flux.just("a"), Mono.delay(Duration.ofMillis(500)).thenReturn("b"));
+		assertThat(stalled.transform(it -> cb.run(it, t -> Flux.just("fallback"))).collectList().block())
+				.containsExactly("a", "fallback");
+	}
+
+	@Test
+	public void runFluxWithPerElementAccounting() {
+		ReactiveResilience4JCircuitBreakerFactory factory = new ReactiveResilience4JCircuitBreakerFactory();
+		factory.configure(builder -> builder.perElementAccounting(true).totalTimeout(Duration.ofSeconds(1)), "foo");
+		ReactiveCircuitBreaker cb = factory.create("foo");
+		assertThat(Flux.just("a", "b", "c").transform(it -> cb.run(it)).collectList().block())
+				.containsExactly("a", "b", "c");
+		assertThat(factory.getCircuitBreakerRegistry().circuitBreaker("foo").getMetrics()
+				.getNumberOfSuccessfulCalls()).isEqualTo(3);
+	}
+
+	@Test
+	public void runFluxWithPerElementAccountingStopsWhenNotPermitted() {
+		ReactiveResilience4JCircuitBreakerFactory factory = new ReactiveResilience4JCircuitBreakerFactory();
+		factory.configure(builder -> builder.perElementAccounting(true).totalTimeout(Duration.ofSeconds(1)), "foo");
+		ReactiveCircuitBreaker cb = factory.create("foo");
+		Flux<String> stream = Flux.just("a", "b", "c").doOnNext(element -> {
+			if (element.equals("b")) {
+				factory.getCircuitBreakerRegistry().circuitBreaker("foo").transitionToOpenState();
+			}
+		});
+		assertThat(stream.transform(it -> cb.run(it, t -> Flux.just(t.getClass().getSimpleName()))).collectList()
+				.block()).containsExactly("a", "CallNotPermittedException");
+	}
+
+	@Test
+	public void runWithIdleEviction() throws Exception {
+		ReactiveResilience4JCircuitBreakerFactory factory = new ReactiveResilience4JCircuitBreakerFactory();
+		factory.configureEviction(10, Duration.ofMillis(100));
+		List<String> evicted = new CopyOnWriteArrayList<>();
+		factory.addEvictionListener(evicted::add);
+		assertThat(Mono.just("foobar").transform(it -> factory.create("tenant").run(it)).block()).isEqualTo("foobar");
+		// Evicted in the background without creating another circuit breaker
+		for (int i = 0; i < 100 && evicted.isEmpty(); i++) {
+			Thread.sleep(20);
+		}
+		assertThat(evicted).containsExactly("tenant");
+		assertThat(factory.getCircuitBreakerRegistry().find("tenant")).isEmpty();
+	}
+
+	@Test
+	public void runMonoWithLoadShedding() {
+		ReactiveResilience4JCircuitBreakerFactory factory = new ReactiveResilience4JCircuitBreakerFactory();
+		factory.configure(builder -> builder.loadShedding(1, null), "foo");
+		ReactiveCircuitBreaker cb = factory.create("foo");
+		Disposable inFlight = cb.run(Mono.never()).subscribe();
+		assertThat(Mono.just("foobar").transform(it -> cb.run(it, t -> Mono.just(t.getClass().getSimpleName())))
+				.block()).isEqualTo("LoadSheddingException");
+		inFlight.dispose();
+		assertThat(Mono.just("foobar").transform(it -> cb.run(it)).block()).isEqualTo("foobar");
+		assertThat(factory.getLoadShedders().get("foo").getShedCount()).isEqualTo(1);
+	}
+
+	@Test
+	public void refreshWithLoadShedding() {
+		ReactiveResilience4JCircuitBreakerFactory factory = new ReactiveResilience4JCircuitBreakerFactory();
+		AtomicInteger maxInFlight = new AtomicInteger(1);
+		Customizer<ReactiveResilience4JCircuitBreakerFactory> customizer = it -> it
+				.configure(builder -> builder.loadShedding(maxInFlight.get(), null), "foo");
+		customizer.customize(factory);
+		List<LoadShedder> registered = new CopyOnWriteArrayList<>();
+		factory.addLoadShedderListener((id, loadShedder) -> registered.add(loadShedder));
+		ReactiveCircuitBreaker cb = factory.create("foo");
+		assertThat(Mono.just("foobar").transform(it -> cb.run(it)).block()).isEqualTo("foobar");
+		LoadShedder loadShedder = factory.getLoadShedders().get("foo");
+		io.github.resilience4j.circuitbreaker.CircuitBreaker circuitBreaker = factory.getCircuitBreakerRegistry()
+				.circuitBreaker("foo");
+		factory.refresh(Collections.singletonList(customizer));
+		factory.create("foo");
+		assertThat(factory.getLoadShedders().get("foo")).isSameAs(loadShedder);
+		assertThat(factory.getCircuitBreakerRegistry().circuitBreaker("foo")).isSameAs(circuitBreaker);
+		maxInFlight.set(2);
+		factory.refresh(Collections.singletonList(customizer));
+		factory.create("foo");
+		assertThat(factory.getLoadShedders().get("foo").getMaxInFlight()).isEqualTo(2);
+		assertThat(registered).containsExactly(loadShedder, factory.getLoadShedders().get("foo"));
+		// The load shedder of the configuration is used by the circuit breakers created before
+		Disposable inFlight = cb.run(Mono.never()).subscribe();
+		assertThat(Mono.just("foobar").transform(it -> cb.run(it)).block()).isEqualTo("foobar");
+		inFlight.dispose();
+	}
+
+	@Test
+	public void runMonoWithDeadline() {
+		ReactiveCircuitBreaker cb = new ReactiveResilience4JCircuitBreakerFactory().create("foo");
+		long start = System.nanoTime();
+		assertThat(Mono.delay(Duration.ofMillis(500)).thenReturn("slow")
+				.transform(it -> cb.run(it, t -> Mono.just("fallback")))
+				.contextWrite(Context.of(DeadlineContextHolder.CONTEXT_KEY,
+						DeadlineContextHolder.deadlineIn(Duration.ofMillis(100))))
+				.block()).isEqualTo("fallback");
+		// Times out at the deadline instead of after the 1s time limiter timeout
+		assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofMillis(500));
+	}
+
+	@Test
+	public void runFluxWithDeadline() {
+		ReactiveResilience4JCircuitBreakerFactory factory = new ReactiveResilience4JCircuitBreakerFactory();
+		ReactiveCircuitBreaker cb = factory.create("foo");
+		long start = System.nanoTime();
+		// Every element arrives well within the 1s time limiter timeout, the stream does not
+		List<String> results = Flux.interval(Duration.ofMillis(50)).take(20).map(String::valueOf)
+				.transform(it -> cb.run(it, t -> Flux.just("fallback")))
+				.contextWrite(Context.of(DeadlineContextHolder.CONTEXT_KEY,
+						DeadlineContextHolder.deadlineIn(Duration.ofMillis(200))))
+				.collectList().block();
+		assertThat(results).endsWith("fallback").hasSizeLessThan(20);
+		assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofMillis(800));
+		assertThat(factory.getCircuitBreakerRegistry().circuitBreaker("foo").getMetrics().getNumberOfFailedCalls())
+				.isEqualTo(1);
+	}
+
+	@Test
+	public void runAllMonosWithDeadline() {
+		ReactiveResilience4JCircuitBreakerFactory factory = new ReactiveResilience4JCircuitBreakerFactory();
+		ReactiveResilience4JCircuitBreaker cb = (ReactiveResilience4JCircuitBreaker) factory.create("foo");
+		Mono<String> slow = Mono.delay(Duration.ofMillis(200)).thenReturn("slow");
+		// The second Mono is subscribed to when only 100ms are left until the deadline
+		Flux<String> results = cb.runAll(Arrays.asList(slow, slow, slow), 1, t -> Mono.just("fallback"))
+				.contextWrite(Context.of(DeadlineContextHolder.CONTEXT_KEY,
+						DeadlineContextHolder.deadlineIn(Duration.ofMillis(300))));
+		assertThat(results.collectList().block()).containsExactly("slow", "fallback", "fallback");
+	}
+
+	@Test
+	public void runWithEvents() throws Exception {
+		ReactiveResilience4JCircuitBreakerFactory factory = new ReactiveResilience4JCircuitBreakerFactory();
+		factory.configureEvents(new BreakerEventBuffer(16));
+		ReactiveCircuitBreaker cb = factory.create("foo");
+		CompletableFuture<List<BreakerEvent>> events = factory.events().take(2).collectList().toFuture();
+		assertThat(Mono.just("foobar").transform(it -> cb.run(it)).block()).isEqualTo("foobar");
+		factory.getCircuitBreakerRegistry().circuitBreaker("foo").transitionToOpenState();
+		assertThat(Mono.just("foobar").transform(it -> cb.run(it, t -> Mono.just("fallback"))).block())
+				.isEqualTo("fallback");
+		assertThat(events.get(1, TimeUnit.SECONDS)).extracting(BreakerEvent::getType).containsExactly(
+				BreakerEvent.Type.STATE_TRANSITION, BreakerEvent.Type.CALL_NOT_PERMITTED);
+	}
+
+	@Test
+	public void exchangeFilterFunctionHoldsCircuitOpenForRetryAfter() {
+		AtomicInteger exchanges = new AtomicInteger();
+		WebClient webClient = WebClient.builder().exchangeFunction(request -> {
+			exchanges.incrementAndGet();
+			return Mono.just(ClientResponse.create(HttpStatus.TOO_MANY_REQUESTS).header("Retry-After", "60").build());
+		}).filter(new ReactiveResilience4JExchangeFilterFunction(new ReactiveResilience4JCircuitBreakerFactory()))
+				.build();
+		assertThat(webClient.get().uri("http://example.com/foo")
+				.exchangeToMono(response -> Mono.just(response.rawStatusCode())).block()).isEqualTo(429);
+		assertThatThrownBy(() -> webClient.get().uri("http://example.com/bar")
+				.exchangeToMono(response -> Mono.just(response.rawStatusCode())).block())
+						.isInstanceOf(CallNotPermittedException.class);
+		assertThat(exchanges.get()).isEqualTo(1);
+	}
+
+	@Test
+	public void exchangeFilterFunctionReleasesFailedResponseWhenRetrySucceeds() {
+		ReactiveResilience4JCircuitBreakerFactory factory = new ReactiveResilience4JCircuitBreakerFactory();
+		factory.configure(builder -> builder.retryConfig(RetryConfig.custom().maxAttempts(2)
+				.waitDuration(Duration.ofMillis(10)).build()), "example.com");
+		AtomicInteger exchanges = new AtomicInteger();
+		AtomicBoolean released = new AtomicBoolean();
+		WebClient webClient = WebClient.builder().exchangeFunction(request -> {
+			if (exchanges.incrementAndGet() == 1) {
+				return Mono.just(ClientResponse.create(HttpStatus.SERVICE_UNAVAILABLE)
+						.body(Flux.<DataBuffer>empty().doOnSubscribe(subscription -> released.set(true))).build());
+			}
+			return Mono.just(ClientResponse.create(HttpStatus.OK).body("foobar").build());
+		}).filter(new ReactiveResilience4JExchangeFilterFunction(factory)).build();
+		assertThat(webClient.get().uri("http://example.com/foo").retrieve().bodyToMono(String.class).block())
+				.isEqualTo("foobar");
+		assertThat(exchanges.get()).isEqualTo(2);
+		assertThat(released.get()).isTrue();
+	}
+
+	@Test
+	public void exchangeFilterFunctionReleasesFailedResponseWhenRetryTimesOut() {
+		ReactiveResilience4JCircuitBreakerFactory factory = new ReactiveResilience4JCircuitBreakerFactory();
+		factory.configure(builder -> builder
+				.timeLimiterConfig(TimeLimiterConfig.custom().timeoutDuration(Duration.ofMillis(50)).build())
+				.retryConfig(RetryConfig.custom().maxAttempts(2).waitDuration(Duration.ofMillis(10)).build()),
+				"example.com");
+		AtomicInteger exchanges = new AtomicInteger();
+		AtomicBoolean released = new AtomicBoolean();
+		WebClient webClient = WebClient.builder().exchangeFunction(request -> {
+			if (exchanges.incrementAndGet() == 1) {
+				return Mono.just(ClientResponse.create(HttpStatus.SERVICE_UNAVAILABLE)
+						.body(Flux.<DataBuffer>empty().doOnSubscribe(subscription -> released.set(true))).build());
+			}
+			return Mono.never();
+		}).filter(new ReactiveResilience4JExchangeFilterFunction(factory)).build();
+		assertThatThrownBy(() -> webClient.get().uri("http://example.com/foo").retrieve().bodyToMono(String.class)
+				.block()).hasCauseInstanceOf(TimeoutException.class);
+		assertThat(exchanges.get()).isEqualTo(2);
+		assertThat(released.get()).isTrue();
+	}
+
+	@Test
+	public void exchangeFilterFunctionForgetsEvictedCircuitBreakers() {
+		ReactiveResilience4JCircuitBreakerFactory factory = new ReactiveResilience4JCircuitBreakerFactory();
+		factory.configureEviction(1, null);
+		ReactiveResilience4JExchangeFilterFunction filter = new ReactiveResilience4JExchangeFilterFunction(factory);
+		WebClient webClient = WebClient.builder()
+				.exchangeFunction(request -> Mono.just(ClientResponse.create(HttpStatus.OK).body("foobar").build()))
+				.filter(filter).build();
+		for (int i = 0; i < 20; i++) {
+			assertThat(webClient.get().uri("http://host" + i + "/foo").retrieve().bodyToMono(String.class).block())
+					.isEqualTo("foobar");
+		}
+		factory.evictIdle();
+		assertThat(filter.getIds()).hasSizeLessThan(20);
+		assertThat(filter.getIds()).allMatch(id -> factory.getCircuitBreakerRegistry().find(id).isPresent());
+	}
+
 }
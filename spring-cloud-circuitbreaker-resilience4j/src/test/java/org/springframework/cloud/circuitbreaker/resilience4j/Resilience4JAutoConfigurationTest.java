@@ -0,0 +1,138 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.resilience4j;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.timelimiter.TimeLimiterRegistry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.cloud.context.scope.refresh.RefreshScopeRefreshedEvent;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Ryan Baxter
+ */
+public class Resilience4JAutoConfigurationTest {
+
+	private static final String FAILURE_RATE = "resilience4j.circuitbreaker.failure.rate";
+
+	private final ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+			.withConfiguration(AutoConfigurations.of(Resilience4JAutoConfiguration.class))
+			.withUserConfiguration(RegistryConfiguration.class)
+			.withPropertyValues("spring.cloud.circuitbreaker.bulkhead.resilience4j.enabled=false");
+
+	@Test
+	public void bindsMetersOnce() {
+		contextRunner.withUserConfiguration(MeterRegistryConfiguration.class).run(context -> {
+			MeterRegistry meterRegistry = context.getBean(MeterRegistry.class);
+			Resilience4JCircuitBreakerFactory factory = context.getBean(Resilience4JCircuitBreakerFactory.class);
+			assertThat(factory.create("foo").run(() -> "foobar")).isEqualTo("foobar");
+			assertThat(meterRegistry.find(FAILURE_RATE).tag("name", "foo").meters()).hasSize(1);
+			int meters = meterRegistry.getMeters().size();
+			assertThat(factory.create("foo").run(() -> "foobar")).isEqualTo("foobar");
+			assertThat(meterRegistry.getMeters()).hasSize(meters);
+		});
+	}
+
+	@Test
+	public void startsWithoutMeterRegistry() {
+		contextRunner.run(context -> {
+			assertThat(context).hasNotFailed().doesNotHaveBean(MeterRegistry.class);
+			Resilience4JCircuitBreakerFactory factory = context.getBean(Resilience4JCircuitBreakerFactory.class);
+			assertThat(factory.create("foo").run(() -> "foobar")).isEqualTo("foobar");
+		});
+	}
+
+	@Test
+	public void appliesConfigPatterns() {
+		contextRunner.withPropertyValues("spring.cloud.circuitbreaker.resilience4j.config-patterns.[payments/*]=slow")
+				.run(context -> {
+					Resilience4JCircuitBreakerFactory factory = context
+							.getBean(Resilience4JCircuitBreakerFactory.class);
+					assertThat(factory.create("payments/charge").run(() -> "foobar")).isEqualTo("foobar");
+					assertThat(factory.create("inventory").run(() -> "foobar")).isEqualTo("foobar");
+					CircuitBreakerRegistry registry = factory.getCircuitBreakerRegistry();
+					assertThat(registry.circuitBreaker("payments/charge").getCircuitBreakerConfig()
+							.getFailureRateThreshold()).isEqualTo(10);
+					assertThat(registry.circuitBreaker("inventory").getCircuitBreakerConfig()
+							.getFailureRateThreshold()).isEqualTo(50);
+				});
+	}
+
+	@Test
+	public void refreshAppliesConfigPatternsWithoutDuplicatingMeters() {
+		contextRunner.withUserConfiguration(MeterRegistryConfiguration.class)
+				.withPropertyValues("spring.cloud.circuitbreaker.resilience4j.config-patterns.[payments/*]=slow")
+				.run(context -> {
+					MeterRegistry meterRegistry = context.getBean(MeterRegistry.class);
+					Resilience4JCircuitBreakerFactory factory = context
+							.getBean(Resilience4JCircuitBreakerFactory.class);
+					assertThat(factory.create("payments/charge").run(() -> "foobar")).isEqualTo("foobar");
+					int meters = meterRegistry.getMeters().size();
+
+					// What rebinding the properties after a change of the environment does
+					context.getBean(Resilience4JConfigurationProperties.class).getConfigPatterns().put("payments/*",
+							"fast");
+					context.publishEvent(new RefreshScopeRefreshedEvent());
+
+					assertThat(factory.getCircuitBreakerRegistry().circuitBreaker("payments/charge")
+							.getCircuitBreakerConfig().getFailureRateThreshold()).isEqualTo(90);
+					assertThat(meterRegistry.find(FAILURE_RATE).tag("name", "payments/charge").meters()).hasSize(1);
+					assertThat(meterRegistry.getMeters()).hasSize(meters);
+				});
+	}
+
+	@Configuration(proxyBeanMethods = false)
+	protected static class RegistryConfiguration {
+
+		@Bean
+		CircuitBreakerRegistry circuitBreakerRegistry() {
+			Map<String, CircuitBreakerConfig> configs = new HashMap<>();
+			configs.put("slow", CircuitBreakerConfig.custom().failureRateThreshold(10).build());
+			configs.put("fast", CircuitBreakerConfig.custom().failureRateThreshold(90).build());
+			return CircuitBreakerRegistry.of(configs);
+		}
+
+		@Bean
+		TimeLimiterRegistry timeLimiterRegistry() {
+			return TimeLimiterRegistry.ofDefaults();
+		}
+
+	}
+
+	@Configuration(proxyBeanMethods = false)
+	protected static class MeterRegistryConfiguration {
+
+		@Bean
+		MeterRegistry meterRegistry() {
+			return new SimpleMeterRegistry();
+		}
+
+	}
+
+}
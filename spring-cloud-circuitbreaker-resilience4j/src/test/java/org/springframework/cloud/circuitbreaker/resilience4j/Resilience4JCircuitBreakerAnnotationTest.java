@@ -0,0 +1,103 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.resilience4j;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.timelimiter.TimeLimiterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import reactor.core.publisher.Mono;
+
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.cloud.circuitbreaker.commons.annotation.CircuitBreakerAnnotationBeanPostProcessor;
+import org.springframework.cloud.circuitbreaker.commons.annotation.CloudCircuitBreaker;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * @author Ryan Baxter
+ */
+public class Resilience4JCircuitBreakerAnnotationTest {
+
+	private Resilience4JCircuitBreakerFactory factory;
+
+	private CircuitBreakerAnnotationBeanPostProcessor postProcessor;
+
+	@Before
+	public void setup() {
+		factory = new Resilience4JCircuitBreakerFactory(CircuitBreakerRegistry.ofDefaults(),
+				TimeLimiterRegistry.ofDefaults(), null);
+		DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+		beanFactory.registerSingleton("circuitBreakerFactory", factory);
+		beanFactory.registerSingleton("reactiveCircuitBreakerFactory", new ReactiveResilience4JCircuitBreakerFactory());
+		postProcessor = new CircuitBreakerAnnotationBeanPostProcessor();
+		postProcessor.setBeanFactory(beanFactory);
+	}
+
+	@Test
+	public void runsAnnotatedMethods() {
+		Service service = (Service) postProcessor.postProcessAfterInitialization(new Service(), "service");
+		assertThat(service.call(false)).isEqualTo("foobar");
+		assertThat(service.call(true)).isEqualTo("fallback boom");
+		assertThat(factory.getCircuitBreakerRegistry().circuitBreaker("service").getMetrics().getNumberOfFailedCalls())
+				.isEqualTo(1);
+		assertThat(service.mono().onErrorResume(t -> Mono.just(t.getMessage())).block()).isEqualTo("boom");
+		assertThat(service.notAnnotated()).isEqualTo("foobar");
+	}
+
+	@Test
+	public void failsWithoutFallbackMethod() {
+		assertThatThrownBy(() -> postProcessor.postProcessAfterInitialization(new MissingFallback(), "missing"))
+				.isInstanceOf(IllegalStateException.class).hasMessageContaining("No fallback method");
+	}
+
+	static class Service {
+
+		@CloudCircuitBreaker(id = "service", fallbackMethod = "fallback")
+		public String call(boolean fail) {
+			if (fail) {
+				throw new IllegalStateException("boom");
+			}
+			return "foobar";
+		}
+
+		String fallback(boolean fail, Throwable throwable) {
+			return "fallback " + throwable.getMessage();
+		}
+
+		@CloudCircuitBreaker(id = "reactiveService")
+		public Mono<String> mono() {
+			return Mono.error(new IllegalStateException("boom"));
+		}
+
+		public String notAnnotated() {
+			return "foobar";
+		}
+
+	}
+
+	static class MissingFallback {
+
+		@CloudCircuitBreaker(id = "missing", fallbackMethod = "missing")
+		public String call() {
+			return "foobar";
+		}
+
+	}
+
+}
@@ -16,15 +16,64 @@
 
 package org.springframework.cloud.circuitbreaker.resilience4j;
 
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import io.github.resilience4j.bulkhead.BulkheadConfig;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
 import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.bulkhead.ThreadPoolBulkheadConfig;
 import io.github.resilience4j.bulkhead.ThreadPoolBulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
 import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.timelimiter.TimeLimiterConfig;
 import io.github.resilience4j.timelimiter.TimeLimiterRegistry;
 import org.junit.Test;
 
+import org.springframework.cloud.circuitbreaker.commons.BreakerEvent;
+import org.springframework.cloud.circuitbreaker.commons.BreakerEventBuffer;
+import org.springframework.cloud.circuitbreaker.commons.BreakerSnapshotStore;
+import org.springframework.cloud.circuitbreaker.commons.CircuitBreakersEndpoint;
+import org.springframework.cloud.circuitbreaker.commons.DeadlineContextHolder;
 import org.springframework.cloud.client.circuitbreaker.CircuitBreaker;
+import org.springframework.cloud.client.circuitbreaker.Customizer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+import org.springframework.mock.http.client.MockClientHttpResponse;
+import org.springframework.test.web.client.ExpectedCount;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestTemplate;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.hamcrest.Matchers.startsWith;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withStatus;
 
 /**
  * @author Ryan Baxter
@@ -66,4 +115,776 @@ public class Resilience4JCircuitBreakerTest {
 		}, t -> "fallback")).isEqualTo("fallback");
 	}
 
+	@Test
+	public void runWithFallbackCache() {
+		Resilience4JCircuitBreakerFactory factory = new Resilience4JCircuitBreakerFactory(
+				CircuitBreakerRegistry.ofDefaults(), TimeLimiterRegistry.ofDefaults(), null);
+		factory.configure(builder -> builder.fallbackCache(10, Duration.ofMinutes(1)), "foo");
+		CircuitBreaker cb = factory.create("foo");
+		assertThat(cb.run(() -> "foobar")).isEqualTo("foobar");
+		factory.getCircuitBreakerRegistry().circuitBreaker("foo").transitionToForcedOpenState();
+		assertThat((String) cb.run(() -> "unreachable", t -> "fallback")).isEqualTo("foobar");
+	}
+
+	@Test
+	public void runWithFallbackCacheOnlyServesOpenCircuit() {
+		Resilience4JCircuitBreakerFactory factory = new Resilience4JCircuitBreakerFactory(
+				CircuitBreakerRegistry.ofDefaults(), TimeLimiterRegistry.ofDefaults(), null);
+		factory.configure(builder -> builder.fallbackCache(10, Duration.ofMinutes(1)), "foo");
+		CircuitBreaker cb = factory.create("foo");
+		assertThat(cb.run(() -> "foobar")).isEqualTo("foobar");
+		assertThat((String) cb.run(() -> {
+			throw new RuntimeException("boom");
+		}, t -> "fallback")).isEqualTo("fallback");
+	}
+
+	@Test
+	public void runWithHedging() {
+		Resilience4JCircuitBreakerFactory factory = new Resilience4JCircuitBreakerFactory(
+				CircuitBreakerRegistry.ofDefaults(), TimeLimiterRegistry.ofDefaults(), null);
+		factory.configure(builder -> builder.hedgingDelay(Duration.ofMillis(50)), "foo");
+		CircuitBreaker cb = factory.create("foo");
+		AtomicInteger attempts = new AtomicInteger();
+		assertThat(cb.run(() -> {
+			if (attempts.incrementAndGet() == 1) {
+				try {
+					Thread.sleep(500);
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return "slow";
+			}
+			return "fast";
+		})).isEqualTo("fast");
+		assertThat(attempts.get()).isEqualTo(2);
+		assertThat(factory.getCircuitBreakerRegistry().circuitBreaker("foo").getMetrics()
+				.getNumberOfSuccessfulCalls()).isEqualTo(1);
+	}
+
+	@Test
+	public void runWithHedgingWhenFirstAttemptFailsBeforeDelay() {
+		Resilience4JCircuitBreakerFactory factory = new Resilience4JCircuitBreakerFactory(
+				CircuitBreakerRegistry.ofDefaults(), TimeLimiterRegistry.ofDefaults(), null);
+		factory.configure(builder -> builder.hedgingDelay(Duration.ofMillis(500)), "foo");
+		CircuitBreaker cb = factory.create("foo");
+		AtomicInteger attempts = new AtomicInteger();
+		long start = System.nanoTime();
+		assertThat(cb.run(() -> {
+			if (attempts.incrementAndGet() == 1) {
+				throw new RuntimeException("boom");
+			}
+			return "foobar";
+		})).isEqualTo("foobar");
+		// The hedge does not wait for the delay once the first attempt has failed
+		assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofMillis(500));
+		assertThat(attempts.get()).isEqualTo(2);
+	}
+
+	@Test
+	public void runAll() {
+		Resilience4JCircuitBreakerFactory factory = new Resilience4JCircuitBreakerFactory(
+				CircuitBreakerRegistry.ofDefaults(), TimeLimiterRegistry.ofDefaults(), null);
+		Resilience4JCircuitBreaker cb = (Resilience4JCircuitBreaker) factory.create("foo");
+		List<Supplier<String>> suppliers = Arrays.asList(() -> "foo", () -> {
+			throw new RuntimeException("boom");
+		}, () -> "bar");
+		assertThat(cb.runAll(suppliers, t -> "fallback")).containsExactly("foo", "fallback", "bar");
+		assertThat(factory.getCircuitBreakerRegistry().circuitBreaker("foo").getMetrics()
+				.getNumberOfSuccessfulCalls()).isEqualTo(2);
+		assertThat(factory.getCircuitBreakerRegistry().circuitBreaker("foo").getMetrics().getNumberOfFailedCalls())
+				.isEqualTo(1);
+	}
+
+	@Test
+	public void runAllWithOpenCircuit() {
+		Resilience4JCircuitBreakerFactory factory = new Resilience4JCircuitBreakerFactory(
+				CircuitBreakerRegistry.ofDefaults(), TimeLimiterRegistry.ofDefaults(), new Resilience4jBulkheadProvider(
+						ThreadPoolBulkheadRegistry.ofDefaults(), BulkheadRegistry.ofDefaults()));
+		Resilience4JCircuitBreaker cb = (Resilience4JCircuitBreaker) factory.create("foo");
+		factory.getCircuitBreakerRegistry().circuitBreaker("foo").transitionToForcedOpenState();
+		AtomicInteger calls = new AtomicInteger();
+		List<Supplier<String>> suppliers = Arrays.asList(() -> "foo" + calls.incrementAndGet(),
+				() -> "bar" + calls.incrementAndGet());
+		assertThat(cb.runAll(suppliers, t -> "fallback")).containsExactly("fallback", "fallback");
+		assertThat(calls.get()).isEqualTo(0);
+	}
+
+	@Test
+	public void runAllWithHalfOpenCircuit() {
+		CircuitBreakerRegistry registry = CircuitBreakerRegistry
+				.of(CircuitBreakerConfig.custom().permittedNumberOfCallsInHalfOpenState(2).build());
+		Resilience4JCircuitBreakerFactory factory = new Resilience4JCircuitBreakerFactory(registry,
+				TimeLimiterRegistry.ofDefaults(), null);
+		Resilience4JCircuitBreaker cb = (Resilience4JCircuitBreaker) factory.create("foo");
+		registry.circuitBreaker("foo").transitionToOpenState();
+		registry.circuitBreaker("foo").transitionToHalfOpenState();
+		AtomicInteger calls = new AtomicInteger();
+		Supplier<String> failing = () -> {
+			calls.incrementAndGet();
+			throw new RuntimeException("boom");
+		};
+		assertThat(cb.runAll(Arrays.asList(failing, failing, failing, failing), t -> "fallback"))
+				.containsExactly("fallback", "fallback", "fallback", "fallback");
+		assertThat(calls.get()).isEqualTo(2);
+	}
+
+	@Test
+	public void runWithPriorityBulkhead() throws Exception {
+		Resilience4jBulkheadProvider bulkheadProvider = new Resilience4jBulkheadProvider(
+				ThreadPoolBulkheadRegistry.ofDefaults(), BulkheadRegistry.ofDefaults());
+		bulkheadProvider.configure(builder -> builder
+				.bulkheadConfig(BulkheadConfig.custom().maxConcurrentCalls(2).build())
+				.priorityClass("critical", 0.5).priorityClass("batch", 0), "foo");
+		bulkheadProvider.addBulkheadCustomizer(bulkhead -> {
+		}, "foo");
+		CountDownLatch latch = new CountDownLatch(1);
+		CompletableFuture<String> inFlight = BulkheadPriority
+				.call("batch", () -> bulkheadProvider.decorateBulkhead("foo", () -> {
+					try {
+						latch.await();
+					}
+					catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					return "batch";
+				})).get().toCompletableFuture();
+		// The remaining permit is reserved for critical calls
+		CompletableFuture<String> rejected = BulkheadPriority
+				.call("batch", () -> bulkheadProvider.decorateBulkhead("foo", () -> "batch")).get()
+				.toCompletableFuture();
+		assertThatThrownBy(rejected::get).isInstanceOf(ExecutionException.class)
+				.hasCauseInstanceOf(BulkheadFullException.class);
+		assertThat(BulkheadPriority.call("critical", () -> bulkheadProvider.decorateBulkhead("foo", () -> "critical"))
+				.get().toCompletableFuture().get()).isEqualTo("critical");
+		latch.countDown();
+		assertThat(inFlight.get()).isEqualTo("batch");
+		assertThat(bulkheadProvider.getPriorityBulkheads().get("foo").getRejectedCount("batch")).isEqualTo(1);
+	}
+
+	@Test
+	public void bulkheadsAreCreatedOnFirstUse() throws Exception {
+		ThreadPoolBulkheadRegistry threadPoolBulkheadRegistry = ThreadPoolBulkheadRegistry.ofDefaults();
+		BulkheadRegistry bulkheadRegistry = BulkheadRegistry.ofDefaults();
+		Resilience4jBulkheadProvider bulkheadProvider = new Resilience4jBulkheadProvider(threadPoolBulkheadRegistry,
+				bulkheadRegistry);
+		AtomicInteger customized = new AtomicInteger();
+		for (int i = 0; i < 2000; i++) {
+			bulkheadProvider.configure(
+					builder -> builder.bulkheadConfig(BulkheadConfig.custom().maxConcurrentCalls(3).build()),
+					"id" + i);
+			bulkheadProvider.addBulkheadCustomizer(bulkhead -> customized.incrementAndGet(), "id" + i);
+		}
+		assertThat(bulkheadRegistry.getAllBulkheads()).isEmpty();
+		assertThat(threadPoolBulkheadRegistry.getAllBulkheads()).isEmpty();
+		assertThat(customized.get()).isEqualTo(0);
+
+		assertThat(bulkheadProvider.decorateBulkhead("id7", () -> "foobar").get().toCompletableFuture().get())
+				.isEqualTo("foobar");
+		bulkheadProvider.decorateBulkhead("id7", () -> "foobar").get().toCompletableFuture().get();
+		assertThat(bulkheadRegistry.getAllBulkheads()).hasSize(1);
+		assertThat(bulkheadRegistry.find("id7").get().getBulkheadConfig().getMaxConcurrentCalls()).isEqualTo(3);
+		assertThat(threadPoolBulkheadRegistry.getAllBulkheads()).isEmpty();
+		assertThat(customized.get()).isEqualTo(1);
+
+		// Customizers added once the bulkhead exists are applied right away
+		bulkheadProvider.addBulkheadCustomizer(bulkhead -> customized.incrementAndGet(), "id7");
+		assertThat(customized.get()).isEqualTo(2);
+	}
+
+	@Test
+	public void sharedThreadPoolEnforcesQuotasPerId() throws Exception {
+		ThreadPoolBulkheadRegistry threadPoolBulkheadRegistry = ThreadPoolBulkheadRegistry.ofDefaults();
+		Resilience4jBulkheadProvider bulkheadProvider = new Resilience4jBulkheadProvider(threadPoolBulkheadRegistry,
+				BulkheadRegistry.ofDefaults());
+		bulkheadProvider.configure(builder -> builder.threadPoolBulkheadConfig(ThreadPoolBulkheadConfig.custom()
+				.coreThreadPoolSize(1).maxThreadPoolSize(1).queueCapacity(1).build()), "slow", "fast");
+		try (SharedBulkheadPool sharedPool = new SharedBulkheadPool(4)) {
+			bulkheadProvider.configureSharedThreadPool(sharedPool);
+			CountDownLatch latch = new CountDownLatch(1);
+			Supplier<String> blocked = () -> {
+				try {
+					latch.await();
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return "slow";
+			};
+			CompletableFuture<String> running = bulkheadProvider.decorateBulkhead("slow", blocked).get()
+					.toCompletableFuture();
+			CompletableFuture<String> queued = bulkheadProvider.decorateBulkhead("slow", blocked).get()
+					.toCompletableFuture();
+			CompletableFuture<String> rejected = bulkheadProvider.decorateBulkhead("slow", blocked).get()
+					.toCompletableFuture();
+			assertThatThrownBy(rejected::get).isInstanceOf(ExecutionException.class)
+					.hasCauseInstanceOf(BulkheadFullException.class);
+			// A full bulkhead does not hold up the calls of other ids
+			assertThat(bulkheadProvider.decorateBulkhead("fast", () -> "fast").get().toCompletableFuture().get(1,
+					TimeUnit.SECONDS)).isEqualTo("fast");
+
+			SharedThreadPoolBulkhead slow = bulkheadProvider.getSharedThreadPoolBulkheads().get("slow");
+			assertThat(slow.getRunningCalls()).isEqualTo(1);
+			assertThat(slow.getQueueDepth()).isEqualTo(1);
+			assertThat(slow.getRejectedCount()).isEqualTo(1);
+			latch.countDown();
+			assertThat(running.get(1, TimeUnit.SECONDS)).isEqualTo("slow");
+			assertThat(queued.get(1, TimeUnit.SECONDS)).isEqualTo("slow");
+			assertThat(threadPoolBulkheadRegistry.getAllBulkheads()).isEmpty();
+		}
+	}
+
+	@Test
+	public void runWithDeadline() {
+		Resilience4JCircuitBreakerFactory factory = new Resilience4JCircuitBreakerFactory(
+				CircuitBreakerRegistry.ofDefaults(), TimeLimiterRegistry.ofDefaults(), null);
+		CircuitBreaker cb = factory.create("foo");
+		AtomicInteger timeouts = new AtomicInteger();
+		factory.getTimeLimiterRegistry().timeLimiter("foo").getEventPublisher()
+				.onTimeout(event -> timeouts.incrementAndGet());
+		long start = System.nanoTime();
+		assertThat(DeadlineContextHolder.call(Duration.ofMillis(100), () -> cb.run(() -> {
+			try {
+				Thread.sleep(500);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return "slow";
+		}, t -> "fallback"))).isEqualTo("fallback");
+		// Times out at the deadline instead of after the 1s time limiter timeout
+		assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofMillis(500));
+		assertThat(timeouts.get()).isEqualTo(1);
+	}
+
+	@Test
+	public void runWithExpiredDeadline() {
+		Resilience4JCircuitBreakerFactory factory = new Resilience4JCircuitBreakerFactory(
+				CircuitBreakerRegistry.ofDefaults(), TimeLimiterRegistry.ofDefaults(), null);
+		CircuitBreaker cb = factory.create("foo");
+		AtomicInteger calls = new AtomicInteger();
+		assertThat(DeadlineContextHolder.call(Duration.ZERO, () -> cb.run(() -> "foo" + calls.incrementAndGet(),
+				t -> t.getClass().getSimpleName()))).isEqualTo("TimeoutException");
+		assertThat(calls.get()).isEqualTo(0);
+		assertThat(factory.getCircuitBreakerRegistry().circuitBreaker("foo").getMetrics().getNumberOfBufferedCalls())
+				.isEqualTo(0);
+	}
+
+	@Test
+	public void reconfigure() {
+		Resilience4JCircuitBreakerFactory factory = new Resilience4JCircuitBreakerFactory(
+				CircuitBreakerRegistry.ofDefaults(), TimeLimiterRegistry.ofDefaults(), null);
+		CircuitBreaker cb = factory.create("foo");
+		assertThat(cb.run(() -> "foobar")).isEqualTo("foobar");
+		factory.getCircuitBreakerRegistry().circuitBreaker("foo").transitionToOpenState();
+		factory.reconfigure(builder -> builder
+				.circuitBreakerConfig(CircuitBreakerConfig.custom().failureRateThreshold(10).build())
+				.timeLimiterConfig(TimeLimiterConfig.custom().timeoutDuration(Duration.ofMillis(100)).build()), "foo");
+		io.github.resilience4j.circuitbreaker.CircuitBreaker circuitBreaker = factory.getCircuitBreakerRegistry()
+				.circuitBreaker("foo");
+		assertThat(circuitBreaker.getCircuitBreakerConfig().getFailureRateThreshold()).isEqualTo(10);
+		assertThat(circuitBreaker.getState())
+				.isEqualTo(io.github.resilience4j.circuitbreaker.CircuitBreaker.State.OPEN);
+		circuitBreaker.transitionToClosedState();
+		long start = System.nanoTime();
+		// The circuit breaker created before reconfiguring uses the new timeout
+		assertThat((String) cb.run(() -> {
+			try {
+				Thread.sleep(500);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return "slow";
+		}, t -> "fallback")).isEqualTo("fallback");
+		assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofMillis(500));
+	}
+
+	@Test
+	public void reconfigureCustomizesReplacement() {
+		Resilience4JCircuitBreakerFactory factory = new Resilience4JCircuitBreakerFactory(
+				CircuitBreakerRegistry.ofDefaults(), TimeLimiterRegistry.ofDefaults(), null);
+		AtomicInteger customized = new AtomicInteger();
+		List<String> transitions = new CopyOnWriteArrayList<>();
+		factory.addCircuitBreakerCustomizer(circuitBreaker -> {
+			customized.incrementAndGet();
+			circuitBreaker.getEventPublisher()
+					.onStateTransition(event -> transitions.add(event.getStateTransition().name()));
+		}, "foo");
+		assertThat(factory.create("foo").run(() -> "foobar")).isEqualTo("foobar");
+		assertThat(factory.create("foo").run(() -> "foobar")).isEqualTo("foobar");
+		assertThat(customized).hasValue(1);
+		factory.reconfigure(builder -> builder
+				.circuitBreakerConfig(CircuitBreakerConfig.custom().failureRateThreshold(10).build()), "foo");
+		assertThat(customized).hasValue(2);
+		factory.getCircuitBreakerRegistry().circuitBreaker("foo").transitionToOpenState();
+		assertThat(transitions).containsExactly("CLOSED_TO_OPEN");
+		assertThat(factory.create("foo").run(() -> "foobar", t -> "fallback")).isEqualTo("fallback");
+		assertThat(customized).hasValue(2);
+	}
+
+	@Test
+	public void refresh() {
+		Resilience4JCircuitBreakerFactory factory = new Resilience4JCircuitBreakerFactory(
+				CircuitBreakerRegistry.ofDefaults(), TimeLimiterRegistry.ofDefaults(), null);
+		AtomicInteger failureRateThreshold = new AtomicInteger(50);
+		Customizer<Resilience4JCircuitBreakerFactory> customizer = it -> {
+			it.configure(builder -> builder.circuitBreakerConfig(CircuitBreakerConfig.custom()
+					.failureRateThreshold(failureRateThreshold.get()).waitDurationInOpenState(Duration.ofSeconds(10))
+					.build()), "foo");
+			it.configureEviction(10, Duration.ofMinutes(1));
+		};
+		customizer.customize(factory);
+		CircuitBreaker cb = factory.create("foo");
+		assertThat((String) cb.run(() -> {
+			throw new RuntimeException("boom");
+		}, t -> "fallback")).isEqualTo("fallback");
+		assertThat(factory.create("bar").run(() -> "foobar")).isEqualTo("foobar");
+		io.github.resilience4j.circuitbreaker.CircuitBreaker foo = factory.getCircuitBreakerRegistry()
+				.circuitBreaker("foo");
+		io.github.resilience4j.circuitbreaker.CircuitBreaker bar = factory.getCircuitBreakerRegistry()
+				.circuitBreaker("bar");
+		// Nothing has changed, so the sliding windows are kept
+		factory.refresh(Collections.singletonList(customizer));
+		assertThat(factory.getCircuitBreakerRegistry().circuitBreaker("foo")).isSameAs(foo);
+		assertThat(factory.getCircuitBreakerRegistry().circuitBreaker("bar")).isSameAs(bar);
+		assertThat(foo.getMetrics().getNumberOfFailedCalls()).isEqualTo(1);
+		failureRateThreshold.set(10);
+		factory.refresh(Collections.singletonList(customizer));
+		assertThat(factory.getCircuitBreakerRegistry().circuitBreaker("foo")).isNotSameAs(foo);
+		assertThat(factory.getCircuitBreakerRegistry().circuitBreaker("foo").getCircuitBreakerConfig()
+				.getFailureRateThreshold()).isEqualTo(10);
+		assertThat(factory.getCircuitBreakerRegistry().circuitBreaker("bar")).isSameAs(bar);
+	}
+
+	@Test
+	public void refreshPublishesPatternsAtOnce() {
+		Resilience4JCircuitBreakerFactory factory = new Resilience4JCircuitBreakerFactory(
+				CircuitBreakerRegistry.ofDefaults(), TimeLimiterRegistry.ofDefaults(), null);
+		Customizer<Resilience4JCircuitBreakerFactory> customizer = it -> {
+			it.configurePattern(builder -> builder
+					.circuitBreakerConfig(CircuitBreakerConfig.custom().failureRateThreshold(10).build()),
+					"payments/*");
+			// A circuit breaker created while the customizers run sees the previous
+			// settings, and gets the new ones once they are published
+			assertThat(it.create("payments/charge").run(() -> "foobar")).isEqualTo("foobar");
+			assertThat(it.getCircuitBreakerRegistry().circuitBreaker("payments/charge").getCircuitBreakerConfig()
+					.getFailureRateThreshold()).isEqualTo(50);
+		};
+		factory.refresh(Collections.singletonList(customizer));
+		assertThat(factory.getCircuitBreakerRegistry().circuitBreaker("payments/charge").getCircuitBreakerConfig()
+				.getFailureRateThreshold()).isEqualTo(10);
+	}
+
+	@Test
+	public void runWithEviction() {
+		Resilience4JCircuitBreakerFactory factory = new Resilience4JCircuitBreakerFactory(
+				CircuitBreakerRegistry.ofDefaults(), TimeLimiterRegistry.ofDefaults(), null);
+		factory.configureEviction(2, null);
+		factory.configure(builder -> builder.timeLimiterConfig(TimeLimiterConfig.ofDefaults()), "pinned");
+		factory.addCircuitBreakerCustomizer(circuitBreaker -> {
+		}, "customized");
+		List<String> evicted = new ArrayList<>();
+		factory.addEvictionListener(evicted::add);
+		assertThat(factory.create("pinned").run(() -> "foobar")).isEqualTo("foobar");
+		assertThat(factory.create("customized").run(() -> "foobar")).isEqualTo("foobar");
+		for (int i = 0; i < 5; i++) {
+			assertThat(factory.create("tenant" + i).run(() -> "foobar")).isEqualTo("foobar");
+		}
+		// Creating circuit breakers never evicts, the sweep runs in the background
+		assertThat(evicted).isEmpty();
+		factory.evictIdle();
+		assertThat(evicted).containsExactlyInAnyOrder("tenant0", "tenant1", "tenant2");
+		assertThat(factory.getCircuitBreakerRegistry().find("tenant0")).isEmpty();
+		assertThat(factory.getTimeLimiterRegistry().find("tenant0")).isEmpty();
+		assertThat(factory.getCircuitBreakerRegistry().find("tenant4")).isPresent();
+		assertThat(factory.getCircuitBreakerRegistry().find("pinned")).isPresent();
+		assertThat(factory.getCircuitBreakerRegistry().find("customized")).isPresent();
+	}
+
+	@Test
+	public void runWithIdleEviction() throws Exception {
+		Resilience4JCircuitBreakerFactory factory = new Resilience4JCircuitBreakerFactory(
+				CircuitBreakerRegistry.ofDefaults(), TimeLimiterRegistry.ofDefaults(), null);
+		factory.configureEviction(10, Duration.ofMillis(100));
+		List<String> evicted = new CopyOnWriteArrayList<>();
+		factory.addEvictionListener(evicted::add);
+		assertThat(factory.create("tenant").run(() -> "foobar")).isEqualTo("foobar");
+		// Evicted in the background without creating another circuit breaker
+		for (int i = 0; i < 100 && evicted.isEmpty(); i++) {
+			Thread.sleep(20);
+		}
+		assertThat(evicted).containsExactly("tenant");
+		assertThat(factory.getCircuitBreakerRegistry().find("tenant")).isEmpty();
+	}
+
+	@Test
+	public void runWithIdHierarchy() {
+		Resilience4JCircuitBreakerFactory factory = new Resilience4JCircuitBreakerFactory(
+				CircuitBreakerRegistry.ofDefaults(), TimeLimiterRegistry.ofDefaults(), null);
+		factory.configureIdHierarchy("/");
+		CircuitBreaker charge = factory.create("payments/charge");
+		CircuitBreaker refund = factory.create("payments/refund");
+		assertThat(charge.run(() -> "charged")).isEqualTo("charged");
+		assertThat((String) refund.run(() -> {
+			throw new RuntimeException("boom");
+		}, t -> "fallback")).isEqualTo("fallback");
+		io.github.resilience4j.circuitbreaker.CircuitBreaker payments = factory.getCircuitBreakerRegistry()
+				.circuitBreaker("payments");
+		assertThat(payments.getMetrics().getNumberOfSuccessfulCalls()).isEqualTo(1);
+		assertThat(payments.getMetrics().getNumberOfFailedCalls()).isEqualTo(1);
+		assertThat(factory.getCircuitBreakerRegistry().circuitBreaker("payments/charge").getMetrics()
+				.getNumberOfBufferedCalls()).isEqualTo(1);
+		// An open parent rejects the calls of every child
+		payments.transitionToForcedOpenState();
+		assertThat((String) charge.run(() -> "charged", t -> t.getClass().getSimpleName()))
+				.isEqualTo("CallNotPermittedException");
+	}
+
+	@Test
+	public void idHierarchyRecordsErrors() {
+		CircuitBreakerRegistry registry = CircuitBreakerRegistry.ofDefaults();
+		io.github.resilience4j.circuitbreaker.CircuitBreaker payments = registry.circuitBreaker("payments");
+		io.github.resilience4j.circuitbreaker.CircuitBreaker charge = registry.circuitBreaker("payments/charge");
+		Callable<String> callable = CircuitBreakerHierarchy.decorateCallable(charge,
+				Collections.singletonList(payments), () -> {
+					throw new AssertionError("boom");
+				});
+		assertThatThrownBy(callable::call).isInstanceOf(AssertionError.class);
+		assertThat(payments.getMetrics().getNumberOfFailedCalls()).isEqualTo(1);
+		assertThat(charge.getMetrics().getNumberOfFailedCalls()).isEqualTo(1);
+	}
+
+	@Test
+	public void runWithConfigPattern() {
+		Resilience4JCircuitBreakerFactory factory = new Resilience4JCircuitBreakerFactory(
+				CircuitBreakerRegistry.ofDefaults(), TimeLimiterRegistry.ofDefaults(), null);
+		factory.configurePattern(builder -> builder.circuitBreakerConfig(
+				CircuitBreakerConfig.custom().failureRateThreshold(10).build()), "payments/*");
+		factory.configurePattern(builder -> builder.circuitBreakerConfig(
+				CircuitBreakerConfig.custom().failureRateThreshold(20).build()), "payments/refund");
+		factory.configure(builder -> builder.circuitBreakerConfig(
+				CircuitBreakerConfig.custom().failureRateThreshold(30).build()), "payments/charge");
+		for (String id : Arrays.asList("payments/charge", "payments/refund", "payments/payout", "inventory")) {
+			assertThat(factory.create(id).run(() -> "foobar")).isEqualTo("foobar");
+		}
+		assertThat(factory.getCircuitBreakerRegistry().circuitBreaker("payments/charge").getCircuitBreakerConfig()
+				.getFailureRateThreshold()).isEqualTo(30);
+		assertThat(factory.getCircuitBreakerRegistry().circuitBreaker("payments/refund").getCircuitBreakerConfig()
+				.getFailureRateThreshold()).isEqualTo(20);
+		assertThat(factory.getCircuitBreakerRegistry().circuitBreaker("payments/payout").getCircuitBreakerConfig()
+				.getFailureRateThreshold()).isEqualTo(10);
+		assertThat(factory.getCircuitBreakerRegistry().circuitBreaker("inventory").getCircuitBreakerConfig()
+				.getFailureRateThreshold()).isEqualTo(50);
+	}
+
+	@Test
+	public void runWithStateSync() throws InterruptedException {
+		LoopbackBreakerStateSync stateSync = new LoopbackBreakerStateSync();
+		CircuitBreakerConfig config = CircuitBreakerConfig.custom().minimumNumberOfCalls(3).build();
+		Resilience4JCircuitBreakerFactory first = new Resilience4JCircuitBreakerFactory(
+				CircuitBreakerRegistry.of(config), TimeLimiterRegistry.ofDefaults(), null);
+		first.configureStateSync(stateSync);
+		Resilience4JCircuitBreakerFactory second = new Resilience4JCircuitBreakerFactory(
+				CircuitBreakerRegistry.of(config), TimeLimiterRegistry.ofDefaults(), null);
+		second.configureStateSync(stateSync);
+		Supplier<String> failing = () -> {
+			throw new RuntimeException("boom");
+		};
+		// Messages about circuit breakers an instance does not have are ignored
+		second.getCircuitBreakerRegistry().circuitBreaker("foo");
+		first.create("foo").run(failing, t -> "fallback");
+		second.create("foo").run(failing, t -> "fallback");
+		// Neither instance has seen enough calls on its own, but together they have
+		second.create("foo").run(failing, t -> "fallback");
+		// The circuit breakers are opened off the thread that recorded the error
+		io.github.resilience4j.circuitbreaker.CircuitBreaker secondFoo = second.getCircuitBreakerRegistry()
+				.circuitBreaker("foo");
+		io.github.resilience4j.circuitbreaker.CircuitBreaker firstFoo = first.getCircuitBreakerRegistry()
+				.circuitBreaker("foo");
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while ((secondFoo.getState() != io.github.resilience4j.circuitbreaker.CircuitBreaker.State.OPEN
+				|| firstFoo.getState() != io.github.resilience4j.circuitbreaker.CircuitBreaker.State.OPEN)
+				&& System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		assertThat(secondFoo.getState()).isEqualTo(io.github.resilience4j.circuitbreaker.CircuitBreaker.State.OPEN);
+		assertThat(firstFoo.getState()).isEqualTo(io.github.resilience4j.circuitbreaker.CircuitBreaker.State.OPEN);
+	}
+
+	@Test
+	public void runWithStateSyncIgnoresInvalidCounts() {
+		LoopbackBreakerStateSync stateSync = new LoopbackBreakerStateSync();
+		Resilience4JCircuitBreakerFactory factory = new Resilience4JCircuitBreakerFactory(
+				CircuitBreakerRegistry.ofDefaults(), TimeLimiterRegistry.ofDefaults(), null);
+		factory.configureStateSync(stateSync);
+		assertThat(factory.create("foo").run(() -> "foobar")).isEqualTo("foobar");
+		// More calls than the sliding window of 100 calls can hold
+		stateSync.publish(new BreakerStateMessage("other", "foo", "CLOSED", 1000, 1000));
+		stateSync.publish(new BreakerStateMessage("other", "foo", "CLOSED", -1, 0));
+		assertThat(factory.getCircuitBreakerRegistry().circuitBreaker("foo").getState())
+				.isEqualTo(io.github.resilience4j.circuitbreaker.CircuitBreaker.State.CLOSED);
+		byte[] bytes = new BreakerStateMessage("other", "foo", "CLOSED", 2, 1).toBytes();
+		assertThatThrownBy(() -> BreakerStateMessage.fromBytes(bytes, 0, bytes.length))
+				.isInstanceOf(IOException.class);
+	}
+
+	@Test
+	public void runWithSnapshots() throws IOException {
+		Path file = Files.createTempFile("circuitbreakers", ".snapshot");
+		CircuitBreakerConfig config = CircuitBreakerConfig.custom().minimumNumberOfCalls(2).build();
+		Resilience4JCircuitBreakerFactory before = new Resilience4JCircuitBreakerFactory(
+				CircuitBreakerRegistry.of(config), TimeLimiterRegistry.ofDefaults(), null);
+		BreakerSnapshotStore beforeStore = new BreakerSnapshotStore(file, Duration.ofMinutes(1),
+				Duration.ofMinutes(1));
+		before.configureSnapshots(beforeStore);
+		Supplier<String> failing = () -> {
+			throw new RuntimeException("boom");
+		};
+		before.create("foo").run(failing, t -> "fallback");
+		before.create("foo").run(failing, t -> "fallback");
+		before.create("bar").run(() -> "bar");
+		beforeStore.close();
+
+		// The application restarts
+		Resilience4JCircuitBreakerFactory after = new Resilience4JCircuitBreakerFactory(
+				CircuitBreakerRegistry.of(config), TimeLimiterRegistry.ofDefaults(), null);
+		BreakerSnapshotStore afterStore = new BreakerSnapshotStore(file, Duration.ofMinutes(1),
+				Duration.ofMinutes(1));
+		after.configureSnapshots(afterStore);
+		assertThat(after.create("foo").run(() -> "foobar", t -> "fallback")).isEqualTo("fallback");
+		assertThat(after.getCircuitBreakerRegistry().circuitBreaker("foo").getState())
+				.isEqualTo(io.github.resilience4j.circuitbreaker.CircuitBreaker.State.OPEN);
+		// Only the state is restored, no calls are recorded again
+		assertThat(after.getCircuitBreakerRegistry().circuitBreaker("foo").getMetrics().getNumberOfBufferedCalls())
+				.isEqualTo(0);
+		assertThat(after.getCircuitBreakerRegistry().circuitBreaker("bar").getMetrics().getNumberOfBufferedCalls())
+				.isEqualTo(0);
+		afterStore.close();
+		Files.delete(file);
+	}
+
+	@Test
+	public void runWithSnapshotsWaitsRemainingDuration() throws Exception {
+		Path file = Files.createTempFile("circuitbreakers", ".snapshot");
+		CircuitBreakerConfig config = CircuitBreakerConfig.custom().minimumNumberOfCalls(1)
+				.waitDurationInOpenState(Duration.ofSeconds(1)).build();
+		Resilience4JCircuitBreakerFactory before = new Resilience4JCircuitBreakerFactory(
+				CircuitBreakerRegistry.of(config), TimeLimiterRegistry.ofDefaults(), null);
+		BreakerSnapshotStore beforeStore = new BreakerSnapshotStore(file, Duration.ofMinutes(1),
+				Duration.ofMinutes(1));
+		before.configureSnapshots(beforeStore);
+		before.create("foo").run(() -> {
+			throw new RuntimeException("boom");
+		}, t -> "fallback");
+		beforeStore.close();
+		Thread.sleep(600);
+
+		// The application restarts after most of the wait duration has passed
+		Resilience4JCircuitBreakerFactory after = new Resilience4JCircuitBreakerFactory(
+				CircuitBreakerRegistry.of(config), TimeLimiterRegistry.ofDefaults(), null);
+		BreakerSnapshotStore afterStore = new BreakerSnapshotStore(file, Duration.ofMinutes(1),
+				Duration.ofMinutes(1));
+		after.configureSnapshots(afterStore);
+		after.create("foo");
+		io.github.resilience4j.circuitbreaker.CircuitBreaker foo = after.getCircuitBreakerRegistry()
+				.circuitBreaker("foo");
+		assertThat(foo.getState()).isEqualTo(io.github.resilience4j.circuitbreaker.CircuitBreaker.State.OPEN);
+		// Half open after what remained of the wait duration, not after all of it
+		for (int i = 0; i < 35 && "OPEN".equals(foo.getState().name()); i++) {
+			Thread.sleep(20);
+		}
+		assertThat(foo.getState()).isEqualTo(io.github.resilience4j.circuitbreaker.CircuitBreaker.State.HALF_OPEN);
+		afterStore.close();
+		Files.delete(file);
+	}
+
+	@Test
+	public void circuitBreakersEndpoint() {
+		Resilience4JCircuitBreakerFactory factory = new Resilience4JCircuitBreakerFactory(
+				CircuitBreakerRegistry.ofDefaults(), TimeLimiterRegistry.ofDefaults(), null);
+		factory.create("payments/charge").run(() -> "foobar");
+		factory.create("payments/refund").run(() -> "foobar");
+		factory.create("orders").run(() -> "foobar");
+		CircuitBreakersEndpoint endpoint = new CircuitBreakersEndpoint(Collections.singletonList(
+				new Resilience4JCircuitBreakersContributor("resilience4j", factory.getCircuitBreakerRegistry())));
+		assertThat(endpoint.circuitBreakers().getFactories().get("resilience4j")).containsOnlyKeys("orders",
+				"payments/charge", "payments/refund");
+		assertThat(endpoint.transition("payments/*", "FORCE_OPEN", null).get("resilience4j"))
+				.containsExactlyInAnyOrder("payments/charge", "payments/refund");
+		assertThat(endpoint.circuitBreaker("payments/charge").get("resilience4j").getState()).isEqualTo("FORCED_OPEN");
+		assertThat(endpoint.circuitBreaker("orders").get("resilience4j").getState()).isEqualTo("CLOSED");
+		assertThat(endpoint.circuitBreaker("missing")).isNull();
+		assertThat(factory.create("payments/charge").run(() -> "foobar", t -> "fallback")).isEqualTo("fallback");
+	}
+
+	@Test
+	public void configureEventsAgain() {
+		Resilience4JCircuitBreakerFactory factory = new Resilience4JCircuitBreakerFactory(
+				CircuitBreakerRegistry.ofDefaults(), TimeLimiterRegistry.ofDefaults(), null);
+		BreakerEventBuffer first = new BreakerEventBuffer(16);
+		BreakerEventBuffer.Cursor firstCursor = first.cursor();
+		factory.configureEvents(first);
+		// For example when the factory is refreshed
+		factory.configureEvents(first);
+		factory.create("foo").run(() -> "foobar");
+		factory.getCircuitBreakerRegistry().circuitBreaker("foo").transitionToOpenState();
+		assertThat(firstCursor.poll(10)).extracting(BreakerEvent::getType)
+				.containsExactly(BreakerEvent.Type.STATE_TRANSITION);
+		BreakerEventBuffer second = new BreakerEventBuffer(16);
+		BreakerEventBuffer.Cursor secondCursor = second.cursor();
+		factory.configureEvents(second);
+		factory.getCircuitBreakerRegistry().circuitBreaker("foo").transitionToClosedState();
+		assertThat(firstCursor.poll(10)).isEmpty();
+		assertThat(secondCursor.poll(10)).extracting(BreakerEvent::getType)
+				.containsExactly(BreakerEvent.Type.STATE_TRANSITION);
+	}
+
+	@Test
+	public void configureStateSyncAgain() {
+		LoopbackBreakerStateSync first = new LoopbackBreakerStateSync();
+		List<BreakerStateMessage> messages = new CopyOnWriteArrayList<>();
+		first.addListener(messages::add);
+		Resilience4JCircuitBreakerFactory factory = new Resilience4JCircuitBreakerFactory(
+				CircuitBreakerRegistry.ofDefaults(), TimeLimiterRegistry.ofDefaults(), null);
+		factory.configureStateSync(first);
+		factory.configureStateSync(first);
+		factory.create("foo").run(() -> "foobar");
+		factory.getCircuitBreakerRegistry().circuitBreaker("foo").transitionToOpenState();
+		assertThat(messages).hasSize(1);
+		factory.configureStateSync(new LoopbackBreakerStateSync());
+		factory.getCircuitBreakerRegistry().circuitBreaker("foo").transitionToClosedState();
+		assertThat(messages).hasSize(1);
+	}
+
+	@Test
+	public void runWithAsyncEventDispatch() throws Exception {
+		AsyncEventDispatcher dispatcher = new AsyncEventDispatcher(16);
+		Resilience4JCircuitBreakerFactory factory = new Resilience4JCircuitBreakerFactory(
+				CircuitBreakerRegistry.ofDefaults(), TimeLimiterRegistry.ofDefaults(), null);
+		factory.configureAsyncEventDispatch(dispatcher);
+		CompletableFuture<String> consumerThread = new CompletableFuture<>();
+		factory.addCircuitBreakerCustomizer(circuitBreaker -> circuitBreaker.getEventPublisher()
+				.onSuccess(event -> consumerThread.complete(Thread.currentThread().getName())), "foo");
+		assertThat(factory.create("foo").run(() -> "foobar")).isEqualTo("foobar");
+		assertThat(consumerThread.get(1, TimeUnit.SECONDS)).isEqualTo("circuitbreaker-event-dispatcher");
+		dispatcher.close();
+	}
+
+	@Test
+	public void interceptorHoldsCircuitOpenForRetryAfter() {
+		RestTemplate restTemplate = new RestTemplate();
+		restTemplate.getInterceptors().add(new Resilience4JClientHttpRequestInterceptor(
+				new Resilience4JCircuitBreakerFactory(CircuitBreakerRegistry.ofDefaults(),
+						TimeLimiterRegistry.ofDefaults(), null)));
+		MockRestServiceServer server = MockRestServiceServer.bindTo(restTemplate).build();
+		HttpHeaders headers = new HttpHeaders();
+		headers.set(HttpHeaders.RETRY_AFTER, "60");
+		server.expect(ExpectedCount.once(), requestTo("http://example.com/foo"))
+				.andRespond(withStatus(HttpStatus.SERVICE_UNAVAILABLE).headers(headers));
+		assertThatThrownBy(() -> restTemplate.getForObject("http://example.com/foo", String.class))
+				.isInstanceOf(HttpServerErrorException.ServiceUnavailable.class);
+		assertThatThrownBy(() -> restTemplate.getForObject("http://example.com/bar", String.class))
+				.isInstanceOf(ResourceAccessException.class).hasRootCauseInstanceOf(CallNotPermittedException.class);
+		server.verify();
+	}
+
+	@Test
+	public void interceptorHoldsCircuitOpenUntilRetryAfterDate() {
+		RestTemplate restTemplate = new RestTemplate();
+		restTemplate.getInterceptors().add(new Resilience4JClientHttpRequestInterceptor(
+				new Resilience4JCircuitBreakerFactory(CircuitBreakerRegistry.ofDefaults(),
+						TimeLimiterRegistry.ofDefaults(), null)));
+		MockRestServiceServer server = MockRestServiceServer.bindTo(restTemplate).build();
+		HttpHeaders headers = new HttpHeaders();
+		headers.set(HttpHeaders.RETRY_AFTER,
+				DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC).plusMinutes(1)));
+		server.expect(ExpectedCount.once(), requestTo("http://example.com/foo"))
+				.andRespond(withStatus(HttpStatus.TOO_MANY_REQUESTS).headers(headers));
+		server.expect(ExpectedCount.once(), requestTo("http://example.org/foo"))
+				.andRespond(withStatus(HttpStatus.OK).body("foobar"));
+		assertThatThrownBy(() -> restTemplate.getForObject("http://example.com/foo", String.class))
+				.isInstanceOf(HttpClientErrorException.TooManyRequests.class);
+		assertThatThrownBy(() -> restTemplate.getForObject("http://example.com/foo", String.class))
+				.isInstanceOf(ResourceAccessException.class).hasRootCauseInstanceOf(CallNotPermittedException.class);
+		// Another host has its own circuit breaker
+		assertThat(restTemplate.getForObject("http://example.org/foo", String.class)).isEqualTo("foobar");
+		server.verify();
+	}
+
+	@Test
+	public void interceptorCapsRetryAfter() throws Exception {
+		Resilience4JClientHttpRequestInterceptor interceptor = new Resilience4JClientHttpRequestInterceptor(
+				new Resilience4JCircuitBreakerFactory(
+						CircuitBreakerRegistry.of(CircuitBreakerConfig.custom()
+								.waitDurationInOpenState(Duration.ofMillis(50)).build()),
+						TimeLimiterRegistry.ofDefaults(), null));
+		interceptor.setMaxRetryAfter(Duration.ofMillis(100));
+		RestTemplate restTemplate = new RestTemplate();
+		restTemplate.getInterceptors().add(interceptor);
+		MockRestServiceServer server = MockRestServiceServer.bindTo(restTemplate).build();
+		HttpHeaders headers = new HttpHeaders();
+		headers.set(HttpHeaders.RETRY_AFTER, "3600");
+		server.expect(ExpectedCount.once(), requestTo("http://example.com/foo"))
+				.andRespond(withStatus(HttpStatus.SERVICE_UNAVAILABLE).headers(headers));
+		server.expect(ExpectedCount.once(), requestTo("http://example.com/foo"))
+				.andRespond(withStatus(HttpStatus.OK).body("foobar"));
+		assertThatThrownBy(() -> restTemplate.getForObject("http://example.com/foo", String.class))
+				.isInstanceOf(HttpServerErrorException.ServiceUnavailable.class);
+		assertThatThrownBy(() -> restTemplate.getForObject("http://example.com/foo", String.class))
+				.isInstanceOf(ResourceAccessException.class).hasRootCauseInstanceOf(CallNotPermittedException.class);
+		Thread.sleep(150);
+		assertThat(restTemplate.getForObject("http://example.com/foo", String.class)).isEqualTo("foobar");
+		server.verify();
+	}
+
+	@Test
+	public void interceptorClosesResponseAfterTimeout() throws Exception {
+		Resilience4JCircuitBreakerFactory factory = new Resilience4JCircuitBreakerFactory(
+				CircuitBreakerRegistry.ofDefaults(), TimeLimiterRegistry.ofDefaults(), null);
+		factory.configure(builder -> builder.timeLimiterConfig(TimeLimiterConfig.custom()
+				.timeoutDuration(Duration.ofMillis(50)).cancelRunningFuture(false).build()), "foo");
+		Resilience4JClientHttpRequestInterceptor interceptor = new Resilience4JClientHttpRequestInterceptor(factory,
+				request -> "foo");
+		CountDownLatch closed = new CountDownLatch(1);
+		MockClientHttpResponse response = new MockClientHttpResponse(new byte[0], HttpStatus.OK) {
+			@Override
+			public void close() {
+				closed.countDown();
+				super.close();
+			}
+		};
+		assertThatThrownBy(() -> interceptor.intercept(
+				new MockClientHttpRequest(HttpMethod.GET, URI.create("http://example.com/foo")), new byte[0],
+				(request, body) -> {
+					try {
+						Thread.sleep(200);
+					}
+					catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					return response;
+				})).isInstanceOf(IOException.class).hasRootCauseInstanceOf(TimeoutException.class);
+		assertThat(closed.await(1, TimeUnit.SECONDS)).isTrue();
+	}
+
+	@Test
+	public void interceptorForgetsEvictedCircuitBreakers() {
+		Resilience4JCircuitBreakerFactory factory = new Resilience4JCircuitBreakerFactory(
+				CircuitBreakerRegistry.ofDefaults(), TimeLimiterRegistry.ofDefaults(), null);
+		factory.configureEviction(1, null);
+		Resilience4JClientHttpRequestInterceptor interceptor = new Resilience4JClientHttpRequestInterceptor(factory);
+		RestTemplate restTemplate = new RestTemplate();
+		restTemplate.getInterceptors().add(interceptor);
+		MockRestServiceServer server = MockRestServiceServer.bindTo(restTemplate).build();
+		server.expect(ExpectedCount.manyTimes(), requestTo(startsWith("http://host")))
+				.andRespond(withStatus(HttpStatus.OK).body("foobar"));
+		for (int i = 0; i < 20; i++) {
+			assertThat(restTemplate.getForObject("http://host" + i + "/foo", String.class)).isEqualTo("foobar");
+		}
+		factory.evictIdle();
+		assertThat(interceptor.getIds()).hasSizeLessThan(20);
+		assertThat(interceptor.getIds()).allMatch(id -> factory.getCircuitBreakerRegistry().find(id).isPresent());
+	}
+
 }
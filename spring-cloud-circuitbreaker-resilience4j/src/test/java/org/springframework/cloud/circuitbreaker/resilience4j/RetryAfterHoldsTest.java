@@ -0,0 +1,95 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.resilience4j;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Ryan Baxter
+ */
+public class RetryAfterHoldsTest {
+
+	@Test
+	public void parseSeconds() {
+		assertThat(RetryAfterHolds.parse("120", 0)).isEqualTo(Duration.ofSeconds(120));
+		assertThat(RetryAfterHolds.parse("0", 0)).isEqualTo(Duration.ZERO);
+	}
+
+	@Test
+	public void parseHttpDate() {
+		long now = Instant.parse("2015-10-21T07:28:00Z").toEpochMilli();
+		assertThat(RetryAfterHolds.parse("Wed, 21 Oct 2015 07:30:00 GMT", now)).isEqualTo(Duration.ofMinutes(2));
+		assertThat(RetryAfterHolds.parse("Wed, 21 Oct 2015 07:27:00 GMT", now)).isEqualTo(Duration.ofMinutes(-1));
+	}
+
+	@Test
+	public void parseInvalid() {
+		assertThat(RetryAfterHolds.parse("", 0)).isNull();
+		assertThat(RetryAfterHolds.parse("-1", 0)).isNull();
+		assertThat(RetryAfterHolds.parse("soon", 0)).isNull();
+		assertThat(RetryAfterHolds.parse("99999999999999999999", 0)).isNull();
+	}
+
+	@Test
+	public void holdOpensCircuitUntilRetryAfter() {
+		CircuitBreakerRegistry registry = CircuitBreakerRegistry.ofDefaults();
+		CircuitBreaker circuitBreaker = registry.circuitBreaker("foo");
+		RetryAfterHolds holds = new RetryAfterHolds();
+		holds.hold("foo", DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC).plusMinutes(1)),
+				registry);
+		assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+		assertThat(holds.notPermitted("foo", registry)).isNotNull();
+		assertThat(holds.notPermitted("bar", registry)).isNull();
+		holds.forget("foo");
+		assertThat(holds.notPermitted("foo", registry)).isNull();
+	}
+
+	@Test
+	public void holdIgnoresPastAndInvalidRetryAfter() {
+		CircuitBreakerRegistry registry = CircuitBreakerRegistry.ofDefaults();
+		CircuitBreaker circuitBreaker = registry.circuitBreaker("foo");
+		RetryAfterHolds holds = new RetryAfterHolds();
+		holds.hold("foo", "0", registry);
+		holds.hold("foo", "Wed, 21 Oct 2015 07:28:00 GMT", registry);
+		holds.hold("foo", "soon", registry);
+		assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+		assertThat(holds.notPermitted("foo", registry)).isNull();
+	}
+
+	@Test
+	public void holdIsCappedByMaxRetryAfter() throws Exception {
+		CircuitBreakerRegistry registry = CircuitBreakerRegistry.ofDefaults();
+		registry.circuitBreaker("foo");
+		RetryAfterHolds holds = new RetryAfterHolds();
+		holds.setMaxRetryAfter(Duration.ofMillis(100));
+		holds.hold("foo", "3600", registry);
+		assertThat(holds.notPermitted("foo", registry)).isNotNull();
+		Thread.sleep(150);
+		assertThat(holds.notPermitted("foo", registry)).isNull();
+	}
+
+}
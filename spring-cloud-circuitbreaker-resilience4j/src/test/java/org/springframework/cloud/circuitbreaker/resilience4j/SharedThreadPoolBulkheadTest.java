@@ -0,0 +1,140 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.resilience4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.bulkhead.ThreadPoolBulkheadConfig;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * @author Ryan Baxter
+ */
+public class SharedThreadPoolBulkheadTest {
+
+	private final SharedBulkheadPool pool = new SharedBulkheadPool(4);
+
+	private final SharedThreadPoolBulkhead bulkhead = new SharedThreadPoolBulkhead("foo",
+			ThreadPoolBulkheadConfig.custom().coreThreadPoolSize(1).maxThreadPoolSize(1).queueCapacity(1).build(),
+			pool);
+
+	@After
+	public void close() {
+		pool.close();
+	}
+
+	@Test
+	public void rejectsCallsWhenRunningAndQueueAreFull() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		CompletableFuture<String> running = call(() -> await(release, "running"));
+		CompletableFuture<String> queued = call(() -> "queued");
+		CompletableFuture<String> rejected = call(() -> "rejected");
+		assertThatThrownBy(rejected::get).hasCauseInstanceOf(BulkheadFullException.class);
+		assertThat(bulkhead.getRejectedCount()).isEqualTo(1);
+		assertThat(bulkhead.getQueueDepth()).isEqualTo(1);
+		release.countDown();
+		assertThat(running.get(1, TimeUnit.SECONDS)).isEqualTo("running");
+		assertThat(queued.get(1, TimeUnit.SECONDS)).isEqualTo("queued");
+	}
+
+	@Test
+	public void timedOutQueuedCallDoesNotRunOrFreeItsSlotEarly() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger queuedCalls = new AtomicInteger();
+		CompletableFuture<String> running = call(() -> await(release, "running"));
+		CompletableFuture<String> queued = call(() -> "queued" + queuedCalls.incrementAndGet());
+		// What the time limiter does when the call times out
+		queued.cancel(true);
+		assertThatThrownBy(() -> call(() -> "rejected").get()).hasCauseInstanceOf(BulkheadFullException.class);
+		release.countDown();
+		assertThat(running.get(1, TimeUnit.SECONDS)).isEqualTo("running");
+		assertThat(call(() -> "next").get(1, TimeUnit.SECONDS)).isEqualTo("next");
+		assertThat(queuedCalls.get()).isEqualTo(0);
+	}
+
+	@Test
+	public void timedOutRunningCallKeepsItsSlotUntilItReturns() throws Exception {
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		CompletableFuture<String> running = call(() -> {
+			started.countDown();
+			return await(release, "running");
+		});
+		assertThat(started.await(1, TimeUnit.SECONDS)).isTrue();
+		running.cancel(true);
+		CompletableFuture<String> queued = call(() -> "queued");
+		assertThatThrownBy(() -> call(() -> "rejected").get()).hasCauseInstanceOf(BulkheadFullException.class);
+		assertThat(bulkhead.getRunningCalls()).isEqualTo(1);
+		release.countDown();
+		assertThat(queued.get(1, TimeUnit.SECONDS)).isEqualTo("queued");
+	}
+
+	@Test
+	public void limitsConcurrentCallsUnderContention() throws Exception {
+		SharedThreadPoolBulkhead contended = new SharedThreadPoolBulkhead("bar",
+				ThreadPoolBulkheadConfig.custom().coreThreadPoolSize(2).maxThreadPoolSize(2).queueCapacity(100).build(),
+				pool);
+		AtomicInteger concurrent = new AtomicInteger();
+		AtomicInteger maxConcurrent = new AtomicInteger();
+		List<CompletableFuture<Integer>> futures = new ArrayList<>();
+		for (int i = 0; i < 50; i++) {
+			int value = i;
+			futures.add(contended.<Integer>decorateSupplier(() -> {
+				maxConcurrent.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+				try {
+					Thread.sleep(1);
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				concurrent.decrementAndGet();
+				return value;
+			}).get().toCompletableFuture());
+		}
+		for (int i = 0; i < futures.size(); i++) {
+			assertThat(futures.get(i).get(5, TimeUnit.SECONDS)).isEqualTo(i);
+		}
+		assertThat(maxConcurrent.get()).isLessThanOrEqualTo(2);
+		assertThat(contended.getQueueDepth()).isEqualTo(0);
+	}
+
+	private CompletableFuture<String> call(Supplier<String> supplier) {
+		return bulkhead.decorateSupplier(supplier).get().toCompletableFuture();
+	}
+
+	private static String await(CountDownLatch latch, String result) {
+		try {
+			latch.await();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return result;
+	}
+
+}
@@ -16,12 +16,16 @@
 
 package org.springframework.cloud.circuitbreaker.springretry;
 
-import java.util.ArrayList;
-import java.util.List;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
 
-import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.SmartInitializingSingleton;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.cloud.circuitbreaker.commons.BreakerEventBuffer;
+import org.springframework.cloud.circuitbreaker.commons.BreakerSnapshotStore;
+import org.springframework.cloud.circuitbreaker.commons.RetryBudget;
 import org.springframework.cloud.client.circuitbreaker.CircuitBreakerFactory;
 import org.springframework.cloud.client.circuitbreaker.Customizer;
 import org.springframework.context.annotation.Bean;
@@ -36,15 +40,43 @@ import org.springframework.retry.support.RetryTemplate;
 @ConditionalOnClass(RetryTemplate.class)
 public class SpringRetryAutoConfiguration {
 
-	@Autowired(required = false)
-	private List<Customizer<SpringRetryCircuitBreakerFactory>> customizers = new ArrayList<>();
-
 	@Bean
 	@ConditionalOnMissingBean(CircuitBreakerFactory.class)
-	public CircuitBreakerFactory springRetryCircuitBreakerFactory() {
+	public SpringRetryCircuitBreakerFactory springRetryCircuitBreakerFactory(
+			ObjectProvider<Customizer<SpringRetryCircuitBreakerFactory>> customizers,
+			ObjectProvider<BreakerSnapshotStore> snapshotStore, ObjectProvider<BreakerEventBuffer> eventBuffer) {
 		SpringRetryCircuitBreakerFactory factory = new SpringRetryCircuitBreakerFactory();
-		customizers.forEach(customizer -> customizer.customize(factory));
+		customizers.orderedStream().forEach(customizer -> customizer.customize(factory));
+		snapshotStore.ifAvailable(factory::configureSnapshots);
+		eventBuffer.ifAvailable(factory::configureEvents);
 		return factory;
 	}
 
+	@Configuration(proxyBeanMethods = false)
+	@ConditionalOnClass(name = { "io.micrometer.core.instrument.MeterRegistry" })
+	public static class MicrometerSpringRetryCustomizerConfiguration {
+
+		@Bean
+		public SmartInitializingSingleton springRetryMeterBinder(ObjectProvider<MeterRegistry> meterRegistries,
+				ObjectProvider<SpringRetryCircuitBreakerFactory> factory) {
+			return () -> meterRegistries.ifAvailable(meterRegistry -> factory.ifAvailable(it -> {
+				it.getRetryBudgets().forEach((id, retryBudget) -> bindRetryBudget(meterRegistry, id, retryBudget));
+				it.addRetryBudgetListener((id, retryBudget) -> bindRetryBudget(meterRegistry, id, retryBudget));
+			}));
+		}
+
+		private static void bindRetryBudget(MeterRegistry meterRegistry, String id, RetryBudget retryBudget) {
+			FunctionCounter.builder("spring.cloud.circuitbreaker.retry.budget.requests", retryBudget,
+					RetryBudget::getTotalRequests).description("The number of requests made").tag("name", id)
+					.register(meterRegistry);
+			FunctionCounter.builder("spring.cloud.circuitbreaker.retry.budget.retries", retryBudget,
+					RetryBudget::getTotalRetries).description("The number of retries allowed by the budget")
+					.tag("name", id).register(meterRegistry);
+			FunctionCounter.builder("spring.cloud.circuitbreaker.retry.budget.rejected", retryBudget,
+					RetryBudget::getRejectedRetries).description("The number of retries rejected by the budget")
+					.tag("name", id).register(meterRegistry);
+		}
+
+	}
+
 }
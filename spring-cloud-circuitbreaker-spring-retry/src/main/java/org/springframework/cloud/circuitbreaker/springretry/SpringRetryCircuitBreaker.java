@@ -16,20 +16,52 @@
 
 package org.springframework.cloud.circuitbreaker.springretry;
 
+import java.time.Duration;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
+import org.springframework.cloud.circuitbreaker.commons.BreakerEvent;
+import org.springframework.cloud.circuitbreaker.commons.BreakerEventBuffer;
+import org.springframework.cloud.circuitbreaker.commons.DeadlineContextHolder;
+import org.springframework.cloud.circuitbreaker.commons.FallbackCache;
+import org.springframework.cloud.circuitbreaker.commons.RetryBudget;
 import org.springframework.cloud.client.circuitbreaker.CircuitBreaker;
 import org.springframework.cloud.client.circuitbreaker.Customizer;
+import org.springframework.retry.ExhaustedRetryException;
+import org.springframework.retry.RecoveryCallback;
+import org.springframework.retry.RetryContext;
+import org.springframework.retry.backoff.BackOffContext;
+import org.springframework.retry.backoff.BackOffPolicy;
+import org.springframework.retry.backoff.NoBackOffPolicy;
+import org.springframework.retry.backoff.SleepingBackOffPolicy;
+import org.springframework.retry.policy.CircuitBreakerRetryPolicy;
+import org.springframework.retry.policy.MapRetryContextCache;
+import org.springframework.retry.policy.RetryContextCache;
+import org.springframework.retry.policy.SimpleRetryPolicy;
 import org.springframework.retry.support.DefaultRetryState;
 import org.springframework.retry.support.RetryTemplate;
+import org.springframework.util.Assert;
 
 /**
  * @author Ryan Baxter
  */
 public class SpringRetryCircuitBreaker implements CircuitBreaker {
 
+	private static final int MAX_OPENING_FAILURES = 100;
+
+	private static final RuntimeException OPENING_FAILURE = new RuntimeException(
+			"Failure recorded to open the circuit", null, false, false) {
+	};
+
 	private String id;
 
 	private SpringRetryConfigBuilder.SpringRetryConfig config;
@@ -38,23 +70,343 @@ public class SpringRetryCircuitBreaker implements CircuitBreaker {
 
 	private RetryTemplate retryTemplate;
 
+	private RetryTemplate asyncRetryTemplate;
+
+	private ScheduledExecutorService scheduledExecutorService;
+
+	private Executor executor;
+
+	private RetryContextCache retryContextCache;
+
+	private BreakerEventBuffer eventBuffer;
+
 	public SpringRetryCircuitBreaker(String id, SpringRetryConfigBuilder.SpringRetryConfig config,
 			Optional<Customizer<RetryTemplate>> retryTemplateCustomizer) {
+		this(id, config, retryTemplateCustomizer, null);
+	}
+
+	public SpringRetryCircuitBreaker(String id, SpringRetryConfigBuilder.SpringRetryConfig config,
+			Optional<Customizer<RetryTemplate>> retryTemplateCustomizer,
+			ScheduledExecutorService scheduledExecutorService) {
+		this(id, config, retryTemplateCustomizer, scheduledExecutorService, scheduledExecutorService);
+	}
+
+	/**
+	 * Constructor.
+	 * @param id The id of the circuit breaker.
+	 * @param config The configuration of the circuit breaker.
+	 * @param retryTemplateCustomizer Customizes the {@link RetryTemplate} of every call.
+	 * @param scheduledExecutorService Triggers the re-attempts of asynchronous calls.
+	 * @param executor Runs the attempts of asynchronous calls.
+	 */
+	public SpringRetryCircuitBreaker(String id, SpringRetryConfigBuilder.SpringRetryConfig config,
+			Optional<Customizer<RetryTemplate>> retryTemplateCustomizer,
+			ScheduledExecutorService scheduledExecutorService, Executor executor) {
+		this(id, config, retryTemplateCustomizer, scheduledExecutorService, executor, new MapRetryContextCache(),
+				null);
+	}
+
+	SpringRetryCircuitBreaker(String id, SpringRetryConfigBuilder.SpringRetryConfig config,
+			Optional<Customizer<RetryTemplate>> retryTemplateCustomizer,
+			ScheduledExecutorService scheduledExecutorService, Executor executor,
+			RetryContextCache retryContextCache, BreakerEventBuffer eventBuffer) {
 		this.id = id;
 		this.config = config;
 		this.retryTemplateCustomizer = retryTemplateCustomizer;
+		this.scheduledExecutorService = scheduledExecutorService;
+		this.executor = executor;
+		this.retryContextCache = retryContextCache;
+		this.eventBuffer = eventBuffer;
+		// Both templates share the circuit state, the asynchronous one never sleeps
 		this.retryTemplate = new RetryTemplate();
+		this.retryTemplate.setRetryContextCache(retryContextCache);
+		this.asyncRetryTemplate = new RetryTemplate();
+		this.asyncRetryTemplate.setRetryContextCache(retryContextCache);
 	}
 
 	@Override
 	public <T> T run(Supplier<T> toRun, Function<Throwable, T> fallback) {
+		return run(id, toRun, fallback);
+	}
+
+	/**
+	 * Runs {@code toRun} through the circuit breaker. When a fallback cache is configured
+	 * the result is cached under {@code cacheKey} and served again while the circuit is
+	 * open. If the deadline in the {@link DeadlineContextHolder} has passed the fallback
+	 * is used without calling {@code toRun}.
+	 * @param cacheKey The key the result is cached under.
+	 * @param toRun The code to run.
+	 * @param fallback The fallback to use when the call fails and nothing is cached.
+	 * @param <T> The type of the result.
+	 * @return The result of {@code toRun} or the fallback.
+	 */
+	public <T> T run(Object cacheKey, Supplier<T> toRun, Function<Throwable, T> fallback) {
+		if (DeadlineContextHolder.isExpired(DeadlineContextHolder.getDeadline())) {
+			return fallback.apply(DeadlineContextHolder.deadlineExceeded(id));
+		}
 
 		retryTemplate.setBackOffPolicy(config.getBackOffPolicy());
 		retryTemplate.setRetryPolicy(config.getRetryPolicy());
 
 		retryTemplateCustomizer.ifPresent(customizer -> customizer.customize(retryTemplate));
-		return retryTemplate.execute(context -> toRun.get(), context -> fallback.apply(context.getLastThrowable()),
-				new DefaultRetryState(id, config.isForceRefreshState(), config.getStateClassifier()));
+		if (config.getRetryBudget() != null) {
+			config.getRetryBudget().recordRequest();
+		}
+		return execute(retryTemplate, cacheKey, toRun, context -> recover(context, cacheKey, fallback));
+	}
+
+	/**
+	 * Runs {@code toRun} through the circuit breaker without blocking the calling thread.
+	 * Attempts run on the executor of the circuit breaker. Failed attempts are started
+	 * again by a scheduler after the delay given by the configured {@link BackOffPolicy},
+	 * so no thread is blocked while backing off, until an attempt succeeds, the circuit
+	 * opens, the maximum number of attempts is reached or the retry budget is exhausted.
+	 * No attempt is started after the deadline in the {@link DeadlineContextHolder} of the
+	 * calling thread.
+	 * @param toRun The code to run.
+	 * @param fallback The fallback to use when the circuit opens.
+	 * @param <T> The type of the result.
+	 * @return A {@link CompletableFuture} completed with the result of {@code toRun} or
+	 * the fallback.
+	 */
+	public <T> CompletableFuture<T> runAsync(Supplier<T> toRun, Function<Throwable, T> fallback) {
+		return runAsync(id, toRun, fallback);
+	}
+
+	/**
+	 * Runs {@code toRun} through the circuit breaker without blocking the calling thread.
+	 * @param cacheKey The key the result is cached under when a fallback cache is
+	 * configured.
+	 * @param toRun The code to run.
+	 * @param fallback The fallback to use when the circuit opens.
+	 * @param <T> The type of the result.
+	 * @return A {@link CompletableFuture} completed with the result of {@code toRun} or
+	 * the fallback.
+	 * @see #runAsync(Supplier, Function)
+	 */
+	public <T> CompletableFuture<T> runAsync(Object cacheKey, Supplier<T> toRun, Function<Throwable, T> fallback) {
+		Assert.state(scheduledExecutorService != null, "A ScheduledExecutorService is required to run asynchronously");
+		Assert.state(executor != null, "An Executor is required to run asynchronously");
+		Long deadline = DeadlineContextHolder.getDeadline();
+		if (DeadlineContextHolder.isExpired(deadline)) {
+			return CompletableFuture.completedFuture(fallback.apply(DeadlineContextHolder.deadlineExceeded(id)));
+		}
+
+		asyncRetryTemplate.setBackOffPolicy(new NoBackOffPolicy());
+		asyncRetryTemplate.setRetryPolicy(config.getRetryPolicy());
+
+		retryTemplateCustomizer.ifPresent(customizer -> customizer.customize(asyncRetryTemplate));
+		if (config.getRetryBudget() != null) {
+			config.getRetryBudget().recordRequest();
+		}
+		AtomicLong backOffPeriod = new AtomicLong();
+		BackOffPolicy backOffPolicy = config.getBackOffPolicy();
+		if (backOffPolicy instanceof SleepingBackOffPolicy) {
+			// Record the period instead of sleeping so the next attempt can be scheduled
+			backOffPolicy = ((SleepingBackOffPolicy<?>) backOffPolicy).withSleeper(backOffPeriod::set);
+		}
+		else {
+			backOffPolicy = new NoBackOffPolicy();
+		}
+		int maxAttempts = config.getMaxAttempts() > 0 ? config.getMaxAttempts()
+				: SimpleRetryPolicy.DEFAULT_MAX_ATTEMPTS;
+		AsyncAttempt<T> attempt = new AsyncAttempt<>(cacheKey, toRun, fallback, backOffPolicy, backOffPeriod,
+				maxAttempts, deadline);
+		attempt.submit();
+		return attempt.result;
+	}
+
+	private <T> T execute(RetryTemplate template, Object cacheKey, Supplier<T> toRun, RecoveryCallback<T> recovery) {
+		FallbackCache fallbackCache = config.getFallbackCache();
+		boolean wasOpen = eventBuffer != null && isCircuitOpen(retryContextCache.get(id));
+		AtomicBoolean called = new AtomicBoolean();
+		try {
+			return template.execute(context -> {
+				called.set(true);
+				T result = call(toRun);
+				if (fallbackCache != null) {
+					fallbackCache.put(cacheKey, result);
+				}
+				return result;
+			}, context -> {
+				// A call that failed and opened the circuit was permitted
+				if (eventBuffer != null && !called.get() && isCircuitOpen(context)) {
+					eventBuffer.publish(BreakerEvent.callNotPermitted(id));
+				}
+				return recovery.recover(context);
+			}, new DefaultRetryState(id, config.isForceRefreshState(), config.getStateClassifier()));
+		}
+		finally {
+			publishTransition(wasOpen);
+		}
+	}
+
+	/**
+	 * Calls {@code toRun}, publishing a slow call event if it takes longer than the slow
+	 * call duration threshold.
+	 */
+	private <T> T call(Supplier<T> toRun) {
+		Duration threshold = config.getSlowCallDurationThreshold();
+		if (eventBuffer == null || threshold == null) {
+			return toRun.get();
+		}
+		long start = System.nanoTime();
+		try {
+			return toRun.get();
+		}
+		finally {
+			long elapsed = System.nanoTime() - start;
+			if (elapsed > threshold.toNanos()) {
+				eventBuffer.publish(BreakerEvent.slowCall(id, TimeUnit.NANOSECONDS.toMillis(elapsed)));
+			}
+		}
+	}
+
+	private void publishTransition(boolean wasOpen) {
+		if (eventBuffer == null) {
+			return;
+		}
+		boolean open = isCircuitOpen(retryContextCache.get(id));
+		if (open != wasOpen) {
+			eventBuffer.publish(
+					BreakerEvent.stateTransition(id, wasOpen ? "OPEN" : "CLOSED", open ? "OPEN" : "CLOSED"));
+		}
+	}
+
+	private <T> T recover(RetryContext context, Object cacheKey, Function<Throwable, T> fallback) {
+		FallbackCache fallbackCache = config.getFallbackCache();
+		if (fallbackCache != null && isCircuitOpen(context)) {
+			Optional<T> cached = fallbackCache.get(cacheKey);
+			if (cached.isPresent()) {
+				return cached.get();
+			}
+		}
+		return fallback.apply(context.getLastThrowable());
+	}
+
+	/**
+	 * Records failures until the circuit opens, for example to restore a circuit that was
+	 * open before the application restarted.
+	 */
+	void openCircuit() {
+		RetryTemplate template = new RetryTemplate();
+		template.setRetryContextCache(retryContextCache);
+		template.setRetryPolicy(config.getRetryPolicy());
+		DefaultRetryState state = new DefaultRetryState(id, config.isForceRefreshState(),
+				config.getStateClassifier());
+		boolean wasOpen = isCircuitOpen(retryContextCache.get(id));
+		for (int i = 0; i < MAX_OPENING_FAILURES && !isCircuitOpen(retryContextCache.get(id)); i++) {
+			try {
+				template.execute(context -> {
+					throw OPENING_FAILURE;
+				}, context -> null, state);
+			}
+			catch (RuntimeException e) {
+				// The state classifier may rethrow the failure instead of recovering
+			}
+		}
+		publishTransition(wasOpen);
+	}
+
+	static boolean isCircuitOpen(RetryContext context) {
+		return context != null && Boolean.TRUE.equals(context.getAttribute(CircuitBreakerRetryPolicy.CIRCUIT_OPEN));
+	}
+
+	/**
+	 * One asynchronous call. Every attempt runs on the executor, the scheduler only
+	 * submits the next attempt once the backoff period has passed.
+	 */
+	private final class AsyncAttempt<T> implements Runnable {
+
+		private final CompletableFuture<T> result = new CompletableFuture<>();
+
+		private final Object cacheKey;
+
+		private final Supplier<T> toRun;
+
+		private final Function<Throwable, T> fallback;
+
+		private final BackOffPolicy backOffPolicy;
+
+		private final AtomicLong backOffPeriod;
+
+		private final BackOffContext backOffContext;
+
+		private final int maxAttempts;
+
+		private final Long deadline;
+
+		// Only updated by the attempts, which never run concurrently
+		private int attempts;
+
+		private AsyncAttempt(Object cacheKey, Supplier<T> toRun, Function<Throwable, T> fallback,
+				BackOffPolicy backOffPolicy, AtomicLong backOffPeriod, int maxAttempts, Long deadline) {
+			this.cacheKey = cacheKey;
+			this.toRun = toRun;
+			this.fallback = fallback;
+			this.backOffPolicy = backOffPolicy;
+			this.backOffPeriod = backOffPeriod;
+			this.backOffContext = backOffPolicy.start(null);
+			this.maxAttempts = maxAttempts;
+			this.deadline = deadline;
+		}
+
+		private void submit() {
+			try {
+				executor.execute(this);
+			}
+			catch (RejectedExecutionException e) {
+				result.completeExceptionally(e);
+			}
+		}
+
+		@Override
+		public void run() {
+			if (result.isDone()) {
+				return;
+			}
+			try {
+				AtomicReference<Throwable> retryableFailure = new AtomicReference<>();
+				T value = execute(asyncRetryTemplate, cacheKey, toRun, context -> {
+					Throwable lastThrowable = context.getLastThrowable();
+					if (lastThrowable != null && !isCircuitOpen(context)) {
+						retryableFailure.set(lastThrowable);
+						return null;
+					}
+					return recover(context, cacheKey, fallback);
+				});
+				if (retryableFailure.get() == null) {
+					result.complete(value);
+					return;
+				}
+				// The retry policy resets the circuit when failures are further apart than
+				// its open timeout, so it cannot be relied upon to end the attempts
+				if (++attempts >= maxAttempts) {
+					result.complete(fallback.apply(retryableFailure.get()));
+					return;
+				}
+				RetryBudget retryBudget = config.getRetryBudget();
+				if (retryBudget != null && !retryBudget.tryAcquireRetry()) {
+					// Neither recorded as a failure nor backed off, the call was not made
+					result.complete(fallback
+							.apply(new ExhaustedRetryException("Retry budget exhausted for circuit breaker " + id)));
+					return;
+				}
+				backOffPeriod.set(0);
+				backOffPolicy.backOff(backOffContext);
+				if (deadline != null && DeadlineContextHolder.remaining(deadline)
+						.compareTo(Duration.ofMillis(backOffPeriod.get())) <= 0) {
+					// The next attempt would start after the deadline of the caller
+					result.complete(fallback.apply(retryableFailure.get()));
+					return;
+				}
+				scheduledExecutorService.schedule(this::submit, backOffPeriod.get(), TimeUnit.MILLISECONDS);
+			}
+			catch (Throwable t) {
+				result.completeExceptionally(t);
+			}
+		}
+
 	}
 
 }
@@ -16,14 +16,37 @@
 
 package org.springframework.cloud.circuitbreaker.springretry;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
+import org.springframework.cloud.circuitbreaker.commons.BreakerEvent;
+import org.springframework.cloud.circuitbreaker.commons.BreakerEventBuffer;
+import org.springframework.cloud.circuitbreaker.commons.BreakerEventFlux;
+import org.springframework.cloud.circuitbreaker.commons.BreakerSnapshot;
+import org.springframework.cloud.circuitbreaker.commons.BreakerSnapshotStore;
+import org.springframework.cloud.circuitbreaker.commons.IdPatternMatcher;
+import org.springframework.cloud.circuitbreaker.commons.RetryBudget;
 import org.springframework.cloud.client.circuitbreaker.CircuitBreaker;
 import org.springframework.cloud.client.circuitbreaker.CircuitBreakerFactory;
 import org.springframework.cloud.client.circuitbreaker.Customizer;
+import org.springframework.retry.RetryContext;
+import org.springframework.retry.policy.MapRetryContextCache;
+import org.springframework.retry.policy.RetryContextCache;
 import org.springframework.retry.support.RetryTemplate;
 import org.springframework.util.Assert;
 
@@ -33,11 +56,41 @@ import org.springframework.util.Assert;
 public class SpringRetryCircuitBreakerFactory
 		extends CircuitBreakerFactory<SpringRetryConfigBuilder.SpringRetryConfig, SpringRetryConfigBuilder> {
 
+	private static final String OPEN = "OPEN";
+
 	private Function<String, SpringRetryConfigBuilder.SpringRetryConfig> defaultConfig = id -> new SpringRetryConfigBuilder(
 			id).build();
 
 	private Map<String, Customizer<RetryTemplate>> retryTemplateCustomizers = new HashMap<>();
 
+	private final IdPatternMatcher<Consumer<SpringRetryConfigBuilder>> patterns = new IdPatternMatcher<>();
+
+	private final Map<String, RetryBudget> retryBudgets = new ConcurrentHashMap<>();
+
+	private final List<BiConsumer<String, RetryBudget>> retryBudgetListeners = new CopyOnWriteArrayList<>();
+
+	private final Map<String, RetryContextCache> retryContextCaches = new ConcurrentHashMap<>();
+
+	private final Map<String, Long> openedAt = new ConcurrentHashMap<>();
+
+	private final Supplier<Collection<BreakerSnapshot>> snapshotSource = this::snapshots;
+
+	private BreakerSnapshotStore snapshotStore;
+
+	private BreakerEventBuffer eventBuffer;
+
+	private ScheduledExecutorService scheduledExecutorService = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "spring-retry-circuitbreaker-scheduler");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private Executor executor = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "spring-retry-circuitbreaker-async");
+		thread.setDaemon(true);
+		return thread;
+	});
+
 	@Override
 	protected SpringRetryConfigBuilder configBuilder(String id) {
 		return new SpringRetryConfigBuilder(id);
@@ -51,8 +104,78 @@ public class SpringRetryCircuitBreakerFactory
 	@Override
 	public CircuitBreaker create(String id) {
 		Assert.hasText(id, "A circuit breaker must have an id");
-		SpringRetryConfigBuilder.SpringRetryConfig config = getConfigurations().computeIfAbsent(id, defaultConfig);
-		return new SpringRetryCircuitBreaker(id, config, Optional.ofNullable(retryTemplateCustomizers.get(id)));
+		SpringRetryConfigBuilder.SpringRetryConfig config = getConfigurations().computeIfAbsent(id, this::resolveDefault);
+		RetryBudget retryBudget = config.getRetryBudget();
+		if (retryBudget != null && !retryBudgets.containsKey(id) && retryBudgets.putIfAbsent(id, retryBudget) == null) {
+			retryBudgetListeners.forEach(listener -> listener.accept(id, retryBudget));
+		}
+		RetryContextCache retryContextCache = retryContextCaches.get(id);
+		boolean restore = false;
+		if (retryContextCache == null) {
+			RetryContextCache created = new MapRetryContextCache();
+			retryContextCache = retryContextCaches.putIfAbsent(id, created);
+			if (retryContextCache == null) {
+				retryContextCache = created;
+				restore = snapshotStore != null;
+			}
+		}
+		SpringRetryCircuitBreaker circuitBreaker = new SpringRetryCircuitBreaker(id, config,
+				Optional.ofNullable(retryTemplateCustomizers.get(id)), scheduledExecutorService, executor,
+				retryContextCache, eventBuffer);
+		if (restore) {
+			snapshotStore.take(id).filter(snapshot -> OPEN.equals(snapshot.getState())).ifPresent(snapshot -> {
+				circuitBreaker.openCircuit();
+				openedAt.put(id, snapshot.getStateChangedAt());
+			});
+		}
+		return circuitBreaker;
+	}
+
+	/**
+	 * Saves which circuits of this factory are open to {@code snapshotStore}, and opens
+	 * them again when their circuit breakers are created after a restart. A restored
+	 * circuit stays open for the reset timeout of its retry policy. Calling this again
+	 * with another store stops saving the state to the previous one.
+	 * @param snapshotStore The store the state is saved to.
+	 */
+	public synchronized void configureSnapshots(BreakerSnapshotStore snapshotStore) {
+		if (this.snapshotStore == snapshotStore) {
+			return;
+		}
+		if (this.snapshotStore != null) {
+			this.snapshotStore.removeSource(snapshotSource);
+		}
+		this.snapshotStore = snapshotStore;
+		snapshotStore.addSource(snapshotSource);
+	}
+
+	/**
+	 * Publishes the state transitions, rejected calls and slow calls of the circuit
+	 * breakers created from now on to {@code eventBuffer}. A circuit breaker only
+	 * publishes slow calls if it has a slow call duration threshold.
+	 * @param eventBuffer The buffer the events are published to.
+	 * @see BreakerEventFlux
+	 */
+	public void configureEvents(BreakerEventBuffer eventBuffer) {
+		this.eventBuffer = eventBuffer;
+	}
+
+	public BreakerEventBuffer getEventBuffer() {
+		return this.eventBuffer;
+	}
+
+	/**
+	 * Configures the circuit breakers whose ids match any of {@code patterns}, unless
+	 * they are configured explicitly. When several patterns match an id the most
+	 * specific one is used, and circuit breakers that no pattern matches get the default
+	 * configuration.
+	 * @param consumer Configures the circuit breakers.
+	 * @param patterns The patterns of the ids, see {@link IdPatternMatcher}.
+	 */
+	public void configurePattern(Consumer<SpringRetryConfigBuilder> consumer, String... patterns) {
+		for (String pattern : patterns) {
+			this.patterns.add(pattern, consumer);
+		}
 	}
 
 	public void addRetryTemplateCustomizers(Customizer<RetryTemplate> customizer, String... ids) {
@@ -61,4 +184,96 @@ public class SpringRetryCircuitBreakerFactory
 		}
 	}
 
+	/**
+	 * Sets the scheduler used to schedule re-attempts of asynchronous calls.
+	 * @param scheduledExecutorService The scheduler to use.
+	 */
+	public void configureScheduledExecutorService(ScheduledExecutorService scheduledExecutorService) {
+		this.scheduledExecutorService = scheduledExecutorService;
+	}
+
+	/**
+	 * Sets the executor the attempts of asynchronous calls run on.
+	 * @param executor The executor to use.
+	 */
+	public void configureExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Returns the retry budgets of the circuit breakers created so far, keyed by id.
+	 * @return The retry budgets.
+	 */
+	public Map<String, RetryBudget> getRetryBudgets() {
+		return Collections.unmodifiableMap(retryBudgets);
+	}
+
+	/**
+	 * Registers a listener that is called when a circuit breaker with a retry budget is
+	 * created for the first time.
+	 * @param listener The listener, called with the id and the retry budget.
+	 */
+	public void addRetryBudgetListener(BiConsumer<String, RetryBudget> listener) {
+		this.retryBudgetListeners.add(listener);
+	}
+
+	Set<String> getIds() {
+		return Collections.unmodifiableSet(retryContextCaches.keySet());
+	}
+
+	/**
+	 * Returns the state of the circuit of a circuit breaker.
+	 * @param id The id of the circuit breaker.
+	 * @return The retry context holding the state, or {@code null} if no call was made
+	 * through the circuit breaker since it was created or reset.
+	 */
+	RetryContext getCircuit(String id) {
+		RetryContextCache retryContextCache = retryContextCaches.get(id);
+		return retryContextCache == null ? null : retryContextCache.get(id);
+	}
+
+	void openCircuit(String id) {
+		((SpringRetryCircuitBreaker) create(id)).openCircuit();
+	}
+
+	void resetCircuit(String id) {
+		RetryContextCache retryContextCache = retryContextCaches.get(id);
+		if (retryContextCache != null) {
+			RetryContext circuit = retryContextCache.get(id);
+			retryContextCache.remove(id);
+			if (eventBuffer != null && SpringRetryCircuitBreaker.isCircuitOpen(circuit)) {
+				eventBuffer.publish(BreakerEvent.stateTransition(id, OPEN, "CLOSED"));
+			}
+		}
+		openedAt.remove(id);
+	}
+
+	/**
+	 * Returns the snapshots of the open circuits. Spring Retry does not record when a
+	 * circuit opens, so the time is taken when a snapshot first sees it open.
+	 */
+	private Collection<BreakerSnapshot> snapshots() {
+		List<BreakerSnapshot> snapshots = new ArrayList<>();
+		retryContextCaches.forEach((id, retryContextCache) -> {
+			RetryContext context = retryContextCache.get(id);
+			if (!SpringRetryCircuitBreaker.isCircuitOpen(context)) {
+				openedAt.remove(id);
+				return;
+			}
+			long opened = openedAt.computeIfAbsent(id, key -> System.currentTimeMillis());
+			snapshots.add(new BreakerSnapshot(id, OPEN, context.getRetryCount(), 0, opened));
+		});
+		return snapshots;
+	}
+
+	private SpringRetryConfigBuilder.SpringRetryConfig resolveDefault(String id) {
+		Consumer<SpringRetryConfigBuilder> consumer = patterns.match(id);
+		if (consumer == null) {
+			return defaultConfig.apply(id);
+		}
+		SpringRetryConfigBuilder builder = configBuilder(id);
+		consumer.accept(builder);
+		return builder.build();
+	}
+
 }
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.springretry;
+
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.springframework.cloud.circuitbreaker.commons.CircuitBreakerDescriptor;
+import org.springframework.cloud.circuitbreaker.commons.CircuitBreakersContributor;
+import org.springframework.cloud.circuitbreaker.commons.CircuitBreakersEndpoint;
+import org.springframework.retry.RetryContext;
+
+/**
+ * Lists the circuit breakers of the Spring Retry factory under {@code springRetry} in the
+ * {@link CircuitBreakersEndpoint}, and opens or resets them.
+ *
+ * @author Ryan Baxter
+ */
+public class SpringRetryCircuitBreakersContributor implements CircuitBreakersContributor {
+
+	private static final Set<String> TRANSITIONS = EnumSet.allOf(Transition.class).stream().map(Enum::name)
+			.collect(Collectors.toSet());
+
+	private final SpringRetryCircuitBreakerFactory factory;
+
+	public SpringRetryCircuitBreakersContributor(SpringRetryCircuitBreakerFactory factory) {
+		this.factory = factory;
+	}
+
+	@Override
+	public String getName() {
+		return "springRetry";
+	}
+
+	@Override
+	public Collection<String> getIds() {
+		return factory.getIds();
+	}
+
+	@Override
+	public CircuitBreakerDescriptor describe(String id) {
+		if (!factory.getIds().contains(id)) {
+			return null;
+		}
+		RetryContext circuit = factory.getCircuit(id);
+		if (circuit == null) {
+			return new CircuitBreakerDescriptor("CLOSED", 0);
+		}
+		return new CircuitBreakerDescriptor(SpringRetryCircuitBreaker.isCircuitOpen(circuit) ? "OPEN" : "CLOSED",
+				circuit.getRetryCount());
+	}
+
+	@Override
+	public Set<String> getTransitions() {
+		return TRANSITIONS;
+	}
+
+	@Override
+	public boolean transition(String id, String transition) {
+		if (Transition.valueOf(transition) == Transition.OPEN) {
+			factory.openCircuit(id);
+		}
+		else {
+			factory.resetCircuit(id);
+		}
+		return true;
+	}
+
+	/**
+	 * The changes that can be made to the state of circuit breakers.
+	 */
+	public enum Transition {
+
+		/**
+		 * Opens the circuit for the reset timeout of the retry policy.
+		 */
+		OPEN,
+
+		/**
+		 * Closes the circuit and forgets its failures.
+		 */
+		RESET
+
+	}
+
+}
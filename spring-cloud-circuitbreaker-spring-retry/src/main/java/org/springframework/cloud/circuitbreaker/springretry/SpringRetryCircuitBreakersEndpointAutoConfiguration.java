@@ -0,0 +1,71 @@
+/*
+ * Copyright 2013-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.circuitbreaker.springretry;
+
+import org.springframework.boot.actuate.autoconfigure.endpoint.condition.ConditionalOnAvailableEndpoint;
+import org.springframework.boot.autoconfigure.AutoConfigureAfter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingClass;
+import org.springframework.cloud.circuitbreaker.commons.BreakerEventBuffer;
+import org.springframework.cloud.circuitbreaker.commons.CircuitBreakersEndpoint;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Auto-configures the {@link SpringRetryCircuitBreakersContributor}, which lists the
+ * circuit breakers of the factory in the {@link CircuitBreakersEndpoint}, and the
+ * {@link SpringRetryCircuitBreakerEventsEndpoint}.
+ *
+ * @author Ryan Baxter
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnClass(name = "org.springframework.boot.actuate.endpoint.annotation.Endpoint")
+@ConditionalOnBean(SpringRetryCircuitBreakerFactory.class)
+@AutoConfigureAfter(SpringRetryAutoConfiguration.class)
+public class SpringRetryCircuitBreakersEndpointAutoConfiguration {
+
+	@Bean
+	@ConditionalOnMissingBean
+	public SpringRetryCircuitBreakersContributor springRetryCircuitBreakersContributor(
+			SpringRetryCircuitBreakerFactory factory) {
+		return new SpringRetryCircuitBreakersContributor(factory);
+	}
+
+	/**
+	 * The factories of both implementations publish to the same event buffer, so the
+	 * events endpoint of the Resilience4J circuit breakers, whose id must be unique,
+	 * streams the events of these circuit breakers as well when it is on the classpath.
+	 */
+	@Configuration(proxyBeanMethods = false)
+	@ConditionalOnClass(name = "reactor.core.publisher.Flux")
+	@ConditionalOnMissingClass("org.springframework.cloud.circuitbreaker.resilience4j.Resilience4JCircuitBreakerEventsEndpoint")
+	@ConditionalOnBean(BreakerEventBuffer.class)
+	@ConditionalOnAvailableEndpoint(endpoint = SpringRetryCircuitBreakerEventsEndpoint.class)
+	public static class SpringRetryCircuitBreakerEventsEndpointConfiguration {
+
+		@Bean
+		@ConditionalOnMissingBean
+		public SpringRetryCircuitBreakerEventsEndpoint springRetryCircuitBreakerEventsEndpoint(
+				BreakerEventBuffer eventBuffer) {
+			return new SpringRetryCircuitBreakerEventsEndpoint(eventBuffer);
+		}
+
+	}
+
+}
@@ -16,13 +16,19 @@
 
 package org.springframework.cloud.circuitbreaker.springretry;
 
+import java.time.Duration;
+
 import org.springframework.classify.Classifier;
+import org.springframework.cloud.circuitbreaker.commons.BreakerEventBuffer;
+import org.springframework.cloud.circuitbreaker.commons.FallbackCache;
+import org.springframework.cloud.circuitbreaker.commons.RetryBudget;
 import org.springframework.cloud.client.circuitbreaker.ConfigBuilder;
 import org.springframework.retry.RetryContext;
 import org.springframework.retry.RetryPolicy;
 import org.springframework.retry.backoff.BackOffPolicy;
 import org.springframework.retry.backoff.NoBackOffPolicy;
 import org.springframework.retry.policy.CircuitBreakerRetryPolicy;
+import org.springframework.retry.policy.SimpleRetryPolicy;
 import org.springframework.retry.support.DefaultRetryState;
 
 /**
@@ -47,6 +53,20 @@ public class SpringRetryConfigBuilder implements ConfigBuilder<SpringRetryConfig
 		}
 	};
 
+	private int fallbackCacheSize;
+
+	private Duration fallbackCacheTimeToLive;
+
+	private double retryBudgetRatio = -1;
+
+	private Duration retryBudgetWindow;
+
+	private int retryBudgetMinRetriesPerSecond;
+
+	private Duration slowCallDurationThreshold;
+
+	private int maxAttempts;
+
 	/**
 	 * Constructor.
 	 * @param id The id of the circuit breaker.
@@ -73,6 +93,22 @@ public class SpringRetryConfigBuilder implements ConfigBuilder<SpringRetryConfig
 	 */
 	public SpringRetryConfigBuilder retryPolicy(RetryPolicy retryPolicy) {
 		this.retryPolicy = new CircuitBreakerRetryPolicy(retryPolicy);
+		if (retryPolicy instanceof SimpleRetryPolicy) {
+			this.maxAttempts = ((SimpleRetryPolicy) retryPolicy).getMaxAttempts();
+		}
+		return this;
+	}
+
+	/**
+	 * Sets the maximum number of attempts of a call made with
+	 * {@link SpringRetryCircuitBreaker#runAsync}. Defaults to the maximum attempts of a
+	 * {@link SimpleRetryPolicy} passed to {@link #retryPolicy}, or to
+	 * {@link SimpleRetryPolicy#DEFAULT_MAX_ATTEMPTS} for other retry policies.
+	 * @param maxAttempts The maximum number of attempts.
+	 * @return The builder.
+	 */
+	public SpringRetryConfigBuilder maxAttempts(int maxAttempts) {
+		this.maxAttempts = maxAttempts;
 		return this;
 	}
 
@@ -96,6 +132,53 @@ public class SpringRetryConfigBuilder implements ConfigBuilder<SpringRetryConfig
 		return this;
 	}
 
+	/**
+	 * Caches the last successful result per request key so that fallbacks caused by an
+	 * open circuit can be served from the cache.
+	 * @param maxSize The maximum number of cached results.
+	 * @param timeToLive How long a cached result may be served.
+	 * @return The builder.
+	 */
+	public SpringRetryConfigBuilder fallbackCache(int maxSize, Duration timeToLive) {
+		this.fallbackCacheSize = maxSize;
+		this.fallbackCacheTimeToLive = timeToLive;
+		return this;
+	}
+
+	/**
+	 * Limits retries to a ratio of the requests made over a rolling window. Every call of
+	 * {@code run} or {@code runAsync} is a request, and every attempt of
+	 * {@link SpringRetryCircuitBreaker#runAsync} after its first one is a retry. Retries
+	 * over the budget are not made and go straight to the fallback.
+	 * <p>
+	 * The budget only limits {@code runAsync}. The synchronous {@code run} is stateful:
+	 * it makes a single attempt per call and its retries are the next calls of the
+	 * caller, which the circuit breaker cannot tell apart from new requests, so the
+	 * budget does not apply to them.
+	 * @param ratio The maximum ratio of retries to requests, for example {@code 0.1}.
+	 * @param window The rolling window requests and retries are counted over.
+	 * @param minRetriesPerSecond The number of retries allowed per second regardless of
+	 * the number of requests.
+	 * @return The builder.
+	 */
+	public SpringRetryConfigBuilder retryBudget(double ratio, Duration window, int minRetriesPerSecond) {
+		this.retryBudgetRatio = ratio;
+		this.retryBudgetWindow = window;
+		this.retryBudgetMinRetriesPerSecond = minRetriesPerSecond;
+		return this;
+	}
+
+	/**
+	 * Sets the duration above which calls are reported as slow calls to the
+	 * {@link BreakerEventBuffer} of the factory. Slow calls are not reported by default.
+	 * @param slowCallDurationThreshold The duration.
+	 * @return The builder.
+	 */
+	public SpringRetryConfigBuilder slowCallDurationThreshold(Duration slowCallDurationThreshold) {
+		this.slowCallDurationThreshold = slowCallDurationThreshold;
+		return this;
+	}
+
 	@Override
 	public SpringRetryConfig build() {
 		SpringRetryConfig config = new SpringRetryConfig();
@@ -104,6 +187,15 @@ public class SpringRetryConfigBuilder implements ConfigBuilder<SpringRetryConfig
 		config.setRetryPolicy(retryPolicy);
 		config.setForceRefreshState(forceRefreshState);
 		config.setStateClassifier(stateClassifier);
+		if (fallbackCacheSize > 0) {
+			config.setFallbackCache(new FallbackCache(fallbackCacheSize, fallbackCacheTimeToLive));
+		}
+		if (retryBudgetRatio >= 0) {
+			config.setRetryBudget(
+					new RetryBudget(retryBudgetRatio, retryBudgetWindow, retryBudgetMinRetriesPerSecond));
+		}
+		config.setSlowCallDurationThreshold(slowCallDurationThreshold);
+		config.setMaxAttempts(maxAttempts);
 		return config;
 	}
 
@@ -122,6 +214,14 @@ public class SpringRetryConfigBuilder implements ConfigBuilder<SpringRetryConfig
 
 		private Classifier<Throwable, Boolean> stateClassifier;
 
+		private FallbackCache fallbackCache;
+
+		private RetryBudget retryBudget;
+
+		private Duration slowCallDurationThreshold;
+
+		private int maxAttempts;
+
 		boolean isForceRefreshState() {
 			return forceRefreshState;
 		}
@@ -170,6 +270,38 @@ public class SpringRetryConfigBuilder implements ConfigBuilder<SpringRetryConfig
 			this.backOffPolicy = backOffPolicy;
 		}
 
+		FallbackCache getFallbackCache() {
+			return fallbackCache;
+		}
+
+		void setFallbackCache(FallbackCache fallbackCache) {
+			this.fallbackCache = fallbackCache;
+		}
+
+		RetryBudget getRetryBudget() {
+			return retryBudget;
+		}
+
+		void setRetryBudget(RetryBudget retryBudget) {
+			this.retryBudget = retryBudget;
+		}
+
+		Duration getSlowCallDurationThreshold() {
+			return slowCallDurationThreshold;
+		}
+
+		void setSlowCallDurationThreshold(Duration slowCallDurationThreshold) {
+			this.slowCallDurationThreshold = slowCallDurationThreshold;
+		}
+
+		int getMaxAttempts() {
+			return maxAttempts;
+		}
+
+		void setMaxAttempts(int maxAttempts) {
+			this.maxAttempts = maxAttempts;
+		}
+
 	}
 
 }
@@ -16,11 +16,29 @@
 
 package org.springframework.cloud.circuitbreaker.springretry;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 
 import org.junit.Test;
 
+import org.springframework.cloud.circuitbreaker.commons.BreakerEvent;
+import org.springframework.cloud.circuitbreaker.commons.BreakerEventBuffer;
+import org.springframework.cloud.circuitbreaker.commons.BreakerSnapshotStore;
+import org.springframework.cloud.circuitbreaker.commons.CircuitBreakersEndpoint;
+import org.springframework.cloud.circuitbreaker.commons.DeadlineContextHolder;
 import org.springframework.cloud.client.circuitbreaker.CircuitBreaker;
+import org.springframework.retry.backoff.FixedBackOffPolicy;
+import org.springframework.retry.policy.CircuitBreakerRetryPolicy;
+import org.springframework.retry.policy.SimpleRetryPolicy;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.spy;
@@ -58,4 +76,194 @@ public class SpringRetryCircuitBreakerTest {
 		verify(spyedSup, times(3)).get();
 	}
 
+	@Test
+	public void testFallbackCache() {
+		SpringRetryCircuitBreakerFactory factory = new SpringRetryCircuitBreakerFactory();
+		factory.configure(builder -> builder.fallbackCache(10, Duration.ofMinutes(1)), "foo");
+		CircuitBreaker cb = factory.create("foo");
+		assertThat(cb.run(() -> "foo")).isEqualTo("foo");
+		Supplier<String> failing = () -> {
+			throw new RuntimeException("boom");
+		};
+		assertThat((String) cb.run(failing, t -> "fallback")).isEqualTo("fallback");
+		cb.run(failing, t -> "fallback");
+		cb.run(failing, t -> "fallback");
+		// The circuit is open now so the cached result is served instead of the fallback
+		assertThat((String) cb.run(failing, t -> "fallback")).isEqualTo("foo");
+	}
+
+	@Test
+	public void testRetryBudget() throws Exception {
+		SpringRetryCircuitBreakerFactory factory = new SpringRetryCircuitBreakerFactory();
+		factory.configure(builder -> builder.retryBudget(0, Duration.ofSeconds(10), 0), "foo");
+		Supplier<String> spyedSup = spy(new Supplier<String>() {
+			@Override
+			public String get() {
+				throw new RuntimeException("boom");
+			}
+		});
+		SpringRetryCircuitBreaker cb = (SpringRetryCircuitBreaker) factory.create("foo");
+		assertThat(cb.run(spyedSup, t -> "fallback")).isEqualTo("fallback");
+		// The first attempt of a call is not a retry, even after a failure, but its second
+		// attempt is, which the budget does not allow
+		assertThat(cb.runAsync(spyedSup, t -> t.getClass().getSimpleName()).get(1, TimeUnit.SECONDS))
+				.isEqualTo("ExhaustedRetryException");
+		verify(spyedSup, times(2)).get();
+		assertThat(factory.getRetryBudgets().get("foo").getRejectedRetries()).isEqualTo(1);
+		// The rejected retry was not recorded as a failure, so the circuit is still closed
+		assertThat(SpringRetryCircuitBreaker.isCircuitOpen(factory.getCircuit("foo"))).isFalse();
+	}
+
+	@Test
+	public void testRunAsync() throws Exception {
+		SpringRetryCircuitBreaker cb = (SpringRetryCircuitBreaker) new SpringRetryCircuitBreakerFactory().create("foo");
+		assertThat(cb.runAsync(() -> "foo", t -> "fallback").get(1, TimeUnit.SECONDS)).isEqualTo("foo");
+	}
+
+	@Test
+	public void testRunAsyncReattemptsUntilCircuitOpens() throws Exception {
+		SpringRetryCircuitBreakerFactory factory = new SpringRetryCircuitBreakerFactory();
+		Supplier<String> spyedSup = spy(new Supplier<String>() {
+			@Override
+			public String get() {
+				throw new RuntimeException("boom");
+			}
+		});
+		SpringRetryCircuitBreaker cb = (SpringRetryCircuitBreaker) factory.create("foo");
+		assertThat(cb.runAsync(spyedSup, t -> "fallback").get(1, TimeUnit.SECONDS)).isEqualTo("fallback");
+		// Failed attempts are re-attempted on the scheduler until the SimpleRetryPolicy
+		// trips the circuit after the 3rd attempt
+		verify(spyedSup, times(3)).get();
+	}
+
+	@Test
+	public void testRunAsyncStopsAtMaxAttemptsWhenCircuitResets() throws Exception {
+		FixedBackOffPolicy backOffPolicy = new FixedBackOffPolicy();
+		backOffPolicy.setBackOffPeriod(50);
+		SpringRetryConfigBuilder.SpringRetryConfig config = new SpringRetryConfigBuilder("foo")
+				.backOffPolicy(backOffPolicy).build();
+		// Failures further apart than the open timeout reset the circuit before it opens
+		CircuitBreakerRetryPolicy retryPolicy = new CircuitBreakerRetryPolicy(new SimpleRetryPolicy(3));
+		retryPolicy.setOpenTimeout(10);
+		config.setRetryPolicy(retryPolicy);
+		ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		Supplier<String> spyedSup = spy(new Supplier<String>() {
+			@Override
+			public String get() {
+				throw new RuntimeException("boom");
+			}
+		});
+		try {
+			SpringRetryCircuitBreaker cb = new SpringRetryCircuitBreaker("foo", config, Optional.empty(), scheduler,
+					executor);
+			assertThat(cb.runAsync(spyedSup, t -> "fallback").get(5, TimeUnit.SECONDS)).isEqualTo("fallback");
+			verify(spyedSup, times(3)).get();
+		}
+		finally {
+			scheduler.shutdownNow();
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testExpiredDeadline() {
+		CircuitBreaker cb = new SpringRetryCircuitBreakerFactory().create("foo");
+		Supplier<String> spyedSup = spy(new Supplier<String>() {
+			@Override
+			public String get() {
+				return "foo";
+			}
+		});
+		assertThat(DeadlineContextHolder.call(Duration.ZERO, () -> cb.run(spyedSup, t -> t.getClass().getSimpleName())))
+				.isEqualTo("TimeoutException");
+		verify(spyedSup, times(0)).get();
+	}
+
+	@Test
+	public void testConfigPattern() throws Exception {
+		SpringRetryCircuitBreakerFactory factory = new SpringRetryCircuitBreakerFactory();
+		factory.configurePattern(builder -> builder.retryPolicy(new SimpleRetryPolicy(2)), "payments/*");
+		Supplier<String> spyedSup = spy(new Supplier<String>() {
+			@Override
+			public String get() {
+				throw new RuntimeException("boom");
+			}
+		});
+		SpringRetryCircuitBreaker cb = (SpringRetryCircuitBreaker) factory.create("payments/charge");
+		assertThat(cb.runAsync(spyedSup, t -> "fallback").get(1, TimeUnit.SECONDS)).isEqualTo("fallback");
+		verify(spyedSup, times(2)).get();
+	}
+
+	@Test
+	public void testSnapshots() throws Exception {
+		Path file = Files.createTempFile("circuitbreakers", ".snapshot");
+		SpringRetryCircuitBreakerFactory before = new SpringRetryCircuitBreakerFactory();
+		BreakerSnapshotStore beforeStore = new BreakerSnapshotStore(file, Duration.ofMinutes(1),
+				Duration.ofMinutes(1));
+		before.configureSnapshots(beforeStore);
+		Supplier<String> failing = () -> {
+			throw new RuntimeException("boom");
+		};
+		// The circuit opens when the call after the third failure is made
+		for (int i = 0; i < 4; i++) {
+			before.create("foo").run(failing, t -> "fallback");
+		}
+		beforeStore.close();
+
+		// The application restarts
+		SpringRetryCircuitBreakerFactory after = new SpringRetryCircuitBreakerFactory();
+		BreakerSnapshotStore afterStore = new BreakerSnapshotStore(file, Duration.ofMinutes(1),
+				Duration.ofMinutes(1));
+		after.configureSnapshots(afterStore);
+		Supplier<String> spyedSup = spy(new Supplier<String>() {
+			@Override
+			public String get() {
+				return "foobar";
+			}
+		});
+		assertThat(after.create("foo").run(spyedSup, t -> "fallback")).isEqualTo("fallback");
+		verify(spyedSup, times(0)).get();
+		afterStore.close();
+		Files.delete(file);
+	}
+
+	@Test
+	public void testCircuitBreakersEndpoint() {
+		SpringRetryCircuitBreakerFactory factory = new SpringRetryCircuitBreakerFactory();
+		factory.create("payments/charge").run(() -> "foobar");
+		factory.create("orders").run(() -> "foobar");
+		CircuitBreakersEndpoint endpoint = new CircuitBreakersEndpoint(
+				Collections.singletonList(new SpringRetryCircuitBreakersContributor(factory)));
+		assertThat(endpoint.circuitBreakers().getFactories().get("springRetry")).containsOnlyKeys("orders",
+				"payments/charge");
+		assertThat(endpoint.transition("payments/*", "OPEN", null).get("springRetry"))
+				.containsExactly("payments/charge");
+		assertThat(endpoint.circuitBreaker("payments/charge").get("springRetry").getState()).isEqualTo("OPEN");
+		assertThat(endpoint.circuitBreaker("orders").get("springRetry").getState()).isEqualTo("CLOSED");
+		assertThat(factory.create("payments/charge").run(() -> "foobar", t -> "fallback")).isEqualTo("fallback");
+		endpoint.transition("*", "RESET", null);
+		assertThat(factory.create("payments/charge").run(() -> "foobar", t -> "fallback")).isEqualTo("foobar");
+	}
+
+	@Test
+	public void testEvents() {
+		SpringRetryCircuitBreakerFactory factory = new SpringRetryCircuitBreakerFactory();
+		factory.configureEvents(new BreakerEventBuffer(16));
+		BreakerEventBuffer.Cursor cursor = factory.getEventBuffer().cursor();
+		Supplier<String> failing = () -> {
+			throw new RuntimeException("boom");
+		};
+		for (int i = 0; i < 5; i++) {
+			factory.create("foo").run(failing, t -> "fallback");
+		}
+		List<BreakerEvent> events = cursor.poll(16);
+		assertThat(events).extracting(BreakerEvent::getType).containsExactlyInAnyOrder(
+				BreakerEvent.Type.STATE_TRANSITION, BreakerEvent.Type.CALL_NOT_PERMITTED,
+				BreakerEvent.Type.CALL_NOT_PERMITTED);
+		assertThat(events).filteredOn(event -> event.getType() == BreakerEvent.Type.STATE_TRANSITION)
+				.extracting(BreakerEvent::getToState).containsExactly("OPEN");
+		assertThat(cursor.getDroppedEvents()).isEqualTo(0);
+	}
+
 }